@@ -836,6 +836,8 @@ public class JMapViewer extends JPanel implements TileLoaderListener {
     }
 
     public void tileLoadingFinished(Tile tile, boolean success) {
+        // account the memory of the loaded image
+        getTileCache().addTile(tile);
         repaint();
     }
 
@@ -2,18 +2,28 @@ package org.openstreetmap.gui.jmapviewer;
 
 //License: GPL. Copyright 2008 by Jan Peter Stotz
 
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import org.openstreetmap.gui.jmapviewer.interfaces.CachedTileJob;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
 
 /**
- * A generic class that processes a list of {@link Runnable} one-by-one using
- * one or more {@link Thread}-instances. The number of instances varies between
- * 1 and {@link #WORKER_THREAD_MAX_COUNT} (default: 8). If an instance is idle
- * more than {@link #WORKER_THREAD_TIMEOUT} seconds (default: 30), the instance
- * ends itself.
+ * Schedules the {@link TileJob}s of all tile loaders.
+ *
+ * Jobs are processed in two stages with separate limits of worker threads: jobs which
+ * read tiles from a local cache ({@link CachedTileJob}) and jobs which download tiles.
+ * If the viewport of a tile source is known (see {@link #setViewport}), the jobs for its
+ * tiles are run in the order of their distance to the centre of the viewport, tiles of
+ * the zoom level of the viewport first, and jobs for tiles which left the viewport are
+ * dropped. Other jobs are run in the order they were added, or in reverse order in LIFO mode.
+ *
+ * Worker threads are started when needed, up to the limit of their stage. If a worker
+ * thread is idle more than {@link #WORKER_THREAD_TIMEOUT} seconds (default: 30), it ends itself.
  *
  * @author Jan Peter Stotz
  */
@@ -29,57 +39,169 @@ public class JobDispatcher {
     }
 
     private JobDispatcher() {
-        addWorkerThread().firstThread = true;
     }
 
-    protected BlockingDeque<TileJob> jobQueue = new LinkedBlockingDeque<TileJob>();
-
+    /**
+     * Maximal number of threads downloading tiles
+     */
     public static int WORKER_THREAD_MAX_COUNT = 8;
 
+    /**
+     * Maximal number of threads reading tiles from the local cache
+     */
+    public static int DISK_WORKER_THREAD_MAX_COUNT = 2;
+
     /**
      * Specifies the time span in seconds that a worker thread waits for new
      * jobs to perform. If the time span has elapsed the worker thread
-     * terminates itself. Only the first worker thread works differently, it
-     * ignores the timeout and will never terminate itself.
+     * terminates itself.
      */
     public static int WORKER_THREAD_TIMEOUT = 30;
 
     /**
-     * Type of queue, FIFO if <code>false</code>, LIFO if <code>true</code>
+     * The visible tiles of a tile source, at one zoom level
      */
-    protected boolean modeLIFO = false;
+    private static class Viewport {
+        final int zoom;
+        final int x0, y0, x1, y1;
+        final double centerX, centerY;
 
-    /**
-     * Total number of worker threads currently idle or active
-     */
-    protected int workerThreadCount = 0;
+        Viewport(int zoom, int x0, int y0, int x1, int y1) {
+            this.zoom = zoom;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.centerX = (x0 + x1 + 1) / 2.0;
+            this.centerY = (y0 + y1 + 1) / 2.0;
+        }
+
+        /**
+         * Replies true if the tile overlaps the viewport or its border of one tile
+         */
+        boolean isVisible(Tile tile) {
+            double scale = Math.scalb(1.0, zoom - tile.getZoom());
+            return (tile.getXtile() + 1) * scale > x0 - 1 && tile.getXtile() * scale < x1 + 2
+                    && (tile.getYtile() + 1) * scale > y0 - 1 && tile.getYtile() * scale < y1 + 2;
+        }
+
+        /**
+         * Replies the priority of a tile, smaller values are loaded first
+         */
+        double getPriority(Tile tile) {
+            double scale = Math.scalb(1.0, zoom - tile.getZoom());
+            double dx = (tile.getXtile() + 0.5) * scale - centerX;
+            double dy = (tile.getYtile() + 0.5) * scale - centerY;
+            return Math.abs(zoom - tile.getZoom()) * 1000.0 + Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    private static class QueuedJob {
+        final TileJob job;
+        final long sequence;
+        /** true if the tile has been marked as loading before the job was added */
+        final boolean ownsLoading;
+
+        QueuedJob(TileJob job, long sequence, boolean ownsLoading) {
+            this.job = job;
+            this.sequence = sequence;
+            this.ownsLoading = ownsLoading;
+        }
+    }
 
     /**
-     * Number of worker threads currently idle
+     * The queue and the worker threads of one stage. Guarded by the dispatcher.
      */
-    protected int workerThreadIdleCount = 0;
+    private class Stage {
+        final String name;
+        final List<QueuedJob> queue = new ArrayList<QueuedJob>();
+        int workerThreadCount = 0;
+        int workerThreadIdleCount = 0;
+        int workerThreadId = 0;
+        long completedJobs = 0;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void add(QueuedJob job, int maxWorkers) {
+            queue.add(job);
+            if (workerThreadIdleCount == 0 && workerThreadCount < maxWorkers) {
+                workerThreadCount++;
+                new JobThread(this, name + " " + (++workerThreadId)).start();
+            } else {
+                JobDispatcher.this.notifyAll();
+            }
+        }
+
+        /**
+         * Removes and replies the job to be run next, null if the queue is empty
+         */
+        QueuedJob poll() {
+            int best = -1;
+            boolean bestHasViewport = false;
+            double bestPriority = 0;
+            for (int i = 0; i < queue.size(); i++) {
+                QueuedJob job = queue.get(i);
+                Tile tile = job.job.getTile();
+                Viewport viewport = tile == null ? null : viewports.get(tile.getSource());
+                double priority = viewport != null ? viewport.getPriority(tile) : modeLIFO ? -job.sequence : job.sequence;
+                // jobs of tiles in a viewport first
+                if (best < 0 || (viewport != null && !bestHasViewport)
+                        || (viewport != null) == bestHasViewport && priority < bestPriority) {
+                    best = i;
+                    bestHasViewport = viewport != null;
+                    bestPriority = priority;
+                }
+            }
+            return best < 0 ? null : queue.remove(best);
+        }
+
+        boolean contains(Tile tile) {
+            for (QueuedJob job : queue) {
+                if (job.job.getTile() == tile)
+                    return true;
+            }
+            return false;
+        }
+    }
 
     /**
-     * Just an id for identifying an worker thread instance
+     * Type of queue for tiles without viewport, FIFO if <code>false</code>, LIFO if <code>true</code>
      */
-    protected int workerThreadId = 0;
+    protected boolean modeLIFO = false;
+
+    private final Stage diskStage = new Stage("OSMDiskJobThread");
+    private final Stage networkStage = new Stage("OSMJobThread");
+    private final Map<TileSource, Viewport> viewports = new HashMap<TileSource, Viewport>();
+    private long sequence = 0;
+    private long droppedJobs = 0;
+    private long downloadsAfterCacheRead = 0;
 
     /**
      * Removes all jobs from the queue that are currently not being processed.
      */
-    public void cancelOutstandingJobs() {
-        jobQueue.clear();
+    public synchronized void cancelOutstandingJobs() {
+        drop(diskStage, null, null, null);
+        drop(networkStage, null, null, null);
     }
 
     /**
-     * Function to set the maximum number of workers for tile loading.
+     * Function to set the maximum number of workers for tile downloading.
      */
     static public void setMaxWorkers(int workers) {
         WORKER_THREAD_MAX_COUNT = workers;
     }
 
     /**
-     * Function to set the LIFO/FIFO mode for tile loading job.
+     * Function to set the maximum number of workers reading tiles from the local cache.
+     */
+    static public void setMaxDiskWorkers(int workers) {
+        DISK_WORKER_THREAD_MAX_COUNT = workers;
+    }
+
+    /**
+     * Function to set the LIFO/FIFO mode for tile loading jobs without viewport.
      *
      * @param lifo <code>true</code> for LIFO mode, <code>false</code> for FIFO mode
      */
@@ -88,87 +210,178 @@ public class JobDispatcher {
     }
 
     /**
-     * Adds a job to the queue.
-     * Jobs for tiles already contained in the are ignored (using a <code>null</code> tile
-     * prevents skipping).
+     * Sets the visible tiles of a tile source. The jobs for tiles of the source are run in the
+     * order of their distance to the centre of the viewport, and the queued jobs for tiles which
+     * are not visible any more are dropped.
      *
-     * @param job the the job to be added
+     * @param source the tile source
+     * @param zoom the zoom level of the visible tiles
+     * @param x0 the smallest x of the visible tiles
+     * @param y0 the smallest y of the visible tiles
+     * @param x1 the largest x of the visible tiles
+     * @param y1 the largest y of the visible tiles
+     * @return the tiles whose jobs were dropped
      */
-    public void addJob(TileJob job) {
-        try {
-            if(job.getTile() != null) {
-                for(TileJob oldJob : jobQueue) {
-                    if(oldJob.getTile() == job.getTile()) {
-                        return;
+    public synchronized List<Tile> setViewport(TileSource source, int zoom, int x0, int y0, int x1, int y1) {
+        Viewport viewport = new Viewport(zoom, x0, y0, x1, y1);
+        viewports.put(source, viewport);
+        List<Tile> dropped = new ArrayList<Tile>();
+        drop(diskStage, viewport, source, dropped);
+        drop(networkStage, viewport, source, dropped);
+        return dropped;
+    }
+
+    /**
+     * Forgets the viewport of a tile source, e.g. when its layer is removed
+     *
+     * @param source the tile source
+     */
+    public synchronized void removeViewport(TileSource source) {
+        viewports.remove(source);
+    }
+
+    /**
+     * Drops the queued jobs of a stage, either all or the jobs for tiles of the source
+     * which are not visible in the viewport
+     */
+    private void drop(Stage stage, Viewport viewport, TileSource source, List<Tile> dropped) {
+        for (Iterator<QueuedJob> it = stage.queue.iterator(); it.hasNext();) {
+            QueuedJob job = it.next();
+            Tile tile = job.job.getTile();
+            if (viewport == null || (tile != null && tile.getSource() == source && !viewport.isVisible(tile))) {
+                it.remove();
+                droppedJobs++;
+                if (tile != null) {
+                    if (job.ownsLoading) {
+                        tile.loading = false;
+                    }
+                    if (dropped != null) {
+                        dropped.add(tile);
                     }
                 }
             }
-            jobQueue.put(job);
-            if (workerThreadIdleCount == 0 && workerThreadCount < WORKER_THREAD_MAX_COUNT)
-                addWorkerThread();
-        } catch (InterruptedException e) {
         }
     }
 
-    protected JobThread addWorkerThread() {
-        JobThread jobThread = new JobThread(++workerThreadId);
-        synchronized (this) {
-            workerThreadCount++;
+    /**
+     * Adds a job to the queue.
+     * Jobs for tiles already contained in the are ignored (using a <code>null</code> tile
+     * prevents skipping).
+     *
+     * @param job the the job to be added
+     */
+    public synchronized void addJob(TileJob job) {
+        Stage stage = job instanceof CachedTileJob ? diskStage : networkStage;
+        if (job.getTile() != null && stage.contains(job.getTile()))
+            return;
+        stage.add(new QueuedJob(job, ++sequence, false), stage == diskStage ? DISK_WORKER_THREAD_MAX_COUNT : WORKER_THREAD_MAX_COUNT);
+    }
+
+    /**
+     * Adds the download of a tile which could not be read from the local cache. The tile is
+     * marked as loading by the caller, if the job is dropped the mark is removed.
+     *
+     * @param job the download job
+     */
+    public synchronized void addDownloadJob(TileJob job) {
+        downloadsAfterCacheRead++;
+        if (job.getTile() != null && networkStage.contains(job.getTile())) {
+            job.getTile().loading = false;
+            return;
         }
-        jobThread.start();
-        return jobThread;
+        networkStage.add(new QueuedJob(job, ++sequence, true), WORKER_THREAD_MAX_COUNT);
+    }
+
+    /**
+     * Replies the number of queued jobs reading tiles from the local cache
+     */
+    public synchronized int getDiskQueueDepth() {
+        return diskStage.queue.size();
+    }
+
+    /**
+     * Replies the number of queued jobs downloading tiles
+     */
+    public synchronized int getNetworkQueueDepth() {
+        return networkStage.queue.size();
+    }
+
+    /**
+     * Replies the number of jobs dropped because their tiles left the viewport or were cancelled
+     */
+    public synchronized long getDroppedJobCount() {
+        return droppedJobs;
+    }
+
+    /**
+     * Replies the share of the finished cache reads which didn't have to download the tile
+     *
+     * @return the hit rate between 0 and 1, or 0 if no tile has been read from the cache yet
+     */
+    public synchronized double getCacheHitRate() {
+        if (diskStage.completedJobs == 0)
+            return 0;
+        return Math.max(0, 1.0 - (double) downloadsAfterCacheRead / diskStage.completedJobs);
     }
 
     public class JobThread extends Thread {
 
-        Runnable job;
-        boolean firstThread = false;
+        private final Stage stage;
 
-        public JobThread(int threadId) {
-            super("OSMJobThread " + threadId);
+        private JobThread(Stage stage, String name) {
+            super(name);
+            this.stage = stage;
             setDaemon(true);
-            job = null;
         }
 
         @Override
         public void run() {
-            executeJobs();
-            synchronized (instance) {
-                workerThreadCount--;
+            try {
+                executeJobs();
+            } finally {
+                synchronized (JobDispatcher.this) {
+                    stage.workerThreadCount--;
+                }
+            }
+        }
+
+        private QueuedJob takeJob() throws InterruptedException {
+            synchronized (JobDispatcher.this) {
+                QueuedJob job = stage.poll();
+                if (job == null) {
+                    stage.workerThreadIdleCount++;
+                    try {
+                        long timeout = System.currentTimeMillis() + WORKER_THREAD_TIMEOUT * 1000L;
+                        long wait;
+                        while ((job = stage.poll()) == null && (wait = timeout - System.currentTimeMillis()) > 0) {
+                            JobDispatcher.this.wait(wait);
+                        }
+                    } finally {
+                        stage.workerThreadIdleCount--;
+                    }
+                }
+                return job;
             }
         }
 
         protected void executeJobs() {
             while (!isInterrupted()) {
+                QueuedJob job;
                 try {
-                    synchronized (instance) {
-                        workerThreadIdleCount++;
-                    }
-                    if(modeLIFO) {
-                        if (firstThread)
-                            job = jobQueue.takeLast();
-                        else
-                            job = jobQueue.pollLast(WORKER_THREAD_TIMEOUT, TimeUnit.SECONDS);
-                    } else {
-                        if (firstThread)
-                            job = jobQueue.take();
-                        else
-                            job = jobQueue.poll(WORKER_THREAD_TIMEOUT, TimeUnit.SECONDS);
-                    }
-                } catch (InterruptedException e1) {
+                    job = takeJob();
+                } catch (InterruptedException e) {
                     return;
-                } finally {
-                    synchronized (instance) {
-                        workerThreadIdleCount--;
-                    }
                 }
                 if (job == null)
                     return;
                 try {
-                    job.run();
-                    job = null;
+                    job.job.run();
                 } catch (Exception e) {
                     e.printStackTrace();
+                } finally {
+                    synchronized (JobDispatcher.this) {
+                        stage.completedJobs++;
+                    }
                 }
             }
         }
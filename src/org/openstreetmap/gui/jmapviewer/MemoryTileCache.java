@@ -2,7 +2,12 @@ package org.openstreetmap.gui.jmapviewer;
 
 //License: GPL. Copyright 2008 by Jan Peter Stotz
 
-import java.util.Hashtable;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
@@ -10,8 +15,14 @@ import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
 
 /**
  * {@link TileCache} implementation that stores all {@link Tile} objects in
- * memory up to a certain limit ({@link #getCacheSize()}). If the limit is
- * exceeded the least recently used {@link Tile} objects will be deleted.
+ * memory up to a certain number of tiles ({@link #getCacheSize()}) and a certain
+ * size of their images ({@link #getMaxMemory()}). If a limit is exceeded the least
+ * recently used {@link Tile} objects will be deleted.
+ *
+ * The size of a tile is the size of the raster of its image, which is accounted when
+ * the tile is added. Tiles are added again when their image has been loaded.
+ * The memory used by the tiles of a tile source can be limited further by a quota
+ * ({@link #setSourceQuota(TileSource, long)}).
  *
  * @author Jan Peter Stotz
  */
@@ -19,60 +30,113 @@ public class MemoryTileCache implements TileCache {
 
     protected static final Logger log = Logger.getLogger(MemoryTileCache.class.getName());
 
+    /**
+     * Default maximum memory used by the tile images, in bytes
+     */
+    public static final long DEFAULT_MAX_MEMORY = 64 * 1024 * 1024;
+
     /**
      * Default cache size
      */
     protected int cacheSize = 200;
 
-    protected Hashtable<String, CacheEntry> hashtable;
+    protected long maxMemory = DEFAULT_MAX_MEMORY;
 
     /**
-     * List of all tiles in their last recently used order
+     * All tiles in their last recently used order, guarded by the cache
      */
-    protected CacheLinkedListElement lruTiles;
+    protected final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true);
+
+    /**
+     * The memory used by the tiles of each tile source, by source name
+     */
+    protected final Map<String, SourceUsage> sourceUsage = new HashMap<String, SourceUsage>();
+
+    protected long memoryUsage;
+    protected long hitCount;
+    protected long missCount;
+    protected long evictionCount;
 
     public MemoryTileCache() {
-        hashtable = new Hashtable<String, CacheEntry>(cacheSize);
-        lruTiles = new CacheLinkedListElement();
     }
 
-    public void addTile(Tile tile) {
-        CacheEntry entry = createCacheEntry(tile);
-        hashtable.put(tile.getKey(), entry);
-        lruTiles.addFirst(entry);
-        if (hashtable.size() > cacheSize)
-            removeOldEntries();
+    public synchronized void addTile(Tile tile) {
+        CacheEntry entry = entries.get(tile.getKey());
+        if (entry == null || entry.tile != tile) {
+            if (entry != null) {
+                account(entry, -entry.size);
+            }
+            entry = createCacheEntry(tile);
+            entries.put(tile.getKey(), entry);
+        }
+        // the same tile is added again when its image has been loaded
+        account(entry, getImageSize(tile.getImage()) - entry.size);
+        removeOldEntries(entry.source);
     }
 
-    public Tile getTile(TileSource source, int x, int y, int z) {
-        CacheEntry entry = hashtable.get(Tile.getTileKey(source, x, y, z));
-        if (entry == null)
+    public synchronized Tile getTile(TileSource source, int x, int y, int z) {
+        CacheEntry entry = entries.get(Tile.getTileKey(source, x, y, z));
+        if (entry == null) {
+            missCount++;
             return null;
-        // We don't care about placeholder tiles and hourglass image tiles, the
-        // important tiles are the loaded ones
-        if (entry.tile.isLoaded())
-            lruTiles.moveElementToFirstPos(entry);
+        }
+        hitCount++;
         return entry.tile;
     }
 
     /**
-     * Removes the least recently used tiles
+     * Replies the memory used by the raster of an image, in bytes. The shared images
+     * of loading and failed tiles are not accounted.
+     */
+    protected static long getImageSize(BufferedImage image) {
+        if (image == null || image == Tile.LOADING_IMAGE || image == Tile.ERROR_IMAGE)
+            return 0;
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private void account(CacheEntry entry, long size) {
+        entry.size += size;
+        memoryUsage += size;
+        getSourceUsage(entry.source).memoryUsage += size;
+    }
+
+    private SourceUsage getSourceUsage(String source) {
+        SourceUsage usage = sourceUsage.get(source);
+        if (usage == null) {
+            usage = new SourceUsage();
+            sourceUsage.put(source, usage);
+        }
+        return usage;
+    }
+
+    /**
+     * Removes the least recently used tiles of the source until they are within its quota,
+     * then the least recently used tiles of all sources until the cache is within its limits
+     *
+     * @param source the name of the tile source
      */
-    protected void removeOldEntries() {
-        synchronized (lruTiles) {
-            try {
-                while (lruTiles.getElementCount() > cacheSize) {
-                    removeEntry(lruTiles.getLastElement());
+    protected void removeOldEntries(String source) {
+        SourceUsage usage = sourceUsage.get(source);
+        if (usage != null && usage.memoryUsage > usage.quota) {
+            Iterator<CacheEntry> it = entries.values().iterator();
+            while (it.hasNext() && usage.memoryUsage > usage.quota) {
+                CacheEntry entry = it.next();
+                if (entry.source.equals(source)) {
+                    removeEntry(it, entry);
                 }
-            } catch (Exception e) {
-                log.warning(e.getMessage());
             }
         }
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext() && (entries.size() > cacheSize || memoryUsage > maxMemory)) {
+            removeEntry(it, it.next());
+        }
     }
 
-    protected void removeEntry(CacheEntry entry) {
-        hashtable.remove(entry.tile.getKey());
-        lruTiles.removeEntry(entry);
+    private void removeEntry(Iterator<CacheEntry> it, CacheEntry entry) {
+        it.remove();
+        account(entry, -entry.size);
+        evictionCount++;
     }
 
     protected CacheEntry createCacheEntry(Tile tile) {
@@ -82,15 +146,31 @@ public class MemoryTileCache implements TileCache {
     /**
      * Clears the cache deleting all tiles from memory
      */
-    public void clear() {
-        synchronized (lruTiles) {
-            hashtable.clear();
-            lruTiles.clear();
+    public synchronized void clear() {
+        entries.clear();
+        memoryUsage = 0;
+        for (SourceUsage usage : sourceUsage.values()) {
+            usage.memoryUsage = 0;
+        }
+    }
+
+    /**
+     * Deletes the tiles of a tile source from memory
+     *
+     * @param source the tile source
+     */
+    public synchronized void clear(TileSource source) {
+        for (Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext();) {
+            CacheEntry entry = it.next();
+            if (entry.source.equals(source.getName())) {
+                it.remove();
+                account(entry, -entry.size);
+            }
         }
     }
 
-    public int getTileCount() {
-        return hashtable.size();
+    public synchronized int getTileCount() {
+        return entries.size();
     }
 
     public int getCacheSize() {
@@ -103,121 +183,93 @@ public class MemoryTileCache implements TileCache {
      * @param cacheSize
      *            new maximum number of tiles
      */
-    public void setCacheSize(int cacheSize) {
+    public synchronized void setCacheSize(int cacheSize) {
         this.cacheSize = cacheSize;
-        if (hashtable.size() > cacheSize)
-            removeOldEntries();
+        removeOldEntries(null);
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
     }
 
     /**
-     * Linked list element holding the {@link Tile} and links to the
-     * {@link #next} and {@link #prev} item in the list.
+     * Changes the maximum memory used by the images of the tiles.
+     *
+     * @param maxMemory maximum memory in bytes
      */
-    protected static class CacheEntry {
-        Tile tile;
-
-        CacheEntry next;
-        CacheEntry prev;
-
-        protected CacheEntry(Tile tile) {
-            this.tile = tile;
-        }
-
-        public Tile getTile() {
-            return tile;
-        }
-
-        public CacheEntry getNext() {
-            return next;
-        }
-
-        public CacheEntry getPrev() {
-            return prev;
-        }
-
+    public synchronized void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        removeOldEntries(null);
     }
 
     /**
-     * Special implementation of a double linked list for {@link CacheEntry}
-     * elements. It supports element removal in constant time - in difference to
-     * the Java implementation which needs O(n).
+     * Limits the memory used by the images of the tiles of a tile source.
      *
-     * @author Jan Peter Stotz
+     * @param source the tile source
+     * @param quota maximum memory in bytes
      */
-    protected static class CacheLinkedListElement {
-        protected CacheEntry firstElement = null;
-        protected CacheEntry lastElement;
-        protected int elementCount;
+    public synchronized void setSourceQuota(TileSource source, long quota) {
+        getSourceUsage(source.getName()).quota = quota;
+        removeOldEntries(source.getName());
+    }
 
-        public CacheLinkedListElement() {
-            clear();
-        }
+    /**
+     * @return the memory used by the images of all tiles, in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
 
-        public synchronized void clear() {
-            elementCount = 0;
-            firstElement = null;
-            lastElement = null;
-        }
+    /**
+     * @param source the tile source
+     * @return the memory used by the images of the tiles of the source, in bytes
+     */
+    public synchronized long getMemoryUsage(TileSource source) {
+        SourceUsage usage = sourceUsage.get(source.getName());
+        return usage == null ? 0 : usage.memoryUsage;
+    }
 
-        /**
-         * Add the element to the head of the list.
-         *
-         * @param element new element to be added
-         */
-        public synchronized void addFirst(CacheEntry element) {
-            if (elementCount == 0) {
-                firstElement = element;
-                lastElement = element;
-                element.prev = null;
-                element.next = null;
-            } else {
-                element.next = firstElement;
-                firstElement.prev = element;
-                element.prev = null;
-                firstElement = element;
-            }
-            elementCount++;
-        }
+    /**
+     * @return the number of times a requested tile was in the cache
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
 
-        /**
-         * Removes the specified element from the list.
-         *
-         * @param element element to be removed
-         */
-        public synchronized void removeEntry(CacheEntry element) {
-            if (element.next != null) {
-                element.next.prev = element.prev;
-            }
-            if (element.prev != null) {
-                element.prev.next = element.next;
-            }
-            if (element == firstElement)
-                firstElement = element.next;
-            if (element == lastElement)
-                lastElement = element.prev;
-            element.next = null;
-            element.prev = null;
-            elementCount--;
-        }
+    /**
+     * @return the number of times a requested tile was not in the cache
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
 
-        public synchronized void moveElementToFirstPos(CacheEntry entry) {
-            if (firstElement == entry)
-                return;
-            removeEntry(entry);
-            addFirst(entry);
-        }
+    /**
+     * @return the number of tiles removed to stay within the limits
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
 
-        public int getElementCount() {
-            return elementCount;
-        }
+    /**
+     * A cached {@link Tile} and the memory accounted for it
+     */
+    protected static class CacheEntry {
+        Tile tile;
+        final String source;
+        long size;
 
-        public CacheEntry getLastElement() {
-            return lastElement;
+        protected CacheEntry(Tile tile) {
+            this.tile = tile;
+            this.source = tile.getSource().getName();
         }
 
-        public CacheEntry getFirstElement() {
-            return firstElement;
+        public Tile getTile() {
+            return tile;
         }
+    }
 
+    protected static class SourceUsage {
+        long memoryUsage;
+        long quota = Long.MAX_VALUE;
     }
 }
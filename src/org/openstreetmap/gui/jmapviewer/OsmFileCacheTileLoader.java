@@ -26,16 +26,20 @@ import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.openstreetmap.gui.jmapviewer.interfaces.CachedTileJob;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoader;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileSource.TileUpdate;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileStore;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileStore.StoredTile;
 
 /**
  * A {@link TileLoader} implementation that loads tiles from OSM via HTTP and
  * saves all loaded files in a directory located in the temporary directory.
  * If a tile is present in this file cache it will not be loaded from OSM again.
+ * Instead of a file per tile, the tiles can be saved in a {@link TileStore}.
  *
  * @author Jan Peter Stotz
  * @author Stefan Zeller
@@ -59,6 +63,8 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
     protected long maxCacheFileAge = FILE_AGE_ONE_WEEK;
     protected long recheckAfter = FILE_AGE_ONE_DAY;
 
+    protected TileStore tileStore;
+
     public static File getDefaultCacheDir() throws SecurityException {
         String tempDir = null;
         String userName = System.getProperty("user.name");
@@ -113,13 +119,19 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
 
     @Override
     public TileJob createTileLoaderJob(final Tile tile) {
+        if (tileStore != null)
+            return new StoreLoadJob(tile);
         return new FileLoadJob(tile);
     }
 
+    static String getSourceDirName(TileSource source) {
+        return source.getName().replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
     protected File getSourceCacheDir(TileSource source) {
         File dir = sourceCacheDirMap.get(source);
         if (dir == null) {
-            dir = new File(cacheDirBase, source.getName().replaceAll("[\\\\/:*?\"<>|]", "_"));
+            dir = new File(cacheDirBase, getSourceDirName(source));
             if (!dir.exists()) {
                 dir.mkdirs();
             }
@@ -127,7 +139,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
         return dir;
     }
     
-    protected class FileLoadJob implements TileJob {
+    protected class FileLoadJob implements CachedTileJob {
         InputStream input = null;
 
         Tile tile;
@@ -156,26 +168,23 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
             if (loadTileFromFile()) {
                 return;
             }
-            if (fileTilePainted) {
-                TileJob job = new TileJob() {
+            // download in the network stage, the tile stays marked as loading
+            TileJob job = new TileJob() {
 
-                    public void run() {
-                        loadOrUpdateTile();
-                    }
-                    public Tile getTile() {
-                        return tile;
-                    }
-                };
-                JobDispatcher.getInstance().addJob(job);
-            } else {
-                loadOrUpdateTile();
-            }
+                public void run() {
+                    loadOrUpdateTile();
+                }
+                public Tile getTile() {
+                    return tile;
+                }
+            };
+            JobDispatcher.getInstance().addDownloadJob(job);
         }
 
         protected void loadOrUpdateTile() {
             try {
                 URLConnection urlConn = loadTileFromOsm(tile);
-                if (tileFile != null) {
+                if (hasCachedTile()) {
                     switch (tile.getSource().getTileUpdate()) {
                     case IfModifiedSince:
                         urlConn.setIfModifiedSince(fileAge);
@@ -184,7 +193,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
                         if (!isOsmTileNewer(fileAge)) {
                             log.finest("LastModified test: local version is up to date: " + tile);
                             tile.setLoaded(true);
-                            tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+                            markTileUpToDate();
                             return;
                         }
                         break;
@@ -200,8 +209,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
                         case ETag:
                             if (hasOsmTileETag(fileETag)) {
                                 tile.setLoaded(true);
-                                tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge
-                                        + recheckAfter);
+                                markTileUpToDate();
                                 return;
                             }
                         }
@@ -213,7 +221,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
                     // and the server answers with a HTTP 304 = "Not Modified"
                     log.finest("ETag test: local version is up to date: " + tile);
                     tile.setLoaded(true);
-                    tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+                    markTileUpToDate();
                     return;
                 }
 
@@ -255,6 +263,17 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
             }
         }
 
+        protected boolean hasCachedTile() {
+            return tileFile != null;
+        }
+
+        /**
+         * Marks the cached tile as checked, so that it is checked again after {@link #recheckAfter}
+         */
+        protected void markTileUpToDate() {
+            tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+        }
+
         protected boolean loadTileFromFile() {
             FileInputStream fin = null;
             try {
@@ -451,6 +470,92 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
 
     }
 
+    /**
+     * A job which loads the tile from the {@link TileStore} instead of a file
+     */
+    protected class StoreLoadJob extends FileLoadJob {
+        private boolean cached = false;
+
+        public StoreLoadJob(Tile tile) {
+            super(tile);
+        }
+
+        @Override
+        protected boolean hasCachedTile() {
+            return cached;
+        }
+
+        /**
+         * Stores the time the tile was found up to date, so that it is checked again after
+         * {@link #recheckAfter}
+         */
+        @Override
+        protected void markTileUpToDate() {
+            long now = System.currentTimeMillis();
+            try {
+                tileStore.touch(tile, now, now + recheckAfter);
+            } catch (IOException e) {
+                System.err.println("Failed to update stored tile: " + e.getLocalizedMessage());
+            }
+        }
+
+        @Override
+        protected boolean loadTileFromFile() {
+            try {
+                StoredTile stored = tileStore.get(tile);
+                if (stored == null)
+                    return false;
+                for (Entry<String, String> entry : stored.getMetadata().entrySet()) {
+                    tile.putValue(entry.getKey(), entry.getValue());
+                }
+                if ("no-tile".equals(tile.getValue("tile-info"))) {
+                    tile.setError("No tile at this zoom level");
+                } else {
+                    if (stored.getData().length == 0)
+                        throw new IOException("Tile empty");
+                    tile.loadImage(new ByteArrayInputStream(stored.getData()));
+                }
+                cached = true;
+                fileAge = stored.getLastModified();
+                // the maximum age of this loader applies even if the tile was stored with a later expiry
+                long now = System.currentTimeMillis();
+                boolean oldTile = now > stored.getExpires() || now - fileAge > maxCacheFileAge;
+                if (!oldTile) {
+                    tile.setLoaded(true);
+                }
+                listener.tileLoadingFinished(tile, true);
+                fileTilePainted = true;
+                return !oldTile;
+            } catch (Exception e) {
+                try {
+                    tileStore.remove(tile);
+                } catch (IOException e1) {
+                }
+                cached = false;
+                fileAge = 0;
+            }
+            return false;
+        }
+
+        @Override
+        protected void saveTileToFile(byte[] rawData) {
+            long now = System.currentTimeMillis();
+            try {
+                tileStore.put(tile, rawData, now, now + maxCacheFileAge);
+            } catch (IOException e) {
+                System.err.println("Failed to save tile content: " + e.getLocalizedMessage());
+            }
+        }
+
+        @Override
+        protected void saveTagsToFile() {
+            // the metadata is saved with the tile, except if there is no tile
+            if ("no-tile".equals(tile.getValue("tile-info"))) {
+                saveTileToFile(new byte[0]);
+            }
+        }
+    }
+
     public long getMaxFileAge() {
         return maxCacheFileAge;
     }
@@ -472,6 +577,20 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
         this.maxCacheFileAge = maxFileAge;
     }
 
+    public TileStore getTileStore() {
+        return tileStore;
+    }
+
+    /**
+     * Sets the store to save the tiles in, instead of a file per tile. Tiles
+     * saved as files before are not used anymore.
+     *
+     * @param tileStore the store, or <code>null</code> to save a file per tile
+     */
+    public void setTileStore(TileStore tileStore) {
+        this.tileStore = tileStore;
+    }
+
     public String getCacheDirBase() {
         return cacheDirBase;
     }
@@ -500,6 +619,9 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
     }
     
     public void clearCache(TileSource source, TileClearController controller) {
+        if (tileStore != null) {
+            tileStore.clear(source);
+        }
         File dir = getSourceCacheDir(source);
         if (dir != null) {
             if (controller != null) controller.initClearDir(dir);
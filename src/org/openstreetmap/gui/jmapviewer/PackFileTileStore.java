@@ -0,0 +1,505 @@
+package org.openstreetmap.gui.jmapviewer;
+
+//License: GPL.
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileStore;
+
+/**
+ * A {@link TileStore} which appends the tiles of a tile source to a few large pack files
+ * instead of writing a file (and a tags file) per tile.
+ *
+ * Each record of a pack file holds the position, the download or validation time, the expiry
+ * time, the metadata and the image data of a tile. The index of the live records is kept in
+ * memory and rebuilt by scanning the record headers when a tile source is first accessed.
+ * Expired tiles are kept, it is up to the loader to check them on the server again.
+ * Replaced and removed records are only marked as deleted; a pack file which is less than
+ * half alive is compacted by copying its live records to the current pack file. Compaction
+ * runs in the thread which made the pack file sparse, after the store has been unlocked.
+ */
+public class PackFileTileStore implements TileStore {
+
+    private static final Logger log = Logger.getLogger(PackFileTileStore.class.getName());
+
+    public static final long DEFAULT_MAX_PACK_SIZE = 64 * 1024 * 1024;
+
+    private static final String PACK_FILE_EXT = ".pack";
+    private static final Pattern PACK_FILE_PATTERN = Pattern.compile("tiles-(\\d+)\\.pack");
+
+    private static final Charset TAGS_CHARSET = Charset.forName("UTF-8");
+
+    private static final byte STATUS_DELETED = 0;
+    private static final byte STATUS_LIVE = 1;
+
+    /** status (1), zoom (1), x (4), y (4), time (8), expires (8), metadata length (4), data length (4) */
+    private static final int HEADER_SIZE = 34;
+    private static final int TIME_OFFSET = 10;
+
+    /** the number of records copied by compaction while the store is locked */
+    private static final int COMPACT_BATCH_SIZE = 64;
+
+    private static final Map<File, PackFileTileStore> instances = new HashMap<File, PackFileTileStore>();
+
+    /**
+     * Replies the store of a cache directory. Loaders sharing a cache directory must share the store.
+     *
+     * @param cacheDir the cache directory
+     * @return the store
+     */
+    public static synchronized PackFileTileStore getInstance(File cacheDir) {
+        File dir = cacheDir.getAbsoluteFile();
+        PackFileTileStore store = instances.get(dir);
+        if (store == null) {
+            store = new PackFileTileStore(dir);
+            instances.put(dir, store);
+        }
+        return store;
+    }
+
+    private static class Pack {
+        final int id;
+        final File file;
+        final FileChannel channel;
+        long size;
+        long liveBytes;
+        boolean compacting;
+
+        Pack(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = channel.size();
+        }
+    }
+
+    private static class Record {
+        final Pack pack;
+        final long offset;
+        final int metadataLength;
+        final int dataLength;
+        long time;
+        long expires;
+
+        Record(Pack pack, long offset, int metadataLength, int dataLength, long time, long expires) {
+            this.pack = pack;
+            this.offset = offset;
+            this.metadataLength = metadataLength;
+            this.dataLength = dataLength;
+            this.time = time;
+            this.expires = expires;
+        }
+
+        int length() {
+            return HEADER_SIZE + metadataLength + dataLength;
+        }
+    }
+
+    /**
+     * The pack files and the index of one tile source
+     */
+    private static class SourcePacks {
+        final File dir;
+        final TreeMap<Integer, Pack> packs = new TreeMap<Integer, Pack>();
+        final Map<Long, Record> index = new HashMap<Long, Record>();
+        boolean closed;
+
+        SourcePacks(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    private final File cacheDir;
+    private final Map<String, SourcePacks> sources = new HashMap<String, SourcePacks>();
+    /** the sparse pack files waiting for compaction */
+    private final Map<Pack, SourcePacks> sparsePacks = new LinkedHashMap<Pack, SourcePacks>();
+    private long maxPackSize = DEFAULT_MAX_PACK_SIZE;
+
+    protected PackFileTileStore(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Sets the size after which a new pack file is started
+     *
+     * @param maxPackSize the size in bytes
+     */
+    public synchronized void setMaxPackSize(long maxPackSize) {
+        this.maxPackSize = maxPackSize;
+    }
+
+    private static long getKey(Tile tile) {
+        return ((long) tile.getZoom() << 58) | ((long) tile.getXtile() << 29) | tile.getYtile();
+    }
+
+    public StoredTile get(Tile tile) throws IOException {
+        StoredTile stored;
+        synchronized (this) {
+            Record record = getSource(tile.getSource()).index.get(getKey(tile));
+            if (record == null) {
+                stored = null;
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(record.metadataLength + record.dataLength);
+                read(record.pack.channel, buffer, record.offset + HEADER_SIZE);
+                byte[] metadata = new byte[record.metadataLength];
+                byte[] data = new byte[record.dataLength];
+                buffer.get(metadata);
+                buffer.get(data);
+                stored = new StoredTile(data, decodeMetadata(metadata), record.time, record.expires);
+            }
+        }
+        // the first access to a tile source may have found sparse pack files
+        compactSparsePacks();
+        return stored;
+    }
+
+    public void put(Tile tile, byte[] data, long time, long expires) throws IOException {
+        synchronized (this) {
+            SourcePacks source = getSource(tile.getSource());
+            byte[] metadata = encodeMetadata(tile.getMetadata());
+            Record record = append(source, tile.getZoom(), tile.getXtile(), tile.getYtile(),
+                    time, expires, metadata, data);
+            Record old = source.index.put(getKey(tile), record);
+            if (old != null) {
+                delete(source, old);
+            }
+        }
+        compactSparsePacks();
+    }
+
+    public synchronized void touch(Tile tile, long time, long expires) throws IOException {
+        Record record = getSource(tile.getSource()).index.get(getKey(tile));
+        if (record != null) {
+            record.time = time;
+            record.expires = expires;
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.putLong(time).putLong(expires).flip();
+            write(record.pack.channel, buffer, record.offset + TIME_OFFSET);
+        }
+    }
+
+    public void remove(Tile tile) throws IOException {
+        synchronized (this) {
+            SourcePacks source = getSource(tile.getSource());
+            Record record = source.index.remove(getKey(tile));
+            if (record != null) {
+                delete(source, record);
+            }
+        }
+        compactSparsePacks();
+    }
+
+    public synchronized void clear(TileSource tileSource) {
+        SourcePacks source = sources.remove(OsmFileCacheTileLoader.getSourceDirName(tileSource));
+        if (source != null) {
+            source.closed = true;
+            for (Pack pack : source.packs.values()) {
+                sparsePacks.remove(pack);
+                close(pack);
+            }
+        }
+    }
+
+    /**
+     * Compacts all pack files of the opened tile sources which are less than half alive.
+     */
+    public void compact() throws IOException {
+        synchronized (this) {
+            for (SourcePacks source : sources.values()) {
+                for (Pack pack : source.packs.values()) {
+                    checkSparse(source, pack);
+                }
+            }
+        }
+        compactSparsePacks();
+    }
+
+    private SourcePacks getSource(TileSource tileSource) throws IOException {
+        String name = OsmFileCacheTileLoader.getSourceDirName(tileSource);
+        SourcePacks source = sources.get(name);
+        if (source == null) {
+            source = new SourcePacks(new File(cacheDir, name));
+            open(source);
+            sources.put(name, source);
+        }
+        return source;
+    }
+
+    /**
+     * Opens the pack files of a tile source and rebuilds its index
+     */
+    private void open(SourcePacks source) throws IOException {
+        File[] files = source.dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = PACK_FILE_PATTERN.matcher(file.getName());
+                if (m.matches()) {
+                    int id = Integer.parseInt(m.group(1));
+                    source.packs.put(id, new Pack(id, file));
+                }
+            }
+        }
+        for (Pack pack : source.packs.values()) {
+            scan(source, pack);
+        }
+        for (Pack pack : source.packs.values()) {
+            checkSparse(source, pack);
+        }
+    }
+
+    /**
+     * Adds the live records of a pack file to the index
+     */
+    private void scan(SourcePacks source, Pack pack) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long offset = 0;
+        while (offset < pack.size) {
+            header.clear();
+            if (offset + HEADER_SIZE > pack.size || !read(pack.channel, header, offset)) {
+                break;
+            }
+            byte status = header.get();
+            int zoom = header.get();
+            int x = header.getInt();
+            int y = header.getInt();
+            long time = header.getLong();
+            long expires = header.getLong();
+            int metadataLength = header.getInt();
+            int dataLength = header.getInt();
+            if (metadataLength < 0 || dataLength < 0 || offset + HEADER_SIZE + metadataLength + dataLength > pack.size) {
+                break;
+            }
+            Record record = new Record(pack, offset, metadataLength, dataLength, time, expires);
+            if (status == STATUS_LIVE) {
+                pack.liveBytes += record.length();
+                Long key = ((long) zoom << 58) | ((long) x << 29) | y;
+                // a record written later replaces the earlier one if the process ended in between
+                Record old = source.index.put(key, record);
+                if (old != null) {
+                    markDeleted(old);
+                }
+            }
+            offset += record.length();
+        }
+        if (offset < pack.size) {
+            log.warning("Truncating damaged tile pack file " + pack.file + " at " + offset);
+            pack.channel.truncate(offset);
+            pack.size = offset;
+        }
+    }
+
+    private Record append(SourcePacks source, int zoom, int x, int y, long time, long expires,
+            byte[] metadata, byte[] data) throws IOException {
+        int length = HEADER_SIZE + metadata.length + data.length;
+        Pack pack = source.packs.isEmpty() ? null : source.packs.lastEntry().getValue();
+        if (pack == null || (pack.size > 0 && pack.size + length > maxPackSize)) {
+            int id = source.packs.isEmpty() ? 1 : source.packs.lastKey() + 1;
+            source.dir.mkdirs();
+            pack = new Pack(id, new File(source.dir, String.format("tiles-%05d", id) + PACK_FILE_EXT));
+            source.packs.put(id, pack);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(STATUS_LIVE).put((byte) zoom).putInt(x).putInt(y).putLong(time).putLong(expires);
+        buffer.putInt(metadata.length).putInt(data.length).put(metadata).put(data).flip();
+        Record record = new Record(pack, pack.size, metadata.length, data.length, time, expires);
+        write(pack.channel, buffer, pack.size);
+        pack.size += length;
+        pack.liveBytes += length;
+        return record;
+    }
+
+    /**
+     * Marks a record, which has already been removed from the index, as deleted and
+     * queues its pack file for compaction if necessary
+     */
+    private void delete(SourcePacks source, Record record) throws IOException {
+        markDeleted(record);
+        checkSparse(source, record.pack);
+    }
+
+    private static void markDeleted(Record record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        buffer.put(STATUS_DELETED).flip();
+        write(record.pack.channel, buffer, record.offset);
+        record.pack.liveBytes -= record.length();
+    }
+
+    /**
+     * Queues a pack file for compaction if less than half of it is alive. The last pack
+     * file is the one appended to and is never compacted.
+     */
+    private void checkSparse(SourcePacks source, Pack pack) {
+        if (pack.id != source.packs.lastKey() && pack.liveBytes * 2 < pack.size && !pack.compacting) {
+            sparsePacks.put(pack, source);
+        }
+    }
+
+    /**
+     * Compacts the queued pack files. Must be called without holding the lock of the store,
+     * which is only taken to look up and to copy a batch of records.
+     */
+    private void compactSparsePacks() throws IOException {
+        while (true) {
+            Pack pack;
+            SourcePacks source;
+            List<Long> keys = new ArrayList<Long>();
+            synchronized (this) {
+                Iterator<Map.Entry<Pack, SourcePacks>> it = sparsePacks.entrySet().iterator();
+                if (!it.hasNext())
+                    return;
+                Map.Entry<Pack, SourcePacks> e = it.next();
+                it.remove();
+                pack = e.getKey();
+                source = e.getValue();
+                pack.compacting = true;
+                for (Map.Entry<Long, Record> r : source.index.entrySet()) {
+                    if (r.getValue().pack == pack) {
+                        keys.add(r.getKey());
+                    }
+                }
+            }
+            try {
+                compact(source, pack, keys);
+            } finally {
+                synchronized (this) {
+                    pack.compacting = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the live records of a pack file to the current one and deletes it. The records
+     * are read without holding the lock, the copies are appended and indexed with the lock.
+     */
+    private void compact(SourcePacks source, Pack pack, List<Long> keys) throws IOException {
+        for (int i = 0; i < keys.size(); i += COMPACT_BATCH_SIZE) {
+            List<Long> batch = keys.subList(i, Math.min(keys.size(), i + COMPACT_BATCH_SIZE));
+            List<Record> records = new ArrayList<Record>(batch.size());
+            synchronized (this) {
+                if (source.closed)
+                    return;
+                for (Long key : batch) {
+                    records.add(source.index.get(key));
+                }
+            }
+            List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(batch.size());
+            try {
+                for (Record old : records) {
+                    ByteBuffer buffer = null;
+                    if (old != null && old.pack == pack) {
+                        buffer = ByteBuffer.allocate(old.length());
+                        read(pack.channel, buffer, old.offset);
+                    }
+                    buffers.add(buffer);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    // the pack file has been closed by clear()
+                    if (source.closed)
+                        return;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                if (source.closed)
+                    return;
+                for (int j = 0; j < batch.size(); j++) {
+                    long key = batch.get(j);
+                    Record old = records.get(j);
+                    if (buffers.get(j) == null || source.index.get(key) != old) {
+                        // removed or replaced in the meantime
+                        continue;
+                    }
+                    ByteBuffer buffer = buffers.get(j);
+                    byte[] metadata = new byte[old.metadataLength];
+                    byte[] data = new byte[old.dataLength];
+                    buffer.position(HEADER_SIZE);
+                    buffer.get(metadata);
+                    buffer.get(data);
+                    source.index.put(key, append(source, (int) (key >>> 58), (int) (key >>> 29) & 0x1fffffff,
+                            (int) (key & 0x1fffffff), old.time, old.expires, metadata, data));
+                    markDeleted(old);
+                }
+            }
+        }
+        synchronized (this) {
+            if (source.closed || source.packs.get(pack.id) != pack)
+                return;
+            source.packs.remove(pack.id);
+            close(pack);
+            if (!pack.file.delete()) {
+                log.warning("Failed to delete compacted tile pack file " + pack.file);
+            }
+        }
+    }
+
+    private static void close(Pack pack) {
+        try {
+            pack.channel.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close tile pack file " + pack.file, e);
+        }
+    }
+
+    /**
+     * Fills the buffer from the channel
+     *
+     * @return false if the end of the file has been reached before
+     */
+    private static boolean read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                return false;
+            position += read;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] encodeMetadata(Map<String, String> metadata) throws IOException {
+        if (metadata == null)
+            return new byte[0];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            out.write((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(TAGS_CHARSET.name()));
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> decodeMetadata(byte[] metadata) throws IOException {
+        Map<String, String> result = new HashMap<String, String>();
+        for (String line : new String(metadata, TAGS_CHARSET.name()).split("\n")) {
+            int i = line.indexOf('=');
+            if (i > 0) {
+                result.put(line.substring(0, i), line.substring(i + 1));
+            }
+        }
+        return result;
+    }
+}
@@ -1,6 +1,5 @@
 package org.openstreetmap.gui.jmapviewer;
 
-import org.openstreetmap.gui.jmapviewer.JobDispatcher.JobThread;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoader;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
@@ -23,7 +22,7 @@ public class TileController {
 
     /**
      * retrieves a tile from the cache. If the tile is not present in the cache
-     * a load job is added to the working queue of {@link JobThread}.
+     * a load job is added to the working queue of the {@link JobDispatcher}.
      *
      * @param tilex the X position of the tile
      * @param tiley the Y position of the tile
@@ -38,8 +37,8 @@ public class TileController {
         Tile tile = tileCache.getTile(tileSource, tilex, tiley, zoom);
         if (tile == null) {
             tile = new Tile(tileSource, tilex, tiley, zoom);
-            tileCache.addTile(tile);
             tile.loadPlaceholderFromCache(tileCache);
+            tileCache.addTile(tile);
         }
         if (!tile.isLoaded()) {
             jobDispatcher.addJob(tileLoader.createTileLoaderJob(tile));
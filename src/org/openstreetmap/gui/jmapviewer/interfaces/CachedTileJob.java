@@ -0,0 +1,10 @@
+package org.openstreetmap.gui.jmapviewer.interfaces;
+
+//License: GPL.
+
+/**
+ * A tile loading job which reads the tile from a local cache. Such jobs are run
+ * separately from the jobs downloading tiles, with their own limit of worker threads.
+ */
+public interface CachedTileJob extends TileJob {
+}
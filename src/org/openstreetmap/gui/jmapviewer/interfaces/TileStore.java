@@ -0,0 +1,102 @@
+package org.openstreetmap.gui.jmapviewer.interfaces;
+
+//License: GPL.
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.openstreetmap.gui.jmapviewer.Tile;
+
+/**
+ * Interface for a persistent store of downloaded tiles, used by the
+ * {@link org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader} instead of
+ * saving each tile in a file of its own.
+ */
+public interface TileStore {
+
+    /**
+     * A tile read from the store
+     */
+    public static class StoredTile {
+        private final byte[] data;
+        private final Map<String, String> metadata;
+        private final long lastModified;
+        private final long expires;
+
+        public StoredTile(byte[] data, Map<String, String> metadata, long lastModified, long expires) {
+            this.data = data;
+            this.metadata = metadata;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * @return the image data of the tile, empty if there is no tile at this zoom level
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the metadata of the tile
+         */
+        public Map<String, String> getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return the time the tile was downloaded or last found up to date on the server
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the time after which the tile has to be checked on the server again
+         */
+        public long getExpires() {
+            return expires;
+        }
+    }
+
+    /**
+     * Reads a tile from the store.
+     *
+     * @param tile the tile, only its source and position are used
+     * @return the stored tile, or <code>null</code> if it is not in the store
+     */
+    public StoredTile get(Tile tile) throws IOException;
+
+    /**
+     * Stores the data and the metadata of a tile, replacing an older version.
+     *
+     * @param tile the tile
+     * @param data the image data
+     * @param time the time the tile was downloaded, in milliseconds
+     * @param expires the time after which the tile has to be checked again, in milliseconds
+     */
+    public void put(Tile tile, byte[] data, long time, long expires) throws IOException;
+
+    /**
+     * Sets the time a stored tile was last found up to date on the server.
+     *
+     * @param tile the tile
+     * @param time the time in milliseconds
+     * @param expires the time after which the tile has to be checked again, in milliseconds
+     */
+    public void touch(Tile tile, long time, long expires) throws IOException;
+
+    /**
+     * Removes a tile from the store.
+     *
+     * @param tile the tile
+     */
+    public void remove(Tile tile) throws IOException;
+
+    /**
+     * Releases the files of a tile source, before they are deleted.
+     *
+     * @param source the tile source
+     */
+    public void clear(TileSource source);
+}
@@ -322,13 +322,8 @@ public class OpenFileAction extends DiskAccessAction {
                     successfullyOpenedFiles.addAll(files);
                 }
             } else {
-                for (File f : files) {
-                    if (canceled) return;
-                    getProgressMonitor().indeterminateSubTask(tr("Opening file ''{0}'' ...", f.getAbsolutePath()));
-                    if (importer.importDataHandleExceptions(f, getProgressMonitor().createSubTaskMonitor(1, false))) {
-                        successfullyOpenedFiles.add(f);
-                    }
-                }
+                if (canceled) return;
+                successfullyOpenedFiles.addAll(importer.importFilesHandleExceptions(files, getProgressMonitor()));
             }
         }
 
@@ -66,19 +66,21 @@ public abstract class SaveActionBase extends DiskAccessAction {
             return false;
 
         try {
-            boolean exported = false;
+            FileExporter exported = null;
             for (FileExporter exporter : ExtensionFileFilter.exporters) {
                 if (exporter.acceptFile(file, layer)) {
                     exporter.exportData(file, layer);
-                    exported = true;
+                    exported = exporter;
                     break;
                 }
             }
-            if (!exported) {
+            if (exported == null) {
                 JOptionPane.showMessageDialog(Main.parent, tr("No Exporter found! Nothing saved."), tr("Warning"),
                         JOptionPane.WARNING_MESSAGE);
                 return false;
             }
+            if (exported.isExportOnly())
+                return false; // the layer itself has not been saved
             layer.setName(file.getName());
             layer.setAssociatedFile(file);
             if (layer instanceof OsmDataLayer) {
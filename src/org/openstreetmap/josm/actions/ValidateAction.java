@@ -12,7 +12,9 @@ import java.util.List;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.validation.IncrementalValidator;
 import org.openstreetmap.josm.data.validation.OsmValidator;
+import org.openstreetmap.josm.data.validation.ParallelValidator;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.data.validation.util.AggregatePrimitivesVisitor;
@@ -92,6 +94,9 @@ public class ValidateAction extends JosmAction {
         }
 
         ValidationTask task = new ValidationTask(tests, selection, lastSelection);
+        if (lastSelection == null) {
+            task.setIncrementalValidator(OsmValidator.getIncrementalValidator(Main.main.getCurrentDataSet(), false));
+        }
         Main.worker.submit(task);
     }
 
@@ -111,6 +116,7 @@ public class ValidateAction extends JosmAction {
         private Collection<OsmPrimitive> formerValidatedPrimitives;
         private boolean canceled;
         private List<TestError> errors;
+        private IncrementalValidator incrementalValidator;
 
         /**
          *
@@ -125,6 +131,16 @@ public class ValidateAction extends JosmAction {
             this.tests = tests;
         }
 
+        /**
+         * Sets the incremental validator of the dataset. If set, the errors are replied
+         * by the incremental validator rather than by running the tests on all primitives.
+         *
+         * @param incrementalValidator the incremental validator. May be null.
+         */
+        public void setIncrementalValidator(IncrementalValidator incrementalValidator) {
+            this.incrementalValidator = incrementalValidator;
+        }
+
         @Override
         protected void cancel() {
             this.canceled = true;
@@ -151,20 +167,16 @@ public class ValidateAction extends JosmAction {
         OsmTransferException {
             if (tests == null || tests.isEmpty())
                 return;
-            errors = new ArrayList<TestError>(200);
-            getProgressMonitor().setTicksCount(tests.size() * validatedPrimitives.size());
-            int testCounter = 0;
-            for (Test test : tests) {
-                if (canceled)
-                    return;
-                testCounter++;
-                getProgressMonitor().setCustomText(tr("Test {0}/{1}: Starting {2}", testCounter, tests.size(),test.getName()));
-                test.setPartialSelection(formerValidatedPrimitives != null);
-                test.startTest(getProgressMonitor().createSubTaskMonitor(validatedPrimitives.size(), false));
-                test.visit(validatedPrimitives);
-                test.endTest();
-                errors.addAll(test.getErrors());
+            if (incrementalValidator != null) {
+                errors = incrementalValidator.getErrors(getProgressMonitor());
+            } else {
+                for (Test test : tests) {
+                    test.setPartialSelection(formerValidatedPrimitives != null);
+                }
+                errors = new ParallelValidator(tests, validatedPrimitives).validate(getProgressMonitor());
             }
+            if (canceled)
+                return;
             tests = null;
             if (Main.pref.getBoolean(ValidatorPreference.PREF_USE_IGNORE, true)) {
                 getProgressMonitor().subTask(tr("Updating ignored errors ..."));
@@ -474,6 +474,40 @@ public class SearchAction extends JosmAction implements ParameterizedAction {
         search(s);
     }
 
+    /**
+     * Applies the matches of a search to a selection, according to the search mode.
+     */
+    private static class SelectionUpdater implements SearchPlanner.MatchListener {
+        private final SearchMode mode;
+        private final Collection<OsmPrimitive> sel;
+        private final Predicate<OsmPrimitive> p;
+        private int foundMatches = 0;
+
+        public SelectionUpdater(SearchMode mode, Collection<OsmPrimitive> sel, Predicate<OsmPrimitive> p) {
+            this.mode = mode;
+            this.sel = sel;
+            this.p = p;
+        }
+
+        public void matchesFound(List<OsmPrimitive> matches) {
+            for (OsmPrimitive osm : matches) {
+                if (mode == SearchMode.replace) {
+                    sel.add(osm);
+                    ++foundMatches;
+                } else if (mode == SearchMode.add && !p.evaluate(osm)) {
+                    sel.add(osm);
+                    ++foundMatches;
+                } else if (mode == SearchMode.remove && p.evaluate(osm)) {
+                    sel.remove(osm);
+                    ++foundMatches;
+                } else if (mode == SearchMode.in_selection) {
+                    sel.remove(osm);
+                    ++foundMatches;
+                }
+            }
+        }
+    }
+
     public static int getSelection(SearchSetting s, Collection<OsmPrimitive> sel, Predicate<OsmPrimitive> p) {
         int foundMatches = 0;
         try {
@@ -484,29 +518,14 @@ public class SearchAction extends JosmAction implements ParameterizedAction {
                 sel.clear();
             }
 
-            Collection<OsmPrimitive> all;
-            if(s.allElements) {
-                all = Main.main.getCurrentDataSet().allPrimitives();
+            SelectionUpdater updater = new SelectionUpdater(s.mode, sel, p);
+            if (s.mode == SearchMode.in_selection) {
+                // the selected primitives which don't match are removed
+                SearchPlanner.search(Main.main.getCurrentDataSet(), new SearchCompiler.Not(matcher), s.allElements, p, updater);
             } else {
-                all = Main.main.getCurrentDataSet().allNonDeletedCompletePrimitives();
-            }
-            for (OsmPrimitive osm : all) {
-                if (s.mode == SearchMode.replace) {
-                    if (matcher.match(osm)) {
-                        sel.add(osm);
-                        ++foundMatches;
-                    }
-                } else if (s.mode == SearchMode.add && !p.evaluate(osm) && matcher.match(osm)) {
-                    sel.add(osm);
-                    ++foundMatches;
-                } else if (s.mode == SearchMode.remove && p.evaluate(osm) && matcher.match(osm)) {
-                    sel.remove(osm);
-                    ++foundMatches;
-                } else if (s.mode == SearchMode.in_selection &&  p.evaluate(osm) && !matcher.match(osm)) {
-                    sel.remove(osm);
-                    ++foundMatches;
-                }
+                SearchPlanner.search(Main.main.getCurrentDataSet(), matcher, s.allElements, null, updater);
             }
+            foundMatches = updater.foundMatches;
         } catch (SearchCompiler.ParseError e) {
             JOptionPane.showMessageDialog(
                     Main.parent,
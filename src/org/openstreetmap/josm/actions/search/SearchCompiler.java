@@ -8,10 +8,15 @@ import java.io.PushbackReader;
 import java.io.StringReader;
 import java.text.Normalizer;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -25,6 +30,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.OsmUtils;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.TagIndex;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.tools.DateUtils;
 import org.openstreetmap.josm.tools.Geometry;
@@ -207,6 +213,17 @@ public class SearchCompiler {
 
         abstract public boolean match(OsmPrimitive osm);
 
+        /**
+         * Looks up the primitives which may match in the tag index of a dataset, so that only
+         * these have to be tested by {@link #match(OsmPrimitive)}.
+         *
+         * @param index the tag index
+         * @return the candidates, or null if any primitive may match
+         */
+        public List<OsmPrimitive> getCandidates(TagIndex index) {
+            return null;
+        }
+
         /**
          * Tests whether one of the primitives matches.
          */
@@ -292,6 +309,10 @@ public class SearchCompiler {
         public boolean match(OsmPrimitive osm) {
             return false;
         }
+        @Override
+        public List<OsmPrimitive> getCandidates(TagIndex index) {
+            return Collections.emptyList();
+        }
     }
 
     /**
@@ -327,6 +348,10 @@ public class SearchCompiler {
             else
                 return ret;
         }
+        @Override
+        public List<OsmPrimitive> getCandidates(TagIndex index) {
+            return defaultValue ? null : index.get(key);
+        }
     }
 
     /**
@@ -337,6 +362,15 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return lhs.match(osm) && rhs.match(osm);
         }
+        @Override public List<OsmPrimitive> getCandidates(TagIndex index) {
+            List<OsmPrimitive> l = lhs.getCandidates(index);
+            if (l != null && l.isEmpty())
+                return l;
+            List<OsmPrimitive> r = rhs.getCandidates(index);
+            if (l == null || (r != null && r.size() < l.size()))
+                return r;
+            return l;
+        }
         @Override public String toString() {
             return lhs + " && " + rhs;
         }
@@ -350,6 +384,18 @@ public class SearchCompiler {
         @Override public boolean match(OsmPrimitive osm) {
             return lhs.match(osm) || rhs.match(osm);
         }
+        @Override public List<OsmPrimitive> getCandidates(TagIndex index) {
+            List<OsmPrimitive> l = lhs.getCandidates(index);
+            if (l == null)
+                return null;
+            List<OsmPrimitive> r = rhs.getCandidates(index);
+            if (r == null)
+                return null;
+            Set<OsmPrimitive> union = Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>(l.size() + r.size()));
+            union.addAll(l);
+            union.addAll(r);
+            return new ArrayList<OsmPrimitive>(union);
+        }
         @Override public String toString() {
             return lhs + " || " + rhs;
         }
@@ -509,6 +555,11 @@ public class SearchCompiler {
 
             return false;
         }
+        @Override public List<OsmPrimitive> getCandidates(TagIndex index) {
+            if (keyPattern != null || key.equals("timestamp"))
+                return null;
+            return index.get(key);
+        }
         @Override public String toString() {return key+"="+value;}
     }
 
@@ -636,6 +687,18 @@ public class SearchCompiler {
             throw new AssertionError("Missed state");
         }
 
+        @Override
+        public List<OsmPrimitive> getCandidates(TagIndex index) {
+            switch (mode) {
+            case ANY_VALUE:
+                return index.get(key);
+            case EXACT:
+                return index.get(key, value);
+            default:
+                return null;
+            }
+        }
+
         @Override
         public String toString() {
             return key + '=' + value;
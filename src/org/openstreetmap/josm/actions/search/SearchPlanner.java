@@ -0,0 +1,145 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.actions.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.TagIndex;
+import org.openstreetmap.josm.tools.Predicate;
+
+/**
+ * Evaluates a compiled search over the primitives of a dataset.
+ *
+ * If the search has tag terms which must match, only the primitives with these tags are looked up in
+ * the {@link TagIndex} of the dataset (see {@link Match#getCandidates(TagIndex)}) and tested, otherwise
+ * all primitives are tested. The primitives are tested in chunks, in parallel on multi-core machines.
+ * The matches of each chunk are passed to a {@link MatchListener} as soon as the chunk is done.
+ */
+public class SearchPlanner {
+
+    /**
+     * Receives the matches of a search, chunk by chunk. Called in the thread running the search.
+     */
+    public interface MatchListener {
+        void matchesFound(List<OsmPrimitive> matches);
+    }
+
+    /** the number of primitives tested by one task */
+    private static final int CHUNK_SIZE = 8192;
+
+    private static ExecutorService searchPool;
+
+    /**
+     * Replies the thread pool used to test the primitives.
+     */
+    private static synchronized ExecutorService getSearchPool() {
+        if (searchPool == null) {
+            searchPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "search-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return searchPool;
+    }
+
+    private SearchPlanner() {}
+
+    /**
+     * Searches the primitives of a dataset. Returns when all matches have been passed to the listener.
+     *
+     * @param ds the dataset
+     * @param matcher the compiled search
+     * @param allElements if true, deleted and incomplete primitives are searched too
+     * @param filter if not null, only the primitives accepted by the filter are tested. Called
+     *  concurrently, like the matcher.
+     * @param listener receives the matches
+     */
+    public static void search(DataSet ds, Match matcher, boolean allElements, Predicate<OsmPrimitive> filter,
+            MatchListener listener) {
+        List<OsmPrimitive> primitives = matcher.getCandidates(ds.getTagIndex());
+        if (primitives == null) {
+            ds.getReadLock().lock();
+            try {
+                Collection<OsmPrimitive> all = allElements ? ds.allPrimitives() : ds.allNonDeletedCompletePrimitives();
+                primitives = new ArrayList<OsmPrimitive>(all);
+            } finally {
+                ds.getReadLock().unlock();
+            }
+        }
+        search(matcher, primitives,
+                allElements ? OsmPrimitive.allPredicate : OsmPrimitive.nonDeletedCompletePredicate, filter, listener);
+    }
+
+    private static void search(final Match matcher, final List<OsmPrimitive> primitives, final Predicate<OsmPrimitive> predicate,
+            final Predicate<OsmPrimitive> filter, MatchListener listener) {
+        int chunks = (primitives.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks < 2 || Runtime.getRuntime().availableProcessors() < 2) {
+            for (int c = 0; c < chunks; c++) {
+                fireMatchesFound(listener, test(matcher, primitives, predicate, filter, c));
+            }
+            return;
+        }
+        CompletionService<List<OsmPrimitive>> completionService = new ExecutorCompletionService<List<OsmPrimitive>>(getSearchPool());
+        List<Future<List<OsmPrimitive>>> futures = new ArrayList<Future<List<OsmPrimitive>>>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int chunk = c;
+            futures.add(completionService.submit(new Callable<List<OsmPrimitive>>() {
+                public List<OsmPrimitive> call() {
+                    return test(matcher, primitives, predicate, filter, chunk);
+                }
+            }));
+        }
+        try {
+            for (int c = 0; c < chunks; c++) {
+                fireMatchesFound(listener, completionService.take().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            else if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // chunks not taken yet if interrupted or failed
+            for (Future<List<OsmPrimitive>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static void fireMatchesFound(MatchListener listener, List<OsmPrimitive> matches) {
+        if (!matches.isEmpty()) {
+            listener.matchesFound(matches);
+        }
+    }
+
+    private static List<OsmPrimitive> test(Match matcher, List<OsmPrimitive> primitives, Predicate<OsmPrimitive> predicate,
+            Predicate<OsmPrimitive> filter, int chunk) {
+        List<OsmPrimitive> matches = new ArrayList<OsmPrimitive>();
+        for (int i = chunk * CHUNK_SIZE; i < Math.min(primitives.size(), (chunk + 1) * CHUNK_SIZE); i++) {
+            OsmPrimitive osm = primitives.get(i);
+            if (predicate.evaluate(osm) && (filter == null || filter.evaluate(osm)) && matcher.match(osm)) {
+                matches.add(osm);
+            }
+        }
+        return matches;
+    }
+}
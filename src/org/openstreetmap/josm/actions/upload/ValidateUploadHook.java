@@ -7,7 +7,10 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.GridBagLayout;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -16,7 +19,9 @@ import javax.swing.JScrollPane;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.APIDataSet;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.validation.IncrementalValidator;
 import org.openstreetmap.josm.data.validation.OsmValidator;
+import org.openstreetmap.josm.data.validation.ParallelValidator;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
@@ -53,24 +58,33 @@ public class ValidateUploadHook implements UploadHook
         v.visit(apiDataSet.getPrimitivesToAdd());
         Collection<OsmPrimitive> selection = v.visit(apiDataSet.getPrimitivesToUpdate());
 
+        List<TestError> found;
+        IncrementalValidator incrementalValidator = OsmValidator.getIncrementalValidator(Main.main.getCurrentDataSet(), true);
+        if (incrementalValidator != null) {
+            // only report the errors involving the uploaded primitives
+            Set<OsmPrimitive> uploaded = new HashSet<OsmPrimitive>(selection);
+            found = new ArrayList<TestError>();
+            for (TestError e : incrementalValidator.getErrors(null)) {
+                if (!Collections.disjoint(e.getPrimitives(), uploaded)) {
+                    found.add(e);
+                }
+            }
+        } else {
+            for (Test test : tests) {
+                test.setBeforeUpload(true);
+                test.setPartialSelection(true);
+            }
+            found = new ParallelValidator(tests, selection).validate(null);
+        }
         List<TestError> errors = new ArrayList<TestError>(30);
-        for (Test test : tests) {
-            test.setBeforeUpload(true);
-            test.setPartialSelection(true);
-            test.startTest(null);
-            test.visit(selection);
-            test.endTest();
+        for (TestError e : found) {
             if (Main.pref.getBoolean(ValidatorPreference.PREF_OTHER, false) && 
                 Main.pref.getBoolean(ValidatorPreference.PREF_OTHER_UPLOAD, false))
             {
-                errors.addAll( test.getErrors() );
+                errors.add(e);
             }
-            else {
-                for (TestError e : test.getErrors()) {
-                    if (e.getSeverity() != Severity.OTHER) {
-                        errors.add(e);
-                    }
-                }
+            else if (e.getSeverity() != Severity.OTHER) {
+                errors.add(e);
             }
         }
         tests = null;
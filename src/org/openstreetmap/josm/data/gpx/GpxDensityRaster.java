@@ -0,0 +1,149 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.awt.image.BufferedImage;
+
+import org.openstreetmap.josm.data.Bounds;
+
+/**
+ * Counts the points of gpx tracks per pixel of a raster, to paint the density of the tracks
+ * as a heatmap.
+ *
+ * The raster covers a rectangle of projected coordinates at a fixed scale, like the map view.
+ * Pixel (0, 0) is the top left corner of the rectangle.
+ */
+public class GpxDensityRaster {
+
+    private final double east;
+    private final double north;
+    private final double scale;
+    private final int width;
+    private final int height;
+    private final int[] counts;
+
+    /**
+     * Creates an empty raster.
+     *
+     * @param east the east coordinate of the left edge
+     * @param north the north coordinate of the top edge
+     * @param scale the east/north units per pixel
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    public GpxDensityRaster(double east, double north, double scale, int width, int height) {
+        this.east = east;
+        this.north = north;
+        this.scale = scale;
+        this.width = width;
+        this.height = height;
+        this.counts = new int[width * height];
+    }
+
+    /**
+     * Adds the points of a segment which are within the raster.
+     *
+     * @param index the index of the segment
+     * @param box the area of the raster, used to select the chunks of the index
+     */
+    public void add(GpxTrackSegmentIndex index, Bounds box) {
+        GpxTrackSegment segment = index.getSegment();
+        for (int c : index.getChunks(box)) {
+            for (int i = index.getChunkStart(c); i < index.getChunkEnd(c); i++) {
+                if (Double.isNaN(segment.getLat(i)) || Double.isNaN(segment.getLon(i))) {
+                    continue;
+                }
+                int x = (int) Math.floor((segment.getEast(i) - east) / scale);
+                int y = (int) Math.floor((north - segment.getNorth(i)) / scale);
+                if (x >= 0 && x < width && y >= 0 && y < height) {
+                    counts[y * width + x]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Spreads the count of each pixel over its neighbours by a box blur, so that single points
+     * remain visible.
+     *
+     * @param radius the radius in pixels
+     */
+    public void blur(int radius) {
+        if (radius <= 0)
+            return;
+        int[] rows = new int[counts.length];
+        for (int y = 0; y < height; y++) {
+            blurLine(counts, rows, y * width, 1, width, radius);
+        }
+        for (int x = 0; x < width; x++) {
+            blurLine(rows, counts, x, width, height, radius);
+        }
+    }
+
+    /**
+     * Replaces each value of a line by the sum of the values within the radius
+     */
+    private static void blurLine(int[] src, int[] dst, int offset, int step, int length, int radius) {
+        int sum = 0;
+        for (int i = 0; i < Math.min(radius, length); i++) {
+            sum += src[offset + i * step];
+        }
+        for (int i = 0; i < length; i++) {
+            if (i + radius < length) {
+                sum += src[offset + (i + radius) * step];
+            }
+            if (i - radius - 1 >= 0) {
+                sum -= src[offset + (i - radius - 1) * step];
+            }
+            dst[offset + i * step] = sum;
+        }
+    }
+
+    public int getCount(int x, int y) {
+        return counts[y * width + x];
+    }
+
+    public int getMaxCount() {
+        int max = 0;
+        for (int c : counts) {
+            if (c > max) {
+                max = c;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Creates an image of the raster. The counts are mapped logarithmically to the colors of
+     * a palette, pixels without points are transparent.
+     *
+     * @param palette the ARGB colors, from the lowest to the highest density
+     * @return the image
+     */
+    public BufferedImage createImage(int[] palette) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int max = getMaxCount();
+        if (max == 0)
+            return image;
+        double norm = (palette.length - 1) / Math.log1p(max);
+        int[] argb = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                argb[i] = palette[(int) (Math.log1p(counts[i]) * norm)];
+            }
+        }
+        image.setRGB(0, 0, width, height, argb, 0, width);
+        return image;
+    }
+
+    public double getEast() {
+        return east;
+    }
+
+    public double getNorth() {
+        return north;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+}
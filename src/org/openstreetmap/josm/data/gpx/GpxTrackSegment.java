@@ -8,6 +8,7 @@ import org.openstreetmap.josm.data.Bounds;
 /**
  * Read-only gpx track segments. Implementations doesn't have to be immutable, but should always be thread safe.
  *
+ * The indexed accessors give access to the points without creating {@link WayPoint}s.
  */
 public interface GpxTrackSegment {
 
@@ -19,4 +20,51 @@ public interface GpxTrackSegment {
      * @return Number of times this track has been changed. Always 0 for read-only segments
      */
     int getUpdateCount();
+
+    /**
+     * @return the number of points of the segment
+     */
+    int getWayPointCount();
+
+    /**
+     * @param index the index of the point, from 0 to {@link #getWayPointCount()} - 1
+     * @return the point, see {@link #getWayPoints()}
+     */
+    WayPoint getWayPoint(int index);
+
+    double getLat(int index);
+    double getLon(int index);
+
+    /**
+     * @param index the index of the point
+     * @return the time of the point in seconds since the epoch, 0 if unknown
+     * @see WayPoint#time
+     */
+    double getTime(int index);
+
+    /**
+     * @param index the index of the point
+     * @return the horizontal dilution of precision of the point, NaN if unknown
+     */
+    float getHdop(int index);
+
+    /**
+     * Replies the projected east coordinate of a point. Like {@link WayPoint#getEastNorth()},
+     * the projected coordinates are cached until {@link #invalidateEastNorthCache()} is called.
+     *
+     * @param index the index of the point
+     * @return the east coordinate
+     */
+    double getEast(int index);
+
+    /**
+     * @param index the index of the point
+     * @return the north coordinate, see {@link #getEast(int)}
+     */
+    double getNorth(int index);
+
+    /**
+     * Invalidate the cache of east/north coordinates of the points.
+     */
+    void invalidateEastNorthCache();
 }
@@ -0,0 +1,242 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+/**
+ * A spatial index of the points of a {@link GpxTrackSegment}.
+ *
+ * The points are split into chunks of {@link #CHUNK_SIZE} consecutive points. The bounding box of a
+ * chunk includes the last point of the previous chunk, so that it also covers the line to its first
+ * point. The boxes of {@link #GROUP_SIZE} consecutive chunks are combined into the box of a group, so
+ * a query only looks at the chunks of the groups intersecting the queried area.
+ *
+ * For painting at small scales the index also replies subsets of the points which leave out the
+ * points nearer to the previous point than a tolerance, see {@link #getDecimatedPoints(double)}.
+ * These are meant to be computed in the background, painting uses the levels computed so far,
+ * see {@link #getNearestDecimatedPoints(double)}.
+ */
+public class GpxTrackSegmentIndex {
+
+    /** the number of points per chunk */
+    public static final int CHUNK_SIZE = 64;
+    /** the number of chunks per group */
+    public static final int GROUP_SIZE = 32;
+
+    private final GpxTrackSegment segment;
+    private final int size;
+    private final int chunkCount;
+    /** min lat, min lon, max lat, max lon of each chunk */
+    private final double[] chunkBoxes;
+    /** min lat, min lon, max lat, max lon of each group */
+    private final double[] groupBoxes;
+    /** the decimated points, by level */
+    private final Map<Integer, int[]> decimatedPoints = new HashMap<Integer, int[]>();
+
+    public GpxTrackSegmentIndex(GpxTrackSegment segment) {
+        this.segment = segment;
+        this.size = segment.getWayPointCount();
+        this.chunkCount = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.chunkBoxes = new double[4 * chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            initBox(chunkBoxes, c);
+            for (int i = Math.max(0, getChunkStart(c) - 1); i < getChunkEnd(c); i++) {
+                extend(chunkBoxes, c, segment.getLat(i), segment.getLon(i), segment.getLat(i), segment.getLon(i));
+            }
+        }
+        int groupCount = (chunkCount + GROUP_SIZE - 1) / GROUP_SIZE;
+        this.groupBoxes = new double[4 * groupCount];
+        for (int g = 0; g < groupCount; g++) {
+            initBox(groupBoxes, g);
+            for (int c = g * GROUP_SIZE; c < Math.min(chunkCount, (g + 1) * GROUP_SIZE); c++) {
+                extend(groupBoxes, g, chunkBoxes[4 * c], chunkBoxes[4 * c + 1], chunkBoxes[4 * c + 2], chunkBoxes[4 * c + 3]);
+            }
+        }
+    }
+
+    private static void initBox(double[] boxes, int b) {
+        boxes[4 * b] = Double.POSITIVE_INFINITY;
+        boxes[4 * b + 1] = Double.POSITIVE_INFINITY;
+        boxes[4 * b + 2] = Double.NEGATIVE_INFINITY;
+        boxes[4 * b + 3] = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Extends a box, ignoring unknown coordinates
+     */
+    private static void extend(double[] boxes, int b, double minLat, double minLon, double maxLat, double maxLon) {
+        if (minLat < boxes[4 * b]) {
+            boxes[4 * b] = minLat;
+        }
+        if (minLon < boxes[4 * b + 1]) {
+            boxes[4 * b + 1] = minLon;
+        }
+        if (maxLat > boxes[4 * b + 2]) {
+            boxes[4 * b + 2] = maxLat;
+        }
+        if (maxLon > boxes[4 * b + 3]) {
+            boxes[4 * b + 3] = maxLon;
+        }
+    }
+
+    private static boolean intersects(double[] boxes, int b, double minLat, double minLon, double maxLat, double maxLon) {
+        return !(boxes[4 * b + 2] < minLat || boxes[4 * b] > maxLat || boxes[4 * b + 3] < minLon || boxes[4 * b + 1] > maxLon);
+    }
+
+    public GpxTrackSegment getSegment() {
+        return segment;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @param chunk the chunk
+     * @return the index of the first point of the chunk
+     */
+    public int getChunkStart(int chunk) {
+        return chunk * CHUNK_SIZE;
+    }
+
+    /**
+     * @param chunk the chunk
+     * @return the index after the last point of the chunk
+     */
+    public int getChunkEnd(int chunk) {
+        return Math.min(size, (chunk + 1) * CHUNK_SIZE);
+    }
+
+    /**
+     * Replies the chunks whose points or lines to their previous points may intersect an area.
+     *
+     * @param box the area
+     * @return the chunks, in ascending order
+     */
+    public int[] getChunks(Bounds box) {
+        LatLon min = box.getMin();
+        LatLon max = box.getMax();
+        double minLon = min.lon();
+        double maxLon = max.lon();
+        if (box.crosses180thMeridian()) {
+            minLon = -180;
+            maxLon = 180;
+        }
+        int[] result = new int[16];
+        int n = 0;
+        for (int g = 0; g < groupBoxes.length / 4; g++) {
+            if (!intersects(groupBoxes, g, min.lat(), minLon, max.lat(), maxLon)) {
+                continue;
+            }
+            for (int c = g * GROUP_SIZE; c < Math.min(chunkCount, (g + 1) * GROUP_SIZE); c++) {
+                if (intersects(chunkBoxes, c, min.lat(), minLon, max.lat(), maxLon)) {
+                    if (n == result.length) {
+                        result = Arrays.copyOf(result, 2 * n);
+                    }
+                    result[n++] = c;
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static boolean isDecimating(double tolerance) {
+        return tolerance > 0 && !Double.isInfinite(tolerance);
+    }
+
+    /**
+     * Replies the level of the decimated points for a tolerance. The tolerance is rounded down
+     * to 2^level.
+     *
+     * @param tolerance the tolerance, in east/north units
+     * @return the level
+     */
+    public static int getLevel(double tolerance) {
+        return (int) Math.floor(Math.log(tolerance) / Math.log(2));
+    }
+
+    /**
+     * Replies true if the points for a tolerance have been computed, or if there is nothing to compute.
+     *
+     * @param tolerance the tolerance, in east/north units
+     * @return true if {@link #getDecimatedPoints(double)} returns immediately
+     */
+    public synchronized boolean isDecimated(double tolerance) {
+        return !isDecimating(tolerance) || decimatedPoints.containsKey(getLevel(tolerance));
+    }
+
+    /**
+     * Replies the points to paint at a scale, without computing them. If the level of the tolerance
+     * hasn't been computed yet, the points of the nearest finer level computed are replied.
+     *
+     * @param tolerance the tolerance, in east/north units
+     * @return the indices of the points, in ascending order, or null if all points are painted
+     */
+    public synchronized int[] getNearestDecimatedPoints(double tolerance) {
+        if (!isDecimating(tolerance))
+            return null;
+        int level = getLevel(tolerance);
+        Integer nearest = null;
+        for (Integer l : decimatedPoints.keySet()) {
+            if (l <= level && (nearest == null || l > nearest)) {
+                nearest = l;
+            }
+        }
+        return nearest == null ? null : decimatedPoints.get(nearest);
+    }
+
+    /**
+     * Replies the points to paint at a scale. A point is left out if its projected coordinates are
+     * nearer than the tolerance to the previous point painted and if it isn't the last point. Points
+     * with unknown coordinates are always left out. The tolerance is rounded down to a power of 2,
+     * the points are cached for each of these levels. The points are computed without holding the
+     * lock of the index.
+     *
+     * @param tolerance the tolerance, in east/north units
+     * @return the indices of the points, in ascending order, or null if all points are painted
+     */
+    public int[] getDecimatedPoints(double tolerance) {
+        if (!isDecimating(tolerance))
+            return null;
+        int level = getLevel(tolerance);
+        synchronized (this) {
+            if (decimatedPoints.containsKey(level))
+                return decimatedPoints.get(level);
+        }
+        double tol = Math.pow(2, level);
+        double tolSq = tol * tol;
+        int[] result = new int[Math.max(size / 4, 16)];
+        int n = 0;
+        double lastEast = Double.NaN, lastNorth = Double.NaN;
+        for (int i = 0; i < size; i++) {
+            if (Double.isNaN(segment.getLat(i)) || Double.isNaN(segment.getLon(i))) {
+                continue;
+            }
+            double east = segment.getEast(i);
+            double north = segment.getNorth(i);
+            double dx = east - lastEast;
+            double dy = north - lastNorth;
+            if (n == 0 || i == size - 1 || dx * dx + dy * dy >= tolSq) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, 2 * n);
+                }
+                result[n++] = i;
+                lastEast = east;
+                lastNorth = north;
+            }
+        }
+        // not worth it if most points are painted anyway
+        int[] points = n > size * 3 / 4 ? null : Arrays.copyOf(result, n);
+        synchronized (this) {
+            if (decimatedPoints.containsKey(level))
+                return decimatedPoints.get(level);
+            decimatedPoints.put(level, points);
+        }
+        return points;
+    }
+}
@@ -30,6 +30,25 @@ public class ImmutableGpxTrack implements GpxTrack {
         this.bounds = calculateBounds();
     }
 
+    /**
+     * Creates a track of segments, see {@link ImmutableGpxTrackSegment.Builder}. Empty segments are skipped.
+     *
+     * @param segments the segments
+     * @param attributes the attributes of the track
+     */
+    public ImmutableGpxTrack(List<GpxTrackSegment> segments, Map<String, Object> attributes) {
+        List<GpxTrackSegment> newSegments = new ArrayList<GpxTrackSegment>(segments.size());
+        for (GpxTrackSegment segment : segments) {
+            if (segment.getWayPointCount() > 0) {
+                newSegments.add(segment);
+            }
+        }
+        this.attributes = Collections.unmodifiableMap(new HashMap<String, Object>(attributes));
+        this.segments = Collections.unmodifiableCollection(newSegments);
+        this.length = calculateLength();
+        this.bounds = calculateBounds();
+    }
+
     private double calculateLength(){
         double result = 0.0; // in meters
 
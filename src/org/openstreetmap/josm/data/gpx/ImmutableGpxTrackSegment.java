@@ -1,47 +1,126 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.gpx;
 
-import java.util.ArrayList;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
 
+/**
+ * A read-only track segment which stores its way points in arrays of primitive values.
+ *
+ * Coordinates, times and the common numeric attributes take a few bytes per point, all other
+ * attributes are only stored for the points which have them. The {@link WayPoint}s replied by
+ * {@link #getWayPoint(int)} and {@link #getWayPoints()} are created on demand, changes to them
+ * are not stored in the segment. The time of a point is replied in the UTC format of the gpx
+ * specification, regardless of the format it was read in.
+ */
 public class ImmutableGpxTrackSegment implements GpxTrackSegment {
 
-    private final Collection<WayPoint> wayPoints;
+    /** attributes which are stored as numbers, but which are strings in way points */
+    private static final String[] NUMBER_KEYS = {"ele", "speed", "course"};
+    /** attributes which are stored as floats, and which are {@link Float}s in way points */
+    private static final String[] FLOAT_KEYS = {"hdop", "vdop", "pdop"};
+    private static final int ELE = 0;
+    private static final int SPEED = 1;
+    private static final int HDOP = 0;
+
+    private static final ThreadLocal<SimpleDateFormat[]> timeFormats = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override protected SimpleDateFormat[] initialValue() {
+            SimpleDateFormat[] formats = {
+                    new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"),
+                    new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            };
+            for (SimpleDateFormat f : formats) {
+                f.setTimeZone(TimeZone.getTimeZone("UTC"));
+            }
+            return formats;
+        }
+    };
+
+    private final int size;
+    private final double[] lat;
+    private final double[] lon;
+    /** the times in seconds since the epoch, 0 for points without time */
+    private final double[] time;
+    /** the values of {@link #NUMBER_KEYS}, null if no point has the attribute, NaN for points without it */
+    private final double[][] numbers;
+    /** the values of {@link #FLOAT_KEYS}, null if no point has the attribute, NaN for points without it */
+    private final float[][] floats;
+    /** the other attributes of the points, null if no point has other attributes */
+    private final Object[] otherAttributes;
     private final Bounds bounds;
     private final double length;
+    /** the projected coordinates, east and north alternating, null if not computed yet */
+    private volatile double[] eastNorth;
 
     public ImmutableGpxTrackSegment(Collection<WayPoint> wayPoints) {
-        this.wayPoints = Collections.unmodifiableCollection(new ArrayList<WayPoint>(wayPoints));
+        this(new Builder(wayPoints.size()).addAll(wayPoints));
+    }
+
+    private ImmutableGpxTrackSegment(Builder builder) {
+        this.size = builder.size;
+        this.lat = Arrays.copyOf(builder.lat, size);
+        this.lon = Arrays.copyOf(builder.lon, size);
+        this.time = Arrays.copyOf(builder.time, size);
+        this.numbers = new double[NUMBER_KEYS.length][];
+        for (int k = 0; k < numbers.length; k++) {
+            if (builder.numbers[k] != null) {
+                numbers[k] = Arrays.copyOf(builder.numbers[k], size);
+            }
+        }
+        this.floats = new float[FLOAT_KEYS.length][];
+        for (int k = 0; k < floats.length; k++) {
+            if (builder.floats[k] != null) {
+                floats[k] = Arrays.copyOf(builder.floats[k], size);
+            }
+        }
+        this.otherAttributes = builder.otherAttributes == null ? null : Arrays.copyOf(builder.otherAttributes, size);
         this.bounds = calculateBounds();
         this.length = calculateLength();
     }
 
     private Bounds calculateBounds() {
-        Bounds result = null;
-        for (WayPoint wpt: wayPoints) {
-            if (result == null) {
-                result = new Bounds(wpt.getCoor());
-            } else {
-                result.extend(wpt.getCoor());
+        if (size == 0)
+            return null;
+        double minLat = lat[0], minLon = lon[0], maxLat = lat[0], maxLon = lon[0];
+        for (int i = 1; i < size; i++) {
+            if (lat[i] < minLat) {
+                minLat = lat[i];
+            } else if (lat[i] > maxLat) {
+                maxLat = lat[i];
+            }
+            if (lon[i] < minLon) {
+                minLon = lon[i];
+            } else if (lon[i] > maxLon) {
+                maxLon = lon[i];
             }
         }
-        return result;
+        return new Bounds(minLat, minLon, maxLat, maxLon);
     }
 
     private double calculateLength() {
         double result = 0.0; // in meters
-        WayPoint last = null;
-        for (WayPoint tpt : wayPoints) {
-            if(last != null){
-                Double d = last.getCoor().greatCircleDistance(tpt.getCoor());
-                if(!d.isNaN() && !d.isInfinite()) {
+        LatLon last = null;
+        for (int i = 0; i < size; i++) {
+            LatLon c = new LatLon(lat[i], lon[i]);
+            if (last != null) {
+                double d = last.greatCircleDistance(c);
+                if (!Double.isNaN(d) && !Double.isInfinite(d)) {
                     result += d;
                 }
             }
-            last = tpt;
+            last = c;
         }
         return result;
     }
@@ -53,8 +132,18 @@ public class ImmutableGpxTrackSegment implements GpxTrackSegment {
             return new Bounds(bounds);
     }
 
-    public Collection<WayPoint> getWayPoints() {
-        return wayPoints;
+    public List<WayPoint> getWayPoints() {
+        return new AbstractList<WayPoint>() {
+            @Override
+            public WayPoint get(int index) {
+                return getWayPoint(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     public double length() {
@@ -65,4 +154,268 @@ public class ImmutableGpxTrackSegment implements GpxTrackSegment {
         return 0;
     }
 
+    public int getWayPointCount() {
+        return size;
+    }
+
+    public double getLat(int index) {
+        checkIndex(index);
+        return lat[index];
+    }
+
+    public double getLon(int index) {
+        checkIndex(index);
+        return lon[index];
+    }
+
+    public double getTime(int index) {
+        checkIndex(index);
+        return time[index];
+    }
+
+    public float getHdop(int index) {
+        checkIndex(index);
+        return floats[HDOP] == null ? Float.NaN : floats[HDOP][index];
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the elevation of the point, NaN if unknown
+     */
+    public double getElevation(int index) {
+        checkIndex(index);
+        return numbers[ELE] == null ? Double.NaN : numbers[ELE][index];
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the speed of the point as read from the file, NaN if unknown
+     */
+    public double getSpeed(int index) {
+        checkIndex(index);
+        return numbers[SPEED] == null ? Double.NaN : numbers[SPEED][index];
+    }
+
+    public double getEast(int index) {
+        checkIndex(index);
+        return getEastNorthCache()[2 * index];
+    }
+
+    public double getNorth(int index) {
+        checkIndex(index);
+        return getEastNorthCache()[2 * index + 1];
+    }
+
+    private double[] getEastNorthCache() {
+        double[] cache = eastNorth;
+        if (cache == null) {
+            cache = new double[2 * size];
+            for (int i = 0; i < size; i++) {
+                EastNorth en = Projections.project(new LatLon(lat[i], lon[i]));
+                cache[2 * i] = en.east();
+                cache[2 * i + 1] = en.north();
+            }
+            eastNorth = cache;
+        }
+        return cache;
+    }
+
+    public void invalidateEastNorthCache() {
+        eastNorth = null;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    @SuppressWarnings("unchecked")
+    public WayPoint getWayPoint(int index) {
+        checkIndex(index);
+        WayPoint wp = new WayPoint(new LatLon(lat[index], lon[index]));
+        if (otherAttributes != null && otherAttributes[index] != null) {
+            wp.attr.putAll((Map<String, Object>) otherAttributes[index]);
+        }
+        wp.time = time[index];
+        if (time[index] != 0 && !wp.attr.containsKey("time")) {
+            wp.attr.put("time", formatTime(time[index]));
+        }
+        for (int k = 0; k < numbers.length; k++) {
+            if (numbers[k] != null && !Double.isNaN(numbers[k][index])) {
+                wp.attr.put(NUMBER_KEYS[k], formatNumber(numbers[k][index]));
+            }
+        }
+        for (int k = 0; k < floats.length; k++) {
+            if (floats[k] != null && !Float.isNaN(floats[k][index])) {
+                wp.attr.put(FLOAT_KEYS[k], floats[k][index]);
+            }
+        }
+        double[] cache = eastNorth;
+        if (cache != null) {
+            wp.setEastNorth(cache[2 * index], cache[2 * index + 1]);
+        }
+        return wp;
+    }
+
+    private static String formatTime(double time) {
+        long millis = Math.round(time * 1000);
+        return timeFormats.get()[millis % 1000 == 0 ? 0 : 1].format(new Date(millis));
+    }
+
+    private static String formatNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /**
+     * Parses a numeric attribute of a way point
+     *
+     * @return the value, or NaN if the attribute can't be stored as number without changing it
+     */
+    private static double parseNumber(String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if (!Double.isNaN(result) && formatNumber(result).equals(value))
+                return result;
+        } catch (NumberFormatException e) {
+            // stored as string
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Collects way points for a {@link ImmutableGpxTrackSegment} without keeping them.
+     */
+    public static class Builder {
+        private int size;
+        private double[] lat;
+        private double[] lon;
+        private double[] time;
+        private final double[][] numbers = new double[NUMBER_KEYS.length][];
+        private final float[][] floats = new float[FLOAT_KEYS.length][];
+        private Object[] otherAttributes;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int initialCapacity) {
+            initialCapacity = Math.max(initialCapacity, 1);
+            lat = new double[initialCapacity];
+            lon = new double[initialCapacity];
+            time = new double[initialCapacity];
+        }
+
+        private void ensureCapacity() {
+            if (size < lat.length)
+                return;
+            int capacity = lat.length * 2;
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+            time = Arrays.copyOf(time, capacity);
+            for (int k = 0; k < numbers.length; k++) {
+                if (numbers[k] != null) {
+                    numbers[k] = grow(numbers[k], capacity);
+                }
+            }
+            for (int k = 0; k < floats.length; k++) {
+                if (floats[k] != null) {
+                    floats[k] = grow(floats[k], capacity);
+                }
+            }
+            if (otherAttributes != null) {
+                otherAttributes = Arrays.copyOf(otherAttributes, capacity);
+            }
+        }
+
+        private static double[] grow(double[] values, int capacity) {
+            double[] result = Arrays.copyOf(values, capacity);
+            Arrays.fill(result, values.length, capacity, Double.NaN);
+            return result;
+        }
+
+        private static float[] grow(float[] values, int capacity) {
+            float[] result = Arrays.copyOf(values, capacity);
+            Arrays.fill(result, values.length, capacity, Float.NaN);
+            return result;
+        }
+
+        /**
+         * Appends a way point. The way point isn't referenced by the segment.
+         *
+         * @param wp the way point
+         * @return this builder
+         */
+        public Builder add(WayPoint wp) {
+            ensureCapacity();
+            LatLon c = wp.getCoor();
+            lat[size] = c.lat();
+            lon[size] = c.lon();
+            time[size] = wp.time;
+            Map<String, Object> other = null;
+            for (Map.Entry<String, Object> e : wp.attr.entrySet()) {
+                if (!addAttribute(e.getKey(), e.getValue(), wp.time)) {
+                    if (other == null) {
+                        other = new HashMap<String, Object>(4);
+                    }
+                    other.put(e.getKey(), e.getValue());
+                }
+            }
+            if (other != null) {
+                if (otherAttributes == null) {
+                    otherAttributes = new Object[lat.length];
+                }
+                otherAttributes[size] = other;
+            }
+            size++;
+            return this;
+        }
+
+        private boolean addAttribute(String key, Object value, double wpTime) {
+            if (key.equals("time"))
+                // the time is formatted again from the parsed value
+                return value instanceof String && wpTime != 0;
+            if (value instanceof String) {
+                for (int k = 0; k < NUMBER_KEYS.length; k++) {
+                    if (NUMBER_KEYS[k].equals(key)) {
+                        double number = parseNumber((String) value);
+                        if (Double.isNaN(number))
+                            return false;
+                        if (numbers[k] == null) {
+                            numbers[k] = grow(new double[0], lat.length);
+                        }
+                        numbers[k][size] = number;
+                        return true;
+                    }
+                }
+            } else if (value instanceof Float && !((Float) value).isNaN()) {
+                for (int k = 0; k < FLOAT_KEYS.length; k++) {
+                    if (FLOAT_KEYS[k].equals(key)) {
+                        if (floats[k] == null) {
+                            floats[k] = grow(new float[0], lat.length);
+                        }
+                        floats[k][size] = (Float) value;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public Builder addAll(Collection<WayPoint> wayPoints) {
+            for (WayPoint wp : wayPoints) {
+                add(wp);
+            }
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ImmutableGpxTrackSegment build() {
+            return new ImmutableGpxTrackSegment(this);
+        }
+    }
 }
@@ -67,6 +67,14 @@ public class WayPoint extends WithAttributes implements Comparable<WayPoint>, Te
         this.north = Double.NaN;
     }
 
+    /**
+     * Fills the internal cache of projected coordinates.
+     */
+    void setEastNorth(double east, double north) {
+        this.east = east;
+        this.north = north;
+    }
+
     public final LatLon getCoor() {
         return new LatLon(lat,lon);
     }
@@ -5,27 +5,39 @@ package org.openstreetmap.josm.data.imagery;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.lang.ref.SoftReference;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLConnection;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 import javax.xml.bind.JAXBContext;
@@ -39,34 +51,100 @@ import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.imagery.types.EntryType;
 import org.openstreetmap.josm.data.imagery.types.ProjectionType;
 import org.openstreetmap.josm.data.imagery.types.WmsCacheType;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.data.preferences.StringProperty;
 import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.tools.Utils;
 
 
-
+/**
+ * <p>Disk cache for the images of a WMS layer.</p>
+ *
+ * <p>The index of the cached images is kept in concurrent maps, so that the grabber threads
+ * don't wait for each other. Added and removed images are appended to a journal next to
+ * the index file by a background thread, the whole index is only written by {@link #saveIndex()}.
+ * The images of partial matches are kept in a memory cache of limited size, the least recently
+ * used images are dropped first. When the files exceed the maximal disk size, the least recently
+ * used files are deleted.</p>
+ */
 public class WmsCache {
-    //TODO Property for maximum cache size
     //TODO Property for maximum age of tile, automatically remove old tiles
     //TODO Measure time for partially loading from cache, compare with time to download tile. If slower, disable partial cache
     //TODO Do loading from partial cache and downloading at the same time, don't wait for partical cache to load
 
     private static final StringProperty PROP_CACHE_PATH = new StringProperty("imagery.wms-cache.path", "wms");
+    /** maximal size of the files of one cache, in megabytes */
+    public static final IntegerProperty PROP_MAX_DISK_SIZE = new IntegerProperty("imagery.wms-cache.max-disk-size", 500);
+    /** maximal size of the images kept in memory by one cache, in megabytes */
+    public static final IntegerProperty PROP_MAX_MEMORY_SIZE = new IntegerProperty("imagery.wms-cache.max-memory-size", 64);
     private static final String INDEX_FILENAME = "index.xml";
     private static final String LAYERS_INDEX_FILENAME = "layers.properties";
+    private static final String JOURNAL_FILENAME = "index.journal";
+
+    private static ExecutorService indexWriter;
+
+    /**
+     * Replies the thread which appends to the journals, saves the indexes and deletes files
+     * when a cache is too large. The thread is shared by all caches.
+     */
+    private static synchronized ExecutorService getIndexWriter() {
+        if (indexWriter == null) {
+            indexWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "wms-cache-index-writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return indexWriter;
+    }
+
+    private static class TileKey {
+        final double pixelPerDegree;
+        final double east;
+        final double north;
+
+        TileKey(double pixelPerDegree, double east, double north) {
+            this.pixelPerDegree = pixelPerDegree;
+            this.east = east;
+            this.north = north;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(pixelPerDegree);
+            bits = bits * 31 + Double.doubleToLongBits(east);
+            bits = bits * 31 + Double.doubleToLongBits(north);
+            return (int) (bits ^ (bits >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey))
+                return false;
+            TileKey other = (TileKey) obj;
+            return pixelPerDegree == other.pixelPerDegree && east == other.east && north == other.north;
+        }
+    }
 
     private static class CacheEntry {
+        final TileKey key;
         final double pixelPerDegree;
         final double east;
         final double north;
         final ProjectionBounds bounds;
         final String filename;
 
-        long lastUsed;
-        long lastModified;
+        volatile long lastUsed;
+        volatile long lastModified;
+        /** size of the file, -1 if not known yet. Guarded by the entry. */
+        long fileSize = -1;
 
         CacheEntry(double pixelPerDegree, double east, double north, int tileSize, String filename) {
+            this.key = new TileKey(pixelPerDegree, east, north);
             this.pixelPerDegree = pixelPerDegree;
             this.east = east;
             this.north = north;
@@ -78,7 +156,8 @@ public class WmsCache {
     private static class ProjectionEntries {
         final String projection;
         final String cacheDirectory;
-        final List<CacheEntry> entries = new ArrayList<WmsCache.CacheEntry>();
+        final ConcurrentMap<TileKey, CacheEntry> entries = new ConcurrentHashMap<TileKey, CacheEntry>();
+        final Set<String> filenames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
         ProjectionEntries(String projection, String cacheDirectory) {
             this.projection = projection;
@@ -86,14 +165,18 @@ public class WmsCache {
         }
     }
 
-    private final Map<String, ProjectionEntries> entries = new HashMap<String, ProjectionEntries>();
+    private final ConcurrentMap<String, ProjectionEntries> entries = new ConcurrentHashMap<String, ProjectionEntries>();
     private final File cacheDir;
     private final int tileSize; // Should be always 500
-    private int totalFileSize;
-    private boolean totalFileSizeDirty; // Some file was missing - size needs to be recalculated
+    private final AtomicLong totalFileSize = new AtomicLong();
+    private final AtomicBoolean diskSizeCheckScheduled = new AtomicBoolean();
     // No need for hashCode/equals on CacheEntry, object identity is enough. Comparing by values can lead to error - CacheEntry for wrong projection could be found
-    private Map<CacheEntry, SoftReference<BufferedImage>> memoryCache = new HashMap<WmsCache.CacheEntry, SoftReference<BufferedImage>>();
-    private Set<ProjectionBounds> areaToCache;
+    // Access order, the least recently used images are dropped first. Guarded by itself.
+    private final Map<CacheEntry, BufferedImage> memoryCache = new LinkedHashMap<CacheEntry, BufferedImage>(16, 0.75f, true);
+    private long memoryCacheSize; // Guarded by memoryCache
+    private Set<ProjectionBounds> areaToCache; // Guarded by memoryCache
+    private final ConcurrentLinkedQueue<String> pendingJournal = new ConcurrentLinkedQueue<String>();
+    private final AtomicBoolean journalWriteScheduled = new AtomicBoolean();
 
     protected String cacheDirPath() {
         String cPath = PROP_CACHE_PATH.get();
@@ -186,13 +269,20 @@ public class WmsCache {
         ProjectionEntries result = entries.get(projection);
         if (result == null) {
             result = new ProjectionEntries(projection, cacheDirectory);
-            entries.put(projection, result);
+            ProjectionEntries existing = entries.putIfAbsent(projection, result);
+            if (existing != null)
+                return existing;
         }
 
         return result;
     }
 
-    public synchronized void loadIndex() {
+    private void addEntry(ProjectionEntries projectionEntries, CacheEntry entry) {
+        projectionEntries.entries.put(entry.key, entry);
+        projectionEntries.filenames.add(entry.filename);
+    }
+
+    public void loadIndex() {
         File indexFile = new File(cacheDir, INDEX_FILENAME);
         try {
             JAXBContext context = JAXBContext.newInstance(
@@ -200,7 +290,7 @@ public class WmsCache {
                     WmsCacheType.class.getClassLoader());
             Unmarshaller unmarshaller = context.createUnmarshaller();
             WmsCacheType cacheEntries = (WmsCacheType)unmarshaller.unmarshal(new FileInputStream(indexFile));
-            totalFileSize = cacheEntries.getTotalFileSize();
+            totalFileSize.set(cacheEntries.getTotalFileSize());
             if (cacheEntries.getTileSize() != tileSize) {
                 System.out.println("Cache created with different tileSize, cache will be discarded");
                 return;
@@ -211,7 +301,7 @@ public class WmsCache {
                     CacheEntry ce = new CacheEntry(entry.getPixelPerDegree(), entry.getEast(), entry.getNorth(), tileSize, entry.getFilename());
                     ce.lastUsed = entry.getLastUsed().getTimeInMillis();
                     ce.lastModified = entry.getLastModified().getTimeInMillis();
-                    projection.entries.add(ce);
+                    addEntry(projection, ce);
                 }
             }
         } catch (Exception e) {
@@ -223,7 +313,60 @@ public class WmsCache {
             }
         }
 
+        loadJournal();
         removeNonReferencedFiles();
+        checkDiskSize();
+    }
+
+    /**
+     * Applies the changes appended to the journal since the index was saved
+     */
+    private void loadJournal() {
+        File journalFile = new File(cacheDir, JOURNAL_FILENAME);
+        if (!journalFile.exists())
+            return;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    try {
+                        if (fields.length == 10 && "+".equals(fields[0]) && Integer.parseInt(fields[3]) == tileSize) {
+                            ProjectionEntries projection = getProjectionEntries(fields[1], fields[2]);
+                            CacheEntry ce = new CacheEntry(Double.parseDouble(fields[4]), Double.parseDouble(fields[5]),
+                                    Double.parseDouble(fields[6]), tileSize, fields[9]);
+                            ce.lastUsed = ce.lastModified = Long.parseLong(fields[7]);
+                            ce.fileSize = Long.parseLong(fields[8]);
+                            CacheEntry old = projection.entries.get(ce.key);
+                            if (old == null || !old.filename.equals(ce.filename)) {
+                                addEntry(projection, ce);
+                                totalFileSize.addAndGet(ce.fileSize);
+                            }
+                        } else if (fields.length == 7 && "-".equals(fields[0])) {
+                            ProjectionEntries projection = entries.get(fields[1]);
+                            if (projection != null) {
+                                TileKey key = new TileKey(Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                                        Double.parseDouble(fields[4]));
+                                CacheEntry old = projection.entries.get(key);
+                                if (old != null && old.filename.equals(fields[6])) {
+                                    projection.entries.remove(key);
+                                    projection.filenames.remove(old.filename);
+                                    totalFileSize.addAndGet(-Long.parseLong(fields[5]));
+                                }
+                            }
+                        }
+                    } catch (NumberFormatException e) {
+                        // an incompletely written line, skip it
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to load journal of wms-cache");
+            e.printStackTrace();
+        }
     }
 
     private void removeNonReferencedFiles() {
@@ -236,14 +379,8 @@ public class WmsCache {
 
             File projectionDir = new File(cacheDir, projectionEntries.cacheDirectory);
             if (projectionDir.exists()) {
-                Set<String> referencedFiles = new HashSet<String>();
-
-                for (CacheEntry ce: projectionEntries.entries) {
-                    referencedFiles.add(ce.filename);
-                }
-
                 for (File file: projectionDir.listFiles()) {
-                    if (!referencedFiles.contains(file.getName())) {
+                    if (!projectionEntries.filenames.contains(file.getName())) {
                         file.delete();
                     }
                 }
@@ -257,39 +394,38 @@ public class WmsCache {
         }
     }
 
-    private int calculateTotalFileSize() {
-        int result = 0;
-        for (ProjectionEntries projectionEntries: entries.values()) {
-            Iterator<CacheEntry> it = projectionEntries.entries.iterator();
-            while (it.hasNext()) {
-                CacheEntry entry = it.next();
-                File imageFile = getImageFile(projectionEntries, entry);
-                if (!imageFile.exists()) {
-                    it.remove();
-                } else {
-                    result += imageFile.length();
+    /**
+     * Writes the whole index and empties the journal. Waits until the index is written.
+     */
+    public void saveIndex() {
+        try {
+            getIndexWriter().submit(new Runnable() {
+                @Override
+                public void run() {
+                    writeJournal();
+                    writeIndex();
                 }
-            }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Failed to save wms-cache file");
+            e.getCause().printStackTrace();
         }
-        return result;
     }
 
-    public synchronized void saveIndex() {
+    private void writeIndex() {
         WmsCacheType index = new WmsCacheType();
 
-        if (totalFileSizeDirty) {
-            totalFileSize = calculateTotalFileSize();
-        }
-
         index.setTileSize(tileSize);
-        index.setTotalFileSize(totalFileSize);
+        index.setTotalFileSize((int) Math.min(Integer.MAX_VALUE, Math.max(0, totalFileSize.get())));
         for (ProjectionEntries projectionEntries: entries.values()) {
             if (projectionEntries.entries.size() > 0) {
                 ProjectionType projectionType = new ProjectionType();
                 projectionType.setName(projectionEntries.projection);
                 projectionType.setCacheDirectory(projectionEntries.cacheDirectory);
                 index.getProjection().add(projectionType);
-                for (CacheEntry ce: projectionEntries.entries) {
+                for (CacheEntry ce: projectionEntries.entries.values()) {
                     EntryType entry = new EntryType();
                     entry.setPixelPerDegree(ce.pixelPerDegree);
                     entry.setEast(ce.east);
@@ -305,76 +441,219 @@ public class WmsCache {
                 }
             }
         }
+        File indexFile = new File(cacheDir, INDEX_FILENAME);
+        File tmpFile = new File(cacheDir, INDEX_FILENAME + ".tmp");
         try {
             JAXBContext context = JAXBContext.newInstance(
                     WmsCacheType.class.getPackage().getName(),
                     WmsCacheType.class.getClassLoader());
             Marshaller marshaller = context.createMarshaller();
-            marshaller.marshal(index, new FileOutputStream(new File(cacheDir, INDEX_FILENAME)));
+            OutputStream os = new FileOutputStream(tmpFile);
+            try {
+                marshaller.marshal(index, os);
+            } finally {
+                os.close();
+            }
+            if (!replaceFile(tmpFile, indexFile))
+                throw new IOException("Unable to rename " + tmpFile + " to " + indexFile);
+            // the index contains all changes written to the journal so far
+            new File(cacheDir, JOURNAL_FILENAME).delete();
         } catch (Exception e) {
             System.err.println("Failed to save wms-cache file");
             e.printStackTrace();
         }
     }
 
+    private static boolean replaceFile(File source, File target) {
+        if (source.renameTo(target))
+            return true;
+        // renameTo doesn't replace existing files on all platforms
+        target.delete();
+        return source.renameTo(target);
+    }
+
+    /**
+     * Appends a line to the journal in the background
+     */
+    private void journal(String line) {
+        pendingJournal.add(line);
+        if (journalWriteScheduled.compareAndSet(false, true)) {
+            getIndexWriter().execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeJournal();
+                }
+            });
+        }
+    }
+
+    private void writeJournal() {
+        journalWriteScheduled.set(false);
+        if (pendingJournal.isEmpty())
+            return;
+        try {
+            Writer writer = new OutputStreamWriter(new BufferedOutputStream(
+                    new FileOutputStream(new File(cacheDir, JOURNAL_FILENAME), true)), "UTF-8");
+            try {
+                String line;
+                while ((line = pendingJournal.poll()) != null) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write journal of wms-cache");
+            e.printStackTrace();
+        }
+    }
+
+    private void journalAdded(ProjectionEntries projectionEntries, CacheEntry entry, long size) {
+        journal("+\t" + projectionEntries.projection + "\t" + projectionEntries.cacheDirectory + "\t" + tileSize
+                + "\t" + entry.pixelPerDegree + "\t" + entry.east + "\t" + entry.north + "\t" + entry.lastModified
+                + "\t" + size + "\t" + entry.filename);
+    }
+
+    private void journalRemoved(ProjectionEntries projectionEntries, CacheEntry entry, long size) {
+        journal("-\t" + projectionEntries.projection + "\t" + entry.pixelPerDegree + "\t" + entry.east + "\t" + entry.north
+                + "\t" + size + "\t" + entry.filename);
+    }
+
     private File getImageFile(ProjectionEntries projection, CacheEntry entry) {
         return new File(cacheDir, projection.cacheDirectory + "/" + entry.filename);
     }
 
+    /**
+     * Removes an entry from the index and deletes its file
+     */
+    private void removeEntry(ProjectionEntries projectionEntries, CacheEntry entry) {
+        if (!projectionEntries.entries.remove(entry.key, entry))
+            return;
+        long size;
+        synchronized (entry) {
+            File file = getImageFile(projectionEntries, entry);
+            size = entry.fileSize >= 0 ? entry.fileSize : file.length();
+            file.delete();
+            totalFileSize.addAndGet(-size);
+            entry.fileSize = 0;
+        }
+        projectionEntries.filenames.remove(entry.filename);
+        synchronized (memoryCache) {
+            removeFromMemory(entry);
+        }
+        journalRemoved(projectionEntries, entry, size);
+    }
 
-    private BufferedImage loadImage(ProjectionEntries projectionEntries, CacheEntry entry) throws IOException {
+    /**
+     * Deletes the least recently used files in the background if the files exceed the maximal disk size
+     */
+    private void checkDiskSize() {
+        if (totalFileSize.get() > PROP_MAX_DISK_SIZE.get() * 1024L * 1024L && diskSizeCheckScheduled.compareAndSet(false, true)) {
+            getIndexWriter().execute(new Runnable() {
+                @Override
+                public void run() {
+                    diskSizeCheckScheduled.set(false);
+                    reduceDiskSize();
+                }
+            });
+        }
+    }
 
-        synchronized (this) {
-            entry.lastUsed = System.currentTimeMillis();
+    private void reduceDiskSize() {
+        long maxSize = PROP_MAX_DISK_SIZE.get() * 1024L * 1024L;
+        if (totalFileSize.get() <= maxSize)
+            return;
+        final Map<CacheEntry, ProjectionEntries> allEntries = new LinkedHashMap<CacheEntry, ProjectionEntries>();
+        for (ProjectionEntries projectionEntries: entries.values()) {
+            for (CacheEntry entry: projectionEntries.entries.values()) {
+                allEntries.put(entry, projectionEntries);
+            }
+        }
+        List<CacheEntry> sorted = new ArrayList<CacheEntry>(allEntries.keySet());
+        final Map<CacheEntry, Long> lastUsed = new LinkedHashMap<CacheEntry, Long>();
+        for (CacheEntry entry: sorted) {
+            lastUsed.put(entry, entry.lastUsed);
+        }
+        Collections.sort(sorted, new Comparator<CacheEntry>() {
+            @Override
+            public int compare(CacheEntry o1, CacheEntry o2) {
+                return lastUsed.get(o1).compareTo(lastUsed.get(o2));
+            }
+        });
+        // delete a tenth more than necessary, so that the files don't have to be sorted after every download
+        long targetSize = maxSize - maxSize / 10;
+        for (Iterator<CacheEntry> it = sorted.iterator(); it.hasNext() && totalFileSize.get() > targetSize;) {
+            CacheEntry entry = it.next();
+            removeEntry(allEntries.get(entry), entry);
+        }
+    }
+
+    private static long getImageSize(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() * img.getColorModel().getPixelSize() / 8;
+    }
+
+    /**
+     * Removes an image from the memory cache. Must be called with the memory cache locked.
+     */
+    private void removeFromMemory(CacheEntry entry) {
+        BufferedImage img = memoryCache.remove(entry);
+        if (img != null) {
+            memoryCacheSize -= getImageSize(img);
+        }
+    }
 
-            SoftReference<BufferedImage> memCache = memoryCache.get(entry);
-            if (memCache != null) {
-                BufferedImage result = memCache.get();
-                if (result != null)
-                    return result;
+    private void putInMemory(CacheEntry entry, BufferedImage img) {
+        long maxSize = PROP_MAX_MEMORY_SIZE.get() * 1024L * 1024L;
+        synchronized (memoryCache) {
+            removeFromMemory(entry);
+            memoryCache.put(entry, img);
+            memoryCacheSize += getImageSize(img);
+            for (Iterator<Map.Entry<CacheEntry, BufferedImage>> it = memoryCache.entrySet().iterator(); it.hasNext() && memoryCacheSize > maxSize;) {
+                Map.Entry<CacheEntry, BufferedImage> e = it.next();
+                if (e.getKey() != entry) {
+                    memoryCacheSize -= getImageSize(e.getValue());
+                    it.remove();
+                }
             }
         }
+    }
+
+    private BufferedImage loadImage(ProjectionEntries projectionEntries, CacheEntry entry) throws IOException {
+
+        entry.lastUsed = System.currentTimeMillis();
+
+        synchronized (memoryCache) {
+            BufferedImage result = memoryCache.get(entry);
+            if (result != null)
+                return result;
+        }
 
         try {
-            // Reading can't be in synchronized section, it's too slow
             BufferedImage result = ImageIO.read(getImageFile(projectionEntries, entry));
-            synchronized (this) {
-                if (result == null) {
-                    projectionEntries.entries.remove(entry);
-                    totalFileSizeDirty = true;
-                }
-                return result;
+            if (result == null) {
+                removeEntry(projectionEntries, entry);
             }
+            return result;
         } catch (IOException e) {
-            synchronized (this) {
-                projectionEntries.entries.remove(entry);
-                totalFileSizeDirty = true;
-                throw e;
-            }
+            removeEntry(projectionEntries, entry);
+            throw e;
         }
     }
 
     private CacheEntry findEntry(ProjectionEntries projectionEntries, double pixelPerDegree, double east, double north) {
-        for (CacheEntry entry: projectionEntries.entries) {
-            if (entry.pixelPerDegree == pixelPerDegree && entry.east == east && entry.north == north)
-                return entry;
-        }
-        return null;
+        return projectionEntries.entries.get(new TileKey(pixelPerDegree, east, north));
     }
 
-    public synchronized boolean hasExactMatch(Projection projection, double pixelPerDegree, double east, double north) {
+    public boolean hasExactMatch(Projection projection, double pixelPerDegree, double east, double north) {
         ProjectionEntries projectionEntries = getProjectionEntries(projection);
         CacheEntry entry = findEntry(projectionEntries, pixelPerDegree, east, north);
         return (entry != null);
     }
 
     public BufferedImage getExactMatch(Projection projection, double pixelPerDegree, double east, double north) {
-        CacheEntry entry = null;
-        ProjectionEntries projectionEntries = null;
-        synchronized (this) {
-            projectionEntries = getProjectionEntries(projection);
-            entry = findEntry(projectionEntries, pixelPerDegree, east, north);
-        }
+        ProjectionEntries projectionEntries = getProjectionEntries(projection);
+        CacheEntry entry = findEntry(projectionEntries, pixelPerDegree, east, north);
         if (entry != null) {
             try {
                 return loadImage(projectionEntries, entry);
@@ -388,55 +667,53 @@ public class WmsCache {
     }
 
     public  BufferedImage getPartialMatch(Projection projection, double pixelPerDegree, double east, double north) {
-        ProjectionEntries projectionEntries;
-        List<CacheEntry> matches;
-        synchronized (this) {
-            matches = new ArrayList<WmsCache.CacheEntry>();
-
-            double minPPD = pixelPerDegree / 5;
-            double maxPPD = pixelPerDegree * 5;
-            projectionEntries = getProjectionEntries(projection);
-
-            double size2 = tileSize / pixelPerDegree;
-            double border = tileSize * 0.01; // Make sure not to load neighboring tiles that intersects this tile only slightly
-            ProjectionBounds bounds = new ProjectionBounds(east + border, north + border,
-                    east + size2 - border, north + size2 - border);
-
-            //TODO Do not load tile if it is completely overlapped by other tile with better ppd
-            for (CacheEntry entry: projectionEntries.entries) {
-                if (entry.pixelPerDegree >= minPPD && entry.pixelPerDegree <= maxPPD && entry.bounds.intersects(bounds)) {
-                    entry.lastUsed = System.currentTimeMillis();
-                    matches.add(entry);
-                }
-            }
+        List<CacheEntry> matches = new ArrayList<WmsCache.CacheEntry>();
 
-            if (matches.isEmpty())
-                return null;
+        double minPPD = pixelPerDegree / 5;
+        double maxPPD = pixelPerDegree * 5;
+        ProjectionEntries projectionEntries = getProjectionEntries(projection);
 
+        double size2 = tileSize / pixelPerDegree;
+        double border = tileSize * 0.01; // Make sure not to load neighboring tiles that intersects this tile only slightly
+        ProjectionBounds bounds = new ProjectionBounds(east + border, north + border,
+                east + size2 - border, north + size2 - border);
 
-            Collections.sort(matches, new Comparator<CacheEntry>() {
-                @Override
-                public int compare(CacheEntry o1, CacheEntry o2) {
-                    return Double.compare(o2.pixelPerDegree, o1.pixelPerDegree);
-                }
-            });
+        //TODO Do not load tile if it is completely overlapped by other tile with better ppd
+        for (CacheEntry entry: projectionEntries.entries.values()) {
+            if (entry.pixelPerDegree >= minPPD && entry.pixelPerDegree <= maxPPD && entry.bounds.intersects(bounds)) {
+                entry.lastUsed = System.currentTimeMillis();
+                matches.add(entry);
+            }
         }
 
+        if (matches.isEmpty())
+            return null;
+
+
+        Collections.sort(matches, new Comparator<CacheEntry>() {
+            @Override
+            public int compare(CacheEntry o1, CacheEntry o2) {
+                return Double.compare(o2.pixelPerDegree, o1.pixelPerDegree);
+            }
+        });
+
         //TODO Use alpha layer only when enabled on wms layer
         BufferedImage result = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_4BYTE_ABGR);
         Graphics2D g = result.createGraphics();
 
 
         boolean drawAtLeastOnce = false;
-        Map<CacheEntry, SoftReference<BufferedImage>> localCache = new HashMap<WmsCache.CacheEntry, SoftReference<BufferedImage>>();
         for (CacheEntry ce: matches) {
             BufferedImage img;
             try {
                 img = loadImage(projectionEntries, ce);
-                localCache.put(ce, new SoftReference<BufferedImage>(img));
             } catch (IOException e) {
                 continue;
             }
+            if (img == null) {
+                continue;
+            }
+            putInMemory(ce, img);
 
             drawAtLeastOnce = true;
 
@@ -450,15 +727,15 @@ public class WmsCache {
             g.drawImage(img, x, y, size, size, null);
         }
 
-        if (drawAtLeastOnce) {
-            synchronized (this) {
-                memoryCache.putAll(localCache);
-            }
+        if (drawAtLeastOnce)
             return result;
-        } else
+        else
             return null;
     }
 
+    /**
+     * Generates a file name which is not used by another entry and reserves it
+     */
     private String generateFileName(ProjectionEntries projectionEntries, double pixelPerDegree, Projection projection, double east, double north, String mimeType) {
         LatLon ll1 = projection.eastNorth2latlon(new EastNorth(east, north));
         LatLon ll2 = projection.eastNorth2latlon(new EastNorth(east + 100 / pixelPerDegree, north));
@@ -482,17 +759,12 @@ public class WmsCache {
         }
 
         int counter = 0;
-        FILENAME_LOOP:
-            while (true) {
-                String result = String.format("%s_%." + precisionLat + "f_%." + precisionLon +"f%s.%s", zoom, ll1.lat(), ll1.lon(), counter==0?"":"_" + counter, extension);
-                for (CacheEntry entry: projectionEntries.entries) {
-                    if (entry.filename.equals(result)) {
-                        counter++;
-                        continue FILENAME_LOOP;
-                    }
-                }
+        while (true) {
+            String result = String.format("%s_%." + precisionLat + "f_%." + precisionLon +"f%s.%s", zoom, ll1.lat(), ll1.lon(), counter==0?"":"_" + counter, extension);
+            if (projectionEntries.filenames.add(result))
                 return result;
-            }
+            counter++;
+        }
     }
 
     /**
@@ -505,10 +777,9 @@ public class WmsCache {
      * @param north
      * @throws IOException
      */
-    public synchronized void saveToCache(BufferedImage img, InputStream imageData, Projection projection, double pixelPerDegree, double east, double north) throws IOException {
+    public void saveToCache(BufferedImage img, InputStream imageData, Projection projection, double pixelPerDegree, double east, double north) throws IOException {
         ProjectionEntries projectionEntries = getProjectionEntries(projection);
         CacheEntry entry = findEntry(projectionEntries, pixelPerDegree, east, north);
-        File imageFile;
         if (entry == null) {
 
             String mimeType;
@@ -517,46 +788,91 @@ public class WmsCache {
             } else {
                 mimeType = URLConnection.guessContentTypeFromStream(imageData);
             }
-            entry = new CacheEntry(pixelPerDegree, east, north, tileSize,generateFileName(projectionEntries, pixelPerDegree, projection, east, north, mimeType));
+            CacheEntry newEntry = new CacheEntry(pixelPerDegree, east, north, tileSize, generateFileName(projectionEntries, pixelPerDegree, projection, east, north, mimeType));
+            // publish the entry only when its file is complete, readers remove entries they can't load
+            File imageFile = getImageFile(projectionEntries, newEntry);
+            long size;
+            try {
+                size = writeImageFile(img, imageData, imageFile);
+            } catch (IOException e) {
+                projectionEntries.filenames.remove(newEntry.filename);
+                throw e;
+            }
+            newEntry.fileSize = size;
+            newEntry.lastUsed = System.currentTimeMillis();
+            newEntry.lastModified = newEntry.lastUsed;
+            if (projectionEntries.entries.putIfAbsent(newEntry.key, newEntry) != null) {
+                // another thread saved the same tile meanwhile, keep its file
+                imageFile.delete();
+                projectionEntries.filenames.remove(newEntry.filename);
+                return;
+            }
+            totalFileSize.addAndGet(size);
+            journalAdded(projectionEntries, newEntry, size);
+            checkDiskSize();
+            return;
+        }
+
+        synchronized (entry) {
+            if (projectionEntries.entries.get(entry.key) != entry) {
+                // removed by another thread meanwhile, add it again
+                saveToCache(img, imageData, projection, pixelPerDegree, east, north);
+                return;
+            }
+            File imageFile = getImageFile(projectionEntries, entry);
+            long oldSize = entry.fileSize >= 0 ? entry.fileSize : imageFile.length();
+            long size = writeImageFile(img, imageData, imageFile);
+            totalFileSize.addAndGet(size - oldSize);
+            entry.fileSize = size;
             entry.lastUsed = System.currentTimeMillis();
             entry.lastModified = entry.lastUsed;
-            projectionEntries.entries.add(entry);
-            imageFile = getImageFile(projectionEntries, entry);
-        } else {
-            imageFile = getImageFile(projectionEntries, entry);
-            totalFileSize -= imageFile.length();
+            journalAdded(projectionEntries, entry, size);
         }
+        synchronized (memoryCache) {
+            removeFromMemory(entry);
+        }
+        checkDiskSize();
+    }
 
+    /**
+     * Writes the image to a temporary file first and renames it, so that readers never see a
+     * partially written file
+     * @return the size of the file
+     */
+    private long writeImageFile(BufferedImage img, InputStream imageData, File imageFile) throws IOException {
         imageFile.getParentFile().mkdirs();
-
+        File tmpFile = new File(imageFile.getPath() + ".tmp");
+        long size;
         if (img != null) {
             BufferedImage copy = new BufferedImage(tileSize, tileSize, img.getType());
             copy.createGraphics().drawImage(img, 0, 0, tileSize, tileSize, 0, img.getHeight() - tileSize, tileSize, img.getHeight(), null);
-            ImageIO.write(copy, "png", imageFile);
-            totalFileSize += imageFile.length();
+            ImageIO.write(copy, "png", tmpFile);
+            size = tmpFile.length();
         } else {
-            OutputStream os = new BufferedOutputStream(new FileOutputStream(imageFile));
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile));
             try {
-                totalFileSize += Utils.copyStream(imageData, os);
+                size = Utils.copyStream(imageData, os);
             } finally {
                 os.close();
             }
         }
+        if (!replaceFile(tmpFile, imageFile)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + imageFile);
+        }
+        return size;
     }
 
-    public synchronized void cleanSmallFiles(int size) {
+    public void cleanSmallFiles(int size) {
         for (ProjectionEntries projectionEntries: entries.values()) {
-            Iterator<CacheEntry> it = projectionEntries.entries.iterator();
-            while (it.hasNext()) {
-                File file = getImageFile(projectionEntries, it.next());
-                long length = file.length();
+            for (CacheEntry entry: projectionEntries.entries.values()) {
+                long length;
+                synchronized (entry) {
+                    length = getImageFile(projectionEntries, entry).length();
+                    entry.fileSize = length;
+                }
                 if (length <= size) {
-                    if (length == 0) {
-                        totalFileSizeDirty = true; // File probably doesn't exist
-                    }
-                    totalFileSize -= size;
-                    file.delete();
-                    it.remove();
+                    removeEntry(projectionEntries, entry);
                 }
             }
         }
@@ -574,12 +890,16 @@ public class WmsCache {
         return false;
     }
 
-    public synchronized void setAreaToCache(Set<ProjectionBounds> areaToCache) {
-        this.areaToCache = areaToCache;
-        Iterator<CacheEntry> it = memoryCache.keySet().iterator();
-        while (it.hasNext()) {
-            if (!isInsideAreaToCache(it.next())) {
-                it.remove();
+    public void setAreaToCache(Set<ProjectionBounds> areaToCache) {
+        synchronized (memoryCache) {
+            this.areaToCache = areaToCache;
+            Iterator<Map.Entry<CacheEntry, BufferedImage>> it = memoryCache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<CacheEntry, BufferedImage> e = it.next();
+                if (!isInsideAreaToCache(e.getKey())) {
+                    memoryCacheSize -= getImageSize(e.getValue());
+                    it.remove();
+                }
             }
         }
     }
@@ -4,16 +4,20 @@ package org.openstreetmap.josm.data.osm;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.geom.Area;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -118,6 +122,8 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     // provide means to highlight map elements that are not osm primitives
     private Collection<WaySegment> highlightedVirtualNodes = new LinkedList<WaySegment>();
     private Collection<WaySegment> highlightedWaySegments = new LinkedList<WaySegment>();
+    /** the highlighted primitives, may include primitives removed meanwhile, see {@link #getHighlightedPrimitives()} */
+    private final Set<OsmPrimitive> highlightedPrimitives = new HashSet<OsmPrimitive>();
 
     // Number of open calls to beginUpdate
     private int updateCount;
@@ -131,6 +137,20 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Object selectionLock = new Object();
 
+    /**
+     * The last snapshot and the primitives changed since it was taken. The snapshot is not kept
+     * alive by the dataset, changes are recorded only as long as it is referenced elsewhere.
+     */
+    private WeakReference<DataSetSnapshot> snapshot;
+    private Set<OsmPrimitive> changedSinceSnapshot = createIdentitySet();
+    private final Object snapshotLock = new Object();
+
+    /**
+     * The index of the tags, created on first request.
+     */
+    private volatile TagIndex tagIndex;
+    private final Object tagIndexLock = new Object();
+
     public DataSet() {
         /*
          * Transparently register as projection change lister. No need to explicitly remove the
@@ -143,6 +163,71 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         return lock.readLock();
     }
 
+    private static Set<OsmPrimitive> createIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>());
+    }
+
+    /**
+     * Replies the current state of the primitives of this dataset. The snapshot doesn't change
+     * when the dataset is edited, so background tasks can read it without holding the read lock.
+     *
+     * The lock is held while the snapshot is created. If the previous snapshot is still in use,
+     * only the primitives changed since it was taken are copied, the others are shared with it.
+     *
+     * @return the snapshot
+     */
+    public DataSetSnapshot getSnapshot() {
+        synchronized (snapshotLock) {
+            lock.readLock().lock();
+            try {
+                DataSetSnapshot previous = snapshot != null ? snapshot.get() : null;
+                DataSetSnapshot result = new DataSetSnapshot(this, previous, changedSinceSnapshot);
+                snapshot = new WeakReference<DataSetSnapshot>(result);
+                if (!changedSinceSnapshot.isEmpty()) {
+                    changedSinceSnapshot = createIdentitySet();
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Replies the index of the tags of the primitives. The index is created on first request,
+     * then it is updated with every change of the dataset.
+     *
+     * @return the tag index
+     */
+    public TagIndex getTagIndex() {
+        synchronized (tagIndexLock) {
+            if (tagIndex == null) {
+                lock.readLock().lock();
+                try {
+                    tagIndex = new TagIndex(allPrimitives);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            return tagIndex;
+        }
+    }
+
+    /**
+     * Records that a primitive is changed, added or removed. Must be called while holding the write lock.
+     */
+    void primitiveChanged(OsmPrimitive primitive) {
+        if (snapshot != null) {
+            if (snapshot.get() != null) {
+                changedSinceSnapshot.add(primitive);
+            } else {
+                // the next snapshot copies all primitives
+                snapshot = null;
+                changedSinceSnapshot = createIdentitySet();
+            }
+        }
+    }
+
     /**
      * This method can be used to detect changes in highlight state of primitives. If highlighting was changed
      * then the method will return different number.
@@ -152,6 +237,27 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         return highlightUpdateCount;
     }
 
+    /**
+     * Replies the primitives of this dataset which are currently highlighted.
+     *
+     * @return a new set of the highlighted primitives
+     */
+    public Set<OsmPrimitive> getHighlightedPrimitives() {
+        Set<OsmPrimitive> result = new HashSet<OsmPrimitive>();
+        synchronized (highlightedPrimitives) {
+            for (Iterator<OsmPrimitive> it = highlightedPrimitives.iterator(); it.hasNext();) {
+                OsmPrimitive primitive = it.next();
+                if (primitive.getDataSet() == this && primitive.isHighlighted()) {
+                    result.add(primitive);
+                } else {
+                    // removed from the dataset while highlighted
+                    it.remove();
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * History of selections - shared by plugins and SelectionListDialog
      */
@@ -286,7 +392,7 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     /**
      * All relations/relationships
      */
-    private Collection<Relation> relations = new ArrayList<Relation>();
+    private QuadBuckets<Relation> relations = new QuadBuckets<Relation>();
 
     /**
      * Replies an unmodifiable collection of relations in this dataset
@@ -300,14 +406,7 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     public List<Relation> searchRelations(BBox bbox) {
         lock.readLock().lock();
         try {
-            // QuadBuckets might be useful here (don't forget to do reindexing after some of rm is changed)
-            List<Relation> result = new ArrayList<Relation>();
-            for (Relation r: relations) {
-                if (r.getBBox().intersects(bbox)) {
-                    result.add(r);
-                }
-            }
-            return result;
+            return relations.search(bbox);
         } finally {
             lock.readLock().unlock();
         }
@@ -369,12 +468,72 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
                 throw new RuntimeException("failed to add primitive: "+primitive);
             allPrimitives.add(primitive);
             primitive.setDataset(this);
+            if (tagIndex != null) {
+                tagIndex.add(primitive);
+            }
+            if (primitive.isHighlighted()) {
+                fireHighlightingChanged(primitive);
+            }
             firePrimitivesAdded(Collections.singletonList(primitive), false);
         } finally {
             endUpdate();
         }
     }
 
+    /**
+     * Adds a collection of primitives to the dataset. Nodes, ways and relations are bulk loaded
+     * into the spatial index (see {@link QuadBuckets#addAll(Collection)}), which is considerably faster than
+     * adding them one by one with {@link #addPrimitive(OsmPrimitive)} when loading large amounts of data.
+     *
+     * Ways and relations should be added only after all their members are part of the dataset.
+     *
+     * @param primitives the primitives
+     */
+    public void addPrimitives(Collection<? extends OsmPrimitive> primitives) {
+        beginUpdate();
+        try {
+            // check the whole batch first, so that a duplicate doesn't leave the dataset half updated
+            Storage<OsmPrimitive> batch = new Storage<OsmPrimitive>(new IdHash(), primitives.size());
+            for (OsmPrimitive primitive: primitives) {
+                if (getPrimitiveById(primitive) != null || batch.contains(primitive))
+                    throw new DataIntegrityProblemException(
+                            tr("Unable to add primitive {0} to the dataset because it is already included", primitive.toString()));
+                batch.add(primitive);
+            }
+            List<Node> newNodes = new ArrayList<Node>();
+            List<Way> newWays = new ArrayList<Way>();
+            List<Relation> newRelations = new ArrayList<Relation>();
+            for (OsmPrimitive primitive: primitives) {
+                allPrimitives.add(primitive);
+                primitive.updatePosition();
+                if (primitive instanceof Node) {
+                    newNodes.add((Node) primitive);
+                } else if (primitive instanceof Way) {
+                    newWays.add((Way) primitive);
+                } else if (primitive instanceof Relation) {
+                    newRelations.add((Relation) primitive);
+                }
+            }
+            nodes.addAll(newNodes);
+            ways.addAll(newWays);
+            relations.addAll(newRelations);
+            for (OsmPrimitive primitive: primitives) {
+                primitive.setDataset(this);
+                if (tagIndex != null) {
+                    tagIndex.add(primitive);
+                }
+                if (primitive.isHighlighted()) {
+                    fireHighlightingChanged(primitive);
+                }
+            }
+            if (!primitives.isEmpty()) {
+                firePrimitivesAdded(new ArrayList<OsmPrimitive>(primitives), false);
+            }
+        } finally {
+            endUpdate();
+        }
+    }
+
     /**
      * Removes a primitive from the dataset. This method only removes the
      * primitive form the respective collection of primitives managed
@@ -406,6 +565,9 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
             }
             allPrimitives.remove(primitive);
             primitive.setDataset(null);
+            if (tagIndex != null) {
+                tagIndex.remove(primitive);
+            }
             firePrimitivesRemoved(Collections.singletonList(primitive), false);
         } finally {
             endUpdate();
@@ -855,7 +1017,8 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     public void unlinkPrimitiveFromRelations(OsmPrimitive primitive) {
         beginUpdate();
         try {
-            for (Relation relation : relations) {
+            // Iterate over a copy, changing members of a relation reindexes it in the relations QuadBuckets
+            for (Relation relation : new ArrayList<Relation>(relations)) {
                 List<RelationMember> members = relation.getMembers();
 
                 Iterator<RelationMember> it = members.iterator();
@@ -943,7 +1106,11 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
 
     private void reindexRelation(Relation relation) {
         BBox before = relation.getBBox();
+        if (!relations.remove(relation))
+            throw new RuntimeException("Reindexing relation failed to remove");
         relation.updatePosition();
+        if (!relations.add(relation))
+            throw new RuntimeException("Reindexing relation failed to add");
         if (!before.equals(relation.getBBox())) {
             for (OsmPrimitive primitive: relation.getReferrers()) {
                 reindexRelation((Relation) primitive);
@@ -1036,6 +1203,9 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     }
 
     void fireTagsChanged(OsmPrimitive prim, Map<String, String> originalKeys) {
+        if (tagIndex != null) {
+            tagIndex.tagsChanged(prim, originalKeys);
+        }
         fireEvent(new TagsChangedEvent(this, prim, originalKeys));
     }
 
@@ -1059,6 +1229,13 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
     }
 
     void fireHighlightingChanged(OsmPrimitive primitive) {
+        synchronized (highlightedPrimitives) {
+            if (primitive.isHighlighted()) {
+                highlightedPrimitives.add(primitive);
+            } else {
+                highlightedPrimitives.remove(primitive);
+            }
+        }
         highlightUpdateCount++;
     }
 
@@ -1104,6 +1281,9 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
                     selectionSnapshot = null;
                     allPrimitives.remove(primitive);
                     primitive.setDataset(null);
+                    if (tagIndex != null) {
+                        tagIndex.remove(primitive);
+                    }
                     changed = true;
                     it.remove();
                 }
@@ -1131,6 +1311,9 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
             ways.clear();
             relations.clear();
             allPrimitives.clear();
+            if (tagIndex != null) {
+                tagIndex.clear();
+            }
         } finally {
             endUpdate();
         }
@@ -0,0 +1,181 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of the primitives of a {@link DataSet} at one point in time, see {@link DataSet#getSnapshot()}.
+ *
+ * A snapshot doesn't change when the dataset is edited, so it can be read by background tasks
+ * without holding the lock of the dataset. The primitives are stored as {@link PrimitiveData},
+ * which must not be modified.
+ *
+ * A snapshot taken while the previous one is still in use shares the data of the primitives
+ * with it: the data of all primitives at some earlier point is kept in a base map, and only the
+ * primitives changed since then are stored in a map of changes. When the changes grow large
+ * compared to the base, they are merged into a new base.
+ */
+public final class DataSetSnapshot {
+
+    /** the changes are merged into a new base map when they exceed this part of the base */
+    private static final int MAX_CHANGES_RATIO = 8;
+
+    /** the data of all primitives at the time the base was created, by primitive. Never modified. */
+    private final Map<OsmPrimitive, PrimitiveData> base;
+    /** the data of the primitives changed since then, <code>null</code> for removed primitives. Never modified. */
+    private final Map<OsmPrimitive, PrimitiveData> changes;
+    private final List<DataSource> dataSources;
+    private final String version;
+    private final boolean uploadDiscouraged;
+
+    private List<PrimitiveData> primitives;
+    private List<NodeData> nodes;
+    private List<WayData> ways;
+    private List<RelationData> relations;
+    private Map<PrimitiveId, PrimitiveData> primitivesById;
+
+    /**
+     * Creates a snapshot of a dataset. Must be called while holding the read lock of the dataset.
+     *
+     * @param ds the dataset
+     * @param previous the previous snapshot of the dataset, or null to copy all primitives
+     * @param changed the primitives changed, added or removed since the previous snapshot
+     */
+    DataSetSnapshot(DataSet ds, DataSetSnapshot previous, Collection<OsmPrimitive> changed) {
+        if (previous == null) {
+            Collection<OsmPrimitive> all = ds.allPrimitives();
+            base = new IdentityHashMap<OsmPrimitive, PrimitiveData>(all.size());
+            for (OsmPrimitive p : all) {
+                base.put(p, p.save());
+            }
+            changes = Collections.emptyMap();
+        } else if (changed.isEmpty()) {
+            base = previous.base;
+            changes = previous.changes;
+        } else {
+            Map<OsmPrimitive, PrimitiveData> newChanges = new IdentityHashMap<OsmPrimitive, PrimitiveData>(previous.changes);
+            for (OsmPrimitive p : changed) {
+                newChanges.put(p, p.getDataSet() == ds ? p.save() : null);
+            }
+            if (newChanges.size() > previous.base.size() / MAX_CHANGES_RATIO) {
+                base = new IdentityHashMap<OsmPrimitive, PrimitiveData>(previous.base);
+                for (Map.Entry<OsmPrimitive, PrimitiveData> e : newChanges.entrySet()) {
+                    if (e.getValue() != null) {
+                        base.put(e.getKey(), e.getValue());
+                    } else {
+                        base.remove(e.getKey());
+                    }
+                }
+                changes = Collections.emptyMap();
+            } else {
+                base = previous.base;
+                changes = newChanges;
+            }
+        }
+        dataSources = Collections.unmodifiableList(new ArrayList<DataSource>(ds.dataSources));
+        version = ds.getVersion();
+        uploadDiscouraged = ds.isUploadDiscouraged();
+    }
+
+    /**
+     * @return the data of all primitives, including deleted and incomplete ones
+     */
+    public synchronized Collection<PrimitiveData> getPrimitives() {
+        if (primitives == null) {
+            List<PrimitiveData> result = new ArrayList<PrimitiveData>(base.size() + changes.size());
+            for (Map.Entry<OsmPrimitive, PrimitiveData> e : base.entrySet()) {
+                if (!changes.containsKey(e.getKey())) {
+                    result.add(e.getValue());
+                }
+            }
+            for (PrimitiveData p : changes.values()) {
+                if (p != null) {
+                    result.add(p);
+                }
+            }
+            primitives = Collections.unmodifiableList(result);
+        }
+        return primitives;
+    }
+
+    public synchronized List<NodeData> getNodes() {
+        if (nodes == null) {
+            nodes = Collections.unmodifiableList(filter(NodeData.class));
+        }
+        return nodes;
+    }
+
+    public synchronized List<WayData> getWays() {
+        if (ways == null) {
+            ways = Collections.unmodifiableList(filter(WayData.class));
+        }
+        return ways;
+    }
+
+    public synchronized List<RelationData> getRelations() {
+        if (relations == null) {
+            relations = Collections.unmodifiableList(filter(RelationData.class));
+        }
+        return relations;
+    }
+
+    private <T extends PrimitiveData> List<T> filter(Class<T> type) {
+        List<T> result = new ArrayList<T>();
+        for (PrimitiveData p : getPrimitives()) {
+            if (type.isInstance(p)) {
+                result.add(type.cast(p));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replies the data of a primitive
+     *
+     * @param id the id of the primitive
+     * @return the data of the primitive, or null if the primitive wasn't in the dataset
+     */
+    public synchronized PrimitiveData getPrimitiveById(PrimitiveId id) {
+        if (primitivesById == null) {
+            primitivesById = new HashMap<PrimitiveId, PrimitiveData>(size());
+            for (PrimitiveData p : getPrimitives()) {
+                primitivesById.put(new SimplePrimitiveId(p.getUniqueId(), p.getType()), p);
+            }
+        }
+        return primitivesById.get(new SimplePrimitiveId(id.getUniqueId(), id.getType()));
+    }
+
+    /**
+     * Replies the data of a primitive
+     *
+     * @param primitive the primitive
+     * @return the data of the primitive, or null if the primitive wasn't in the dataset
+     */
+    public PrimitiveData get(OsmPrimitive primitive) {
+        if (changes.containsKey(primitive))
+            return changes.get(primitive);
+        return base.get(primitive);
+    }
+
+    public int size() {
+        return getPrimitives().size();
+    }
+
+    public List<DataSource> getDataSources() {
+        return dataSources;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isUploadDiscouraged() {
+        return uploadDiscouraged;
+    }
+}
@@ -280,6 +280,8 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
     /*----------
      * MAPPAINT
      *--------*/
+    /* Styles can be computed concurrently by the renderer. Both fields
+       are guarded by the monitor of this primitive. */
     public StyleCache mappaintStyle = null;
     public int mappaintCacheIdx;
 
@@ -288,7 +290,9 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
        transparent cache handling in the future. */
     public void clearCachedStyle()
     {
-        mappaintStyle = null;
+        synchronized (this) {
+            mappaintStyle = null;
+        }
     }
     /* end of mappaint data */
 
@@ -306,7 +310,13 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
     void setDataset(DataSet dataSet) {
         if (this.dataSet != null && dataSet != null && this.dataSet != dataSet)
             throw new DataIntegrityProblemException("Primitive cannot be included in more than one Dataset");
+        if (this.dataSet != null) {
+            this.dataSet.primitiveChanged(this);
+        }
         this.dataSet = dataSet;
+        if (dataSet != null) {
+            dataSet.primitiveChanged(this);
+        }
     }
 
     /**
@@ -328,6 +338,7 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
     protected boolean writeLock() {
         if (dataSet != null) {
             dataSet.beginUpdate();
+            dataSet.primitiveChanged(this);
             return true;
         } else
             return false;
@@ -366,6 +377,10 @@ abstract public class OsmPrimitive extends AbstractPrimitive implements Comparab
                 datasetCopy.removePrimitive(this);
                 this.id = id;
                 datasetCopy.addPrimitive(this);
+                // the referrers refer to the primitive by its id in snapshots
+                for (OsmPrimitive referrer : getReferrers()) {
+                    datasetCopy.primitiveChanged(referrer);
+                }
             }
             super.setOsmId(id, version);
         } finally {
@@ -1,7 +1,6 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.osm;
 
-import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -96,12 +95,11 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
         }
 
         private QBLevel[] getChildren() {
-            // This is ugly and hackish.  But, it seems to work,
-            // and using an ArrayList here seems to cost us
+            // Using an ArrayList here seems to cost us
             // a significant performance penalty -- 50% in my
             // testing.  Child access is one of the single
             // hottest code paths in this entire class.
-            QBLevel[] result = (QBLevel[]) Array.newInstance(this.getClass(), QuadTiling.TILES_PER_LEVEL);
+            QBLevel[] result = newLevelArray(QuadTiling.TILES_PER_LEVEL);
             result[NW_INDEX] = nw;
             result[NE_INDEX] = ne;
             result[SW_INDEX] = sw;
@@ -109,6 +107,14 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             return result;
         }
 
+        /**
+         * Creates an array of levels without the reflective Array.newInstance
+         */
+        @SuppressWarnings("unchecked")
+        private QBLevel[] newLevelArray(int size) {
+            return (QBLevel[]) new QuadBuckets<?>.QBLevel[size];
+        }
+
         @Override
         public String toString()  {
             return super.toString()+ "["+level+"]: " + bbox();
@@ -395,6 +401,80 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             findBucket(o.getBBox()).doAdd(o);
         }
 
+        /**
+         * Adds all objects in one pass. The objects are partitioned top-down into the
+         * quads of this level instead of being inserted one by one, so every object is
+         * visited once per level and leaf content lists are allocated with their final
+         * size. The resulting tree satisfies the same invariants as after
+         * {@link #add(OsmPrimitive)}: every object can be found again via
+         * {@link #findBucket(BBox)}.
+         *
+         * @param objects objects to add, all of them must belong in this level
+         * @param bboxes bounding boxes of the objects, in the same order
+         */
+        void bulkAdd(List<T> objects, List<BBox> bboxes) {
+            if (isLeaf()) {
+                int contentSize = content == null ? 0 : content.size();
+                if (contentSize + objects.size() <= MAX_OBJECTS_PER_LEVEL || level >= QuadTiling.NR_LEVELS) {
+                    addAllContent(objects);
+                    return;
+                }
+                // This leaf would be split anyway, distribute existing content together with the new objects
+                if (content != null) {
+                    List<T> allObjects = new ArrayList<T>(contentSize + objects.size());
+                    List<BBox> allBBoxes = new ArrayList<BBox>(contentSize + objects.size());
+                    for (T o: content) {
+                        allObjects.add(o);
+                        allBBoxes.add(o.getBBox());
+                    }
+                    allObjects.addAll(objects);
+                    allBBoxes.addAll(bboxes);
+                    objects = allObjects;
+                    bboxes = allBBoxes;
+                    content = null;
+                }
+                isLeaf = false;
+            } else if (!hasChildren()) {
+                // Same as findBucket - non leaf level without children keeps everything
+                addAllContent(objects);
+                return;
+            }
+
+            List<T> own = new ArrayList<T>();
+            List<List<T>> childObjects = new ArrayList<List<T>>(QuadTiling.TILES_PER_LEVEL);
+            List<List<BBox>> childBBoxes = new ArrayList<List<BBox>>(QuadTiling.TILES_PER_LEVEL);
+            for (int i=0; i<QuadTiling.TILES_PER_LEVEL; i++) {
+                childObjects.add(new ArrayList<T>());
+                childBBoxes.add(new ArrayList<BBox>());
+            }
+            for (int i=0; i<objects.size(); i++) {
+                BBox bbox = bboxes.get(i);
+                int index = get_index(bbox, level);
+                if (index == -1) {
+                    own.add(objects.get(i));
+                } else {
+                    childObjects.get(index).add(objects.get(i));
+                    childBBoxes.get(index).add(bbox);
+                }
+            }
+            if (!own.isEmpty()) {
+                addAllContent(own);
+            }
+            for (int i=0; i<QuadTiling.TILES_PER_LEVEL; i++) {
+                if (!childObjects.get(i).isEmpty()) {
+                    getChild(i).bulkAdd(childObjects.get(i), childBBoxes.get(i));
+                }
+            }
+        }
+
+        private void addAllContent(List<T> objects) {
+            if (content == null) {
+                content = new ArrayList<T>(objects);
+            } else {
+                content.addAll(objects);
+            }
+        }
+
         private void search(BBox search_bbox, List<T> result)
         {
             /*if (debug) {
@@ -541,13 +621,24 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
         }
         return changed;
     }
+    /**
+     * Adds all objects to this QuadBuckets. Unlike repeated calls to {@link #add(OsmPrimitive)},
+     * the objects are bulk loaded: bounding boxes are calculated only once per object and the
+     * tree is built top-down, which is much faster for large collections (e.g. when a file is loaded).
+     */
     public boolean addAll(Collection<? extends T> objects)
     {
-        boolean changed = false;
-        for (T o : objects) {
-            changed = changed | this.add(o);
+        if (objects.isEmpty())
+            return false;
+        search_cache = null;
+        List<T> list = new ArrayList<T>(objects);
+        List<BBox> bboxes = new ArrayList<BBox>(list.size());
+        for (T o : list) {
+            bboxes.add(o.getBBox());
         }
-        return changed;
+        root.bulkAdd(list, bboxes);
+        size += list.size();
+        return true;
     }
     public boolean containsAll(Collection<?> objects)
     {
@@ -455,13 +455,20 @@ public final class Relation extends OsmPrimitive implements IRelation {
     @Override
     public void updatePosition() {
         bbox = calculateBBox(new HashSet<PrimitiveId>());
+        if (bbox == null) {
+            // No real members. Cache the empty bbox anyway, so that the bbox used to index this relation
+            // in the dataset stays the same until it is reindexed
+            bbox = new BBox(0, 0, 0, 0);
+        }
     }
 
     @Override
     public void setDataset(DataSet dataSet) {
         super.setDataset(dataSet);
         checkMembers();
-        bbox = null; // bbox might have changed if relation was in ds, was removed, modified, added back to dataset
+        // bbox might have changed if relation was in ds, was removed, modified, added back to dataset. Calculate
+        // it now rather than lazily, it must match the bbox used by dataset to index the relation.
+        updatePosition();
     }
 
     private void checkMembers() {
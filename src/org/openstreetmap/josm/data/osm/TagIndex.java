@@ -0,0 +1,155 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from the tags of the primitives of a {@link DataSet} to the primitives.
+ *
+ * The index is created by {@link DataSet#getTagIndex()} and then kept up to date by the dataset
+ * when primitives are added or removed or their tags are changed. Deleted and incomplete
+ * primitives are included, callers filter them like the collections of the dataset.
+ */
+public class TagIndex {
+
+    /**
+     * key -&gt; value -&gt; primitives. The primitives of a value are stored as single primitive
+     * or, if there are more than one, as identity set.
+     */
+    private final Map<String, Map<String, Object>> index = new HashMap<String, Map<String, Object>>();
+
+    TagIndex(Collection<OsmPrimitive> primitives) {
+        for (OsmPrimitive primitive : primitives) {
+            add(primitive, primitive.keys);
+        }
+    }
+
+    synchronized void add(OsmPrimitive primitive) {
+        add(primitive, primitive.keys);
+    }
+
+    synchronized void remove(OsmPrimitive primitive) {
+        remove(primitive, primitive.keys);
+    }
+
+    synchronized void clear() {
+        index.clear();
+    }
+
+    /**
+     * Moves a primitive from its original tags to its current tags.
+     */
+    synchronized void tagsChanged(OsmPrimitive primitive, Map<String, String> originalKeys) {
+        if (originalKeys != null) {
+            for (Map.Entry<String, String> e : originalKeys.entrySet()) {
+                remove(primitive, e.getKey(), e.getValue());
+            }
+        }
+        add(primitive, primitive.keys);
+    }
+
+    private void add(OsmPrimitive primitive, String[] keys) {
+        if (keys == null)
+            return;
+        for (int i = 0; i < keys.length; i += 2) {
+            Map<String, Object> values = index.get(keys[i]);
+            if (values == null) {
+                values = new HashMap<String, Object>(4);
+                index.put(keys[i], values);
+            }
+            Object primitives = values.get(keys[i + 1]);
+            if (primitives == null) {
+                values.put(keys[i + 1], primitive);
+            } else if (primitives instanceof OsmPrimitive) {
+                if (primitives != primitive) {
+                    Set<OsmPrimitive> set = Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>(4));
+                    set.add((OsmPrimitive) primitives);
+                    set.add(primitive);
+                    values.put(keys[i + 1], set);
+                }
+            } else {
+                getSet(primitives).add(primitive);
+            }
+        }
+    }
+
+    private void remove(OsmPrimitive primitive, String[] keys) {
+        if (keys == null)
+            return;
+        for (int i = 0; i < keys.length; i += 2) {
+            remove(primitive, keys[i], keys[i + 1]);
+        }
+    }
+
+    private void remove(OsmPrimitive primitive, String key, String value) {
+        Map<String, Object> values = index.get(key);
+        if (values == null)
+            return;
+        Object primitives = values.get(value);
+        if (primitives == primitive) {
+            values.remove(value);
+        } else if (primitives instanceof Set) {
+            Set<OsmPrimitive> set = getSet(primitives);
+            set.remove(primitive);
+            if (set.size() == 1) {
+                values.put(value, set.iterator().next());
+            }
+        }
+        if (values.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<OsmPrimitive> getSet(Object primitives) {
+        return (Set<OsmPrimitive>) primitives;
+    }
+
+    private static void addTo(List<OsmPrimitive> result, Object primitives) {
+        if (primitives instanceof OsmPrimitive) {
+            result.add((OsmPrimitive) primitives);
+        } else if (primitives != null) {
+            result.addAll(getSet(primitives));
+        }
+    }
+
+    /**
+     * Replies the primitives with a tag.
+     *
+     * @param key the key
+     * @param value the value
+     * @return a new list of the primitives
+     */
+    public synchronized List<OsmPrimitive> get(String key, String value) {
+        List<OsmPrimitive> result = new ArrayList<OsmPrimitive>();
+        Map<String, Object> values = index.get(key);
+        if (values != null) {
+            addTo(result, values.get(value));
+        }
+        return result;
+    }
+
+    /**
+     * Replies the primitives with a key, whatever its value.
+     *
+     * @param key the key
+     * @return a new list of the primitives
+     */
+    public synchronized List<OsmPrimitive> get(String key) {
+        List<OsmPrimitive> result = new ArrayList<OsmPrimitive>();
+        Map<String, Object> values = index.get(key);
+        if (values != null) {
+            for (Object primitives : values.values()) {
+                addTo(result, primitives);
+            }
+        }
+        return result;
+    }
+}
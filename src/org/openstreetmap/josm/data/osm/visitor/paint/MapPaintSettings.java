@@ -41,6 +41,7 @@ public class MapPaintSettings implements PreferenceChangedListener {
     /** Preference: should multiply connected nodes be filled */
     private boolean fillConnectionNode;
     private boolean outlineOnly;
+    private boolean simplifyWays;
     /** Color Preference for selected objects */
     private Color selectedColor;
     private Color relationSelectedColor;
@@ -99,6 +100,7 @@ public class MapPaintSettings implements PreferenceChangedListener {
         fillConnectionNode = Main.pref.getBoolean("mappaint.node.fill-connection", false);
 
         outlineOnly = Main.pref.getBoolean("draw.data.area_outline_only", false);
+        simplifyWays = Main.pref.getBoolean("mappaint.simplify-ways", true);
 
     }
 
@@ -221,4 +223,8 @@ public class MapPaintSettings implements PreferenceChangedListener {
     public boolean isOutlineOnly() {
         return outlineOnly;
     }
+
+    public boolean isSimplifyWays() {
+        return simplifyWays;
+    }
 }
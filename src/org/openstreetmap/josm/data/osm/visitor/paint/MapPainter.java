@@ -64,6 +64,8 @@ public class MapPainter {
     private final boolean showIcons;
 
     private final boolean  isOutlineOnly;
+    /** simplifies ways, null if ways are not simplified */
+    private final WaySimplifier waySimplifier;
 
     private final Color inactiveColor;
     private final Color selectedColor;
@@ -100,6 +102,7 @@ public class MapPainter {
         this.showIcons = settings.getShowIconsDistance() > circum;
 
         this.isOutlineOnly = settings.isOutlineOnly();
+        this.waySimplifier = WaySimplifier.get(settings, nc);
 
         this.inactiveColor = PaintColors.INACTIVE.get();
         this.selectedColor = PaintColors.SELECTED.get();
@@ -140,7 +143,7 @@ public class MapPainter {
         double wayLength = 0;
         Point lastPoint = null;
         boolean initialMoveToNeeded = true;
-        List<Node> wayNodes = way.getNodes();
+        List<Node> wayNodes = waySimplifier != null ? waySimplifier.getNodes(way, nc.getScale()) : way.getNodes();
         if (wayNodes.size() < 2) return;
 
         // only highlight the segment if the way itself is not highlighted
@@ -839,7 +842,7 @@ public class MapPainter {
     private Path2D.Double getPath(Way w) {
         Path2D.Double path = new Path2D.Double();
         boolean initial = true;
-        for (Node n : w.getNodes())
+        for (Node n : waySimplifier != null ? waySimplifier.getNodes(w, nc.getScale()) : w.getNodes())
         {
             Point2D p = n.getEastNorth();
             if (p != null) {
@@ -932,8 +935,14 @@ public class MapPainter {
     }
 
     public void drawArea(Relation r, Color color, MapImage fillImage, TextElement text) {
-        Multipolygon multipolygon = MultipolygonCache.getInstance().get(nc, r);
+        Multipolygon multipolygon = MultipolygonCache.getInstance().get(r);
         if (!r.isDisabled() && !multipolygon.getOuterWays().isEmpty()) {
+            if (!multipolygon.isBuilt()) {
+                // the polygons are assembled in the background, draw the outlines meanwhile
+                drawAreaOutline(multipolygon.getOuterWays(), color);
+                drawAreaOutline(multipolygon.getInnerWays(), color);
+                return;
+            }
             for (PolyData pd : multipolygon.getCombinedPolygons()) {
                 Path2D.Double p = pd.get();
                 if (!isAreaVisible(p)) {
@@ -946,6 +955,13 @@ public class MapPainter {
         }
     }
 
+    private void drawAreaOutline(List<Way> ways, Color color) {
+        g.setColor(color);
+        for (Way w : ways) {
+            g.draw(getPath(w).createTransformedShape(nc.getAffineTransform()));
+        }
+    }
+
     private boolean isAreaVisible(Path2D.Double area) {
         Rectangle2D bounds = area.getBounds2D();
         if (bounds.isEmpty()) return false;
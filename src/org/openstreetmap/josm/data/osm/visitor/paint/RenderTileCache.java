@@ -0,0 +1,629 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.WaySegment;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+/**
+ * <p>Caches the rendering of a {@link DataSet} in square screen tiles.</p>
+ *
+ * <p>The tiles are aligned to a grid in projected coordinates, so that panning the map view
+ * reuses the tiles already rendered and only the newly exposed tiles have to be rendered.
+ * Tiles are rendered by the active map renderer on a pool of worker threads, the map view
+ * is repainted whenever a tile is ready. The tiles of the last few zoom levels are kept;
+ * until the tiles of a new zoom level are ready, the tiles of the previous one are painted
+ * scaled.</p>
+ *
+ * <p>A tile is invalidated when a primitive rendered in it, or a primitive which now lies
+ * within its bounds, changes or when its selection or highlighting changes. All tiles are
+ * invalidated if the render mode changes, or by {@link #invalidateAll()}, e.g. when the paint
+ * preferences change. Invalid tiles are painted until they are rendered again.</p>
+ */
+public class RenderTileCache implements DataSetListener {
+
+    /**
+     * The width and height of a tile, in pixels
+     */
+    public static final int TILE_SIZE = 512;
+
+    /**
+     * Extra space around a tile which is rendered too, so that icons and labels of primitives
+     * close to the edge of the tile are not cut off
+     */
+    private static final int MARGIN = 64;
+
+    /**
+     * The number of zoom levels whose tiles are kept
+     */
+    private static final int MAX_LEVELS = 3;
+
+    private static ExecutorService renderPool;
+
+    /**
+     * Replies the thread pool used to render tiles.
+     * The pool is shared by all caches and uses daemon threads, one per processor.
+     */
+    private static synchronized ExecutorService getRenderPool() {
+        if (renderPool == null) {
+            renderPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "mappaint-tile-renderer-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return renderPool;
+    }
+
+    /**
+     * The viewport used to render a single tile. It covers the tile and its margin.
+     */
+    public static class TileViewport extends NavigatableComponent {
+        private static final long serialVersionUID = 1L;
+
+        private final NavigatableComponent view;
+        private final int size;
+        private final WaySimplifier waySimplifier;
+
+        private TileViewport(NavigatableComponent view, EastNorth center, double scale, int size, WaySimplifier waySimplifier) {
+            super(center, scale);
+            this.view = view;
+            this.size = size;
+            this.waySimplifier = waySimplifier;
+        }
+
+        /**
+         * Replies the map view the tile is rendered for
+         */
+        public NavigatableComponent getView() {
+            return view;
+        }
+
+        /**
+         * Replies the simplifier of the cache, which keeps the simplified ways between renderings
+         */
+        public WaySimplifier getWaySimplifier() {
+            return waySimplifier;
+        }
+
+        @Override
+        public int getWidth() {
+            return size;
+        }
+
+        @Override
+        public int getHeight() {
+            return size;
+        }
+    }
+
+    private static class Tile {
+        final int x;
+        final int y;
+        final TileViewport viewport;
+        final Bounds bounds;
+        final BBox bbox;
+
+        /** the rendered image, null until the tile is rendered for the first time */
+        BufferedImage image;
+        /** the primitives rendered in the image */
+        Set<OsmPrimitive> primitives = Collections.emptySet();
+        /** whether the image is up to date */
+        boolean valid;
+        /** whether the tile is queued for rendering */
+        boolean pending;
+        /** whether rendering failed, the tile isn't rendered again until it is invalidated */
+        boolean failed;
+        /** incremented whenever the tile is invalidated */
+        int version;
+        long lastUsed;
+
+        Tile(NavigatableComponent view, int x, int y, double scale, WaySimplifier waySimplifier) {
+            this.x = x;
+            this.y = y;
+            this.viewport = new TileViewport(view, new EastNorth((x + 0.5) * TILE_SIZE * scale, -(y + 0.5) * TILE_SIZE * scale),
+                    scale, TILE_SIZE + 2 * MARGIN, waySimplifier);
+            this.bounds = viewport.getLatLonBounds(new Rectangle(0, 0, viewport.getWidth(), viewport.getHeight()));
+            this.bbox = new BBox(bounds);
+        }
+
+        void invalidate() {
+            valid = false;
+            failed = false;
+            version++;
+        }
+    }
+
+    private static class TileLevel {
+        final double scale;
+        final Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+
+        TileLevel(double scale) {
+            this.scale = scale;
+        }
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private final DataSet data;
+    private final WaySimplifier waySimplifier = new WaySimplifier();
+
+    /** the tile levels, most recently used first */
+    private final LinkedList<TileLevel> levels = new LinkedList<TileLevel>();
+    /** the tiles of all levels with their level, least recently used first */
+    private final LinkedHashMap<Tile, TileLevel> tilesByUse = new LinkedHashMap<Tile, TileLevel>(64, 0.75f, true);
+    private long useCount;
+    private boolean newTiles;
+
+    private boolean inactive;
+    private boolean virtual;
+    private int highlightUpdateCount = -1;
+    private Set<OsmPrimitive> highlighted = Collections.emptySet();
+    private List<WaySegment> highlightedWaySegments = Collections.emptyList();
+    private List<WaySegment> highlightedVirtualNodes = Collections.emptyList();
+    private Set<OsmPrimitive> selection = Collections.emptySet();
+
+    /**
+     * Constructs a new {@code RenderTileCache}. It has to be registered as listener of the dataset.
+     *
+     * @param data the dataset to render
+     */
+    public RenderTileCache(DataSet data) {
+        this.data = data;
+    }
+
+    /**
+     * Replies true if tiles were rendered since the last call of {@link #paint}
+     */
+    public synchronized boolean hasNewTiles() {
+        return newTiles;
+    }
+
+    /**
+     * Replies true while tiles are queued for rendering
+     */
+    synchronized boolean hasPendingTiles() {
+        for (TileLevel level : levels) {
+            for (Tile tile : level.tiles.values()) {
+                if (tile.pending)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Paints the dataset from the cached tiles and requests the rendering of missing or invalid tiles.
+     *
+     * @param g the graphics to paint on
+     * @param nc the map view
+     * @param inactive if true, the dataset is painted in the inactive colors
+     * @param virtual if true, virtual nodes are painted
+     */
+    public synchronized void paint(Graphics2D g, NavigatableComponent nc, boolean inactive, boolean virtual) {
+        newTiles = false;
+        if (inactive != this.inactive || virtual != this.virtual) {
+            this.inactive = inactive;
+            this.virtual = virtual;
+            invalidateAll();
+        }
+        if (data.getHighlightUpdateCount() != highlightUpdateCount) {
+            highlightUpdateCount = data.getHighlightUpdateCount();
+            highlightingChanged();
+        }
+
+        TileLevel level = getLevel(nc.getScale());
+        double x0 = nc.getCenter().east() / level.scale - nc.getWidth() / 2.0;
+        double y0 = -nc.getCenter().north() / level.scale - nc.getHeight() / 2.0;
+        Rectangle range = getTileRange(nc, x0, y0);
+        int minX = range.x;
+        int maxX = range.x + range.width - 1;
+        int minY = range.y;
+        int maxY = range.y + range.height - 1;
+
+        useCount++;
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                Tile tile = level.tiles.get(key(x, y));
+                if (tile == null) {
+                    tile = new Tile(nc, x, y, level.scale, waySimplifier);
+                    level.tiles.put(key(x, y), tile);
+                }
+                tilesByUse.put(tile, level);
+                tile.lastUsed = useCount;
+                int sx = (int) Math.round(x * TILE_SIZE - x0);
+                int sy = (int) Math.round(y * TILE_SIZE - y0);
+                if (tile.image != null) {
+                    g.drawImage(tile.image, sx, sy, null);
+                } else {
+                    paintFromOtherLevels(g, level, sx, sy, x0, y0);
+                }
+                if (!tile.valid && !tile.pending && !tile.failed) {
+                    tile.pending = true;
+                    getRenderPool().submit(new TileRenderer(level, tile));
+                }
+            }
+        }
+        evictTiles();
+    }
+
+    /**
+     * Replies the tiles covering the map view whose top left corner is at (x0, y0) in the pixel grid of the tiles
+     */
+    private static Rectangle getTileRange(NavigatableComponent nc, double x0, double y0) {
+        int minX = (int) Math.floor(x0 / TILE_SIZE);
+        int maxX = (int) Math.floor((x0 + nc.getWidth()) / TILE_SIZE);
+        int minY = (int) Math.floor(y0 / TILE_SIZE);
+        int maxY = (int) Math.floor((y0 + nc.getHeight()) / TILE_SIZE);
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Replies the bounds of the tiles painted for a map view, including their margins,
+     * i.e. the area where primitives are rendered for the current view.
+     *
+     * @param nc the map view
+     * @return the bounds
+     */
+    public Bounds getPaintedBounds(NavigatableComponent nc) {
+        double x0 = nc.getCenter().east() / nc.getScale() - nc.getWidth() / 2.0;
+        double y0 = -nc.getCenter().north() / nc.getScale() - nc.getHeight() / 2.0;
+        Rectangle range = getTileRange(nc, x0, y0);
+        return nc.getLatLonBounds(new Rectangle(
+                (int) Math.floor(range.x * TILE_SIZE - x0) - MARGIN, (int) Math.floor(range.y * TILE_SIZE - y0) - MARGIN,
+                range.width * TILE_SIZE + 2 * MARGIN, range.height * TILE_SIZE + 2 * MARGIN));
+    }
+
+    /**
+     * Paints the tiles of the other zoom levels, scaled, where a tile of the current level isn't rendered yet
+     */
+    private void paintFromOtherLevels(Graphics2D g, TileLevel level, int sx, int sy, double x0, double y0) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.clipRect(sx, sy, TILE_SIZE, TILE_SIZE);
+            for (int i = levels.size() - 1; i > 0; i--) {
+                TileLevel other = levels.get(i);
+                double factor = other.scale / level.scale;
+                for (Tile tile : other.tiles.values()) {
+                    if (tile.image == null) {
+                        continue;
+                    }
+                    int tx = (int) Math.round(tile.x * TILE_SIZE * factor - x0);
+                    int ty = (int) Math.round(tile.y * TILE_SIZE * factor - y0);
+                    int size = (int) Math.ceil(TILE_SIZE * factor);
+                    if (tx < sx + TILE_SIZE && tx + size > sx && ty < sy + TILE_SIZE && ty + size > sy) {
+                        g2.drawImage(tile.image, tx, ty, size, size, null);
+                    }
+                }
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private TileLevel getLevel(double scale) {
+        for (Iterator<TileLevel> it = levels.iterator(); it.hasNext();) {
+            TileLevel level = it.next();
+            if (level.scale == scale) {
+                it.remove();
+                levels.addFirst(level);
+                return level;
+            }
+        }
+        TileLevel level = new TileLevel(scale);
+        levels.addFirst(level);
+        while (levels.size() > MAX_LEVELS) {
+            tilesByUse.keySet().removeAll(levels.removeLast().tiles.values());
+        }
+        List<Double> scales = new ArrayList<Double>(levels.size());
+        for (TileLevel l : levels) {
+            scales.add(l.scale);
+        }
+        waySimplifier.retainLevels(scales);
+        return level;
+    }
+
+    /**
+     * Removes the least recently used tiles if the cache holds more tiles than configured.
+     * The tiles painted last are kept.
+     */
+    private void evictTiles() {
+        int max = Main.pref.getInteger("mappaint.tiles.cache-size", 48);
+        if (tilesByUse.size() <= max)
+            return;
+        for (Iterator<Map.Entry<Tile, TileLevel>> it = tilesByUse.entrySet().iterator(); it.hasNext() && tilesByUse.size() > max;) {
+            Map.Entry<Tile, TileLevel> e = it.next();
+            Tile tile = e.getKey();
+            if (tile.lastUsed == useCount) {
+                break;
+            }
+            it.remove();
+            e.getValue().tiles.remove(key(tile.x, tile.y));
+        }
+        for (Iterator<TileLevel> it = levels.iterator(); it.hasNext();) {
+            TileLevel level = it.next();
+            if (level.tiles.isEmpty() && level != levels.getFirst()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Renders a tile on a worker thread
+     */
+    private class TileRenderer implements Runnable {
+        private final TileLevel level;
+        private final Tile tile;
+
+        public TileRenderer(TileLevel level, Tile tile) {
+            this.level = level;
+            this.tile = tile;
+        }
+
+        @Override
+        public void run() {
+            int version;
+            boolean renderInactive;
+            boolean renderVirtual;
+            synchronized (RenderTileCache.this) {
+                if (!levels.contains(level) || level.tiles.get(key(tile.x, tile.y)) != tile) {
+                    // the tile was evicted meanwhile
+                    tile.pending = false;
+                    return;
+                }
+                version = tile.version;
+                renderInactive = inactive;
+                renderVirtual = virtual;
+            }
+
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+            Set<OsmPrimitive> primitives = new HashSet<OsmPrimitive>();
+            Graphics2D g = image.createGraphics();
+            boolean rendered = false;
+            data.getReadLock().lock();
+            try {
+                primitives.addAll(data.searchNodes(tile.bbox));
+                primitives.addAll(data.searchWays(tile.bbox));
+                primitives.addAll(data.searchRelations(tile.bbox));
+                g.translate(-MARGIN, -MARGIN);
+                g.setClip(0, 0, tile.viewport.getWidth(), tile.viewport.getHeight());
+                MapRendererFactory.getInstance().createActiveRenderer(g, tile.viewport, renderInactive)
+                        .render(data, renderVirtual, tile.bounds);
+                rendered = true;
+            } catch (RuntimeException e) {
+                // the dataset may have been changed by another thread, the tile is rendered again after the next change
+                e.printStackTrace();
+            } finally {
+                data.getReadLock().unlock();
+                g.dispose();
+            }
+
+            synchronized (RenderTileCache.this) {
+                tile.pending = false;
+                tile.valid = rendered && tile.version == version;
+                tile.failed = !rendered && tile.version == version;
+                if (rendered) {
+                    tile.image = image;
+                    tile.primitives = primitives;
+                    newTiles = true;
+                }
+            }
+            tile.viewport.getView().repaint();
+        }
+    }
+
+    /**
+     * Invalidates all tiles
+     */
+    public synchronized void invalidateAll() {
+        waySimplifier.invalidateAll();
+        for (TileLevel level : levels) {
+            for (Tile tile : level.tiles.values()) {
+                tile.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Invalidates the tiles which render the given primitives or a primitive referring to them,
+     * either at their previous or at their current position.
+     *
+     * @param primitives the changed primitives
+     */
+    public synchronized void invalidate(Collection<? extends OsmPrimitive> primitives) {
+        Set<OsmPrimitive> changed = new HashSet<OsmPrimitive>(primitives);
+        LinkedList<OsmPrimitive> queue = new LinkedList<OsmPrimitive>(changed);
+        while (!queue.isEmpty()) {
+            for (OsmPrimitive referrer : queue.removeFirst().getReferrers()) {
+                if (changed.add(referrer)) {
+                    queue.add(referrer);
+                }
+            }
+        }
+        List<BBox> bboxes = new ArrayList<BBox>(changed.size());
+        for (OsmPrimitive p : changed) {
+            if (p.getDataSet() == data && !p.isIncomplete()) {
+                bboxes.add(p.getBBox());
+            }
+        }
+
+        for (TileLevel level : levels) {
+            for (Tile tile : level.tiles.values()) {
+                if (tile.pending || isAffected(tile, changed, bboxes)) {
+                    tile.invalidate();
+                }
+            }
+        }
+    }
+
+    private static boolean isAffected(Tile tile, Set<OsmPrimitive> changed, List<BBox> bboxes) {
+        for (BBox bbox : bboxes) {
+            if (tile.bbox.intersects(bbox))
+                return true;
+        }
+        if (tile.primitives.size() < changed.size()) {
+            for (OsmPrimitive p : tile.primitives) {
+                if (changed.contains(p))
+                    return true;
+            }
+        } else {
+            for (OsmPrimitive p : changed) {
+                if (tile.primitives.contains(p))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replies the primitives contained in exactly one of the two sets
+     */
+    private static Set<OsmPrimitive> difference(Set<OsmPrimitive> oldSet, Set<OsmPrimitive> newSet) {
+        Set<OsmPrimitive> changed = new HashSet<OsmPrimitive>(oldSet);
+        changed.addAll(newSet);
+        for (OsmPrimitive p : newSet) {
+            if (oldSet.contains(p)) {
+                changed.remove(p);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Invalidates the tiles which render primitives whose selection state changed
+     * since the last call.
+     */
+    public void selectionChanged() {
+        Set<OsmPrimitive> newSelection = new HashSet<OsmPrimitive>(data.getAllSelected());
+        Set<OsmPrimitive> changed;
+        synchronized (this) {
+            changed = difference(selection, newSelection);
+            selection = newSelection;
+        }
+        if (!changed.isEmpty()) {
+            invalidate(changed);
+        }
+    }
+
+    /**
+     * Invalidates the tiles which render primitives, way segments or virtual nodes whose
+     * highlighting changed since the last call.
+     */
+    private void highlightingChanged() {
+        Set<OsmPrimitive> newHighlighted = data.getHighlightedPrimitives();
+        Set<OsmPrimitive> changed = difference(highlighted, newHighlighted);
+        highlighted = newHighlighted;
+
+        List<WaySegment> newWaySegments = new ArrayList<WaySegment>(data.getHighlightedWaySegments());
+        if (!newWaySegments.equals(highlightedWaySegments)) {
+            addWays(changed, highlightedWaySegments);
+            addWays(changed, newWaySegments);
+            highlightedWaySegments = newWaySegments;
+        }
+        List<WaySegment> newVirtualNodes = new ArrayList<WaySegment>(data.getHighlightedVirtualNodes());
+        if (!newVirtualNodes.equals(highlightedVirtualNodes)) {
+            addWays(changed, highlightedVirtualNodes);
+            addWays(changed, newVirtualNodes);
+            highlightedVirtualNodes = newVirtualNodes;
+        }
+
+        if (!changed.isEmpty()) {
+            invalidate(changed);
+        }
+    }
+
+    private static void addWays(Set<OsmPrimitive> primitives, List<WaySegment> segments) {
+        for (WaySegment segment : segments) {
+            primitives.add(segment.way);
+        }
+    }
+
+    /* -------------------------------------------------------------------------- */
+    /* interface DataSetListener                                                  */
+    /* -------------------------------------------------------------------------- */
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        waySimplifier.invalidate(event.getPrimitives());
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {
+        waySimplifier.invalidate(event.getNode().getReferrers());
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        waySimplifier.invalidate(Collections.singleton(event.getChangedWay()));
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        invalidate(event.getPrimitives());
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        if (event.getEvents() == null) {
+            invalidateAll();
+        } else {
+            for (AbstractDatasetChangedEvent e : event.getEvents()) {
+                e.fire(this);
+            }
+        }
+    }
+}
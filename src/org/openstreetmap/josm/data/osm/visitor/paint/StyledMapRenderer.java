@@ -7,6 +7,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
@@ -41,6 +47,32 @@ public class StyledMapRenderer extends AbstractMapRenderer{
     private static int FLAG_MEMBER_OF_SELECTED = 2;
     private static int FLAG_SELECTED = 4;
 
+    /**
+     * Number of primitives whose styles are computed by one task of the style collection pool
+     */
+    private static final int STYLE_COLLECTION_CHUNK_SIZE = 1000;
+
+    private static ExecutorService styleCollectionPool;
+
+    /**
+     * Replies the thread pool used to compute styles of visible primitives in parallel.
+     * The pool is shared by all renderers and uses daemon threads, one per processor.
+     */
+    private static synchronized ExecutorService getStyleCollectionPool() {
+        if (styleCollectionPool == null) {
+            styleCollectionPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "mappaint-style-collector-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return styleCollectionPool;
+    }
+
     private static class StyleRecord implements Comparable<StyleRecord> {
         final ElemStyle style;
         final OsmPrimitive osm;
@@ -105,6 +137,10 @@ public class StyledMapRenderer extends AbstractMapRenderer{
             styleElems = new ArrayList<StyleRecord>();
         }
 
+        public StyleCollector createEmptyCopy() {
+            return new StyleCollector(drawArea, drawMultipolygon, drawRestriction);
+        }
+
         public void add(Node osm, int flags) {
             StyleList sl = styles.get(osm, circum, nc);
             for (ElemStyle s : sl) {
@@ -133,6 +169,10 @@ public class StyledMapRenderer extends AbstractMapRenderer{
             }
         }
 
+        public void addAll(StyleCollector other) {
+            styleElems.addAll(other.styleElems);
+        }
+
         public void drawAll() {
             Collections.sort(styleElems);
             for (StyleRecord r : styleElems) {
@@ -154,8 +194,36 @@ public class StyledMapRenderer extends AbstractMapRenderer{
         super(g, nc, isInactiveMode);
     }
 
-    private void collectNodeStyles(DataSet data, StyleCollector sc, BBox bbox) {
-        for (final Node n: data.searchNodes(bbox)) {
+    /**
+     * Computes the styles of one chunk of the visible primitives. Every task uses its own
+     * {@link StyleCollector}, the results are merged in the order of the tasks.
+     */
+    private class StyleCollectorTask implements Callable<StyleCollector> {
+        private final DataSet data;
+        private final StyleCollector sc;
+        private final Collection<Node> nodes;
+        private final Collection<Way> ways;
+        private final Collection<Relation> relations;
+
+        public StyleCollectorTask(DataSet data, StyleCollector sc, Collection<Node> nodes, Collection<Way> ways, Collection<Relation> relations) {
+            this.data = data;
+            this.sc = sc;
+            this.nodes = nodes;
+            this.ways = ways;
+            this.relations = relations;
+        }
+
+        @Override
+        public StyleCollector call() {
+            collectNodeStyles(data, sc, nodes);
+            collectWayStyles(data, sc, ways);
+            collectRelationStyles(data, sc, relations);
+            return sc;
+        }
+    }
+
+    private void collectNodeStyles(DataSet data, StyleCollector sc, Collection<Node> nodes) {
+        for (final Node n: nodes) {
             if (n.isDrawable()) {
                 if (n.isDisabled()) {
                     sc.add(n, FLAG_DISABLED);
@@ -170,8 +238,8 @@ public class StyledMapRenderer extends AbstractMapRenderer{
         }
     }
 
-    private void collectWayStyles(DataSet data, StyleCollector sc, BBox bbox) {
-        for (final Way w : data.searchWays(bbox)) {
+    private void collectWayStyles(DataSet data, StyleCollector sc, Collection<Way> ways) {
+        for (final Way w : ways) {
             if (w.isDrawable()) {
                 if (w.isDisabled()) {
                     sc.add(w, FLAG_DISABLED);
@@ -186,8 +254,8 @@ public class StyledMapRenderer extends AbstractMapRenderer{
         }
     }
 
-    private void collectRelationStyles(DataSet data, StyleCollector sc, BBox bbox) {
-        for (Relation r: data.searchRelations(bbox)) {
+    private void collectRelationStyles(DataSet data, StyleCollector sc, Collection<Relation> relations) {
+        for (Relation r: relations) {
             if (r.isDrawable()) {
                 if (r.isDisabled()) {
                     sc.add(r, FLAG_DISABLED);
@@ -200,6 +268,44 @@ public class StyledMapRenderer extends AbstractMapRenderer{
         }
     }
 
+    private static <T> List<List<T>> split(List<T> list) {
+        List<List<T>> result = new ArrayList<List<T>>();
+        for (int i=0; i<list.size(); i+=STYLE_COLLECTION_CHUNK_SIZE) {
+            result.add(list.subList(i, Math.min(list.size(), i + STYLE_COLLECTION_CHUNK_SIZE)));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the styles of the given primitives on the style collection pool and adds them to <code>sc</code>.
+     * The order of the collected styles is the same as if they were collected sequentially.
+     */
+    private void collectStylesInParallel(DataSet data, StyleCollector sc, List<Node> nodes, List<Way> ways, List<Relation> relations) {
+        List<Callable<StyleCollector>> tasks = new ArrayList<Callable<StyleCollector>>();
+        List<Node> noNodes = Collections.emptyList();
+        List<Way> noWays = Collections.emptyList();
+        List<Relation> noRelations = Collections.emptyList();
+        for (List<Node> chunk : split(nodes)) {
+            tasks.add(new StyleCollectorTask(data, sc.createEmptyCopy(), chunk, noWays, noRelations));
+        }
+        for (List<Way> chunk : split(ways)) {
+            tasks.add(new StyleCollectorTask(data, sc.createEmptyCopy(), noNodes, chunk, noRelations));
+        }
+        for (List<Relation> chunk : split(relations)) {
+            tasks.add(new StyleCollectorTask(data, sc.createEmptyCopy(), noNodes, noWays, chunk));
+        }
+        try {
+            for (Future<StyleCollector> f : getStyleCollectionPool().invokeAll(tasks)) {
+                sc.addAll(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     @Override
     public void render(final DataSet data, boolean renderVirtualNodes, Bounds bounds) {
         //long start = System.currentTimeMillis();
@@ -224,14 +330,23 @@ public class StyledMapRenderer extends AbstractMapRenderer{
 
         this.painter = new MapPainter(paintSettings, g, isInactiveMode, nc, renderVirtualNodes, circum, leftHandTraffic, hws);
 
+        List<Node> nodes = data.searchNodes(bbox);
+        List<Way> ways = data.searchWays(bbox);
+        List<Relation> relations = data.searchRelations(bbox);
+
         StyleCollector sc = new StyleCollector(drawArea, drawMultipolygon, drawRestriction);
-        collectNodeStyles(data, sc, bbox);
-        collectWayStyles(data, sc, bbox);
-        collectRelationStyles(data, sc, bbox);
+        if (Main.pref.getBoolean("mappaint.parallel", true)
+                && nodes.size() + ways.size() + relations.size() > STYLE_COLLECTION_CHUNK_SIZE) {
+            collectStylesInParallel(data, sc, nodes, ways, relations);
+        } else {
+            collectNodeStyles(data, sc, nodes);
+            collectWayStyles(data, sc, ways);
+            collectRelationStyles(data, sc, relations);
+        }
         //long phase1 = System.currentTimeMillis();
         sc.drawAll();
         sc = null;
-        painter.drawVirtualNodes(data.searchWays(bbox), data.getHighlightedVirtualNodes());
+        painter.drawVirtualNodes(ways, data.getHighlightedVirtualNodes());
 
         //long now = System.currentTimeMillis();
         //System.err.println(String.format("PAINTING TOOK %d [PHASE1 took %d] (at scale %s)", now - start, phase1 - start, circum));
@@ -0,0 +1,250 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+/**
+ * <p>Simplifies the geometry of ways for rendering.</p>
+ *
+ * <p>At low zoom levels many nodes of a way fall onto the same pixel. The simplifier drops
+ * the nodes which are closer than half a pixel to the simplified line (Douglas-Peucker).
+ * The results are cached per way and zoom level, i.e. one power of two of the scale. The
+ * cache is owned by a {@link RenderTileCache}, which forwards the changes of the dataset to
+ * {@link #invalidate(Collection)} and drops the zoom levels it doesn't keep any more.</p>
+ *
+ * <p>Ways are only simplified when rendered into the tiles of a render tile cache, see
+ * {@link #get(MapPaintSettings, NavigatableComponent)}.</p>
+ */
+public final class WaySimplifier {
+
+    /**
+     * The maximal distance of a dropped node to the simplified line, in pixels
+     */
+    private static final double TOLERANCE = 0.5;
+
+    /**
+     * Ways with fewer nodes are not simplified
+     */
+    private static final int MIN_NODES = 8;
+
+    /**
+     * Cached for ways where the simplification drops too few nodes to be worth it
+     */
+    private static final Node[] NOT_SIMPLIFIED = new Node[0];
+
+    /**
+     * A way at one zoom level
+     */
+    private static class Key {
+        private final Way way;
+        private final int level;
+
+        Key(Way way, int level) {
+            this.way = way;
+            this.level = level;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(way) * 31 + level;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return way == other.way && level == other.level;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Node[]> cache = new ConcurrentHashMap<Key, Node[]>();
+    private volatile Projection projection;
+
+    /**
+     * Replies the simplifier to use when rendering for the given viewport.
+     *
+     * @param settings the paint settings
+     * @param nc the viewport
+     * @return the simplifier of the render tile cache if the viewport is a tile and ways
+     * are to be simplified, null otherwise
+     */
+    static WaySimplifier get(MapPaintSettings settings, NavigatableComponent nc) {
+        if (settings.isSimplifyWays() && nc instanceof RenderTileCache.TileViewport)
+            return ((RenderTileCache.TileViewport) nc).getWaySimplifier();
+        return null;
+    }
+
+    /**
+     * Replies the zoom level of a scale
+     */
+    static int getLevel(double scale) {
+        return Math.getExponent(scale * TOLERANCE);
+    }
+
+    /**
+     * Replies the nodes of a way, simplified for rendering at the given scale.
+     *
+     * @param w the way
+     * @param scale the scale, in east/north units per pixel
+     * @return the simplified nodes, or all nodes if the way can't be simplified
+     */
+    public List<Node> getNodes(Way w, double scale) {
+        if (w.getNodesCount() < MIN_NODES)
+            return w.getNodes();
+        if (projection != Main.getProjection()) {
+            synchronized (this) {
+                if (projection != Main.getProjection()) {
+                    cache.clear();
+                    projection = Main.getProjection();
+                }
+            }
+        }
+        int level = getLevel(scale);
+        Key key = new Key(w, level);
+        Node[] simplified = cache.get(key);
+        if (simplified == null) {
+            simplified = simplify(w.getNodes(), Math.scalb(1.0, level));
+            if (simplified == null) {
+                simplified = NOT_SIMPLIFIED;
+            }
+            cache.put(key, simplified);
+        }
+        return simplified == NOT_SIMPLIFIED ? w.getNodes() : Arrays.asList(simplified);
+    }
+
+    /**
+     * Drops the cached results of the given ways
+     *
+     * @param primitives the primitives whose nodes, or the positions of their nodes, changed.
+     * Primitives other than ways are ignored.
+     */
+    void invalidate(Collection<? extends OsmPrimitive> primitives) {
+        Set<OsmPrimitive> changed = Collections.newSetFromMap(new IdentityHashMap<OsmPrimitive, Boolean>());
+        changed.addAll(primitives);
+        for (Iterator<Key> it = cache.keySet().iterator(); it.hasNext();) {
+            if (changed.contains(it.next().way)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all cached results
+     */
+    void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     * Drops the cached results of all zoom levels except the ones of the given scales
+     *
+     * @param scales the scales whose results are kept
+     */
+    void retainLevels(Collection<Double> scales) {
+        Set<Integer> levels = new HashSet<Integer>();
+        for (double scale : scales) {
+            levels.add(getLevel(scale));
+        }
+        for (Iterator<Key> it = cache.keySet().iterator(); it.hasNext();) {
+            if (!levels.contains(it.next().level)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Simplifies a line with the Douglas-Peucker algorithm.
+     *
+     * @param nodes the nodes of the line
+     * @param tolerance the maximal distance of a dropped node to the simplified line, in east/north units
+     * @return the kept nodes, or null if more than three quarters of the nodes are kept
+     * or a node has no coordinates
+     */
+    static Node[] simplify(List<Node> nodes, double tolerance) {
+        int n = nodes.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            EastNorth en = nodes.get(i).getEastNorth();
+            if (en == null)
+                return null;
+            x[i] = en.east();
+            y[i] = en.north();
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = keep[n - 1] = true;
+        int kept = 2;
+        double maxDistanceSq = tolerance * tolerance;
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestDistanceSq = maxDistanceSq;
+            for (int i = first + 1; i < last; i++) {
+                double d = distanceSq(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d > farthestDistanceSq) {
+                    farthestDistanceSq = d;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                kept++;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        if (kept * 4 > n * 3)
+            return null;
+        Node[] result = new Node[kept];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) {
+                result[j++] = nodes.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replies the square of the distance of the point (px, py) to the segment from (ax, ay) to (bx, by)
+     */
+    private static double distanceSq(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+}
@@ -13,6 +13,7 @@ import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
@@ -64,6 +65,8 @@ public class WireframeMapRenderer extends AbstractMapRenderer implements Visitor
     protected boolean showHeadArrowOnly;
     /** Preference: should the segement numbers of ways be displayed */
     protected boolean showOrderNumber;
+    /** Simplifies ways at low zoom levels, null if ways are not simplified */
+    protected WaySimplifier waySimplifier;
     /** Preference: should selected nodes be filled */
     protected boolean fillSelectedNode;
     /** Preference: should unselected nodes be filled */
@@ -158,6 +161,7 @@ public class WireframeMapRenderer extends AbstractMapRenderer implements Visitor
         showOnewayArrow = settings.isShowOnewayArrow();
         showHeadArrowOnly = settings.isShowHeadArrowOnly();
         showOrderNumber = settings.isShowOrderNumber();
+        waySimplifier = WaySimplifier.get(settings, nc);
         selectedNodeSize = settings.getSelectedNodeSize();
         unselectedNodeSize = settings.getUnselectedNodeSize();
         connectionNodeSize = settings.getConnectionNodeSize();
@@ -397,7 +401,9 @@ public class WireframeMapRenderer extends AbstractMapRenderer implements Visitor
             wayColor = dfltWayColor;
         }
 
-        Iterator<Node> it = w.getNodes().iterator();
+        // the order numbers refer to all nodes of the way
+        List<Node> nodes = waySimplifier != null && !showOrderNumber ? waySimplifier.getNodes(w, nc.getScale()) : w.getNodes();
+        Iterator<Node> it = nodes.iterator();
         if (it.hasNext()) {
             Point lastP = nc.getPoint(it.next());
             for (int orderNumber = 1; it.hasNext(); orderNumber++) {
@@ -447,7 +453,7 @@ public class WireframeMapRenderer extends AbstractMapRenderer implements Visitor
                 GeneralPath path = new GeneralPath();
 
                 boolean first = true;
-                for (Node n : m.getWay().getNodes()) {
+                for (Node n : waySimplifier != null ? waySimplifier.getNodes(m.getWay(), nc.getScale()) : m.getWay().getNodes()) {
                     if (!n.isDrawable()) {
                         continue;
                     }
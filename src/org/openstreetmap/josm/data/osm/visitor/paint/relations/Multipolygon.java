@@ -351,7 +351,23 @@ public class Multipolygon {
     private final List<PolyData> combinedPolygons = new ArrayList<PolyData>();
     
     private boolean incomplete;
+    private volatile boolean built;
 
+    /** the number of nodes accounted for by the {@link MultipolygonCache}, estimated until it is built */
+    int cachedNodeCount;
+    /** whether {@link #cachedNodeCount} is the number of nodes of the built polygons */
+    boolean cachedBuilt;
+    /** whether the {@link MultipolygonCache} has queued this multipolygon for building */
+    boolean scheduled;
+
+    /**
+     * Constructs a new {@code Multipolygon}. Only the inner and outer ways are collected,
+     * the polygons are assembled on the first call of {@link #getCombinedPolygons()}.
+     * Callers which need a multipolygon only once, like the validator tests, should use
+     * this constructor rather than the {@link MultipolygonCache}.
+     *
+     * @param r the multipolygon relation
+     */
     public Multipolygon(Relation r) {
         load(r);
     }
@@ -382,11 +398,54 @@ public class Multipolygon {
             }
         }
 
+    }
+
+    private void build() {
         createPolygons(innerWays, innerPolygons);
         createPolygons(outerWays, outerPolygons);
         if (!outerPolygons.isEmpty()) {
             addInnerToOuters();
         }
+        built = true;
+    }
+
+    /**
+     * Replies true if the polygons have been assembled, i.e. if {@link #getCombinedPolygons()}
+     * returns without assembling them first.
+     */
+    public final boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Replies the number of nodes of the inner and outer ways, an estimate of the number
+     * of nodes of the polygons before they are assembled
+     */
+    public int getEstimatedNodeCount() {
+        int count = 0;
+        for (Way w : innerWays) {
+            count += w.getNodesCount();
+        }
+        for (Way w : outerWays) {
+            count += w.getNodesCount();
+        }
+        return count;
+    }
+
+    /**
+     * Replies the number of nodes of the assembled polygons, 0 if they are not assembled yet
+     */
+    public synchronized int getNodeCount() {
+        int count = 0;
+        if (built) {
+            for (PolyData pd : combinedPolygons) {
+                count += pd.nodes.size();
+                for (PolyData inner : pd.inners) {
+                    count += inner.nodes.size();
+                }
+            }
+        }
+        return count;
     }
     
     public final boolean isIncomplete() {
@@ -581,7 +640,13 @@ public class Multipolygon {
         return outerPolygons;
     }
 */
-    public List<PolyData> getCombinedPolygons() {
+    /**
+     * Replies the polygons with their inner polygons. They are assembled on the first call.
+     */
+    public synchronized List<PolyData> getCombinedPolygons() {
+        if (!built) {
+            build();
+        }
         return combinedPolygons;
     }
 }
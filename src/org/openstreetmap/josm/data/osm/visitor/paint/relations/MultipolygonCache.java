@@ -3,9 +3,16 @@ package org.openstreetmap.josm.data.osm.visitor.paint.relations;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.SelectionChangedListener;
@@ -13,6 +20,7 @@ import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
 import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
@@ -28,24 +36,58 @@ import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.data.projection.ProjectionChangeListener;
 import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.MapView.LayerChangeListener;
-import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 
 /*
- * A memory cache for Multipolygon objects.
- * 
+ * A memory cache for Multipolygon objects, shared by all map views.
+ *
+ * The polygons of a multipolygon are assembled on a background thread, either when
+ * its relation is loaded or changed, or when it is painted for the first time.
+ * Until then, renderers check Multipolygon.isBuilt() and draw a simpler fallback.
+ * The cache is bounded by the number of nodes of the polygons, estimated from the
+ * nodes of their ways until they are assembled. The least recently used multipolygons
+ * are evicted first, except the ones pinned by the map view for the current frame
+ * (see pin(DataSet, Collection)).
  */
 public class MultipolygonCache implements DataSetListener, LayerChangeListener, ProjectionChangeListener, SelectionChangedListener {
 
-    private static final MultipolygonCache instance = new MultipolygonCache(); 
-    
-    private final Map<NavigatableComponent, Map<DataSet, Map<Relation, Multipolygon>>> cache;
-    
+    /**
+     * Preference key for the maximal number of nodes of the polygons kept in the cache
+     */
+    public static final String PREF_KEY_MAX_NODES = "mappaint.multipolygon.cache.max-nodes";
+
+    private static final int DEFAULT_MAX_NODES = 1000000;
+
+    /**
+     * Listener notified when the polygons of a multipolygon have been assembled in the background
+     */
+    public interface MultipolygonBuiltListener {
+        /**
+         * Called on the background thread after the polygons of a multipolygon have been assembled
+         * @param r the multipolygon relation
+         */
+        void multipolygonBuilt(Relation r);
+    }
+
+    private static final MultipolygonCache instance = new MultipolygonCache();
+
+    private static ExecutorService buildPool;
+
+    private final Map<DataSet, Map<Relation, Multipolygon>> cache;
+
     private final Collection<PolyData> selectedPolyData;
-    
+
+    /** the relations painted in the current frame, per dataset, see {@link #pin(DataSet, Collection)} */
+    private final Map<DataSet, Set<Relation>> pinned = new HashMap<DataSet, Set<Relation>>();
+
+    private final List<MultipolygonBuiltListener> listeners = new CopyOnWriteArrayList<MultipolygonBuiltListener>();
+
+    /** the number of nodes of the polygons in the cache */
+    private long nodeCount;
+
     private MultipolygonCache() {
-        this.cache = new HashMap<NavigatableComponent, Map<DataSet, Map<Relation, Multipolygon>>>();
+        this.cache = new HashMap<DataSet, Map<Relation, Multipolygon>>();
         this.selectedPolyData = new ArrayList<Multipolygon.PolyData>();
         Main.addProjectionChangeListener(this);
         DataSet.addSelectionListener(this);
@@ -56,71 +98,257 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
         return instance;
     }
 
-    public final Multipolygon get(NavigatableComponent nc, Relation r) {
-        return get(nc, r, false);
+    /**
+     * Replies the thread pool used to assemble the polygons of multipolygons.
+     * The pool uses daemon threads, one per processor.
+     */
+    private static synchronized ExecutorService getBuildPool() {
+        if (buildPool == null) {
+            buildPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "multipolygon-builder-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return buildPool;
+    }
+
+    public void addMultipolygonBuiltListener(MultipolygonBuiltListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeMultipolygonBuiltListener(MultipolygonBuiltListener listener) {
+        listeners.remove(listener);
     }
 
-    public final Multipolygon get(NavigatableComponent nc, Relation r, boolean forceRefresh) {
+    /**
+     * Replies the multipolygon of a relation. If its polygons are not assembled yet, they are
+     * queued for assembling in the background. Callers which need the polygons immediately
+     * may call {@link Multipolygon#getCombinedPolygons()}, which assembles them in the
+     * calling thread.
+     *
+     * @param r the multipolygon relation
+     * @return the multipolygon, null if r is null
+     */
+    public final Multipolygon get(Relation r) {
+        return get(r, false);
+    }
+
+    public synchronized final Multipolygon get(Relation r, boolean forceRefresh) {
         Multipolygon multipolygon = null;
-        if (nc != null && r != null) {
-            Map<DataSet, Map<Relation, Multipolygon>> map1 = cache.get(nc);
-            if (map1 == null) {
-                cache.put(nc, map1 = new HashMap<DataSet, Map<Relation, Multipolygon>>());
-            }
-            Map<Relation, Multipolygon> map2 = map1.get(r.getDataSet());
-            if (map2 == null) {
-                map1.put(r.getDataSet(), map2 = new HashMap<Relation, Multipolygon>());
+        if (r != null) {
+            Map<Relation, Multipolygon> map = cache.get(r.getDataSet());
+            if (map == null) {
+                // access order, so that the least recently used multipolygons are evicted first
+                cache.put(r.getDataSet(), map = new LinkedHashMap<Relation, Multipolygon>(16, 0.75f, true));
             }
-            multipolygon = map2.get(r);
+            multipolygon = map.get(r);
             if (multipolygon == null || forceRefresh) {
-                map2.put(r, multipolygon = new Multipolygon(r));
-                for (PolyData pd : multipolygon.getCombinedPolygons()) {
-                    if (pd.selected) {
-                        selectedPolyData.add(pd);
+                remove(map, r);
+                map.put(r, multipolygon = new Multipolygon(r));
+                multipolygon.cachedNodeCount = multipolygon.getEstimatedNodeCount();
+                nodeCount += multipolygon.cachedNodeCount;
+                evict(multipolygon);
+            }
+            if (!multipolygon.isBuilt()) {
+                schedule(r, multipolygon);
+            } else if (!multipolygon.cachedBuilt) {
+                // assembled by the caller of getCombinedPolygons()
+                account(multipolygon);
+                evict(multipolygon);
+            }
+        }
+        return multipolygon;
+    }
+
+    /**
+     * Pins the multipolygons painted in the current frame, so that they are not evicted while
+     * they are visible. Otherwise assembling one multipolygon could evict another one painted in
+     * the same frame, which would be assembled again for the next frame, and so on. Replaces the
+     * multipolygons pinned for the previous frame. Multipolygons pinned at the same time may
+     * exceed the maximal number of nodes of the cache.
+     *
+     * @param ds the dataset
+     * @param relations the relations painted in the current frame, relations other than
+     * multipolygons are ignored
+     */
+    public synchronized void pin(DataSet ds, Collection<Relation> relations) {
+        Set<Relation> set = new HashSet<Relation>();
+        for (Relation r : relations) {
+            if (r.isMultipolygon()) {
+                set.add(r);
+            }
+        }
+        pinned.put(ds, set);
+    }
+
+    /**
+     * Queues the multipolygons of a dataset for assembling in the background, as long as the
+     * estimated number of their nodes fits into the cache.
+     *
+     * @param ds the dataset
+     */
+    public void prefetch(DataSet ds) {
+        long maxNodes = Main.pref.getInteger(PREF_KEY_MAX_NODES, DEFAULT_MAX_NODES);
+        long estimatedNodes = 0;
+        ds.getReadLock().lock();
+        try {
+            for (Relation r : ds.getRelations()) {
+                if (r.isUsable() && r.isMultipolygon()) {
+                    for (RelationMember m : r.getMembers()) {
+                        if (m.isWay()) {
+                            estimatedNodes += m.getWay().getNodesCount();
+                        }
                     }
+                    if (estimatedNodes > maxNodes) {
+                        break;
+                    }
+                    get(r);
                 }
             }
+        } finally {
+            ds.getReadLock().unlock();
         }
-        return multipolygon;
     }
-    
-    public final void clear(NavigatableComponent nc) {
-        Map<DataSet, Map<Relation, Multipolygon>> map = cache.remove(nc);
-        if (map != null) {
-            map.clear();
-            map = null;
+
+    private void schedule(Relation r, Multipolygon multipolygon) {
+        if (!multipolygon.scheduled && r.getDataSet() != null) {
+            multipolygon.scheduled = true;
+            getBuildPool().execute(new Builder(r.getDataSet(), r, multipolygon));
         }
     }
 
-    public final void clear(DataSet ds) {
-        for (Map<DataSet, Map<Relation, Multipolygon>> map1 : cache.values()) {
-            Map<Relation, Multipolygon> map2 = map1.remove(ds);
-            if (map2 != null) {
-                map2.clear();
-                map2 = null;
+    /**
+     * Assembles the polygons of a multipolygon on a worker thread
+     */
+    private class Builder implements Runnable {
+        private final DataSet ds;
+        private final Relation r;
+        private final Multipolygon multipolygon;
+
+        public Builder(DataSet ds, Relation r, Multipolygon multipolygon) {
+            this.ds = ds;
+            this.r = r;
+            this.multipolygon = multipolygon;
+        }
+
+        private boolean isCached() {
+            Map<Relation, Multipolygon> map = cache.get(ds);
+            return map != null && map.get(r) == multipolygon;
+        }
+
+        @Override
+        public void run() {
+            synchronized (MultipolygonCache.this) {
+                if (!isCached())
+                    // removed or evicted meanwhile
+                    return;
+            }
+
+            ds.getReadLock().lock();
+            try {
+                multipolygon.getCombinedPolygons();
+            } catch (RuntimeException e) {
+                // the renderers keep drawing the fallback for this multipolygon
+                e.printStackTrace();
+                return;
+            } finally {
+                ds.getReadLock().unlock();
+            }
+
+            synchronized (MultipolygonCache.this) {
+                if (!isCached() || multipolygon.cachedBuilt)
+                    return;
+                account(multipolygon);
+                evict(multipolygon);
+            }
+            for (MultipolygonBuiltListener listener : listeners) {
+                listener.multipolygonBuilt(r);
             }
         }
     }
 
-    public final void clear() {
-        cache.clear();
+    /**
+     * Replaces the estimated nodes of a multipolygon by the nodes of its assembled polygons
+     * in the node count of the cache
+     */
+    private void account(Multipolygon multipolygon) {
+        nodeCount -= multipolygon.cachedNodeCount;
+        multipolygon.cachedNodeCount = multipolygon.getNodeCount();
+        multipolygon.cachedBuilt = true;
+        nodeCount += multipolygon.cachedNodeCount;
+        for (PolyData pd : multipolygon.getCombinedPolygons()) {
+            if (pd.selected) {
+                selectedPolyData.add(pd);
+            }
+        }
     }
-    
-    private final Collection<Map<Relation, Multipolygon>> getMapsFor(DataSet ds) {
-        List<Map<Relation, Multipolygon>> result = new ArrayList<Map<Relation, Multipolygon>>();
-        for (Map<DataSet, Map<Relation, Multipolygon>> map : cache.values()) {
-            Map<Relation, Multipolygon> map2 = map.get(ds);
-            if (map2 != null) {
-                result.add(map2);
+
+    /**
+     * Evicts the least recently used multipolygons until the nodes of the cache fit into the maximum.
+     * Pinned multipolygons are kept.
+     *
+     * @param keep a multipolygon which must not be evicted
+     */
+    private void evict(Multipolygon keep) {
+        int maxNodes = Main.pref.getInteger(PREF_KEY_MAX_NODES, DEFAULT_MAX_NODES);
+        for (Map.Entry<DataSet, Map<Relation, Multipolygon>> e : cache.entrySet()) {
+            Set<Relation> pinnedRelations = pinned.get(e.getKey());
+            for (Iterator<Map.Entry<Relation, Multipolygon>> it = e.getValue().entrySet().iterator(); it.hasNext() && nodeCount > maxNodes;) {
+                Map.Entry<Relation, Multipolygon> entry = it.next();
+                if (entry.getValue() != keep && (pinnedRelations == null || !pinnedRelations.contains(entry.getKey()))) {
+                    discard(entry.getValue());
+                    it.remove();
+                }
             }
         }
-        return result;
     }
-    
+
+    /**
+     * Removes the nodes and the selected polygons of a multipolygon removed from the cache
+     */
+    private void discard(Multipolygon multipolygon) {
+        nodeCount -= multipolygon.cachedNodeCount;
+        if (multipolygon.cachedBuilt) {
+            for (PolyData pd : multipolygon.getCombinedPolygons()) {
+                if (pd.selected) {
+                    selectedPolyData.remove(pd);
+                }
+            }
+        }
+    }
+
+    private void remove(Map<Relation, Multipolygon> map, OsmPrimitive r) {
+        Multipolygon multipolygon = map.remove(r);
+        if (multipolygon != null) {
+            discard(multipolygon);
+        }
+    }
+
+    public synchronized final void clear(DataSet ds) {
+        pinned.remove(ds);
+        Map<Relation, Multipolygon> map = cache.remove(ds);
+        if (map != null) {
+            for (Multipolygon multipolygon : map.values()) {
+                discard(multipolygon);
+            }
+        }
+    }
+
+    public synchronized final void clear() {
+        cache.clear();
+        selectedPolyData.clear();
+        nodeCount = 0;
+    }
+
     private static final boolean isMultipolygon(OsmPrimitive p) {
         return p instanceof Relation && ((Relation) p).isMultipolygon();
     }
-    
+
     private final void updateMultipolygonsReferringTo(AbstractDatasetChangedEvent event) {
         updateMultipolygonsReferringTo(event, event.getPrimitives(), event.getDataset());
     }
@@ -129,77 +357,81 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
             final AbstractDatasetChangedEvent event, Collection<? extends OsmPrimitive> primitives, DataSet ds) {
         updateMultipolygonsReferringTo(event, primitives, ds, null);
     }
-    
-    private final Collection<Map<Relation, Multipolygon>> updateMultipolygonsReferringTo(
-            AbstractDatasetChangedEvent event, Collection<? extends OsmPrimitive> primitives, 
-            DataSet ds, Collection<Map<Relation, Multipolygon>> initialMaps) {
-        Collection<Map<Relation, Multipolygon>> maps = initialMaps;
+
+    private final Map<Relation, Multipolygon> updateMultipolygonsReferringTo(
+            AbstractDatasetChangedEvent event, Collection<? extends OsmPrimitive> primitives,
+            DataSet ds, Map<Relation, Multipolygon> initialMap) {
+        Map<Relation, Multipolygon> map = initialMap;
         if (primitives != null) {
             for (OsmPrimitive p : primitives) {
                 if (isMultipolygon(p)) {
-                    if (maps == null) {
-                        maps = getMapsFor(ds);
+                    if (map == null) {
+                        map = cache.get(ds);
+                        if (map == null)
+                            return null;
                     }
-                    processEvent(event, (Relation) p, maps);
-                    
+                    processEvent(event, (Relation) p, map);
+
                 } else if (p instanceof Way && p.getDataSet() != null) {
                     for (OsmPrimitive ref : p.getReferrers()) {
                         if (isMultipolygon(ref)) {
-                            if (maps == null) {
-                                maps = getMapsFor(ds);
+                            if (map == null) {
+                                map = cache.get(ds);
+                                if (map == null)
+                                    return null;
                             }
-                            processEvent(event, (Relation) ref, maps);
+                            processEvent(event, (Relation) ref, map);
                         }
                     }
                 } else if (p instanceof Node && p.getDataSet() != null) {
-                    maps = updateMultipolygonsReferringTo(event, p.getReferrers(), ds, maps);
+                    map = updateMultipolygonsReferringTo(event, p.getReferrers(), ds, map);
                 }
             }
         }
-        return maps;
+        return map;
     }
-    
-    private final void processEvent(AbstractDatasetChangedEvent event, Relation r, Collection<Map<Relation, Multipolygon>> maps) {
+
+    private final void processEvent(AbstractDatasetChangedEvent event, Relation r, Map<Relation, Multipolygon> map) {
         if (event instanceof NodeMovedEvent || event instanceof WayNodesChangedEvent) {
-            dispatchEvent(event, r, maps);
+            dispatchEvent(event, r, map);
         } else if (event instanceof PrimitivesRemovedEvent) {
             if (event.getPrimitives().contains(r)) {
-                removeMultipolygonFrom(r, maps);
+                remove(map, r);
             }
         } else {
-            // Default (non-optimal) action: remove multipolygon from cache 
-            removeMultipolygonFrom(r, maps);
+            // Default (non-optimal) action: remove multipolygon from cache and assemble it again
+            remove(map, r);
+            if (r.isUsable()) {
+                get(r);
+            }
         }
     }
-    
-    private final void dispatchEvent(AbstractDatasetChangedEvent event, Relation r, Collection<Map<Relation, Multipolygon>> maps) {
-        for (Map<Relation, Multipolygon> map : maps) {
-            Multipolygon m = map.get(r);
-            if (m != null) {
-                for (PolyData pd : m.getCombinedPolygons()) {
-                    if (event instanceof NodeMovedEvent) {
-                        pd.nodeMoved((NodeMovedEvent) event);
-                    } else if (event instanceof WayNodesChangedEvent) {
-                        pd.wayNodesChanged((WayNodesChangedEvent)event);
-                    }
+
+    private final void dispatchEvent(AbstractDatasetChangedEvent event, Relation r, Map<Relation, Multipolygon> map) {
+        Multipolygon m = map.get(r);
+        // multipolygons not assembled yet read the current nodes when they are assembled
+        if (m != null && m.isBuilt()) {
+            for (PolyData pd : m.getCombinedPolygons()) {
+                if (event instanceof NodeMovedEvent) {
+                    pd.nodeMoved((NodeMovedEvent) event);
+                } else if (event instanceof WayNodesChangedEvent) {
+                    pd.wayNodesChanged((WayNodesChangedEvent)event);
                 }
             }
         }
     }
-    
-    private final void removeMultipolygonFrom(Relation r, Collection<Map<Relation, Multipolygon>> maps) {
-        for (Map<Relation, Multipolygon> map : maps) {
-            map.remove(r);
-        }
-    }
 
     @Override
     public void primitivesAdded(PrimitivesAddedEvent event) {
-        // Do nothing
+        for (OsmPrimitive p : event.getPrimitives()) {
+            if (isMultipolygon(p) && p.isUsable()) {
+                get((Relation) p);
+            }
+        }
     }
 
     @Override
-    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+    public synchronized void primitivesRemoved(PrimitivesRemovedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
@@ -209,17 +441,17 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void nodeMoved(NodeMovedEvent event) {
+    public synchronized void nodeMoved(NodeMovedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
     @Override
-    public void wayNodesChanged(WayNodesChangedEvent event) {
+    public synchronized void wayNodesChanged(WayNodesChangedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
     @Override
-    public void relationMembersChanged(RelationMembersChangedEvent event) {
+    public synchronized void relationMembersChanged(RelationMembersChangedEvent event) {
         updateMultipolygonsReferringTo(event);
     }
 
@@ -229,23 +461,20 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void dataChanged(DataChangedEvent event) {
-        // Do not call updateMultipolygonsReferringTo as getPrimitives() 
+    public synchronized void dataChanged(DataChangedEvent event) {
+        // Do not call updateMultipolygonsReferringTo as getPrimitives()
         // can return all the data set primitives for this event
-        Collection<Map<Relation, Multipolygon>> maps = null;
+        Map<Relation, Multipolygon> map = cache.get(event.getDataset());
+        if (map == null)
+            return;
         for (OsmPrimitive p : event.getPrimitives()) {
             if (isMultipolygon(p)) {
-                if (maps == null) {
-                    maps = getMapsFor(event.getDataset());
-                }
-                for (Map<Relation, Multipolygon> map : maps) {
-                    // DataChangedEvent is sent after downloading incomplete members (see #7131),
-                    // without having received RelationMembersChangedEvent or PrimitivesAddedEvent
-                    // OR when undoing a move of a large number of nodes (see #7195),
-                    // without having received NodeMovedEvent
-                    // This ensures concerned multipolygons will be correctly redrawn
-                    map.remove(p);
-                }
+                // DataChangedEvent is sent after downloading incomplete members (see #7131),
+                // without having received RelationMembersChangedEvent or PrimitivesAddedEvent
+                // OR when undoing a move of a large number of nodes (see #7195),
+                // without having received NodeMovedEvent
+                // This ensures concerned multipolygons will be correctly redrawn
+                remove(map, p);
             }
         }
     }
@@ -273,33 +502,31 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
     }
 
     @Override
-    public void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
-        
+    public synchronized void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
+
         for (Iterator<PolyData> it = selectedPolyData.iterator(); it.hasNext();) {
             it.next().selected = false;
             it.remove();
         }
-        
+
         DataSet ds = null;
-        Collection<Map<Relation, Multipolygon>> maps = null;
+        Map<Relation, Multipolygon> map = null;
         for (OsmPrimitive p : newSelection) {
             if (p instanceof Way && p.getDataSet() != null) {
                 if (ds == null) {
                     ds = p.getDataSet();
+                    map = cache.get(ds);
+                    if (map == null)
+                        return;
                 }
                 for (OsmPrimitive ref : p.getReferrers()) {
                     if (isMultipolygon(ref)) {
-                        if (maps == null) {
-                            maps = getMapsFor(ds);
-                        }
-                        for (Map<Relation, Multipolygon> map : maps) {
-                            Multipolygon multipolygon = map.get(ref);
-                            if (multipolygon != null) {
-                                for (PolyData pd : multipolygon.getCombinedPolygons()) {
-                                    if (pd.getWayIds().contains(p.getUniqueId())) {
-                                        pd.selected = true;
-                                        selectedPolyData.add(pd);
-                                    }
+                        Multipolygon multipolygon = map.get(ref);
+                        if (multipolygon != null && multipolygon.isBuilt()) {
+                            for (PolyData pd : multipolygon.getCombinedPolygons()) {
+                                if (pd.getWayIds().contains(p.getUniqueId())) {
+                                    pd.selected = true;
+                                    selectedPolyData.add(pd);
                                 }
                             }
                         }
@@ -308,4 +535,4 @@ public class MultipolygonCache implements DataSetListener, LayerChangeListener,
             }
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
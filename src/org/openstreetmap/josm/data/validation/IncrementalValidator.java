@@ -0,0 +1,326 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.data.validation.util.AggregatePrimitivesVisitor;
+import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * <p>Keeps the validation errors of a dataset up to date.</p>
+ *
+ * <p>The first call of {@link #getErrors(ProgressMonitor)} validates all primitives of the dataset.
+ * Afterwards the validator listens to the changes of the dataset and remembers the changed
+ * primitives. The next call of {@link #getErrors(ProgressMonitor)} only revalidates the changed
+ * primitives together with their neighbourhood, i.e. their parents, their children and the nodes
+ * and ways nearby, and replaces the errors involving these primitives.</p>
+ *
+ * <p>A full validation is run again if the set of enabled tests changed, or if the dataset
+ * reported too many changes at once to list them.</p>
+ *
+ * <p>Before upload, only the modified primitives and their children are validated, like
+ * without incremental validation, instead of all primitives of the dataset.</p>
+ *
+ * @see OsmValidator#getIncrementalValidator(DataSet, boolean)
+ */
+public class IncrementalValidator implements DataSetListener {
+
+    /**
+     * Extra space around changed primitives, in degrees, in which nodes and ways are revalidated
+     */
+    private static final double NEIGHBOURHOOD = 0.0005;
+
+    private final DataSet ds;
+    private final boolean beforeUpload;
+
+    /** the primitives changed since the last validation. Guarded by itself. */
+    private final Set<OsmPrimitive> changed = new HashSet<OsmPrimitive>();
+    /** whether all primitives have to be validated. Guarded by {@link #changed}. */
+    private boolean fullValidationRequired = true;
+
+    /** the current errors */
+    private final List<TestError> errors = new ArrayList<TestError>();
+    /** the test configuration used for the current errors */
+    private String testsConfiguration;
+
+    /**
+     * Constructs a new {@code IncrementalValidator}. It has to be {@link #register() registered}
+     * as listener of the dataset.
+     *
+     * @param ds the dataset to validate
+     * @param beforeUpload if true, the tests enabled for upload are run, otherwise the tests enabled
+     * for validation on demand
+     */
+    public IncrementalValidator(DataSet ds, boolean beforeUpload) {
+        this.ds = ds;
+        this.beforeUpload = beforeUpload;
+    }
+
+    /**
+     * Starts listening to changes of the dataset
+     */
+    public void register() {
+        ds.addDataSetListener(this);
+    }
+
+    /**
+     * Stops listening to changes of the dataset
+     */
+    public void unregister() {
+        ds.removeDataSetListener(this);
+    }
+
+    /**
+     * Replies the validated dataset
+     */
+    public DataSet getDataSet() {
+        return ds;
+    }
+
+    /**
+     * Revalidates the primitives changed since the last call and replies the errors of the dataset.
+     *
+     * @param progressMonitor the progress monitor. Must be in task already, may be null.
+     * @return copies of the current errors, which can be changed without affecting later calls
+     */
+    public synchronized List<TestError> getErrors(ProgressMonitor progressMonitor) {
+        String configuration = Main.pref.get(beforeUpload ? ValidatorPreference.PREF_TESTS_BEFORE_UPLOAD : ValidatorPreference.PREF_TESTS);
+        Set<OsmPrimitive> dirty;
+        boolean full;
+        synchronized (changed) {
+            full = fullValidationRequired || !configuration.equals(testsConfiguration);
+            dirty = new HashSet<OsmPrimitive>(changed);
+            changed.clear();
+            fullValidationRequired = false;
+        }
+
+        if (full) {
+            errors.clear();
+            errors.addAll(validate(getTests(beforeUpload), getValidatedPrimitives(), progressMonitor));
+            testsConfiguration = configuration;
+        } else if (!dirty.isEmpty()) {
+            List<Test> localTests = new ArrayList<Test>();
+            List<Test> globalTests = new ArrayList<Test>();
+            for (Test test : getTests(true)) {
+                (test.isLocal() ? localTests : globalTests).add(test);
+            }
+
+            Set<OsmPrimitive> affected = new HashSet<OsmPrimitive>();
+            Set<OsmPrimitive> neighbours = new HashSet<OsmPrimitive>();
+            collectNeighbourhood(dirty, affected, neighbours);
+
+            // replace the errors of local tests involving affected primitives, and all errors of global tests
+            for (Iterator<TestError> it = errors.iterator(); it.hasNext();) {
+                if (isAffected(it.next(), affected)) {
+                    it.remove();
+                }
+            }
+            List<OsmPrimitive> validated = new ArrayList<OsmPrimitive>(neighbours.size());
+            for (OsmPrimitive p : neighbours) {
+                if (p.getDataSet() == ds && !p.isDeleted()) {
+                    validated.add(p);
+                }
+            }
+            for (TestError error : validate(localTests, validated, progressMonitor)) {
+                if (isAffected(error, affected)) {
+                    errors.add(error);
+                }
+            }
+            if (!globalTests.isEmpty()) {
+                errors.addAll(validate(globalTests, getValidatedPrimitives(), null));
+            }
+        }
+        List<TestError> result = new ArrayList<TestError>(errors.size());
+        for (TestError error : errors) {
+            result.add(error.clone());
+        }
+        return result;
+    }
+
+    /**
+     * Replies the primitives validated in full, i.e. all primitives of the dataset, or before
+     * upload the modified primitives and their children
+     */
+    private Collection<OsmPrimitive> getValidatedPrimitives() {
+        if (!beforeUpload)
+            return ds.allNonDeletedPrimitives();
+        // the primitives to add and to update, see APIDataSet
+        List<OsmPrimitive> modified = new ArrayList<OsmPrimitive>();
+        for (OsmPrimitive p : ds.allNonDeletedPrimitives()) {
+            if (p.isNewOrUndeleted() || p.isModified()) {
+                modified.add(p);
+            }
+        }
+        return new AggregatePrimitivesVisitor().visit(modified);
+    }
+
+    private static boolean isAffected(TestError error, Set<OsmPrimitive> affected) {
+        if (!error.getTester().isLocal())
+            return true;
+        for (OsmPrimitive p : error.getPrimitives()) {
+            if (affected.contains(p))
+                return true;
+        }
+        return false;
+    }
+
+    private List<Test> getTests(boolean partialSelection) {
+        List<Test> tests = new ArrayList<Test>(OsmValidator.getEnabledTests(beforeUpload));
+        for (Test test : tests) {
+            test.setBeforeUpload(beforeUpload);
+            test.setPartialSelection(partialSelection);
+        }
+        return tests;
+    }
+
+    private List<TestError> validate(List<Test> tests, Collection<OsmPrimitive> primitives, ProgressMonitor progressMonitor) {
+        return new ParallelValidator(tests, primitives).validate(progressMonitor);
+    }
+
+    /**
+     * Collects the primitives whose errors may have changed with the changed primitives, i.e.
+     * the changed primitives, their parents and children, and the nodes and ways within their
+     * bounding boxes. Also collects the primitives which have to be validated along with them,
+     * i.e. the affected primitives and the nodes and ways near the nodes and segments of the
+     * affected primitives.
+     *
+     * @param dirty the changed primitives
+     * @param affected the set to add the affected primitives to
+     * @param neighbours the set to add the primitives to be validated to
+     */
+    private void collectNeighbourhood(Set<OsmPrimitive> dirty, Set<OsmPrimitive> affected, Set<OsmPrimitive> neighbours) {
+        affected.addAll(dirty);
+        // the changed primitives and the ways whose geometry changed with their nodes
+        Set<OsmPrimitive> changedShapes = new HashSet<OsmPrimitive>(dirty);
+        for (OsmPrimitive p : dirty) {
+            if (p.getDataSet() == ds) {
+                for (OsmPrimitive referrer : p.getReferrers()) {
+                    affected.add(referrer);
+                    if (p instanceof Node && referrer instanceof Way) {
+                        changedShapes.add(referrer);
+                    }
+                }
+            }
+        }
+        for (OsmPrimitive p : changedShapes) {
+            if (p instanceof Way) {
+                affected.addAll(((Way) p).getNodes());
+            } else if (p instanceof Relation) {
+                affected.addAll(((Relation) p).getMemberPrimitives());
+            }
+            if (p.getDataSet() == ds && !p.isIncomplete()) {
+                addNearby(p.getBBox(), affected);
+            }
+        }
+        neighbours.addAll(affected);
+        for (OsmPrimitive p : affected) {
+            if (p.getDataSet() != ds || p.isIncomplete()) {
+                continue;
+            }
+            if (p instanceof Node) {
+                addNearby(p.getBBox(), neighbours);
+            } else if (p instanceof Way) {
+                // search along the segments rather than in the bounding box of large ways
+                Way w = (Way) p;
+                for (int i = 1; i < w.getNodesCount(); i++) {
+                    LatLon a = w.getNode(i - 1).getCoor();
+                    LatLon b = w.getNode(i).getCoor();
+                    if (a != null && b != null) {
+                        addNearby(new BBox(a, b), neighbours);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the nodes and ways within a bounding box, extended by {@link #NEIGHBOURHOOD}, to a set
+     */
+    private void addNearby(BBox bbox, Set<OsmPrimitive> result) {
+        if (bbox.getTopLeft() == null || Double.isInfinite(bbox.width()) || Double.isNaN(bbox.width()))
+            return;
+        BBox extended = new BBox(bbox.getTopLeft().lon() - NEIGHBOURHOOD, bbox.getBottomRight().lat() - NEIGHBOURHOOD,
+                bbox.getBottomRight().lon() + NEIGHBOURHOOD, bbox.getTopLeft().lat() + NEIGHBOURHOOD);
+        result.addAll(ds.searchNodes(extended));
+        result.addAll(ds.searchWays(extended));
+    }
+
+    private void primitivesChanged(Collection<? extends OsmPrimitive> primitives) {
+        synchronized (changed) {
+            changed.addAll(primitives);
+        }
+    }
+
+    /* -------------------------------------------------------------------------- */
+    /* interface DataSetListener                                                  */
+    /* -------------------------------------------------------------------------- */
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        primitivesChanged(event.getPrimitives());
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        primitivesChanged(event.getPrimitives());
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        primitivesChanged(event.getPrimitives());
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {
+        primitivesChanged(event.getPrimitives());
+    }
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        primitivesChanged(event.getPrimitives());
+    }
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        primitivesChanged(event.getPrimitives());
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        if (event.getEvents() == null) {
+            synchronized (changed) {
+                fullValidationRequired = true;
+            }
+        } else {
+            for (AbstractDatasetChangedEvent e : event.getEvents()) {
+                e.fire(this);
+            }
+        }
+    }
+}
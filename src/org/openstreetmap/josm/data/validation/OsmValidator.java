@@ -13,7 +13,9 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,6 +23,7 @@ import java.util.regex.Pattern;
 import javax.swing.JOptionPane;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.projection.Epsg4326;
 import org.openstreetmap.josm.data.projection.Lambert;
 import org.openstreetmap.josm.data.projection.Mercator;
@@ -71,6 +74,12 @@ public class OsmValidator implements LayerChangeListener {
 
     public static final Collection<String> ignoredErrors = new TreeSet<String>();
 
+    /** the incremental validators for validation on demand, by dataset */
+    private static final Map<DataSet, IncrementalValidator> incrementalValidators = new HashMap<DataSet, IncrementalValidator>();
+
+    /** the incremental validators for validation before upload, by dataset */
+    private static final Map<DataSet, IncrementalValidator> incrementalUploadValidators = new HashMap<DataSet, IncrementalValidator>();
+
     /**
      * All available tests
      * TODO: is there any way to find out automatically all available tests?
@@ -278,6 +287,47 @@ public class OsmValidator implements LayerChangeListener {
         }
     }
 
+    /**
+     * Replies the incremental validator of a dataset, if incremental validation is enabled
+     * with the preference {@link ValidatorPreference#PREF_INCREMENTAL}. The validator is
+     * created on first use and listens to the dataset until its layer is removed.
+     *
+     * @param ds the dataset
+     * @param beforeUpload if true, replies the validator running the tests enabled for upload
+     * @return the incremental validator, or null if incremental validation is disabled
+     */
+    public static synchronized IncrementalValidator getIncrementalValidator(DataSet ds, boolean beforeUpload) {
+        if (!Main.pref.getBoolean(ValidatorPreference.PREF_INCREMENTAL, false)) {
+            Set<DataSet> datasets = new HashSet<DataSet>(incrementalValidators.keySet());
+            datasets.addAll(incrementalUploadValidators.keySet());
+            for (DataSet dataSet : datasets) {
+                removeIncrementalValidators(dataSet);
+            }
+            return null;
+        }
+        if (ds == null)
+            return null;
+        Map<DataSet, IncrementalValidator> validators = beforeUpload ? incrementalUploadValidators : incrementalValidators;
+        IncrementalValidator validator = validators.get(ds);
+        if (validator == null) {
+            validator = new IncrementalValidator(ds, beforeUpload);
+            validator.register();
+            validators.put(ds, validator);
+        }
+        return validator;
+    }
+
+    private static synchronized void removeIncrementalValidators(DataSet ds) {
+        IncrementalValidator validator = incrementalValidators.remove(ds);
+        if (validator != null) {
+            validator.unregister();
+        }
+        validator = incrementalUploadValidators.remove(ds);
+        if (validator != null) {
+            validator.unregister();
+        }
+    }
+
     /* -------------------------------------------------------------------------- */
     /* interface LayerChangeListener                                              */
     /* -------------------------------------------------------------------------- */
@@ -295,6 +345,9 @@ public class OsmValidator implements LayerChangeListener {
             errorLayer = null;
             return;
         }
+        if (oldLayer instanceof OsmDataLayer) {
+            removeIncrementalValidators(((OsmDataLayer) oldLayer).data);
+        }
         if (Main.map.mapView.getLayersOfType(OsmDataLayer.class).isEmpty()) {
             if (errorLayer != null) {
                 Main.map.mapView.removeLayer(errorLayer);
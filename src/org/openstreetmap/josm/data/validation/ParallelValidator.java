@@ -0,0 +1,286 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressTaskId;
+
+/**
+ * <p>Runs a collection of validation tests against a collection of primitives in parallel.</p>
+ *
+ * <p>Every test is run on a thread of a shared pool, so independent tests run concurrently.
+ * The visits of tests which declare themselves {@link Test#isThreadSafe() thread-safe} are
+ * additionally partitioned into chunks of primitives which are visited concurrently.</p>
+ *
+ * <p>The errors of all tests are replied in one list, in the order of the tests. The progress
+ * of all tests is aggregated in the progress monitor passed to {@link #validate(ProgressMonitor)}.</p>
+ *
+ * <p>Parallel execution can be switched off with the preference <code>validator.parallel</code>.</p>
+ */
+public class ParallelValidator {
+
+    /**
+     * Number of primitives visited by one task when the visits of a test are partitioned
+     */
+    private static final int CHUNK_SIZE = 5000;
+
+    private static ExecutorService validationPool;
+
+    /**
+     * Replies the thread pool used to run validation tests.
+     * The pool is shared by all validators and uses daemon threads, one per processor.
+     */
+    private static synchronized ExecutorService getValidationPool() {
+        if (validationPool == null) {
+            validationPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "validator-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return validationPool;
+    }
+
+    private final List<Test> tests;
+    private final List<OsmPrimitive> primitives;
+    private ProgressMonitor progressMonitor;
+    private final AtomicInteger startedTests = new AtomicInteger();
+
+    /**
+     * Constructs a new {@code ParallelValidator}.
+     *
+     * @param tests the tests to run. They must already be configured, i.e. with
+     * {@link Test#setPartialSelection(boolean)} and {@link Test#setBeforeUpload(boolean)}.
+     * @param primitives the primitives to validate
+     */
+    public ParallelValidator(Collection<Test> tests, Collection<OsmPrimitive> primitives) {
+        this.tests = new ArrayList<Test>(tests);
+        this.primitives = new ArrayList<OsmPrimitive>(primitives);
+    }
+
+    /**
+     * Runs all tests and waits for them to finish.
+     *
+     * @param progressMonitor the progress monitor. Its ticks count is set to the number
+     * of tests times the number of primitives. Must be in task already, may be null.
+     * @return the errors found by the tests, in the order of the tests
+     */
+    public List<TestError> validate(ProgressMonitor progressMonitor) {
+        this.progressMonitor = progressMonitor == null ? NullProgressMonitor.INSTANCE : progressMonitor;
+        this.progressMonitor.setTicksCount(tests.size() * primitives.size());
+        List<TestError> errors = new ArrayList<TestError>(200);
+
+        if (!Main.pref.getBoolean("validator.parallel", true)) {
+            for (Test test : tests) {
+                if (this.progressMonitor.isCanceled()) {
+                    break;
+                }
+                runTest(test);
+                errors.addAll(test.getErrors());
+            }
+            return errors;
+        }
+
+        List<List<Future<?>>> futures = new ArrayList<List<Future<?>>>(tests.size());
+        for (final Test test : tests) {
+            List<Future<?>> testFutures = new ArrayList<Future<?>>();
+            if (test.isThreadSafe()) {
+                testStarted(test);
+                final TestProgressMonitor monitor = new TestProgressMonitor();
+                test.startTest(monitor);
+                monitor.setTicksCount(primitives.size());
+                for (int i = 0; i < primitives.size(); i += CHUNK_SIZE) {
+                    final List<OsmPrimitive> chunk = primitives.subList(i, Math.min(primitives.size(), i + CHUNK_SIZE));
+                    testFutures.add(getValidationPool().submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            visitChunk(test, monitor, chunk);
+                            return null;
+                        }
+                    }));
+                }
+            } else {
+                testFutures.add(getValidationPool().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        runTest(test);
+                        return null;
+                    }
+                }));
+            }
+            futures.add(testFutures);
+        }
+
+        try {
+            for (int i = 0; i < tests.size(); i++) {
+                for (Future<?> f : futures.get(i)) {
+                    f.get();
+                }
+                Test test = tests.get(i);
+                if (test.isThreadSafe()) {
+                    test.endTest();
+                }
+                errors.addAll(test.getErrors());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return errors;
+    }
+
+    private void testStarted(Test test) {
+        progressMonitor.setCustomText(tr("Test {0}/{1}: Starting {2}", startedTests.incrementAndGet(), tests.size(), test.getName()));
+    }
+
+    private void runTest(Test test) {
+        testStarted(test);
+        test.startTest(new TestProgressMonitor());
+        test.visit(primitives);
+        test.endTest();
+    }
+
+    private void visitChunk(Test test, ProgressMonitor monitor, List<OsmPrimitive> chunk) {
+        if (monitor.isCanceled())
+            return;
+        for (OsmPrimitive p : chunk) {
+            if (p.isUsable()) {
+                p.visit(test);
+            }
+        }
+        monitor.worked(chunk.size());
+    }
+
+    private synchronized void advance(int ticks) {
+        progressMonitor.worked(ticks);
+    }
+
+    /**
+     * The progress monitor of a single test. Converts the progress of the test to its
+     * share of the ticks of the validator's progress monitor.
+     */
+    private class TestProgressMonitor implements ProgressMonitor {
+        private int ticksCount;
+        private int ticks;
+        private int reported;
+
+        private void update() {
+            int share = primitives.size();
+            int done = ticksCount <= 0 ? 0 : (int) Math.min(share, (long) share * ticks / ticksCount);
+            if (done > reported) {
+                advance(done - reported);
+                reported = done;
+            }
+        }
+
+        public void beginTask(String title) {
+        }
+
+        public synchronized void beginTask(String title, int ticks) {
+            setTicksCount(ticks);
+        }
+
+        public synchronized void finishTask() {
+            ticks = ticksCount = 1;
+            update();
+        }
+
+        public void invalidate() {
+        }
+
+        public synchronized void setTicksCount(int ticks) {
+            this.ticksCount = ticks;
+            update();
+        }
+
+        public synchronized void setTicks(int ticks) {
+            this.ticks = ticks;
+            update();
+        }
+
+        public synchronized int getTicks() {
+            return ticks;
+        }
+
+        public synchronized int getTicksCount() {
+            return ticksCount;
+        }
+
+        public synchronized void worked(int ticks) {
+            if (ticks == ALL_TICKS) {
+                setTicks(ticksCount);
+            } else {
+                setTicks(this.ticks + ticks);
+            }
+        }
+
+        public void indeterminateSubTask(String title) {
+        }
+
+        public void subTask(String title) {
+        }
+
+        public void setCustomText(String text) {
+        }
+
+        public void setExtraText(String text) {
+        }
+
+        public ProgressMonitor createSubTaskMonitor(int ticks, boolean internal) {
+            return NullProgressMonitor.INSTANCE;
+        }
+
+        public boolean isCanceled() {
+            return progressMonitor.isCanceled();
+        }
+
+        public void cancel() {
+            progressMonitor.cancel();
+        }
+
+        public void addCancelListener(CancelListener listener) {
+            progressMonitor.addCancelListener(listener);
+        }
+
+        public void removeCancelListener(CancelListener listener) {
+            progressMonitor.removeCancelListener(listener);
+        }
+
+        public void appendLogMessage(String message) {
+            progressMonitor.appendLogMessage(message);
+        }
+
+        public void setProgressTaskId(ProgressTaskId taskId) {
+        }
+
+        public ProgressTaskId getProgressTaskId() {
+            return null;
+        }
+
+        public Component getWindowParent() {
+            return progressMonitor.getWindowParent();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.GridBagConstraints;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import javax.swing.JCheckBox;
@@ -100,7 +101,33 @@ public class Test extends AbstractVisitor
             this.progressMonitor = progressMonitor;
         }
         this.progressMonitor.beginTask(tr("Running test {0}", name));
-        errors = new ArrayList<TestError>(30);
+        if (isThreadSafe()) {
+            errors = Collections.synchronizedList(new ArrayList<TestError>(30));
+        } else {
+            errors = new ArrayList<TestError>(30);
+        }
+    }
+
+    /**
+     * Replies true if the primitives may be visited concurrently from several threads,
+     * i.e. if the test keeps no state between visits besides the errors it reports.
+     * The {@link ParallelValidator} partitions the visits of such tests.
+     *
+     * @return true if the primitives may be visited concurrently. False by default.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Replies true if the errors found by this test only involve primitives which are connected
+     * to each other or close to each other. The {@link IncrementalValidator} runs such tests on
+     * the neighbourhood of the changed primitives only, other tests on all primitives.
+     *
+     * @return true if the errors only involve connected or close primitives. True by default.
+     */
+    public boolean isLocal() {
+        return true;
     }
 
     /**
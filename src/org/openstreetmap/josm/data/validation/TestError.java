@@ -23,7 +23,7 @@ import org.openstreetmap.josm.gui.MapView;
  * Validation error
  * @author frsantos
  */
-public class TestError {
+public class TestError implements Cloneable {
     /** is this error on the ignore list */
     private Boolean ignored = false;
     /** Severity */
@@ -223,6 +223,18 @@ public class TestError {
         return code;
     }
 
+    /**
+     * Replies a copy of this error, which can be ignored or selected independently of this error
+     */
+    @Override
+    public TestError clone() {
+        try {
+            return (TestError) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Returns true if the error can be fixed automatically
      *
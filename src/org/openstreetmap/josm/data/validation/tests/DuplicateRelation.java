@@ -139,6 +139,11 @@ public class DuplicateRelation extends Test
                 tr("This test checks that there are no relations with same tags and same members with same roles."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
 
     @Override
     public void startTest(ProgressMonitor monitor)
@@ -25,6 +25,11 @@ public class NodesWithSameName extends Test {
                 tr("This test finds nodes that have the same name (might be duplicates)."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
     @Override public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
         namesToNodes = new HashMap<String, List<Node>>();
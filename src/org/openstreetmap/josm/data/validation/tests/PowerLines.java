@@ -10,7 +10,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.command.ChangePropertyCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.data.osm.Node;
@@ -19,7 +18,6 @@ import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.JoinedWay;
-import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
@@ -102,11 +100,9 @@ public class PowerLines extends Test {
             if (station instanceof Way) {
                 nodesLists.add(((Way)station).getNodes());
             } else if (station instanceof Relation) {
-                Multipolygon polygon = MultipolygonCache.getInstance().get(Main.map.mapView, (Relation) station);
-                if (polygon != null) {
-                    for (JoinedWay outer : Multipolygon.joinWays(polygon.getOuterWays())) {
-                        nodesLists.add(outer.getNodes());
-                    }
+                Multipolygon polygon = new Multipolygon((Relation) station);
+                for (JoinedWay outer : Multipolygon.joinWays(polygon.getOuterWays())) {
+                    nodesLists.add(outer.getNodes());
                 }
             }
             for (List<Node> nodes : nodesLists) {
@@ -39,6 +39,11 @@ public class TurnrestrictionTest extends Test {
         super(tr("Turnrestrictions"), tr("This test checks if turnrestrictions are valid"));
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void visit(Relation r) {
         if (!"restriction".equals(r.get("type")))
@@ -46,7 +46,6 @@ import org.openstreetmap.josm.data.osm.DataSource;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.PaintColors;
-import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
@@ -213,6 +212,7 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
     private Layer changedLayer;
     private int lastViewID;
     private boolean paintPreferencesChanged = true;
+    private int paintPreferencesVersion;
     private Rectangle lastClipBounds = new Rectangle();
     private MapMover mapMover;
 
@@ -882,9 +882,18 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
     public void preferenceChanged(PreferenceChangeEvent e) {
         synchronized (this) {
             paintPreferencesChanged = true;
+            paintPreferencesVersion++;
         }
     }
 
+    /**
+     * Replies a number which changes whenever the preferences or styles used to paint
+     * the layers change. Layers can compare it to invalidate cached renderings.
+     */
+    public synchronized int getPaintPreferencesVersion() {
+        return paintPreferencesVersion;
+    }
+
     private SelectionChangedListener repaintSelectionChangedListener = new SelectionChangedListener(){
         public void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
             repaint();
@@ -894,7 +903,6 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
     public void destroy() {
         Main.pref.removePreferenceChangeListener(this);
         DataSet.removeSelectionListener(repaintSelectionChangedListener);
-        MultipolygonCache.getInstance().clear(this);
         if (mapMover != null) {
             mapMover.destroy();
         }
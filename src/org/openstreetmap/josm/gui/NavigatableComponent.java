@@ -120,6 +120,18 @@ public class NavigatableComponent extends JComponent implements Helpful {
         setLayout(null);
     }
 
+    /**
+     * Constructs a component with a fixed viewport, e.g. to render a part of the map off-screen.
+     *
+     * @param center the center of the viewport
+     * @param scale the scale, in east/north units per pixel
+     */
+    protected NavigatableComponent(EastNorth center, double scale) {
+        this();
+        this.center = center;
+        this.scale = scale;
+    }
+
     protected DataSet getCurrentDataSet() {
         return Main.main.getCurrentDataSet();
     }
@@ -158,6 +170,13 @@ public class NavigatableComponent extends JComponent implements Helpful {
         return center;
     }
 
+    /**
+     * @return the scale factor, i.e. the east/north units per pixel
+     */
+    public double getScale() {
+        return scale;
+    }
+
     /**
      * @param x X-Pixelposition to get coordinate from
      * @param y Y-Pixelposition to get coordinate from
@@ -26,7 +26,6 @@ import org.openstreetmap.gui.jmapviewer.Coordinate;
 import org.openstreetmap.gui.jmapviewer.JMapViewer;
 import org.openstreetmap.gui.jmapviewer.MapMarkerDot;
 import org.openstreetmap.gui.jmapviewer.MemoryTileCache;
-import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader;
 import org.openstreetmap.gui.jmapviewer.OsmMercator;
 import org.openstreetmap.gui.jmapviewer.OsmTileLoader;
 import org.openstreetmap.gui.jmapviewer.interfaces.MapMarker;
@@ -188,7 +187,7 @@ public class SlippyMapBBoxChooser extends JMapViewer implements BBoxChooser{
         String cachePath = TMSLayer.PROP_TILECACHE_DIR.get();
         if (cachePath != null && !cachePath.isEmpty()) {
             try {
-                cachedLoader = new OsmFileCacheTileLoader(this, new File(cachePath));
+                cachedLoader = TMSLayer.createCacheTileLoader(this, new File(cachePath));
             } catch (IOException e) {
             }
         }
@@ -108,6 +108,7 @@ public class FilterTableModel extends AbstractTableModel {
         }
 
         if (Main.isDisplayingMapView() && changed) {
+            Main.map.mapView.preferenceChanged(null); // otherwise cached renderings of the layers are kept
             Main.map.mapView.repaint();
             Main.map.filterDialog.updateDialogHeader();
         }
@@ -159,6 +160,7 @@ public class FilterTableModel extends AbstractTableModel {
         }
 
         if (changed) {
+            Main.map.mapView.preferenceChanged(null); // otherwise cached renderings of the layers are kept
             Main.map.mapView.repaint();
             Main.map.filterDialog.updateDialogHeader();
             ds.clearSelection(deselect);
@@ -23,6 +23,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
@@ -33,10 +34,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -68,9 +75,11 @@ import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.gpx.GpxData;
+import org.openstreetmap.josm.data.gpx.GpxDensityRaster;
 import org.openstreetmap.josm.data.gpx.GpxRoute;
 import org.openstreetmap.josm.data.gpx.GpxTrack;
 import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
+import org.openstreetmap.josm.data.gpx.GpxTrackSegmentIndex;
 import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
@@ -129,6 +138,21 @@ public class GpxLayer extends Layer {
     private boolean[] trackVisibility = new boolean[0];
 
     private final List<GpxTrack> lastTracks = new ArrayList<GpxTrack>(); // List of tracks at last paint
+    /** the colors and line flags of the points, computed in the background, by segment */
+    private volatile Map<GpxTrackSegment, SegmentPaintData> paintData = Collections.emptyMap();
+    /** the tracks of the last computation of the paint data */
+    private final List<GpxTrack> paintDataTracks = new ArrayList<GpxTrack>();
+    /** incremented for each computation of the paint data, to discard outdated ones */
+    private volatile int paintDataGeneration;
+    private volatile boolean paintDataChanged;
+    /** the spatial indexes of the segments */
+    private final Map<GpxTrackSegment, GpxTrackSegmentIndex> indexes = new ConcurrentHashMap<GpxTrackSegment, GpxTrackSegmentIndex>();
+    private static ExecutorService paintDataExecutor;
+    /** the level of the decimated points being computed in the background, see {@link GpxTrackSegmentIndex#getLevel} */
+    private final AtomicInteger decimationRequest = new AtomicInteger(Integer.MIN_VALUE);
+    /** the view of the last requested heatmap */
+    private volatile HeatmapView heatmapRequest;
+    private volatile HeatmapImage heatmap;
     private int lastUpdateCount;
 
     private static class Markers {
@@ -355,6 +379,8 @@ public class GpxLayer extends Layer {
 
     @Override
     public boolean isChanged() {
+        if (paintDataChanged)
+            return true;
         if (data.tracks.equals(lastTracks))
             return sumUpdateCount() != lastUpdateCount;
         else
@@ -374,6 +400,16 @@ public class GpxLayer extends Layer {
         }
     }
 
+    /** the colors of the heatmap, from transparent blue for low to red for high densities */
+    private final static int[] heatmapPalette = new int[256];
+    static {
+        for (int i = 0; i < heatmapPalette.length; i++) {
+            float v = i / 255f;
+            int alpha = 96 + (int) (159 * v);
+            heatmapPalette[i] = (alpha << 24) | (Color.HSBtoRGB(0.66f * (1 - v), 1, 1) & 0xffffff);
+        }
+    }
+
     private final static Color[] colors_cyclic = new Color[256];
     static {
         for (int i = 0; i < colors_cyclic.length; i++) {
@@ -419,7 +455,7 @@ public class GpxLayer extends Layer {
 
     // the different color modes
     enum colorModes {
-        none, velocity, dilution, direction, time
+        none, velocity, dilution, direction, time, heatmap
     }
 
     @Override
@@ -494,147 +530,36 @@ public class GpxLayer extends Layer {
         /****************************************************************
          ********** STEP 2b - RE-COMPUTE CACHE DATA *********************
          ****************************************************************/
-        if (!computeCacheInSync) { // don't compute if the cache is good
-            double minval = +1e10;
-            double maxval = -1e10;
-            WayPoint oldWp = null;
-            if (colorModeDynamic) {
-                if (colored == colorModes.velocity) {
-                    for (GpxTrack trk : data.tracks) {
-                        for (GpxTrackSegment segment : trk.getSegments()) {
-                            if(!forceLines) {
-                                oldWp = null;
-                            }
-                            for (WayPoint trkPnt : segment.getWayPoints()) {
-                                LatLon c = trkPnt.getCoor();
-                                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
-                                    continue;
-                                }
-                                if (oldWp != null && trkPnt.time > oldWp.time) {
-                                    double vel = c.greatCircleDistance(oldWp.getCoor())
-                                            / (trkPnt.time - oldWp.time);
-                                    if(vel > maxval) {
-                                        maxval = vel;
-                                    }
-                                    if(vel < minval) {
-                                        minval = vel;
-                                    }
-                                }
-                                oldWp = trkPnt;
-                            }
-                        }
-                    }
-                } else if (colored == colorModes.dilution) {
-                    for (GpxTrack trk : data.tracks) {
-                        for (GpxTrackSegment segment : trk.getSegments()) {
-                            for (WayPoint trkPnt : segment.getWayPoints()) {
-                                Object val = trkPnt.attr.get("hdop");
-                                if (val != null) {
-                                    double hdop = ((Float) val).doubleValue();
-                                    if(hdop > maxval) {
-                                        maxval = hdop;
-                                    }
-                                    if(hdop < minval) {
-                                        minval = hdop;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-                oldWp = null;
-            }
-            if (colored == colorModes.time) {
-                for (GpxTrack trk : data.tracks) {
-                    for (GpxTrackSegment segment : trk.getSegments()) {
-                        for (WayPoint trkPnt : segment.getWayPoints()) {
-                            double t=trkPnt.time;
-                            if (t==0) {
-                                continue; // skip non-dated trackpoints
-                            }
-                            if(t > maxval) {
-                                maxval = t;
-                            }
-                            if(t < minval) {
-                                minval = t;
-                            }
-                        }
-                    }
-                }
-            }
-
-            for (GpxTrack trk : data.tracks) {
-                for (GpxTrackSegment segment : trk.getSegments()) {
-                    if (!forceLines) { // don't draw lines between segments, unless forced to
-                        oldWp = null;
-                    }
-                    for (WayPoint trkPnt : segment.getWayPoints()) {
-                        LatLon c = trkPnt.getCoor();
-                        if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
-                            continue;
-                        }
-                        trkPnt.customColoring = neutralColor;
-                        if(colored == colorModes.dilution && trkPnt.attr.get("hdop") != null) {
-                            float hdop = ((Float) trkPnt.attr.get("hdop")).floatValue();
-                            int hdoplvl =(int) Math.round(colorModeDynamic ? ((hdop-minval)*255/(maxval-minval))
-                                    : (hdop <= 0 ? 0 : hdop * hdopfactor));
-                            // High hdop is bad, but high values in colors are green.
-                            // Therefore inverse the logic
-                            int hdopcolor = 255 - (hdoplvl > 255 ? 255 : hdoplvl);
-                            trkPnt.customColoring = colors[hdopcolor];
-                        }
-                        if (oldWp != null) {
-                            double dist = c.greatCircleDistance(oldWp.getCoor());
-                            boolean noDraw=false;
-                            switch (colored) {
-                            case velocity:
-                                double dtime = trkPnt.time - oldWp.time;
-                                if(dtime > 0) {
-                                    float vel = (float) (dist / dtime);
-                                    int velColor =(int) Math.round(colorModeDynamic ? ((vel-minval)*255/(maxval-minval))
-                                            : (vel <= 0 ? 0 : vel / colorTracksTune * 255));
-                                    trkPnt.customColoring = colors[Math.max(0, Math.min(velColor, 255))];
-                                } else {
-                                    trkPnt.customColoring = colors[255];
-                                }
-                                break;
-                            case direction:
-                                double dirColor = oldWp.getCoor().heading(trkPnt.getCoor()) / (2.0 * Math.PI) * 256;
-                                // Bad case first
-                                if (dirColor != dirColor || dirColor < 0.0 || dirColor >= 256.0) {
-                                    trkPnt.customColoring = colors_cyclic[0];
-                                } else {
-                                    trkPnt.customColoring = colors_cyclic[(int) (dirColor)];
-                                }
-                                break;
-                            case time:
-                                if (trkPnt.time>0){
-                                    int tColor = (int) Math.round((trkPnt.time-minval)*255/(maxval-minval));
-                                    trkPnt.customColoring = colors[tColor];
-                                } else {
-                                    trkPnt.customColoring = neutralColor;
-                                }
-                                break;
-                            }
+        if (!computeCacheInSync || !data.tracks.equals(paintDataTracks)) {
+            paintDataTracks.clear();
+            paintDataTracks.addAll(data.tracks);
+            PaintDataComputer computer = new PaintDataComputer(paintDataTracks, neutralColor, colored,
+                    colorModeDynamic, colorTracksTune, hdopfactor, maxLineLength, forceLines);
+            getPaintDataExecutor().execute(computer);
+            computeCacheInSync = true;
+        }
+        paintDataChanged = false;
 
-                            if (!noDraw && (maxLineLength == -1 || dist <= maxLineLength)) {
-                                trkPnt.drawLine = true;
-                                trkPnt.dir = (int) oldWp.getCoor().heading(trkPnt.getCoor());
-                            } else {
-                                trkPnt.drawLine = false;
-                            }
-                        } else { // make sure we reset outdated data
-                            trkPnt.drawLine = false;
-                        }
-                        oldWp = trkPnt;
-                    }
-                }
+        if (colored == colorModes.heatmap) {
+            paintHeatmap(g, mv, Main.pref.getInteger("draw.rawgps.heatmap.radius", spec, 2));
+            if(lineWidth != 0)
+            {
+                g.setStroke(storedStroke);
             }
-            computeCacheInSync = true;
+            return;
         }
 
-        LinkedList<WayPoint> visibleSegments = new LinkedList<WayPoint>();
-        WayPoint last = null;
+        /****************************************************************
+         ********** STEP 2c - COLLECT THE VISIBLE POINTS ****************
+         ****************************************************************/
+        Map<GpxTrackSegment, SegmentPaintData> currentPaintData = paintData;
+        boolean decimate = Main.pref.getBoolean("draw.rawgps.decimate", spec, true);
+        double tolerance = mv.getScale();
+        List<GpxTrackSegmentIndex> undecimated = new ArrayList<GpxTrackSegmentIndex>();
+        VisiblePoints visiblePoints = new VisiblePoints();
+        GpxTrackSegment lastSeg = null;
+        SegmentPaintData lastPd = null;
+        int lastIdx = -1;
         int i = 0;
         ensureTrackVisibilityLength();
         for (GpxTrack trk: data.tracks) {
@@ -644,32 +569,48 @@ public class GpxLayer extends Layer {
             }
 
             for (GpxTrackSegment trkSeg: trk.getSegments()) {
-                for(WayPoint pt : trkSeg.getWayPoints())
-                {
-                    Bounds b = new Bounds(pt.getCoor());
-                    // last should never be null when this is true!
-                    if(pt.drawLine) {
-                        b.extend(last.getCoor());
+                SegmentPaintData pd = currentPaintData.get(trkSeg);
+                if (pd == null) {
+                    continue; // not computed yet
+                }
+                GpxTrackSegmentIndex index = getIndex(trkSeg);
+                // leave out points which are less than a pixel apart, or use a finer level until computed
+                int[] points = null;
+                if (decimate) {
+                    if (!index.isDecimated(tolerance)) {
+                        undecimated.add(index);
                     }
-                    if(b.intersects(box))
-                    {
-                        if(last != null && (visibleSegments.isEmpty()
-                                || visibleSegments.getLast() != last)) {
-                            if(last.drawLine) {
-                                WayPoint l = new WayPoint(last);
-                                l.drawLine = false;
-                                visibleSegments.add(l);
-                            } else {
-                                visibleSegments.add(last);
+                    points = index.getNearestDecimatedPoints(tolerance);
+                }
+                for (int c : index.getChunks(box)) {
+                    int p = points == null ? index.getChunkStart(c) : insertionPoint(points, index.getChunkStart(c));
+                    int pEnd = points == null ? index.getChunkEnd(c) : insertionPoint(points, index.getChunkEnd(c));
+                    for (; p < pEnd; p++) {
+                        int j = points == null ? p : points[p];
+                        // add the previous point as start of the line to this point
+                        if (p > 0) {
+                            int prev = points == null ? p - 1 : points[p - 1];
+                            if (!visiblePoints.isLast(trkSeg, prev)) {
+                                visiblePoints.add(trkSeg, pd, prev, false);
                             }
+                        } else if (lastSeg != null && !visiblePoints.isLast(lastSeg, lastIdx)) {
+                            visiblePoints.add(lastSeg, lastPd, lastIdx, false);
                         }
-                        visibleSegments.add(pt);
+                        visiblePoints.add(trkSeg, pd, j, pd.drawLine[j]);
                     }
-                    last = pt;
+                }
+                int count = points == null ? trkSeg.getWayPointCount() : points.length;
+                if (count > 0) {
+                    lastSeg = trkSeg;
+                    lastPd = pd;
+                    lastIdx = points == null ? count - 1 : points[count - 1];
                 }
             }
         }
-        if(visibleSegments.isEmpty())
+        if (!undecimated.isEmpty()) {
+            decimateLater(undecimated, tolerance);
+        }
+        if(visiblePoints.size == 0)
             return;
 
         /****************************************************************
@@ -677,16 +618,15 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (lines) {
             Point old = null;
-            for (WayPoint trkPnt : visibleSegments) {
-                LatLon c = trkPnt.getCoor();
-                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (int k = 0; k < visiblePoints.size; k++) {
+                if (visiblePoints.isNaN(k)) {
                     continue;
                 }
-                Point screen = mv.getPoint(trkPnt.getEastNorth());
-                if (trkPnt.drawLine) {
+                Point screen = visiblePoints.getPoint(mv, k);
+                if (visiblePoints.drawLine[k]) {
                     // skip points that are on the same screenposition
                     if (old != null && ((old.x != screen.x) || (old.y != screen.y))) {
-                        g.setColor(trkPnt.customColoring);
+                        g.setColor(visiblePoints.getColor(k));
                         g.drawLine(old.x, old.y, screen.x, screen.y);
                     }
                 }
@@ -700,18 +640,17 @@ public class GpxLayer extends Layer {
         if (lines && direction && !alternatedirection) {
             Point old = null;
             Point oldA = null; // last arrow painted
-            for (WayPoint trkPnt : visibleSegments) {
-                LatLon c = trkPnt.getCoor();
-                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (int k = 0; k < visiblePoints.size; k++) {
+                if (visiblePoints.isNaN(k)) {
                     continue;
                 }
-                if (trkPnt.drawLine) {
-                    Point screen = mv.getPoint(trkPnt.getEastNorth());
+                if (visiblePoints.drawLine[k]) {
+                    Point screen = visiblePoints.getPoint(mv, k);
                     // skip points that are on the same screenposition
                     if (old != null
                             && (oldA == null || screen.x < oldA.x - delta || screen.x > oldA.x + delta
                             || screen.y < oldA.y - delta || screen.y > oldA.y + delta)) {
-                        g.setColor(trkPnt.customColoring);
+                        g.setColor(visiblePoints.getColor(k));
                         double t = Math.atan2(screen.y - old.y, screen.x - old.x) + Math.PI;
                         g.drawLine(screen.x, screen.y, (int) (screen.x + 10 * Math.cos(t - PHI)),
                                 (int) (screen.y + 10 * Math.sin(t - PHI)));
@@ -730,22 +669,22 @@ public class GpxLayer extends Layer {
         if (lines && direction && alternatedirection) {
             Point old = null;
             Point oldA = null; // last arrow painted
-            for (WayPoint trkPnt : visibleSegments) {
-                LatLon c = trkPnt.getCoor();
-                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (int k = 0; k < visiblePoints.size; k++) {
+                if (visiblePoints.isNaN(k)) {
                     continue;
                 }
-                if (trkPnt.drawLine) {
-                    Point screen = mv.getPoint(trkPnt.getEastNorth());
+                if (visiblePoints.drawLine[k]) {
+                    Point screen = visiblePoints.getPoint(mv, k);
                     // skip points that are on the same screenposition
                     if (old != null
                             && (oldA == null || screen.x < oldA.x - delta || screen.x > oldA.x + delta
                             || screen.y < oldA.y - delta || screen.y > oldA.y + delta)) {
-                        g.setColor(trkPnt.customColoring);
-                        g.drawLine(screen.x, screen.y, screen.x + dir[trkPnt.dir][0], screen.y
-                                + dir[trkPnt.dir][1]);
-                        g.drawLine(screen.x, screen.y, screen.x + dir[trkPnt.dir][2], screen.y
-                                + dir[trkPnt.dir][3]);
+                        int d = visiblePoints.getDir(k);
+                        g.setColor(visiblePoints.getColor(k));
+                        g.drawLine(screen.x, screen.y, screen.x + dir[d][0], screen.y
+                                + dir[d][1]);
+                        g.drawLine(screen.x, screen.y, screen.x + dir[d][2], screen.y
+                                + dir[d][3]);
                         oldA = screen;
                     }
                     old = screen;
@@ -758,21 +697,22 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (large || hdopcircle) {
             g.setColor(neutralColor);
-            for (WayPoint trkPnt : visibleSegments) {
-                LatLon c = trkPnt.getCoor();
-                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (int k = 0; k < visiblePoints.size; k++) {
+                if (visiblePoints.isNaN(k)) {
                     continue;
                 }
-                Point screen = mv.getPoint(trkPnt.getEastNorth());
-                g.setColor(trkPnt.customColoring);
-                if (hdopcircle && trkPnt.attr.get("hdop") != null) {
+                Point screen = visiblePoints.getPoint(mv, k);
+                g.setColor(visiblePoints.getColor(k));
+                GpxTrackSegment seg = visiblePoints.segments[k];
+                int j = visiblePoints.indices[k];
+                float hdop = seg.getHdop(j);
+                if (hdopcircle && !Float.isNaN(hdop)) {
                     // hdop value
-                    float hdop = ((Float)trkPnt.attr.get("hdop")).floatValue();
                     if (hdop < 0) {
                         hdop = 0;
                     }
                     // hdop pixels
-                    int hdopp = mv.getPoint(new LatLon(trkPnt.getCoor().lat(), trkPnt.getCoor().lon() + 2*6*hdop*360/40000000)).x - screen.x;
+                    int hdopp = mv.getPoint(new LatLon(seg.getLat(j), seg.getLon(j) + 2*6*hdop*360/40000000)).x - screen.x;
                     g.drawArc(screen.x-hdopp/2, screen.y-hdopp/2, hdopp, hdopp, 0, 360);
                 }
                 if (large) {
@@ -786,13 +726,12 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (!large && lines) {
             g.setColor(neutralColor);
-            for (WayPoint trkPnt : visibleSegments) {
-                LatLon c = trkPnt.getCoor();
-                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (int k = 0; k < visiblePoints.size; k++) {
+                if (visiblePoints.isNaN(k)) {
                     continue;
                 }
-                if (!trkPnt.drawLine) {
-                    Point screen = mv.getPoint(trkPnt.getEastNorth());
+                if (!visiblePoints.drawLine[k]) {
+                    Point screen = visiblePoints.getPoint(mv, k);
                     g.drawRect(screen.x, screen.y, 0, 0);
                 }
             } // end for trkpnt
@@ -803,13 +742,12 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (!large && !lines) {
             g.setColor(neutralColor);
-            for (WayPoint trkPnt : visibleSegments) {
-                LatLon c = trkPnt.getCoor();
-                if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (int k = 0; k < visiblePoints.size; k++) {
+                if (visiblePoints.isNaN(k)) {
                     continue;
                 }
-                Point screen = mv.getPoint(trkPnt.getEastNorth());
-                g.setColor(trkPnt.customColoring);
+                Point screen = visiblePoints.getPoint(mv, k);
+                g.setColor(visiblePoints.getColor(k));
                 g.drawRect(screen.x, screen.y, 0, 0);
             } // end for trkpnt
         } // end if large
@@ -822,6 +760,434 @@ public class GpxLayer extends Layer {
         // System.out.println(duration);
     } // end paint
 
+    /**
+     * Paints the density of the points of the visible tracks. The density raster is computed in
+     * the background for the current view, until then the raster of the previous view is painted.
+     */
+    private void paintHeatmap(Graphics2D g, MapView mv, int radius) {
+        if (mv.getWidth() <= 0 || mv.getHeight() <= 0)
+            return;
+        List<GpxTrack> visibleTracks = new ArrayList<GpxTrack>();
+        int i = 0;
+        ensureTrackVisibilityLength();
+        for (GpxTrack trk : data.tracks) {
+            if (trackVisibility[i++]) {
+                visibleTracks.add(trk);
+            }
+        }
+        EastNorth origin = mv.getEastNorth(0, 0);
+        HeatmapView view = new HeatmapView(origin.east(), origin.north(), mv.getScale(), mv.getWidth(), mv.getHeight(),
+                radius, visibleTracks);
+        if (!view.equals(heatmapRequest)) {
+            heatmapRequest = view;
+            getPaintDataExecutor().execute(new HeatmapComputer(view, mv.getRealBounds()));
+        }
+        HeatmapImage hm = heatmap;
+        if (hm != null) {
+            Point p = mv.getPoint(new EastNorth(hm.view.east, hm.view.north));
+            double f = hm.view.scale / mv.getScale();
+            g.drawImage(hm.image, p.x, p.y, (int) Math.round(hm.view.width * f), (int) Math.round(hm.view.height * f), null);
+        }
+    }
+
+    /**
+     * The area, scale and tracks of a heatmap
+     */
+    private static class HeatmapView {
+        final double east;
+        final double north;
+        final double scale;
+        final int width;
+        final int height;
+        final int radius;
+        final List<GpxTrack> tracks;
+
+        HeatmapView(double east, double north, double scale, int width, int height, int radius, List<GpxTrack> tracks) {
+            this.east = east;
+            this.north = north;
+            this.scale = scale;
+            this.width = width;
+            this.height = height;
+            this.radius = radius;
+            this.tracks = tracks;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof HeatmapView))
+                return false;
+            HeatmapView other = (HeatmapView) obj;
+            return east == other.east && north == other.north && scale == other.scale && width == other.width
+                    && height == other.height && radius == other.radius && tracks.equals(other.tracks);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) Double.doubleToLongBits(east + 31 * north + 31 * scale) + 31 * width + height;
+        }
+    }
+
+    private static class HeatmapImage {
+        final HeatmapView view;
+        final BufferedImage image;
+
+        HeatmapImage(HeatmapView view, BufferedImage image) {
+            this.view = view;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Counts the points of the visible tracks per pixel of the view
+     */
+    private class HeatmapComputer implements Runnable {
+        private final HeatmapView view;
+        private final Bounds box;
+
+        HeatmapComputer(HeatmapView view, Bounds box) {
+            this.view = view;
+            this.box = box;
+        }
+
+        public void run() {
+            GpxDensityRaster raster = new GpxDensityRaster(view.east, view.north, view.scale, view.width, view.height);
+            for (GpxTrack trk : view.tracks) {
+                for (GpxTrackSegment segment : trk.getSegments()) {
+                    if (view != heatmapRequest)
+                        return; // outdated
+                    raster.add(getIndex(segment), box);
+                }
+            }
+            raster.blur(view.radius);
+            heatmap = new HeatmapImage(view, raster.createImage(heatmapPalette));
+            paintDataChanged = true;
+            if (Main.isDisplayingMapView()) {
+                Main.map.mapView.repaint();
+            }
+        }
+    }
+
+    /**
+     * Replies true if the bounding box of two points intersects the box. Points with unknown
+     * coordinates are considered visible, like in {@link Bounds#intersects(Bounds)}.
+     */
+    private static boolean intersects(Bounds box, double lat1, double lon1, double lat2, double lon2) {
+        if (box.crosses180thMeridian()) {
+            Bounds b = new Bounds(Math.min(lat1, lat2), Math.min(lon1, lon2), Math.max(lat1, lat2), Math.max(lon1, lon2));
+            return b.intersects(box);
+        }
+        LatLon min = box.getMin();
+        LatLon max = box.getMax();
+        return !(Math.max(lat1, lat2) < min.lat() || Math.min(lat1, lat2) > max.lat()
+                || Math.max(lon1, lon2) < min.lon() || Math.min(lon1, lon2) > max.lon());
+    }
+
+    /**
+     * The colors, line flags and arrow directions of the points of a segment, as computed by {@link #paint}
+     */
+    private static class SegmentPaintData {
+        final Color[] colors;
+        final boolean[] drawLine;
+        final byte[] dir;
+
+        SegmentPaintData(int size) {
+            colors = new Color[size];
+            drawLine = new boolean[size];
+            dir = new byte[size];
+        }
+    }
+
+    /**
+     * Replies the executor which computes the colors of the points in the background.
+     */
+    private static synchronized ExecutorService getPaintDataExecutor() {
+        if (paintDataExecutor == null) {
+            paintDataExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "gpx-paint-data");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return paintDataExecutor;
+    }
+
+    private GpxTrackSegmentIndex getIndex(GpxTrackSegment segment) {
+        GpxTrackSegmentIndex index = indexes.get(segment);
+        if (index == null) {
+            index = new GpxTrackSegmentIndex(segment);
+            if (segment.getWayPointCount() > 0) {
+                segment.getEast(0);
+            }
+            indexes.put(segment, index);
+        }
+        return index;
+    }
+
+    /**
+     * Computes the decimated points of segments in the background and repaints the map when done.
+     * Does nothing if the points for this level are being computed already.
+     */
+    private void decimateLater(final List<GpxTrackSegmentIndex> segments, final double tolerance) {
+        final int level = GpxTrackSegmentIndex.getLevel(tolerance);
+        if (decimationRequest.getAndSet(level) == level)
+            return;
+        getPaintDataExecutor().execute(new Runnable() {
+            public void run() {
+                for (GpxTrackSegmentIndex index : segments) {
+                    if (decimationRequest.get() != level)
+                        return; // outdated, the map has been zoomed
+                    index.getDecimatedPoints(tolerance);
+                }
+                decimationRequest.compareAndSet(level, Integer.MIN_VALUE);
+                if (Main.isDisplayingMapView()) {
+                    Main.map.mapView.repaint();
+                }
+            }
+        });
+    }
+
+    /**
+     * Replies the position of the first value not less than the key
+     */
+    private static int insertionPoint(int[] values, int key) {
+        int pos = Arrays.binarySearch(values, key);
+        return pos < 0 ? -pos - 1 : pos;
+    }
+
+    /**
+     * Computes the colors, line flags and arrow directions of the points of the tracks for
+     * {@link #paint}. Replaces the paint data of the layer when done and repaints the map.
+     */
+    private class PaintDataComputer implements Runnable {
+        private final List<GpxTrack> tracks;
+        private final int generation;
+        private final Color neutralColor;
+        private final colorModes colored;
+        private final boolean colorModeDynamic;
+        private final int colorTracksTune;
+        private final int hdopfactor;
+        private final int maxLineLength;
+        private final boolean forceLines;
+
+        PaintDataComputer(List<GpxTrack> tracks, Color neutralColor, colorModes colored, boolean colorModeDynamic,
+                int colorTracksTune, int hdopfactor, int maxLineLength, boolean forceLines) {
+            this.tracks = new ArrayList<GpxTrack>(tracks);
+            this.generation = ++paintDataGeneration;
+            this.neutralColor = neutralColor;
+            this.colored = colored;
+            this.colorModeDynamic = colorModeDynamic;
+            this.colorTracksTune = colorTracksTune;
+            this.hdopfactor = hdopfactor;
+            this.maxLineLength = maxLineLength;
+            this.forceLines = forceLines;
+        }
+
+        public void run() {
+            double minval = +1e10;
+            double maxval = -1e10;
+            LatLon oldC = null;
+            double oldTime = 0;
+            if (colorModeDynamic) {
+                if (colored == colorModes.velocity) {
+                    for (GpxTrack trk : tracks) {
+                        for (GpxTrackSegment segment : trk.getSegments()) {
+                            if(!forceLines) {
+                                oldC = null;
+                            }
+                            for (int j = 0; j < segment.getWayPointCount(); j++) {
+                                double lat = segment.getLat(j);
+                                double lon = segment.getLon(j);
+                                if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                                    continue;
+                                }
+                                LatLon c = new LatLon(lat, lon);
+                                double t = segment.getTime(j);
+                                if (oldC != null && t > oldTime) {
+                                    double vel = c.greatCircleDistance(oldC) / (t - oldTime);
+                                    if(vel > maxval) {
+                                        maxval = vel;
+                                    }
+                                    if(vel < minval) {
+                                        minval = vel;
+                                    }
+                                }
+                                oldC = c;
+                                oldTime = t;
+                            }
+                        }
+                    }
+                } else if (colored == colorModes.dilution) {
+                    for (GpxTrack trk : tracks) {
+                        for (GpxTrackSegment segment : trk.getSegments()) {
+                            for (int j = 0; j < segment.getWayPointCount(); j++) {
+                                float hdop = segment.getHdop(j);
+                                if (!Float.isNaN(hdop)) {
+                                    if(hdop > maxval) {
+                                        maxval = hdop;
+                                    }
+                                    if(hdop < minval) {
+                                        minval = hdop;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                oldC = null;
+            }
+            if (colored == colorModes.time) {
+                for (GpxTrack trk : tracks) {
+                    for (GpxTrackSegment segment : trk.getSegments()) {
+                        for (int j = 0; j < segment.getWayPointCount(); j++) {
+                            double t = segment.getTime(j);
+                            if (t==0) {
+                                continue; // skip non-dated trackpoints
+                            }
+                            if(t > maxval) {
+                                maxval = t;
+                            }
+                            if(t < minval) {
+                                minval = t;
+                            }
+                        }
+                    }
+                }
+            }
+
+            Map<GpxTrackSegment, SegmentPaintData> result = new IdentityHashMap<GpxTrackSegment, SegmentPaintData>();
+            for (GpxTrack trk : tracks) {
+                for (GpxTrackSegment segment : trk.getSegments()) {
+                    if (!forceLines) { // don't draw lines between segments, unless forced to
+                        oldC = null;
+                    }
+                    if (generation != paintDataGeneration)
+                        return; // outdated
+                    SegmentPaintData pd = new SegmentPaintData(segment.getWayPointCount());
+                    result.put(segment, pd);
+                    // project the points and index them now, not when painting
+                    getIndex(segment);
+                    for (int j = 0; j < segment.getWayPointCount(); j++) {
+                        double lat = segment.getLat(j);
+                        double lon = segment.getLon(j);
+                        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                            continue;
+                        }
+                        LatLon c = new LatLon(lat, lon);
+                        double t = segment.getTime(j);
+                        float hdop = segment.getHdop(j);
+                        Color color = neutralColor;
+                        if(colored == colorModes.dilution && !Float.isNaN(hdop)) {
+                            int hdoplvl =(int) Math.round(colorModeDynamic ? ((hdop-minval)*255/(maxval-minval))
+                                    : (hdop <= 0 ? 0 : hdop * hdopfactor));
+                            // High hdop is bad, but high values in colors are green.
+                            // Therefore inverse the logic
+                            int hdopcolor = 255 - (hdoplvl > 255 ? 255 : hdoplvl);
+                            color = colors[hdopcolor];
+                        }
+                        if (oldC != null) {
+                            double dist = c.greatCircleDistance(oldC);
+                            boolean noDraw=false;
+                            switch (colored) {
+                            case velocity:
+                                double dtime = t - oldTime;
+                                if(dtime > 0) {
+                                    float vel = (float) (dist / dtime);
+                                    int velColor =(int) Math.round(colorModeDynamic ? ((vel-minval)*255/(maxval-minval))
+                                            : (vel <= 0 ? 0 : vel / colorTracksTune * 255));
+                                    color = colors[Math.max(0, Math.min(velColor, 255))];
+                                } else {
+                                    color = colors[255];
+                                }
+                                break;
+                            case direction:
+                                double dirColor = oldC.heading(c) / (2.0 * Math.PI) * 256;
+                                // Bad case first
+                                if (dirColor != dirColor || dirColor < 0.0 || dirColor >= 256.0) {
+                                    color = colors_cyclic[0];
+                                } else {
+                                    color = colors_cyclic[(int) (dirColor)];
+                                }
+                                break;
+                            case time:
+                                if (t>0){
+                                    int tColor = (int) Math.round((t-minval)*255/(maxval-minval));
+                                    color = colors[tColor];
+                                } else {
+                                    color = neutralColor;
+                                }
+                                break;
+                            }
+
+                            if (!noDraw && (maxLineLength == -1 || dist <= maxLineLength)) {
+                                pd.drawLine[j] = true;
+                                pd.dir[j] = (byte) oldC.heading(c);
+                            }
+                        }
+                        pd.colors[j] = color;
+                        oldC = c;
+                        oldTime = t;
+                    }
+                }
+            }
+            if (generation != paintDataGeneration)
+                return;
+            indexes.keySet().retainAll(result.keySet());
+            paintData = result;
+            paintDataChanged = true;
+            if (Main.isDisplayingMapView()) {
+                Main.map.mapView.repaint();
+            }
+        }
+    }
+
+    /**
+     * The points of the tracks which are painted, referenced by segment and index
+     */
+    private static class VisiblePoints {
+        GpxTrackSegment[] segments = new GpxTrackSegment[256];
+        SegmentPaintData[] paintData = new SegmentPaintData[256];
+        int[] indices = new int[256];
+        boolean[] drawLine = new boolean[256];
+        int size;
+
+        void add(GpxTrackSegment segment, SegmentPaintData pd, int index, boolean drawLine) {
+            if (size == indices.length) {
+                int capacity = size * 2;
+                segments = Arrays.copyOf(segments, capacity);
+                paintData = Arrays.copyOf(paintData, capacity);
+                indices = Arrays.copyOf(indices, capacity);
+                this.drawLine = Arrays.copyOf(this.drawLine, capacity);
+            }
+            segments[size] = segment;
+            paintData[size] = pd;
+            indices[size] = index;
+            this.drawLine[size] = drawLine;
+            size++;
+        }
+
+        boolean isLast(GpxTrackSegment segment, int index) {
+            return size > 0 && segments[size - 1] == segment && indices[size - 1] == index;
+        }
+
+        boolean isNaN(int k) {
+            return Double.isNaN(segments[k].getLat(indices[k])) || Double.isNaN(segments[k].getLon(indices[k]));
+        }
+
+        Point getPoint(MapView mv, int k) {
+            return mv.getPoint(new EastNorth(segments[k].getEast(indices[k]), segments[k].getNorth(indices[k])));
+        }
+
+        Color getColor(int k) {
+            return paintData[k].colors[indices[k]];
+        }
+
+        int getDir(int k) {
+            return paintData[k].dir[indices[k]];
+        }
+    }
+
     @Override
     public void visitBoundingBox(BoundingXYVisitor v) {
         v.visit(data.recalculateBounds());
@@ -2026,12 +2392,12 @@ public class GpxLayer extends Layer {
         if (data.tracks != null){
             for (GpxTrack track: data.tracks) {
                 for (GpxTrackSegment segment: track.getSegments()) {
-                    for (WayPoint wp: segment.getWayPoints()) {
-                        wp.invalidateEastNorthCache();
-                    }
+                    segment.invalidateEastNorthCache();
                 }
             }
         }
+        // the decimated points depend on the projection
+        indexes.clear();
         if (data.routes != null) {
             for (GpxRoute route: data.routes) {
                 if (route.routePoints == null) {
@@ -23,6 +23,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -52,6 +53,7 @@ import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.gpx.ImmutableGpxTrack;
 import org.openstreetmap.josm.data.gpx.WayPoint;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataIntegrityProblemException;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.DataSetMerger;
@@ -68,6 +70,7 @@ import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter.Listener;
 import org.openstreetmap.josm.data.osm.visitor.AbstractVisitor;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.MapRendererFactory;
+import org.openstreetmap.josm.data.osm.visitor.paint.RenderTileCache;
 import org.openstreetmap.josm.data.osm.visitor.paint.Rendering;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
 import org.openstreetmap.josm.data.projection.Projection;
@@ -98,8 +101,26 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
 
     private boolean requiresSaveToFile = false;
     private boolean requiresUploadToServer = false;
-    private boolean isChanged = true;
+    private volatile boolean isChanged = true;
     private int highlightUpdateCount;
+    private final RenderTileCache renderTileCache;
+    private int paintPreferencesVersion = -1;
+
+    /**
+     * Repaints the areas of multipolygons whose polygons have been assembled in the background
+     */
+    private final MultipolygonCache.MultipolygonBuiltListener multipolygonBuiltListener = new MultipolygonCache.MultipolygonBuiltListener() {
+        @Override
+        public void multipolygonBuilt(Relation r) {
+            if (r.getDataSet() == data) {
+                renderTileCache.invalidate(Collections.singleton(r));
+                isChanged = true;
+                if (Main.isDisplayingMapView()) {
+                    Main.map.mapView.repaint();
+                }
+            }
+        }
+    };
 
     public List<TestError> validationErrors = new ArrayList<TestError>();
 
@@ -253,9 +274,13 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
         this.data = data;
         this.setAssociatedFile(associatedFile);
         conflicts = new ConflictCollection();
+        renderTileCache = new RenderTileCache(data);
         data.addDataSetListener(new DataSetListenerAdapter(this));
         data.addDataSetListener(MultipolygonCache.getInstance());
+        data.addDataSetListener(renderTileCache);
         DataSet.addSelectionListener(this);
+        MultipolygonCache.getInstance().addMultipolygonBuiltListener(multipolygonBuiltListener);
+        MultipolygonCache.getInstance().prefetch(data);
     }
 
     protected Icon getBaseIcon() {
@@ -316,8 +341,19 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
             g.fill(a);
         }
 
-        Rendering painter = MapRendererFactory.getInstance().createActiveRenderer(g, mv, inactive);
-        painter.render(data, virtual, box);
+        if (Main.pref.getBoolean("mappaint.tiles", true)) {
+            if (paintPreferencesVersion != mv.getPaintPreferencesVersion()) {
+                paintPreferencesVersion = mv.getPaintPreferencesVersion();
+                renderTileCache.invalidateAll();
+            }
+            // keep the multipolygons rendered into the visible tiles in the cache
+            MultipolygonCache.getInstance().pin(data, data.searchRelations(new BBox(renderTileCache.getPaintedBounds(mv))));
+            renderTileCache.paint(g, mv, inactive, virtual);
+        } else {
+            MultipolygonCache.getInstance().pin(data, data.searchRelations(new BBox(box)));
+            Rendering painter = MapRendererFactory.getInstance().createActiveRenderer(g, mv, inactive);
+            painter.render(data, virtual, box);
+        }
         Main.map.conflictDialog.paintConflicts(g, mv);
     }
 
@@ -706,7 +742,7 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
 
     @Override
     public boolean isChanged() {
-        return isChanged || highlightUpdateCount != data.getHighlightUpdateCount();
+        return isChanged || highlightUpdateCount != data.getHighlightUpdateCount() || renderTileCache.hasNewTiles();
     }
 
     /**
@@ -753,6 +789,8 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
     @Override
     public void destroy() {
         DataSet.removeSelectionListener(this);
+        data.removeDataSetListener(renderTileCache);
+        MultipolygonCache.getInstance().removeMultipolygonBuiltListener(multipolygonBuiltListener);
     }
 
     public void processDatasetEvent(AbstractDatasetChangedEvent event) {
@@ -763,6 +801,7 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
 
     public void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
         isChanged = true;
+        renderTileCache.selectionChanged();
     }
 
     @Override
@@ -4,9 +4,11 @@ package org.openstreetmap.josm.gui.layer;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GridBagLayout;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -34,8 +36,10 @@ import java.util.regex.Pattern;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 
 import org.openstreetmap.gui.jmapviewer.AttributionSupport;
@@ -45,6 +49,7 @@ import org.openstreetmap.gui.jmapviewer.MemoryTileCache;
 import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader;
 import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader.TileClearController;
 import org.openstreetmap.gui.jmapviewer.OsmTileLoader;
+import org.openstreetmap.gui.jmapviewer.PackFileTileStore;
 import org.openstreetmap.gui.jmapviewer.Tile;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
@@ -76,6 +81,7 @@ import org.openstreetmap.josm.gui.progress.ProgressMonitor.CancelListener;
 import org.openstreetmap.josm.io.CacheCustomContent;
 import org.openstreetmap.josm.io.OsmTransferException;
 import org.openstreetmap.josm.io.UTFInputStreamReader;
+import org.openstreetmap.josm.tools.GBC;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -104,7 +110,16 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
     //public static final BooleanProperty PROP_DRAW_DEBUG = new BooleanProperty(PREFERENCE_PREFIX + ".draw_debug", false);
     public static final BooleanProperty PROP_ADD_TO_SLIPPYMAP_CHOOSER = new BooleanProperty(PREFERENCE_PREFIX + ".add_to_slippymap_chooser", true);
     public static final IntegerProperty PROP_TMS_JOBS = new IntegerProperty("tmsloader.maxjobs", 25);
+    public static final IntegerProperty PROP_TMS_DISK_JOBS = new IntegerProperty("tmsloader.maxdiskjobs", 2);
     public static final StringProperty PROP_TILECACHE_DIR;
+    public static final BooleanProperty PROP_TILECACHE_PACKED = new BooleanProperty(PREFERENCE_PREFIX + ".tilecache_packed", false);
+    /** Memory used by the tiles of all TMS layers, in MB */
+    public static final IntegerProperty PROP_MEMORY_CACHE_SIZE = new IntegerProperty(PREFERENCE_PREFIX + ".memory_cache_size", 128);
+
+    /** Limits the number of tiles, tiles which are not loaded use no memory for their image */
+    private static final int MEMORY_CACHE_MAX_TILES = 5000;
+
+    private static MemoryTileCache sharedTileCache;
 
     static {
         String defPath = null;
@@ -132,6 +147,8 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
             tile.setImage(sharpenImage(tile.getImage()));
         }
         tile.setLoaded(true);
+        // account the memory of the loaded image
+        tileCache.addTile(tile);
         needRedraw = true;
         Main.map.repaint(100);
         tileRequestsOutstanding.remove(tile);
@@ -194,11 +211,11 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
      * method.
      * 
      * @param monitor 
-     * @see MemoryTileCache#clear()
+     * @see MemoryTileCache#clear(TileSource)
      * @see OsmFileCacheTileLoader#clearCache(org.openstreetmap.gui.jmapviewer.interfaces.TileSource, org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader.TileClearController) 
      */
     void clearTileCache(ProgressMonitor monitor) {
-        tileCache.clear();
+        tileCache.clear(tileSource);
         if (tileLoader instanceof OsmFileCacheTileLoader) {
             ((OsmFileCacheTileLoader)tileLoader).clearCache(tileSource, new TmsTileClearController(monitor));
         }
@@ -377,13 +394,14 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
 
         currentZoomLevel = getBestZoom();
 
-        tileCache = new MemoryTileCache();
+        tileCache = getSharedTileCache();
+        tileCache.setSourceQuota(tileSource, tileCache.getMaxMemory() / 4 * 3);
 
         String cachePath = TMSLayer.PROP_TILECACHE_DIR.get();
         tileLoader = null;
         if (cachePath != null && !cachePath.isEmpty()) {
             try {
-                tileLoader = new OsmFileCacheTileLoader(this, new File(cachePath));
+                tileLoader = createCacheTileLoader(this, new File(cachePath));
             } catch (IOException e) {
             }
         }
@@ -445,9 +463,35 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
      */
     static public void setMaxWorkers() {
         JobDispatcher.getInstance().setMaxWorkers(PROP_TMS_JOBS.get());
+        JobDispatcher.getInstance().setMaxDiskWorkers(PROP_TMS_DISK_JOBS.get());
         JobDispatcher.getInstance().setLIFO(true);
     }
 
+    /**
+     * Replies the cache holding the tiles of all TMS layers in memory, within the memory
+     * limit defined in preferences. A single layer may use three quarters of it.
+     */
+    static synchronized MemoryTileCache getSharedTileCache() {
+        if (sharedTileCache == null) {
+            sharedTileCache = new MemoryTileCache();
+            sharedTileCache.setCacheSize(MEMORY_CACHE_MAX_TILES);
+            sharedTileCache.setMaxMemory(PROP_MEMORY_CACHE_SIZE.get() * 1024L * 1024L);
+        }
+        return sharedTileCache;
+    }
+
+    /**
+     * Creates a loader saving the tiles in the cache directory, either a file per tile
+     * or packed into a few large files, as defined in preferences.
+     */
+    public static OsmFileCacheTileLoader createCacheTileLoader(TileLoaderListener listener, File cacheDir) throws IOException {
+        OsmFileCacheTileLoader loader = new OsmFileCacheTileLoader(listener, cacheDir);
+        if (PROP_TILECACHE_PACKED.get()) {
+            loader.setTileStore(PackFileTileStore.getInstance(cacheDir));
+        }
+        return loader;
+    }
+
     @SuppressWarnings("serial")
     public TMSLayer(ImageryInfo info) {
         super(info);
@@ -643,6 +687,8 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
                 if (oldLayer == TMSLayer.this) {
                     Main.map.mapView.removeMouseListener(adapter);
                     MapView.removeLayerChangeListener(this);
+                    JobDispatcher.getInstance().removeViewport(tileSource);
+                    tileCache.clear(tileSource);
                 }
             }
         });
@@ -653,8 +699,7 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
             Main.debug("zoomChanged(): " + currentZoomLevel);
         }*/
         needRedraw = true;
-        JobDispatcher.getInstance().cancelOutstandingJobs();
-        tileRequestsOutstanding.clear();
+        // jobs of tiles outside the new view are dropped by setViewport() when painting
     }
 
     int getMaxZoomLvl() {
@@ -753,8 +798,8 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
         Tile tile = getTile(x, y, zoom);
         if (tile == null) {
             tile = new Tile(tileSource, x, y, zoom);
-            tileCache.addTile(tile);
             tile.loadPlaceholderFromCache(tileCache);
+            tileCache.addTile(tile);
         }
         return tile;
     }
@@ -785,6 +830,16 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
         return true;
     }
 
+    /**
+     * Tells the job dispatcher which tiles are visible, so that they are loaded
+     * from the centre of the view outwards and tiles outside of it are not loaded.
+     */
+    synchronized void setViewport(TileSet ts) {
+        for (Tile tile : JobDispatcher.getInstance().setViewport(tileSource, ts.zoom, ts.x0, ts.y0, ts.x1, ts.y1)) {
+            tileRequestsOutstanding.remove(tile);
+        }
+    }
+
     void loadAllTiles(boolean force) {
         MapView mv = Main.map.mapView;
         EastNorth topLeft = mv.getEastNorth(0, 0);
@@ -1323,6 +1378,8 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
             setZoomLevel(zoom);
         }
 
+        setViewport(ts);
+
         // Too many tiles... refuse to download
         if (!ts.tooLarge()) {
             //Main.debug("size: " + ts.size() + " spanned: " + ts.tilesSpanned());
@@ -1465,6 +1522,29 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
         return null;
     }
 
+    @Override
+    public Object getInfoComponent() {
+        JPanel p = new JPanel(new GridBagLayout());
+        Object info = super.getInfoComponent();
+        if (info instanceof Component) {
+            p.add((Component) info, GBC.eop());
+        } else if (info != null) {
+            p.add(new JLabel(info.toString()), GBC.eop());
+        }
+        JobDispatcher jobs = JobDispatcher.getInstance();
+        p.add(new JLabel("<html>"
+        + tr("Tiles in memory: {0} ({1} MB of {2} MB, {3} MB of this layer)", tileCache.getTileCount(),
+                tileCache.getMemoryUsage() / 1024 / 1024, tileCache.getMaxMemory() / 1024 / 1024,
+                tileCache.getMemoryUsage(tileSource) / 1024 / 1024) + "<br>"
+        + tr("Memory cache: {0} hits, {1} misses, {2} evictions", tileCache.getHitCount(),
+                tileCache.getMissCount(), tileCache.getEvictionCount()) + "<br>"
+        + tr("Queued tiles: {0} from disk, {1} from network", jobs.getDiskQueueDepth(), jobs.getNetworkQueueDepth()) + "<br>"
+        + tr("Dropped tile requests: {0}", jobs.getDroppedJobCount()) + "<br>"
+        + tr("Disk cache hit rate: {0}%", Math.round(jobs.getCacheHitRate() * 100))
+        + "</html>"), GBC.eol());
+        return p;
+    }
+
     @Override
     public void visitBoundingBox(BoundingXYVisitor v) {
     }
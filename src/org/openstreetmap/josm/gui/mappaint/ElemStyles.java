@@ -59,14 +59,22 @@ public class ElemStyles {
      *
      * Automatically adds default styles in case no proper style was found.
      * Uses the cache, if possible, and saves the results to the cache.
+     *
+     * This method may be called concurrently from several threads. The cache of the
+     * primitive is accessed while holding its monitor, but the styles are computed
+     * without holding any lock (computing styles of a way may require the styles of
+     * its parent multipolygons).
      */
     public Pair<StyleList, Range> getStyleCacheWithRange(OsmPrimitive osm, double scale, NavigatableComponent nc) {
-        if (osm.mappaintStyle == null || osm.mappaintCacheIdx != cacheIdx) {
-            osm.mappaintStyle = StyleCache.EMPTY_STYLECACHE;
-        } else {
-            Pair<StyleList, Range> lst = osm.mappaintStyle.getWithRange(scale);
-            if (lst.a != null)
-                return lst;
+        synchronized (osm) {
+            if (osm.mappaintStyle == null || osm.mappaintCacheIdx != cacheIdx) {
+                osm.mappaintStyle = StyleCache.EMPTY_STYLECACHE;
+                osm.mappaintCacheIdx = cacheIdx;
+            } else {
+                Pair<StyleList, Range> lst = osm.mappaintStyle.getWithRange(scale);
+                if (lst.a != null)
+                    return lst;
+            }
         }
         Pair<StyleList, Range> p = getImpl(osm, scale, nc);
         if (osm instanceof Node && isDefaultNodes()) {
@@ -111,8 +119,13 @@ public class ElemStyles {
                 p.a = new StyleList(p.a, line);
             }
         }
-        osm.mappaintStyle = osm.mappaintStyle.put(p.a, p.b);
-        osm.mappaintCacheIdx = cacheIdx;
+        synchronized (osm) {
+            if (osm.mappaintStyle == null || osm.mappaintCacheIdx != cacheIdx) {
+                osm.mappaintStyle = StyleCache.EMPTY_STYLECACHE;
+            }
+            osm.mappaintStyle = osm.mappaintStyle.put(p.a, p.b);
+            osm.mappaintCacheIdx = cacheIdx;
+        }
         return p;
     }
 
@@ -160,7 +173,7 @@ public class ElemStyles {
                 if (!drawMultipolygon || !r.isMultipolygon()  || !r.isUsable()) {
                     continue;
                 }
-                Multipolygon multipolygon = MultipolygonCache.getInstance().get(nc, r);
+                Multipolygon multipolygon = MultipolygonCache.getInstance().get(r);
 
                 if (multipolygon.getOuterWays().contains(osm)) {
                     boolean hasIndependentLineStyle = false;
@@ -225,7 +238,7 @@ public class ElemStyles {
                 if (!drawMultipolygon || !ref.isMultipolygon() || !ref.isUsable()) {
                     continue;
                 }
-                final Multipolygon multipolygon = MultipolygonCache.getInstance().get(nc, ref);
+                final Multipolygon multipolygon = MultipolygonCache.getInstance().get(ref);
 
                 if (multipolygon.getInnerWays().contains(osm)) {
                     Iterator<Way> it = multipolygon.getOuterWays().iterator();
@@ -258,7 +271,7 @@ public class ElemStyles {
             if (drawMultipolygon && ((Relation)osm).isMultipolygon()) {
                 if (!Utils.exists(p.a, AreaElemStyle.class)) {
                     // look at outer ways to find area style
-                    Multipolygon multipolygon = MultipolygonCache.getInstance().get(nc, (Relation) osm);
+                    Multipolygon multipolygon = MultipolygonCache.getInstance().get((Relation) osm);
                     for (Way w : multipolygon.getOuterWays()) {
                         Pair<StyleList, Range> wayStyles = generateStyles(w, scale, null, false);
                         p.b = Range.cut(p.b, wayStyles.b);
@@ -349,7 +362,7 @@ public class ElemStyles {
     /**
      * Draw a default node symbol for nodes that have no style?
      */
-    private boolean isDefaultNodes() {
+    private synchronized boolean isDefaultNodes() {
         if (defaultNodesIdx == cacheIdx)
             return defaultNodes;
         defaultNodes = fromCanvas("default-points", true, Boolean.class);
@@ -360,7 +373,7 @@ public class ElemStyles {
     /**
      * Draw a default line for ways that do not have an own line style?
      */
-    private boolean isDefaultLines() {
+    private synchronized boolean isDefaultLines() {
         if (defaultLinesIdx == cacheIdx)
             return defaultLines;
         defaultLines = fromCanvas("default-lines", true, Boolean.class);
@@ -20,6 +20,16 @@ abstract public class Condition {
 
     abstract public boolean applies(Environment e);
 
+    /**
+     * Replies a key which a primitive must have for this condition to apply.
+     * Used to index the selectors of a style sheet, see {@link MapCSSRuleIndex}.
+     *
+     * @return the required key, or null, if the condition may apply to primitives without any particular key
+     */
+    public String getRequiredKey() {
+        return null;
+    }
+
     public static Condition create(String k, String v, Op op, Context context) {
         switch (context) {
         case PRIMITIVE:
@@ -161,6 +171,12 @@ abstract public class Condition {
             return op.eval(env.osm.get(k), v);
         }
 
+        @Override
+        public String getRequiredKey() {
+            // Op.eval is false for a missing value, except for NEQ
+            return op == Op.NEQ ? null : k;
+        }
+
         @Override
         public String toString() {
             return "[" + k + "'" + op + "'" + v + "]";
@@ -249,6 +265,11 @@ abstract public class Condition {
             }
         }
 
+        @Override
+        public String getRequiredKey() {
+            return exclamationMarkPresent ? null : label;
+        }
+
         @Override
         public String toString() {
             return "[" + (exclamationMarkPresent ? "!" : "") + label + "]";
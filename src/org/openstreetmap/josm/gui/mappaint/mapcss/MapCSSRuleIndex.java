@@ -0,0 +1,160 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.ChildOrParentSelector;
+import org.openstreetmap.josm.gui.mappaint.mapcss.Selector.GeneralSelector;
+
+/**
+ * <p>An index of the selectors of a MapCSS style sheet.</p>
+ *
+ * <p>Every selector of every rule gets a position in the order the selectors are applied. The
+ * positions are bucketed by the object types the selector may match (see
+ * {@link GeneralSelector#getBase()}) and by a tag key the selector requires (see
+ * {@link Condition#getRequiredKey()}). {@link #getCandidates(OsmPrimitive)} replies the positions
+ * of all selectors that may match a primitive, the selectors still have to be tested with
+ * {@link Selector#matches(org.openstreetmap.josm.gui.mappaint.Environment)}.</p>
+ *
+ * <p>The index is immutable and can be used from several threads at once.</p>
+ */
+public class MapCSSRuleIndex {
+
+    private static class TypeIndex {
+        /** selectors which don't require a particular key */
+        private final BitSet remaining = new BitSet();
+        /** selectors by the key they require */
+        private final Map<String, BitSet> byKey = new HashMap<String, BitSet>();
+
+        private void add(int position, String requiredKey) {
+            if (requiredKey == null) {
+                remaining.set(position);
+            } else {
+                BitSet positions = byKey.get(requiredKey);
+                if (positions == null) {
+                    positions = new BitSet();
+                    byKey.put(requiredKey, positions);
+                }
+                positions.set(position);
+            }
+        }
+
+        private BitSet getCandidates(OsmPrimitive osm) {
+            BitSet result = (BitSet) remaining.clone();
+            if (osm.hasKeys()) {
+                for (String key : osm.keySet()) {
+                    BitSet positions = byKey.get(key);
+                    if (positions != null) {
+                        result.or(positions);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private final List<MapCSSRule> rules = new ArrayList<MapCSSRule>();
+    private final List<Selector> selectors = new ArrayList<Selector>();
+
+    private final TypeIndex nodeIndex = new TypeIndex();
+    private final TypeIndex wayIndex = new TypeIndex();
+    private final TypeIndex relationIndex = new TypeIndex();
+    /** used for primitives of unknown type */
+    private final BitSet all = new BitSet();
+
+    /**
+     * Builds the index for a list of rules
+     * @param rules the rules, in the order they are applied
+     */
+    public MapCSSRuleIndex(List<MapCSSRule> rules) {
+        for (MapCSSRule r : rules) {
+            for (Selector s : r.selectors) {
+                int position = selectors.size();
+                this.rules.add(r);
+                this.selectors.add(s);
+                all.set(position);
+
+                GeneralSelector gs = getSelectorForPrimitive(s);
+                if (gs == null) {
+                    // unknown kind of selector, it has to be tested for every primitive
+                    nodeIndex.add(position, null);
+                    wayIndex.add(position, null);
+                    relationIndex.add(position, null);
+                    continue;
+                }
+                String base = gs.getBase();
+                String requiredKey = getRequiredKey(gs);
+                if ("node".equals(base) || "*".equals(base)) {
+                    nodeIndex.add(position, requiredKey);
+                }
+                if ("way".equals(base) || "area".equals(base) || "*".equals(base)) {
+                    wayIndex.add(position, requiredKey);
+                }
+                if ("relation".equals(base) || "area".equals(base) || "canvas".equals(base)) {
+                    relationIndex.add(position, requiredKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replies the selector which has to match the primitive itself
+     */
+    private static GeneralSelector getSelectorForPrimitive(Selector s) {
+        if (s instanceof GeneralSelector)
+            return (GeneralSelector) s;
+        else if (s instanceof ChildOrParentSelector)
+            return getSelectorForPrimitive(((ChildOrParentSelector) s).getRight());
+        return null;
+    }
+
+    private static String getRequiredKey(GeneralSelector s) {
+        if (s.getConditions() != null) {
+            for (Condition c : s.getConditions()) {
+                String key = c.getRequiredKey();
+                if (key != null)
+                    return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replies the positions of all selectors which may match the primitive, in ascending order.
+     *
+     * @param osm the primitive
+     * @return the positions of the candidate selectors. The caller may modify the bit set.
+     */
+    public BitSet getCandidates(OsmPrimitive osm) {
+        if (osm instanceof Node)
+            return nodeIndex.getCandidates(osm);
+        else if (osm instanceof Way)
+            return wayIndex.getCandidates(osm);
+        else if (osm instanceof Relation)
+            return relationIndex.getCandidates(osm);
+        else
+            return (BitSet) all.clone();
+    }
+
+    /**
+     * Replies the rule of the selector at the given position
+     */
+    public MapCSSRule getRule(int position) {
+        return rules.get(position);
+    }
+
+    /**
+     * Replies the selector at the given position
+     */
+    public Selector getSelector(int position) {
+        return selectors.get(position);
+    }
+}
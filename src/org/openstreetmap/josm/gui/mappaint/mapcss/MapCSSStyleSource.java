@@ -8,6 +8,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -30,6 +31,7 @@ import org.openstreetmap.josm.tools.Utils;
 
 public class MapCSSStyleSource extends StyleSource {
     final public List<MapCSSRule> rules;
+    private MapCSSRuleIndex ruleIndex;
     private Color backgroundColorOverride;
     private String css = null;
 
@@ -61,6 +63,7 @@ public class MapCSSStyleSource extends StyleSource {
     public void loadStyleSource() {
         init();
         rules.clear();
+        ruleIndex = null;
         try {
             MapCSSParser parser = new MapCSSParser(getSourceInputStream(), "UTF-8");
             parser.sheet(this);
@@ -79,6 +82,7 @@ public class MapCSSStyleSource extends StyleSource {
             e.printStackTrace();
             logError(new ParseException(e.getMessage())); // allow e to be garbage collected, it links to the entire token stream
         }
+        ruleIndex = new MapCSSRuleIndex(rules);
     }
 
     @Override
@@ -148,38 +152,57 @@ public class MapCSSStyleSource extends StyleSource {
         return backgroundColorOverride;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Only the selectors which may match the primitive according to the rule index
+     * are tested, in the same order as they appear in the style sheet.
+     */
     @Override
     public void apply(MultiCascade mc, OsmPrimitive osm, double scale, OsmPrimitive multipolyOuterWay, boolean pretendWayIsClosed) {
         Environment env = new Environment(osm, mc, null, this);
-        for (MapCSSRule r : rules) {
-            for (Selector s : r.selectors) {
-                env.clearSelectorMatchingInformation();
-                if (s.matches(env)) { // as side effect env.parent will be set (if s is a child selector)
-                    if (s.getRange().contains(scale)) {
-                        mc.range = Range.cut(mc.range, s.getRange());
-                    } else {
-                        mc.range = mc.range.reduceAround(scale, s.getRange());
-                        continue;
-                    }
+        MapCSSRuleIndex index = ruleIndex;
+        if (index == null) {
+            // rules haven't been indexed (yet)
+            for (MapCSSRule r : rules) {
+                for (Selector s : r.selectors) {
+                    apply(env, mc, scale, r, s);
+                }
+            }
+        } else {
+            BitSet candidates = index.getCandidates(osm);
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                apply(env, mc, scale, index.getRule(i), index.getSelector(i));
+            }
+        }
+    }
 
-                    String sub = s.getSubpart();
-                    if (sub == null) {
-                        sub = "default";
-                    }
+    private void apply(Environment env, MultiCascade mc, double scale, MapCSSRule r, Selector s) {
+        env.clearSelectorMatchingInformation();
+        if (s.matches(env)) { // as side effect env.parent will be set (if s is a child selector)
+            if (s.getRange().contains(scale)) {
+                mc.range = Range.cut(mc.range, s.getRange());
+            } else {
+                mc.range = mc.range.reduceAround(scale, s.getRange());
+                return;
+            }
 
-                    if (sub.equals("*")) {
-                        for (Entry<String, Cascade> entry : mc.getLayers()) {
-                            env.layer = entry.getKey();
-                            if (Utils.equal(env.layer, "*")) {
-                                continue;
-                            }
-                            r.execute(env);
-                        }
+            String sub = s.getSubpart();
+            if (sub == null) {
+                sub = "default";
+            }
+
+            if (sub.equals("*")) {
+                for (Entry<String, Cascade> entry : mc.getLayers()) {
+                    env.layer = entry.getKey();
+                    if (Utils.equal(env.layer, "*")) {
+                        continue;
                     }
-                    env.layer = sub;
                     r.execute(env);
                 }
             }
+            env.layer = sub;
+            r.execute(env);
         }
     }
 
@@ -180,6 +180,14 @@ public interface Selector {
             return false;
         }
 
+        /**
+         * Replies the selector which has to match the primitive itself
+         * (the child for a child selector, the parent for a parent selector)
+         */
+        public Selector getRight() {
+            return right;
+        }
+
         @Override
         public String getSubpart() {
             return right.getSubpart();
@@ -299,6 +307,13 @@ public interface Selector {
             return base;
         }
 
+        /**
+         * Replies the conditions of this selector. May be null, if there aren't any.
+         */
+        public List<Condition> getConditions() {
+            return conds;
+        }
+
         public static Range fromLevel(int a, int b) {
             if (a > b)
                 throw new AssertionError();
@@ -64,10 +64,14 @@ public class ValidatorPreference extends DefaultTabPreferenceSetting {
      */
     public static final String PREF_FILTER_BY_SELECTION = PREFIX + ".selectionFilter";
 
+    /** The preferences key for incremental validation of the changed data */
+    public static final String PREF_INCREMENTAL = PREFIX + ".incremental";
+
     private JCheckBox prefUseIgnore;
     private JCheckBox prefUseLayer;
     private JCheckBox prefOtherUpload;
     private JCheckBox prefOther;
+    private JCheckBox prefIncremental;
 
     /** The list of all tests */
     private Collection<Test> allTests;
@@ -94,6 +98,10 @@ public class ValidatorPreference extends DefaultTabPreferenceSetting {
         prefOtherUpload.setToolTipText(tr("Show the informational tests in the upload check windows."));
         testPanel.add(prefOtherUpload, GBC.eol());
 
+        prefIncremental = new JCheckBox(tr("Validate changed data only."), Main.pref.getBoolean(PREF_INCREMENTAL, false));
+        prefIncremental.setToolTipText(tr("Keep the validation results and revalidate only the changed objects and their surroundings."));
+        testPanel.add(prefIncremental, GBC.eol());
+
         ActionListener otherUploadEnabled = new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 prefOtherUpload.setEnabled(prefOther.isSelected());
@@ -142,6 +150,7 @@ public class ValidatorPreference extends DefaultTabPreferenceSetting {
         Main.pref.put(PREF_OTHER, prefOther.isSelected());
         Main.pref.put(PREF_OTHER_UPLOAD, prefOtherUpload.isSelected());
         Main.pref.put(PREF_LAYER, prefUseLayer.isSelected());
+        Main.pref.put(PREF_INCREMENTAL, prefIncremental.isSelected());
         return false;
     }
 }
@@ -55,6 +55,7 @@ public class GPXSettingsPanel extends JPanel implements ValidationListener {
     private JRadioButton colorTypeDirection = new JRadioButton(tr("Direction (red = west, yellow = north, green = east, blue = south)"));
     private JRadioButton colorTypeDilution = new JRadioButton(tr("Dilution of Position (red = high, green = low, if available)"));
     private JRadioButton colorTypeTime = new JRadioButton(tr("Track date"));
+    private JRadioButton colorTypeHeatmap = new JRadioButton(tr("Heatmap (density of the points)"));
     private JRadioButton colorTypeNone = new JRadioButton(tr("Single Color (can be customized for named layers)"));
     private JRadioButton colorTypeGlobal  = new JRadioButton(tr("Use global settings"));
     private JosmComboBox colorTypeVelocityTune = new JosmComboBox(new String[] {tr("Car"), tr("Bicycle"), tr("Foot")});
@@ -206,6 +207,7 @@ public class GPXSettingsPanel extends JPanel implements ValidationListener {
         colorGroup.add(colorTypeDirection);
         colorGroup.add(colorTypeDilution);
         colorGroup.add(colorTypeTime);
+        colorGroup.add(colorTypeHeatmap);
 
         colorTypeVelocity.addChangeListener(new ChangeListener(){
             public void stateChanged(ChangeEvent e) {
@@ -224,6 +226,7 @@ public class GPXSettingsPanel extends JPanel implements ValidationListener {
         colorTypeDirection.setToolTipText(tr("Colors points and track segments by direction."));
         colorTypeDilution.setToolTipText(tr("Colors points and track segments by dilution of position (HDOP). Your capture device needs to log that information."));
         colorTypeTime.setToolTipText(tr("Colors points and track segments by its timestamp."));
+        colorTypeHeatmap.setToolTipText(tr("Paints the number of points per pixel instead of the points and track segments."));
 
         // color Tracks by Velocity Tune
         colorTypeVelocityTune.setToolTipText(tr("Allows to tune the track coloring for different average speeds."));
@@ -240,6 +243,7 @@ public class GPXSettingsPanel extends JPanel implements ValidationListener {
         add(colorTypeDirection, GBC.eol().insets(40,0,0,0));
         add(colorTypeDilution, GBC.eol().insets(40,0,0,0));
         add(colorTypeTime, GBC.eol().insets(40,0,0,0));
+        add(colorTypeHeatmap, GBC.eol().insets(40,0,0,0));
         ExpertToggleAction.addVisibilitySwitcher(colorTypeDirection);
         ExpertToggleAction.addVisibilitySwitcher(colorTypeDilution);
 
@@ -333,6 +337,7 @@ public class GPXSettingsPanel extends JPanel implements ValidationListener {
             case 2: colorTypeDilution.setSelected(true);  break;
             case 3: colorTypeDirection.setSelected(true); break;
             case 4: colorTypeTime.setSelected(true);  break;
+            case 5: colorTypeHeatmap.setSelected(true);  break;
             }
             int ccts = Main.pref.getInteger("draw.rawgps.colorTracksTune",layerName, 45);
             colorTypeVelocityTune.setSelectedIndex(ccts==10 ? 2 : (ccts==20 ? 1 : 0));
@@ -397,6 +402,8 @@ public class GPXSettingsPanel extends JPanel implements ValidationListener {
             Main.pref.putInteger("draw.rawgps.colors"+layerNameDot, 3);
         } else if(colorTypeTime.isSelected()) {
             Main.pref.putInteger("draw.rawgps.colors"+layerNameDot, 4);
+        } else if(colorTypeHeatmap.isSelected()) {
+            Main.pref.putInteger("draw.rawgps.colors"+layerNameDot, 5);
         } else {
             Main.pref.putInteger("draw.rawgps.colors"+layerNameDot, 0);
         }
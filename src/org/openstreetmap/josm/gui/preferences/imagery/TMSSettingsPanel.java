@@ -28,6 +28,7 @@ public class TMSSettingsPanel extends JPanel {
     private final JSpinner maxZoomLvl;
     private final JCheckBox addToSlippyMapChosser = new JCheckBox();
     private final JTextField tilecacheDir = new JTextField();
+    private final JCheckBox tilecachePacked = new JCheckBox();
 
     /**
      * Constructs a new {@code TMSSettingsPanel}.
@@ -60,6 +61,10 @@ public class TMSSettingsPanel extends JPanel {
         add(new JLabel(tr("Tile cache directory: ")), GBC.std());
         add(GBC.glue(5, 0), GBC.std());
         add(tilecacheDir, GBC.eol().fill(GBC.HORIZONTAL));
+
+        add(new JLabel(tr("Pack cached tiles into large files: ")), GBC.std());
+        add(GBC.glue(5, 0), GBC.std());
+        add(tilecachePacked, GBC.eol().fill(GBC.HORIZONTAL));
     }
     
     /**
@@ -72,6 +77,7 @@ public class TMSSettingsPanel extends JPanel {
         this.maxZoomLvl.setValue(TMSLayer.getMaxZoomLvl(null));
         this.minZoomLvl.setValue(TMSLayer.getMinZoomLvl(null));
         this.tilecacheDir.setText(TMSLayer.PROP_TILECACHE_DIR.get());
+        this.tilecachePacked.setSelected(TMSLayer.PROP_TILECACHE_PACKED.get());
     }
     
     /**
@@ -90,6 +96,7 @@ public class TMSSettingsPanel extends JPanel {
         TMSLayer.setMaxZoomLvl((Integer)this.maxZoomLvl.getValue());
         TMSLayer.setMinZoomLvl((Integer)this.minZoomLvl.getValue());
         TMSLayer.PROP_TILECACHE_DIR.put(this.tilecacheDir.getText());
+        TMSLayer.PROP_TILECACHE_PACKED.put(this.tilecachePacked.isSelected());
         
         return restartRequired;
     }
@@ -4,6 +4,7 @@ package org.openstreetmap.josm.io;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -50,7 +51,63 @@ public abstract class AbstractReader {
      * Data structure for relation objects
      */
     protected final Map<Long, Collection<RelationMemberData>> relations = new HashMap<Long, Collection<RelationMemberData>>();
-    
+
+    /**
+     * Ways whose nodes have already been linked while parsing, see {@link #linkWay(Way, long, long[], int)}
+     */
+    private final List<Way> linkedWays = new ArrayList<Way>();
+
+    /**
+     * Ways referring to nodes which were not known yet when the way was parsed
+     */
+    private final List<DeferredWay> deferredWays = new ArrayList<DeferredWay>();
+
+    /**
+     * Relations whose members have already been linked while parsing, see
+     * {@link #linkRelation(Relation, long, List)}
+     */
+    private final List<Relation> linkedRelations = new ArrayList<Relation>();
+
+    /**
+     * Relations referring to relations or to primitives which were not known yet when
+     * the relation was parsed
+     */
+    private final List<DeferredRelation> deferredRelations = new ArrayList<DeferredRelation>();
+
+    private static class DeferredWay {
+        private final Way way;
+        private final long externalId;
+        private final long[] nodeIds;
+
+        public DeferredWay(Way way, long externalId, long[] nodeIds) {
+            this.way = way;
+            this.externalId = externalId;
+            this.nodeIds = nodeIds;
+        }
+    }
+
+    private static class DeferredRelation {
+        private final Relation relation;
+        private final long externalId;
+        private final long[] memberIds;
+        private final OsmPrimitiveType[] memberTypes;
+        private final String[] memberRoles;
+
+        public DeferredRelation(Relation relation, long externalId, List<RelationMemberData> members) {
+            this.relation = relation;
+            this.externalId = externalId;
+            this.memberIds = new long[members.size()];
+            this.memberTypes = new OsmPrimitiveType[members.size()];
+            this.memberRoles = new String[members.size()];
+            for (int i=0; i<members.size(); i++) {
+                RelationMemberData rm = members.get(i);
+                memberIds[i] = rm.getMemberId();
+                memberTypes[i] = rm.getMemberType();
+                memberRoles[i] = rm.getRole();
+            }
+        }
+    }
+
     /**
      * Replies the parsed data set
      *
@@ -62,56 +119,109 @@ public abstract class AbstractReader {
     
     /**
      * Processes the parsed nodes after parsing. Just adds them to
-     * the dataset
+     * the dataset in one bulk operation
      *
      */
     protected void processNodesAfterParsing() {
+        List<Node> nodes = new ArrayList<Node>();
         for (OsmPrimitive primitive: externalIdMap.values()) {
             if (primitive instanceof Node) {
-                this.ds.addPrimitive(primitive);
+                nodes.add((Node) primitive);
             }
         }
+        this.ds.addPrimitives(nodes);
     }
 
     /**
      * Processes the ways after parsing. Rebuilds the list of nodes of each way and
-     * adds the way to the dataset
+     * adds the ways to the dataset
      *
      * @throws IllegalDataException thrown if a data integrity problem is detected
      */
     protected void processWaysAfterParsing() throws IllegalDataException{
+        List<Way> parsedWays = new ArrayList<Way>(ways.size() + linkedWays.size() + deferredWays.size());
+        parsedWays.addAll(linkedWays);
         for (Long externalWayId: ways.keySet()) {
             Way w = (Way)externalIdMap.get(new SimplePrimitiveId(externalWayId, OsmPrimitiveType.WAY));
             List<Node> wayNodes = new ArrayList<Node>();
             for (long id : ways.get(externalWayId)) {
-                Node n = (Node)externalIdMap.get(new SimplePrimitiveId(id, OsmPrimitiveType.NODE));
-                if (n == null) {
-                    if (id <= 0)
-                        throw new IllegalDataException (
-                                tr("Way with external ID ''{0}'' includes missing node with external ID ''{1}''.",
-                                        externalWayId,
-                                        id));
-                    // create an incomplete node if necessary
-                    //
-                    n = (Node)ds.getPrimitiveById(id,OsmPrimitiveType.NODE);
-                    if (n == null) {
-                        n = new Node(id);
-                        ds.addPrimitive(n);
-                    }
-                }
-                if (n.isDeleted()) {
-                    System.out.println(tr("Deleted node {0} is part of way {1}", id, w.getId()));
-                } else {
-                    wayNodes.add(n);
-                }
+                addWayNode(wayNodes, w, externalWayId, id);
+            }
+            setWayNodes(w, externalWayId, wayNodes);
+            parsedWays.add(w);
+        }
+        for (DeferredWay dw : deferredWays) {
+            List<Node> wayNodes = new ArrayList<Node>(dw.nodeIds.length);
+            for (long id : dw.nodeIds) {
+                addWayNode(wayNodes, dw.way, dw.externalId, id);
+            }
+            setWayNodes(dw.way, dw.externalId, wayNodes);
+            parsedWays.add(dw.way);
+        }
+        ds.addPrimitives(parsedWays);
+    }
+
+    private void addWayNode(List<Node> wayNodes, Way w, long externalWayId, long id) throws IllegalDataException {
+        Node n = (Node)externalIdMap.get(new SimplePrimitiveId(id, OsmPrimitiveType.NODE));
+        if (n == null) {
+            if (id <= 0)
+                throw new IllegalDataException (
+                        tr("Way with external ID ''{0}'' includes missing node with external ID ''{1}''.",
+                                externalWayId,
+                                id));
+            // create an incomplete node if necessary
+            //
+            n = (Node)ds.getPrimitiveById(id,OsmPrimitiveType.NODE);
+            if (n == null) {
+                n = new Node(id);
+                ds.addPrimitive(n);
+            }
+        }
+        if (n.isDeleted()) {
+            System.out.println(tr("Deleted node {0} is part of way {1}", id, w.getId()));
+        } else {
+            wayNodes.add(n);
+        }
+    }
+
+    private void setWayNodes(Way w, long externalWayId, List<Node> wayNodes) {
+        w.setNodes(wayNodes);
+        if (w.hasIncompleteNodes()) {
+              System.out.println(tr("Way {0} with {1} nodes has incomplete nodes because at least one node was missing in the loaded data.",
+                      externalWayId, w.getNodesCount()));
+        }
+    }
+
+    /**
+     * Links the nodes of a way while the data is parsed. If all nodes have already been parsed, the
+     * nodes are set right away, otherwise the way is linked in {@link #processWaysAfterParsing()}.
+     * Unlike {@link #ways}, this keeps no ids for ways which don't refer to nodes further down in the data.
+     *
+     * @param w the way
+     * @param externalWayId the external id of the way
+     * @param nodeIds the external ids of the nodes of the way. Only the first <code>count</code> entries are used,
+     * the array may be reused by the caller
+     * @param count the number of nodes
+     */
+    protected void linkWay(Way w, long externalWayId, long[] nodeIds, int count) {
+        List<Node> wayNodes = new ArrayList<Node>(count);
+        for (int i=0; i<count; i++) {
+            Node n = (Node)externalIdMap.get(new SimplePrimitiveId(nodeIds[i], OsmPrimitiveType.NODE));
+            if (n == null) {
+                // forward reference or missing node, resolved after parsing
+                deferredWays.add(new DeferredWay(w, externalWayId, Arrays.copyOf(nodeIds, count)));
+                return;
             }
-            w.setNodes(wayNodes);
-            if (w.hasIncompleteNodes()) {
-                  System.out.println(tr("Way {0} with {1} nodes has incomplete nodes because at least one node was missing in the loaded data.",
-                          externalWayId, w.getNodesCount()));
+            wayNodes.add(n);
+        }
+        for (int i=wayNodes.size()-1; i>=0; i--) {
+            if (wayNodes.get(i).isDeleted()) {
+                System.out.println(tr("Deleted node {0} is part of way {1}", nodeIds[i], w.getId()));
+                wayNodes.remove(i);
             }
-            ds.addPrimitive(w);
         }
+        setWayNodes(w, externalWayId, wayNodes);
+        linkedWays.add(w);
     }
 
     /**
@@ -124,12 +234,18 @@ public abstract class AbstractReader {
     protected void processRelationsAfterParsing() throws IllegalDataException {
 
         // First add all relations to make sure that when relation reference other relation, the referenced will be already in dataset
+        List<Relation> parsedRelations = new ArrayList<Relation>(relations.size() + linkedRelations.size() + deferredRelations.size());
         for (Long externalRelationId : relations.keySet()) {
             Relation relation = (Relation) externalIdMap.get(
                     new SimplePrimitiveId(externalRelationId, OsmPrimitiveType.RELATION)
             );
-            ds.addPrimitive(relation);
+            parsedRelations.add(relation);
         }
+        parsedRelations.addAll(linkedRelations);
+        for (DeferredRelation dr : deferredRelations) {
+            parsedRelations.add(dr.relation);
+        }
+        ds.addPrimitives(parsedRelations);
 
         for (Long externalRelationId : relations.keySet()) {
             Relation relation = (Relation) externalIdMap.get(
@@ -137,49 +253,95 @@ public abstract class AbstractReader {
             );
             List<RelationMember> relationMembers = new ArrayList<RelationMember>();
             for (RelationMemberData rm : relations.get(externalRelationId)) {
-                OsmPrimitive primitive = null;
-
-                // lookup the member from the map of already created primitives
-                primitive = externalIdMap.get(new SimplePrimitiveId(rm.getMemberId(), rm.getMemberType()));
-
-                if (primitive == null) {
-                    if (rm.getMemberId() <= 0)
-                        // relation member refers to a primitive with a negative id which was not
-                        // found in the data. This is always a data integrity problem and we abort
-                        // with an exception
-                        //
-                        throw new IllegalDataException(
-                                tr("Relation with external id ''{0}'' refers to a missing primitive with external id ''{1}''.",
-                                        externalRelationId,
-                                        rm.getMemberId()));
-
-                    // member refers to OSM primitive which was not present in the parsed data
-                    // -> create a new incomplete primitive and add it to the dataset
-                    //
-                    primitive = ds.getPrimitiveById(rm.getMemberId(), rm.getMemberType());
-                    if (primitive == null) {
-                        switch (rm.getMemberType()) {
-                        case NODE:
-                            primitive = new Node(rm.getMemberId()); break;
-                        case WAY:
-                            primitive = new Way(rm.getMemberId()); break;
-                        case RELATION:
-                            primitive = new Relation(rm.getMemberId()); break;
-                        default: throw new AssertionError(); // can't happen
-                        }
-
-                        ds.addPrimitive(primitive);
-                        externalIdMap.put(new SimplePrimitiveId(rm.getMemberId(), rm.getMemberType()), primitive);
-                    }
-                }
-                if (primitive.isDeleted()) {
-                    System.out.println(tr("Deleted member {0} is used by relation {1}", primitive.getId(), relation.getId()));
-                } else {
-                    relationMembers.add(new RelationMember(rm.getRole(), primitive));
-                }
+                addRelationMember(relationMembers, relation, externalRelationId, rm.getRole(), rm.getMemberType(), rm.getMemberId());
             }
             relation.setMembers(relationMembers);
         }
+        for (DeferredRelation dr : deferredRelations) {
+            List<RelationMember> relationMembers = new ArrayList<RelationMember>(dr.memberIds.length);
+            for (int i=0; i<dr.memberIds.length; i++) {
+                addRelationMember(relationMembers, dr.relation, dr.externalId, dr.memberRoles[i], dr.memberTypes[i], dr.memberIds[i]);
+            }
+            dr.relation.setMembers(relationMembers);
+        }
+    }
+
+    private void addRelationMember(List<RelationMember> relationMembers, Relation relation, long externalRelationId,
+            String role, OsmPrimitiveType memberType, long memberId) throws IllegalDataException {
+        OsmPrimitive primitive = null;
+
+        // lookup the member from the map of already created primitives
+        primitive = externalIdMap.get(new SimplePrimitiveId(memberId, memberType));
+
+        if (primitive == null) {
+            if (memberId <= 0)
+                // relation member refers to a primitive with a negative id which was not
+                // found in the data. This is always a data integrity problem and we abort
+                // with an exception
+                //
+                throw new IllegalDataException(
+                        tr("Relation with external id ''{0}'' refers to a missing primitive with external id ''{1}''.",
+                                externalRelationId,
+                                memberId));
+
+            // member refers to OSM primitive which was not present in the parsed data
+            // -> create a new incomplete primitive and add it to the dataset
+            //
+            primitive = ds.getPrimitiveById(memberId, memberType);
+            if (primitive == null) {
+                switch (memberType) {
+                case NODE:
+                    primitive = new Node(memberId); break;
+                case WAY:
+                    primitive = new Way(memberId); break;
+                case RELATION:
+                    primitive = new Relation(memberId); break;
+                default: throw new AssertionError(); // can't happen
+                }
+
+                ds.addPrimitive(primitive);
+                externalIdMap.put(new SimplePrimitiveId(memberId, memberType), primitive);
+            }
+        }
+        if (primitive.isDeleted()) {
+            System.out.println(tr("Deleted member {0} is used by relation {1}", primitive.getId(), relation.getId()));
+        } else {
+            relationMembers.add(new RelationMember(role, primitive));
+        }
+    }
+
+    /**
+     * Links the members of a relation while the data is parsed. If all members are nodes or ways which
+     * have already been parsed, the members are set right away. Otherwise the relation is linked in
+     * {@link #processRelationsAfterParsing()}, after all relations have been added to the dataset.
+     *
+     * @param r the relation
+     * @param externalRelationId the external id of the relation
+     * @param members the members of the relation
+     */
+    protected void linkRelation(Relation r, long externalRelationId, List<RelationMemberData> members) {
+        OsmPrimitive[] primitives = new OsmPrimitive[members.size()];
+        for (int i=0; i<primitives.length; i++) {
+            RelationMemberData rm = members.get(i);
+            if (rm.getMemberType() != OsmPrimitiveType.RELATION) {
+                primitives[i] = externalIdMap.get(new SimplePrimitiveId(rm.getMemberId(), rm.getMemberType()));
+            }
+            if (primitives[i] == null) {
+                // relation member or forward reference, resolved after parsing
+                deferredRelations.add(new DeferredRelation(r, externalRelationId, members));
+                return;
+            }
+        }
+        List<RelationMember> relationMembers = new ArrayList<RelationMember>(primitives.length);
+        for (int i=0; i<primitives.length; i++) {
+            if (primitives[i].isDeleted()) {
+                System.out.println(tr("Deleted member {0} is used by relation {1}", primitives[i].getId(), r.getId()));
+            } else {
+                relationMembers.add(new RelationMember(members.get(i).getRole(), primitives[i]));
+            }
+        }
+        r.setMembers(relationMembers);
+        linkedRelations.add(r);
     }
 
     protected void processChangesetAfterParsing() {
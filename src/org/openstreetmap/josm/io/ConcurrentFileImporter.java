@@ -0,0 +1,122 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * A file importer which parses multiple files concurrently.
+ *
+ * The files are parsed by {@link #parse(File)} on a shared pool of daemon threads, its size is set by
+ * the preference <code>file-import.threads</code> (default: one per processor). The layers of each
+ * file are added by {@link #addLayers(File, Object)} as soon as the file is parsed, in the order in
+ * which the files are completed.
+ *
+ * @param <T> the result of parsing a file
+ */
+public abstract class ConcurrentFileImporter<T> extends FileImporter {
+
+    private static ExecutorService parsePool;
+
+    /**
+     * Replies the thread pool used to parse files.
+     */
+    private static synchronized ExecutorService getParsePool() {
+        if (parsePool == null) {
+            int threads = Math.max(1, Main.pref.getInteger("file-import.threads", Runtime.getRuntime().availableProcessors()));
+            parsePool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "file-import-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return parsePool;
+    }
+
+    public ConcurrentFileImporter(ExtensionFileFilter filter) {
+        super(filter);
+    }
+
+    /**
+     * Parses a file. Called concurrently for different files.
+     *
+     * @param file the file
+     * @return the result, which is passed to {@link #addLayers(File, Object)}
+     * @throws IOException if the file can't be read or parsed
+     */
+    protected abstract T parse(File file) throws IOException;
+
+    /**
+     * Adds the layers of a parsed file. Called in the importing thread.
+     *
+     * @param file the file
+     * @param result the result of {@link #parse(File)}
+     */
+    protected abstract void addLayers(File file, T result);
+
+    @Override
+    public void importData(File file, ProgressMonitor progressMonitor) throws IOException {
+        addLayers(file, parse(file));
+    }
+
+    @Override
+    public List<File> importFilesHandleExceptions(List<File> files, ProgressMonitor progressMonitor) {
+        if (files.size() < 2)
+            return super.importFilesHandleExceptions(files, progressMonitor);
+        progressMonitor.indeterminateSubTask(trn("Opening {0} file...", "Opening {0} files...", files.size(), files.size()));
+        CompletionService<T> completionService = new ExecutorCompletionService<T>(getParsePool());
+        Map<Future<T>, File> futures = new HashMap<Future<T>, File>();
+        for (final File file : files) {
+            futures.put(completionService.submit(new Callable<T>() {
+                public T call() throws IOException {
+                    return parse(file);
+                }
+            }), file);
+        }
+        List<File> imported = new ArrayList<File>();
+        try {
+            for (int i = 0; i < files.size() && !progressMonitor.isCanceled(); i++) {
+                Future<T> future = completionService.take();
+                File file = futures.remove(future);
+                try {
+                    System.out.println("Open file: " + file.getAbsolutePath() + " (" + file.length() + " bytes)");
+                    addLayers(file, future.get());
+                    imported.add(file);
+                } catch (ExecutionException e) {
+                    displayError(file, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                } catch (RuntimeException e) {
+                    displayError(file, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // files not taken yet when canceled
+            for (Future<T> future : futures.keySet()) {
+                future.cancel(true);
+            }
+        }
+        return imported;
+    }
+}
@@ -16,7 +16,9 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.openstreetmap.josm.data.osm.Changeset;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.PrimitiveId;
 import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
@@ -101,7 +103,8 @@ public class DiffResultProcessor  {
      *
      * Uploaded objects are assigned their new id (if they got assigned a new
      * id by the server), their new version (if the version was incremented),
-     * and the id of the changeset to which they were uploaded.
+     * and the id of the changeset to which they were uploaded. The dataset of the
+     * primitives is updated in one batch under its write lock.
      *
      * @param cs the current changeset. Ignored if null.
      * @param monitor the progress monitor. Set to {@link NullProgressMonitor#INSTANCE} if null
@@ -111,6 +114,10 @@ public class DiffResultProcessor  {
         if (monitor == null) {
             monitor = NullProgressMonitor.INSTANCE;
         }
+        DataSet ds = getDataSet();
+        if (ds != null) {
+            ds.beginUpdate();
+        }
         try {
             monitor.beginTask("Postprocessing uploaded data ...");
             monitor.setTicksCount(primitives.size());
@@ -134,10 +141,21 @@ public class DiffResultProcessor  {
             }
             return processed;
         } finally {
+            if (ds != null) {
+                ds.endUpdate();
+            }
             monitor.finishTask();
         }
     }
 
+    private DataSet getDataSet() {
+        for (IPrimitive p : primitives) {
+            if (p instanceof OsmPrimitive && ((OsmPrimitive) p).getDataSet() != null)
+                return ((OsmPrimitive) p).getDataSet();
+        }
+        return null;
+    }
+
     private class Parser extends DefaultHandler {
         private Locator locator;
 
@@ -29,6 +29,15 @@ public abstract class FileExporter implements LayerChangeListener {
         throw new IOException(tr("Could not export ''{0}''.", file.getName()));
     }
 
+    /**
+     * Replies true if the format can't hold all data of a layer. The layer is then not associated
+     * with the exported file and its modified state is kept.
+     * @return true if the exported file is not a saved copy of the layer
+     */
+    public boolean isExportOnly() {
+        return false;
+    }
+
     /**
      * Returns the enabled state of this {@code FileExporter}. When enabled, it is listed and usable in "File->Save" dialogs. 
      * @return true if this {@code FileExporter} is enabled
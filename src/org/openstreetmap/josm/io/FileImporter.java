@@ -7,6 +7,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 
@@ -66,16 +67,47 @@ public abstract class FileImporter implements Comparable<FileImporter>, LayerCha
             importData(f, progressMonitor);
             return true;
         } catch (Exception e) {
-            e.printStackTrace();
-            HelpAwareOptionPane.showMessageDialogInEDT(
-                    Main.parent,
-                    tr("<html>Could not read file ''{0}''.<br>Error is:<br>{1}</html>", f.getName(), e.getMessage()),
-                    tr("Error"),
-                    JOptionPane.ERROR_MESSAGE, null
-            );
+            displayError(f, e);
             return false;
         }
     }
+
+    /**
+     * Imports files which don't depend on each other, like {@link #importDataHandleExceptions(File, ProgressMonitor)}
+     * for each file. This implementation imports one file after another, importers which can read the files
+     * concurrently override it.
+     *
+     * @param files the files
+     * @param progressMonitor the progress monitor
+     * @return the files which have been imported
+     */
+    public List<File> importFilesHandleExceptions(List<File> files, ProgressMonitor progressMonitor) {
+        List<File> imported = new ArrayList<File>();
+        for (File f : files) {
+            if (progressMonitor.isCanceled()) {
+                break;
+            }
+            progressMonitor.indeterminateSubTask(tr("Opening file ''{0}'' ...", f.getAbsolutePath()));
+            if (importDataHandleExceptions(f, progressMonitor.createSubTaskMonitor(1, false))) {
+                imported.add(f);
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Informs the user that a file couldn't be imported
+     */
+    protected void displayError(File f, Exception e) {
+        e.printStackTrace();
+        HelpAwareOptionPane.showMessageDialogInEDT(
+                Main.parent,
+                tr("<html>Could not read file ''{0}''.<br>Error is:<br>{1}</html>", f.getName(), e.getMessage()),
+                tr("Error"),
+                JOptionPane.ERROR_MESSAGE, null
+        );
+    }
+
     public boolean importDataHandleExceptions(List<File> files, ProgressMonitor progressMonitor) {
         try {
             System.out.println("Open "+files.size()+" files");
@@ -16,15 +16,17 @@ import org.openstreetmap.josm.actions.ExtensionFileFilter;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
 import org.openstreetmap.josm.gui.layer.markerlayer.MarkerLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.tools.Utils;
 import org.xml.sax.SAXException;
 
 /**
  * File importer allowing to import GPX files (*.gpx/gpx.gz files).
  *
  */
-public class GpxImporter extends FileImporter {
+public class GpxImporter extends ConcurrentFileImporter<GpxImporter.GpxImporterData> {
 
     /**
      * The GPX file filter (*.gpx and *.gpx.gz files).
@@ -76,7 +78,7 @@ public class GpxImporter extends FileImporter {
     }
 
     @Override
-    public void importData(File file, ProgressMonitor progressMonitor) throws IOException {
+    protected GpxImporterData parse(File file) throws IOException {
         InputStream is;
         if (file.getName().endsWith(".gpx.gz")) {
             is = new GZIPInputStream(new FileInputStream(file));
@@ -84,17 +86,17 @@ public class GpxImporter extends FileImporter {
             is = new FileInputStream(file);
         }
         String fileName = file.getName();
-        
         try {
-            GpxReader r = new GpxReader(is);
-            boolean parsedProperly = r.parse(true);
-            r.data.storageFile = file;
-            addLayers(loadLayers(r.data, parsedProperly, fileName, tr("Markers from {0}", fileName)));
-        } catch (SAXException e) {
-            e.printStackTrace();
-            throw new IOException(tr("Parsing data for layer ''{0}'' failed", fileName));
+            return loadLayers(is, file, fileName, tr("Markers from {0}", fileName), NullProgressMonitor.INSTANCE);
+        } finally {
+            Utils.close(is);
         }
     }
+
+    @Override
+    protected void addLayers(File file, GpxImporterData data) {
+        addLayers(data);
+    }
     
     /**
      * Adds the specified GPX and marker layers to Map.main
@@ -16,13 +16,16 @@ import java.util.Map;
 import java.util.Stack;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.gpx.GpxLink;
 import org.openstreetmap.josm.data.gpx.GpxRoute;
+import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.ImmutableGpxTrack;
+import org.openstreetmap.josm.data.gpx.ImmutableGpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -50,9 +53,9 @@ public class GpxReader {
     private class Parser extends DefaultHandler {
 
         private GpxData currentData;
-        private Collection<Collection<WayPoint>> currentTrack;
+        private List<GpxTrackSegment> currentTrack;
         private Map<String, Object> currentTrackAttr;
-        private Collection<WayPoint> currentTrackSeg;
+        private ImmutableGpxTrackSegment.Builder currentTrackSeg;
         private GpxRoute currentRoute;
         private WayPoint currentWayPoint;
 
@@ -116,7 +119,7 @@ public class GpxReader {
                 } else if (qName.equals("trk")) {
                     states.push(currentState);
                     currentState = State.trk;
-                    currentTrack = new ArrayList<Collection<WayPoint>>();
+                    currentTrack = new ArrayList<GpxTrackSegment>();
                     currentTrackAttr = new HashMap<String, Object>();
                 } else if (qName.equals("extensions")) {
                     states.push(currentState);
@@ -155,7 +158,7 @@ public class GpxReader {
                 if (qName.equals("trkseg")) {
                     states.push(currentState);
                     currentState = State.trkseg;
-                    currentTrackSeg = new ArrayList<WayPoint>();
+                    currentTrackSeg = new ImmutableGpxTrackSegment.Builder();
                 } else if (qName.equals("link")) {
                     states.push(currentState);
                     currentState = State.link;
@@ -335,7 +338,7 @@ public class GpxReader {
             case trkseg:
                 if (qName.equals("trkseg")) {
                     currentState = states.pop();
-                    currentTrack.add(currentTrackSeg);
+                    currentTrack.add(currentTrackSeg.build());
                 }
                 break;
             case trk:
@@ -397,6 +400,23 @@ public class GpxReader {
         }
     }
 
+    /** the SAX parser of each thread, reused for the files parsed by the thread */
+    private static final ThreadLocal<SAXParser> saxParsers = new ThreadLocal<SAXParser>();
+
+    private static SAXParser getSAXParser() throws ParserConfigurationException, SAXException {
+        SAXParser saxParser = saxParsers.get();
+        if (saxParser == null) {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            // support files with invalid xml namespace declarations (see #7247)
+            factory.setNamespaceAware(false);
+            saxParser = factory.newSAXParser();
+            saxParsers.set(saxParser);
+        } else {
+            saxParser.reset();
+        }
+        return saxParser;
+    }
+
     /**
      * Parse the input stream and store the result in trackData and markerData
      *
@@ -414,10 +434,7 @@ public class GpxReader {
     public boolean parse(boolean tryToFinish) throws SAXException, IOException {
         Parser parser = new Parser();
         try {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            // support files with invalid xml namespace declarations (see #7247)
-            factory.setNamespaceAware(false);
-            factory.newSAXParser().parse(inputSource, parser);
+            getSAXParser().parse(inputSource, parser);
             return true;
         } catch (SAXException e) {
             if (tryToFinish) {
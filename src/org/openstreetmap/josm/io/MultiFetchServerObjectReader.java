@@ -19,8 +19,11 @@ import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.osm.DataSet;
@@ -36,6 +39,7 @@ import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Retrieves a set of {@link OsmPrimitive}s from an OSM server using the so called
@@ -54,22 +58,45 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
  *       System.out.println("There are skipped ways: " + reader.getMissingPrimitives());
  *    }
  * </pre>
+ *
+ * The ids are fetched in packages by concurrent {@link Fetcher}s on an executor shared by all
+ * readers. The size of the packages is limited by the length of the request URL and adapted
+ * to the time the server needs to reply. The primitives of a package are merged into the
+ * resulting dataset as soon as the package arrives.
  */
 public class MultiFetchServerObjectReader extends OsmServerReader{
     /**
-     * the max. number of primitives retrieved in one step. Assuming IDs with 7 digits,
+     * the initial max. number of primitives retrieved in one step. Assuming IDs with 7 digits,
      * this leads to a max. request URL of ~ 1600 Bytes ((7 digits +  1 Separator) * 200),
      * which should be safe according to the
      * <a href="http://www.boutell.com/newfaq/misc/urllength.html">WWW FAQ</a>.
      */
     static private int MAX_IDS_PER_REQUEST = 200;
 
+    /**
+     * the bounds of the number of primitives retrieved in one step while it is adapted
+     */
+    static private final int MIN_ADAPTED_IDS_PER_REQUEST = 10;
+    static private final int MAX_ADAPTED_IDS_PER_REQUEST = 5000;
+
+    /**
+     * the executor running the fetchers of all readers, see {@link #getExecutor(int)}
+     */
+    static private ThreadPoolExecutor executor;
+
     private Set<Long> nodes;
     private Set<Long> ways;
     private Set<Long> relations;
     private Set<PrimitiveId> missingPrimitives;
     private DataSet outputDataSet;
 
+    /** the current max. number of primitives retrieved in one step */
+    private int idsPerRequest = MAX_IDS_PER_REQUEST;
+    /** the max. length of a request URL, lowered if the server rejects a shorter one */
+    private int maxUrlLength;
+    /** the time in ms a request should take, the number of ids per request is adapted to it */
+    private final int targetLatency;
+
     /**
      * Constructs a {@code MultiFetchServerObjectReader}.
      */
@@ -79,6 +106,37 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         relations = new LinkedHashSet<Long>();
         this.outputDataSet = new DataSet();
         this.missingPrimitives = new LinkedHashSet<PrimitiveId>();
+        this.maxUrlLength = Main.pref.getInteger("osm.multifetch.max-url-length", 8000);
+        this.targetLatency = Main.pref.getInteger("osm.multifetch.target-latency", 3000);
+    }
+
+    /**
+     * Replies the executor running the fetchers of all readers. Its threads end when they
+     * have been idle for a while.
+     *
+     * @param threads the max. number of concurrent fetchers
+     * @return the executor
+     */
+    static private synchronized Executor getExecutor(int threads) {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private int count = 0;
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "multifetch-" + (++count));
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else if (threads < executor.getMaximumPoolSize()) {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+        return executor;
     }
 
     /**
@@ -230,29 +288,49 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
     }
 
     /**
-     * extracts a subset of max {@link #MAX_IDS_PER_REQUEST} ids from <code>ids</code> and
-     * replies the subset. The extracted subset is removed from <code>ids</code>.
+     * extracts a subset of ids from <code>ids</code> and replies the subset. The subset has
+     * at most the current number of ids per request and fits into the max. length of a request
+     * URL. The extracted subset is removed from <code>ids</code>.
      *
      * @param ids a set of ids
      * @return the subset of ids
      */
     protected Set<Long> extractIdPackage(Set<Long> ids) {
-        HashSet<Long> pkg = new HashSet<Long>();
-        if (ids.isEmpty())
-            return pkg;
-        if (ids.size() > MAX_IDS_PER_REQUEST) {
-            Iterator<Long> it = ids.iterator();
-            for (int i=0; i<MAX_IDS_PER_REQUEST; i++) {
-                pkg.add(it.next());
+        Set<Long> pkg = new LinkedHashSet<Long>();
+        int length = OsmApi.getOsmApi().getBaseUrl().length() + buildRequestString(OsmPrimitiveType.RELATION, pkg).length();
+        Iterator<Long> it = ids.iterator();
+        while (it.hasNext() && pkg.size() < idsPerRequest) {
+            Long id = it.next();
+            length += id.toString().length() + 1;
+            if (length > maxUrlLength && !pkg.isEmpty()) {
+                break;
             }
-            ids.removeAll(pkg);
-        } else {
-            pkg.addAll(ids);
-            ids.clear();
+            pkg.add(id);
+            it.remove();
         }
         return pkg;
     }
 
+    /**
+     * adapts the number of ids per request to the time the server needed for a package,
+     * and the max. length of a request URL to the length of URLs the server rejected.
+     *
+     * @param result the result of a {@link Fetcher}
+     */
+    protected void adaptPackageSize(FetchResult result) {
+        if (result.rejectedUrlLength > 0) {
+            maxUrlLength = Math.min(maxUrlLength, result.rejectedUrlLength - 1);
+        }
+        // only full packages tell whether more ids could be requested at once
+        if (result.requestedIds < idsPerRequest)
+            return;
+        if (result.requestTime < targetLatency / 2) {
+            idsPerRequest = Math.min(idsPerRequest * 2, MAX_ADAPTED_IDS_PER_REQUEST);
+        } else if (result.requestTime > targetLatency) {
+            idsPerRequest = Math.max(idsPerRequest / 2, MIN_ADAPTED_IDS_PER_REQUEST);
+        }
+    }
+
     /**
      * builds the Multi Get request string for a set of ids and a given
      * {@link OsmPrimitiveType}.
@@ -332,22 +410,36 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         progressMonitor.setTicksCount(ids.size());
         progressMonitor.setTicks(0);
         // The complete set containg all primitives to fetch
-        Set<Long> toFetch = new HashSet<Long>(ids);
-        // Build a list of fetchers that will  download smaller sets containing only MAX_IDS_PER_REQUEST (200) primitives each.
-        // we will run up to MAX_DOWNLOAD_THREADS concurrent fetchers.
+        Set<Long> toFetch = new LinkedHashSet<Long>(ids);
+        // we will run up to MAX_DOWNLOAD_THREADS concurrent fetchers. The next package is
+        // extracted when a fetcher completes, so its size is adapted to the replies so far.
         int threadsNumber = Main.pref.getInteger("osm.download.threads", OsmApi.MAX_DOWNLOAD_THREADS);
         threadsNumber = Math.min(Math.max(threadsNumber, 1), OsmApi.MAX_DOWNLOAD_THREADS);
-        Executor exec = Executors.newFixedThreadPool(threadsNumber);
-        CompletionService<FetchResult> ecs = new ExecutorCompletionService<FetchResult>(exec);
+        CompletionService<FetchResult> ecs = new ExecutorCompletionService<FetchResult>(getExecutor(threadsNumber));
         List<Future<FetchResult>> jobs = new ArrayList<Future<FetchResult>>();
-        while (!toFetch.isEmpty()) {
+        while (jobs.size() < threadsNumber && !toFetch.isEmpty()) {
             jobs.add(ecs.submit(new Fetcher(type, extractIdPackage(toFetch), progressMonitor)));
         }
-        // Run the fetchers
-        for (int i = 0; i < jobs.size() && !isCanceled(); i++) {
+        // Merge the packages as they arrive
+        while (!jobs.isEmpty() && !isCanceled()) {
             progressMonitor.subTask(msg + "... " + progressMonitor.getTicks() + "/" + progressMonitor.getTicksCount());
+            Future<FetchResult> job;
+            try {
+                job = ecs.take();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                break;
+            }
+            jobs.remove(job);
             try {
-                FetchResult result = ecs.take().get();
+                FetchResult result = job.get();
+                if (result == null) {
+                    continue;
+                }
+                adaptPackageSize(result);
+                if (!toFetch.isEmpty() && !isCanceled()) {
+                    jobs.add(ecs.submit(new Fetcher(type, extractIdPackage(toFetch), progressMonitor)));
+                }
                 if (result.missingPrimitives != null) {
                     missingPrimitives.addAll(result.missingPrimitives);
                 }
@@ -359,13 +451,14 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
                 e.printStackTrace();
             } catch (ExecutionException e) {
                 e.printStackTrace();
+                if (!toFetch.isEmpty() && !isCanceled()) {
+                    jobs.add(ecs.submit(new Fetcher(type, extractIdPackage(toFetch), progressMonitor)));
+                }
             }
         }
         // Cancel requests if the user choosed to
-        if (isCanceled()) {
-            for (Future<FetchResult> job : jobs) {
-                job.cancel(true);
-            }
+        for (Future<FetchResult> job : jobs) {
+            job.cancel(true);
         }
     }
 
@@ -431,6 +524,17 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
          * The collection of primitive ids that could not have been loaded
          */
         public final Set<PrimitiveId> missingPrimitives;
+
+        /**
+         * The number of ids and the time in ms of the request, if the package was fetched in one request
+         */
+        int requestedIds;
+        long requestTime;
+
+        /**
+         * The length of the longest request URL the server rejected as too long, 0 if none
+         */
+        int rejectedUrlLength;
         
         /**
          * Constructs a {@code FetchResult}
@@ -464,6 +568,9 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
             this.pkg = idsPackage;
             this.type = type;
             this.progressMonitor = progressMonitor;
+            // opt-in: reusing the connections of the shared executor is faster, but some
+            // setups hang on kept-alive connections, see #7640
+            this.keepAlive = Main.pref.getBoolean("osm.multifetch.keep-alive", false);
         }
 
         @Override
@@ -484,16 +591,60 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
          * @throws OsmTransferException if an error occurs while communicating with the API server
          */
         protected FetchResult fetch(ProgressMonitor progressMonitor) throws OsmTransferException {
+            long start = System.currentTimeMillis();
             try {
-                return multiGetIdPackage(type, pkg, progressMonitor);
+                FetchResult result = multiGetIdPackage(type, pkg, progressMonitor);
+                if (result != null) {
+                    result.requestedIds = pkg.size();
+                    result.requestTime = System.currentTimeMillis() - start;
+                }
+                return result;
             } catch (OsmApiException e) {
-                if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
-                    System.out.println(tr("Server replied with response code 404, retrying with an individual request for each object."));
-                    return singleGetIdPackage(type, pkg, progressMonitor);
-                } else {
-                    throw e;
+                return fetchInParts(pkg, e, progressMonitor);
+            }
+        }
+
+        /**
+         * fetches a package the server didn't reply as a whole, because one of the ids doesn't exist
+         * (response code 404) or because the request URL was too long (response code 414). The package
+         * is split in halves until the missing ids are found or the requests are accepted.
+         *
+         * @param pkg the package of ids
+         * @param e the error replied by the server for the package
+         * @return the {@link FetchResult} of this operation
+         * @throws OsmTransferException if an error occurs while communicating with the API server
+         */
+        protected FetchResult fetchInParts(Set<Long> pkg, OsmApiException e, ProgressMonitor progressMonitor) throws OsmTransferException {
+            boolean tooLong = e.getResponseCode() == HttpURLConnection.HTTP_REQ_TOO_LONG;
+            if ((!tooLong && e.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND) || pkg.size() == 1 && tooLong)
+                throw e;
+            if (!tooLong && pkg.size() <= 2) {
+                System.out.println(tr("Server replied with response code 404, retrying with an individual request for each object."));
+                return singleGetIdPackage(type, pkg, progressMonitor);
+            }
+            FetchResult result = new FetchResult(new DataSet(), new HashSet<PrimitiveId>());
+            if (tooLong) {
+                result.rejectedUrlLength = getBaseUrl().length() + buildRequestString(type, pkg).length();
+            }
+            List<Long> ids = new ArrayList<Long>(pkg);
+            int half = ids.size() / 2;
+            for (int i = 0; i < 2; i++) {
+                Set<Long> partPkg = new LinkedHashSet<Long>(i == 0 ? ids.subList(0, half) : ids.subList(half, ids.size()));
+                FetchResult partResult;
+                try {
+                    partResult = multiGetIdPackage(type, partPkg, progressMonitor);
+                } catch (OsmApiException partError) {
+                    partResult = fetchInParts(partPkg, partError, progressMonitor);
+                }
+                if (partResult == null)
+                    return null;
+                result.dataSet.mergeFrom(partResult.dataSet);
+                if (partResult.missingPrimitives != null) {
+                    result.missingPrimitives.addAll(partResult.missingPrimitives);
                 }
+                result.rejectedUrlLength = Math.max(result.rejectedUrlLength, partResult.rejectedUrlLength);
             }
+            return result;
         }
         
         /**
@@ -514,6 +665,8 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
                 return new FetchResult(OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(pkg.size(), false)), null);
             } catch (Exception e) {
                 throw new OsmTransferException(e);
+            } finally {
+                Utils.close(in);
             }
         }
 
@@ -535,6 +688,8 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
                 return OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
             } catch (Exception e) {
                 throw new OsmTransferException(e);
+            } finally {
+                Utils.close(in);
             }
         }
 
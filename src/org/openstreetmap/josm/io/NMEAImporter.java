@@ -14,10 +14,10 @@ import org.openstreetmap.josm.actions.ExtensionFileFilter;
 import org.openstreetmap.josm.gui.HelpAwareOptionPane;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
 import org.openstreetmap.josm.gui.layer.markerlayer.MarkerLayer;
-import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.tools.Utils;
 
-public class NMEAImporter extends FileImporter {
+public class NMEAImporter extends ConcurrentFileImporter<NmeaReader> {
 
     public static final ExtensionFileFilter FILE_FILTER = new ExtensionFileFilter(
             "nmea,nme,nma,log,txt", "nmea", tr("NMEA-0183 Files") + " (*.nmea *.nme *.nma *.log *.txt)");
@@ -26,9 +26,19 @@ public class NMEAImporter extends FileImporter {
         super(FILE_FILTER);
     }
 
-    @Override public void importData(File file, ProgressMonitor progressMonitor) throws IOException {
+    @Override
+    protected NmeaReader parse(File file) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            return new NmeaReader(is, file.getAbsoluteFile().getParentFile());
+        } finally {
+            Utils.close(is);
+        }
+    }
+
+    @Override
+    protected void addLayers(File file, final NmeaReader r) {
         final String fn = file.getName();
-        final NmeaReader r = new NmeaReader(new FileInputStream(file), file.getAbsoluteFile().getParentFile());
         if (r.getNumberOfCoordinates() > 0) {
             r.data.storageFile = file;
             final GpxLayer gpxLayer = new GpxLayer(r.data, fn, true);
@@ -134,16 +134,22 @@ public class NmeaReader {
 
     //  private final static SimpleDateFormat GGATIMEFMT =
     //      new SimpleDateFormat("HHmmss.SSS");
-    private final static SimpleDateFormat RMCTIMEFMT =
-        new SimpleDateFormat("ddMMyyHHmmss.SSS");
-    private final static SimpleDateFormat RMCTIMEFMTSTD =
-        new SimpleDateFormat("ddMMyyHHmmss");
+    // the formats of each thread, as files are parsed concurrently
+    private final static ThreadLocal<SimpleDateFormat[]> RMCTIMEFMTS = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override protected SimpleDateFormat[] initialValue() {
+            return new SimpleDateFormat[] {
+                    new SimpleDateFormat("ddMMyyHHmmss.SSS"),
+                    new SimpleDateFormat("ddMMyyHHmmss")
+            };
+        }
+    };
 
     private Date readTime(String p)
     {
-        Date d = RMCTIMEFMT.parse(p, new ParsePosition(0));
+        SimpleDateFormat[] formats = RMCTIMEFMTS.get();
+        Date d = formats[0].parse(p, new ParsePosition(0));
         if (d == null) {
-            d = RMCTIMEFMTSTD.parse(p, new ParsePosition(0));
+            d = formats[1].parse(p, new ParsePosition(0));
         }
         if (d == null)
             throw new RuntimeException("Date is malformed"); // malformed
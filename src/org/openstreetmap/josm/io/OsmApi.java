@@ -486,25 +486,17 @@ public class OsmApi extends OsmConnection {
     public Collection<IPrimitive> uploadDiff(Collection<? extends IPrimitive> list, ProgressMonitor monitor) throws OsmTransferException {
         try {
             monitor.beginTask("", list.size() * 2);
-            if (changeset == null)
-                throw new OsmTransferException(tr("No changeset present for diff upload."));
-
-            initialize(monitor);
 
             // prepare upload request
             //
-            OsmChangeBuilder changeBuilder = new OsmChangeBuilder(changeset);
             monitor.subTask(tr("Preparing upload request..."));
-            changeBuilder.start();
-            changeBuilder.append(list);
-            changeBuilder.finish();
-            String diffUploadRequest = changeBuilder.getDocument();
+            String diffUploadRequest = createDiffUploadRequest(list);
 
             // Upload to the server
             //
             monitor.indeterminateSubTask(
                     trn("Uploading {0} object...", "Uploading {0} objects...", list.size(), list.size()));
-            String diffUploadResponse = sendRequest("POST", "changeset/" + changeset.getId() + "/upload", diffUploadRequest,monitor);
+            String diffUploadResponse = sendDiffUploadRequest(diffUploadRequest, monitor);
 
             // Process the response from the server
             //
@@ -523,6 +515,38 @@ public class OsmApi extends OsmConnection {
         }
     }
 
+    /**
+     * Builds the osmChange document uploading a list of changes to the current changeset.
+     *
+     * @param list the list of changed OSM Primitives
+     * @return the osmChange document
+     * @throws OsmTransferException if there is no current changeset
+     */
+    public String createDiffUploadRequest(Collection<? extends IPrimitive> list) throws OsmTransferException {
+        if (changeset == null)
+            throw new OsmTransferException(tr("No changeset present for diff upload."));
+        OsmChangeBuilder changeBuilder = new OsmChangeBuilder(changeset);
+        changeBuilder.start();
+        changeBuilder.append(list);
+        changeBuilder.finish();
+        return changeBuilder.getDocument();
+    }
+
+    /**
+     * Sends an osmChange document to the current changeset.
+     *
+     * @param diffUploadRequest the osmChange document, see {@link #createDiffUploadRequest(Collection)}
+     * @param monitor the progress monitor
+     * @return the diff result replied by the server
+     * @throws OsmTransferException if something is wrong
+     */
+    public String sendDiffUploadRequest(String diffUploadRequest, ProgressMonitor monitor) throws OsmTransferException {
+        if (changeset == null)
+            throw new OsmTransferException(tr("No changeset present for diff upload."));
+        initialize(monitor);
+        return sendRequest("POST", "changeset/" + changeset.getId() + "/upload", diffUploadRequest, monitor);
+    }
+
     private void sleepAndListen(int retry, ProgressMonitor monitor) throws OsmTransferCanceledException {
         System.out.print(tr("Waiting 10 seconds ... "));
         for(int i=0; i < 10; i++) {
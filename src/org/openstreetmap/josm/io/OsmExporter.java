@@ -18,6 +18,7 @@ import javax.swing.JOptionPane;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.data.osm.DataSetSnapshot;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 
@@ -55,6 +56,21 @@ public class OsmExporter extends FileExporter {
         return new FileOutputStream(file);
     }
 
+    /**
+     * Writes the data of the layer to the file
+     */
+    protected void doSave(File file, OsmDataLayer layer) throws IOException {
+        // create outputstream and wrap it with gzip or bzip, if necessary
+        OutputStream out = getOutputStream(file);
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+        // the dataset may be edited while the snapshot is written
+        DataSetSnapshot snapshot = layer.data.getSnapshot();
+        OsmWriter w = OsmWriterFactory.createOsmWriter(new PrintWriter(writer), false, snapshot.getVersion());
+        w.writeSnapshot(snapshot);
+        w.close();
+    }
+
     private void save(File file, OsmDataLayer layer, boolean noBackup) {
         File tmpFile = null;
         try {
@@ -66,18 +82,7 @@ public class OsmExporter extends FileExporter {
                 copy(file, tmpFile);
             }
 
-            // create outputstream and wrap it with gzip or bzip, if necessary
-            OutputStream out = getOutputStream(file);
-            Writer writer = new OutputStreamWriter(out, "UTF-8");
-
-            OsmWriter w = OsmWriterFactory.createOsmWriter(new PrintWriter(writer), false, layer.data.getVersion());
-            layer.data.getReadLock().lock();
-            try {
-                w.writeLayer(layer);
-                w.close();
-            } finally {
-                layer.data.getReadLock().unlock();
-            }
+            doSave(file, layer);
             // FIXME - how to close?
             if (noBackup || !Main.pref.getBoolean("save.keepbackup", false)) {
                 if (tmpFile != null) {
@@ -8,6 +8,7 @@ import java.io.InputStreamReader;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +50,15 @@ public class OsmReader extends AbstractReader {
 
     protected XMLStreamReader parser;
 
+    /**
+     * If true, references to primitives which have already been parsed are resolved while
+     * parsing, see {@link AbstractReader#linkWay(Way, long, long[], int)}
+     */
+    private final boolean streaming;
+
+    /** buffer for the node ids of the way being parsed in streaming mode */
+    private long[] wayNodeIds = new long[16];
+
     /** Used by plugins to register themselves as data postprocessors. */
     public static ArrayList<OsmServerReadPostprocessor> postprocessors;
 
@@ -73,6 +83,18 @@ public class OsmReader extends AbstractReader {
      * @see #parseDataSet(InputStream, DataSet, ProgressMonitor)
      */
     protected OsmReader() {
+        this(false);
+    }
+
+    /**
+     * constructor (for private and subclasses use only)
+     *
+     * @param streaming if true, ways and relations are linked to already parsed primitives while
+     * parsing, only forward references are resolved after parsing
+     * @see #parseDataSet(InputStream, ProgressMonitor, boolean)
+     */
+    protected OsmReader(boolean streaming) {
+        this.streaming = streaming;
     }
 
     protected void setParser(XMLStreamReader parser) {
@@ -208,12 +230,24 @@ public class OsmReader extends AbstractReader {
         w.load(wd);
         externalIdMap.put(wd.getPrimitiveId(), w);
 
-        Collection<Long> nodeIds = new ArrayList<Long>();
+        Collection<Long> nodeIds = streaming ? null : new ArrayList<Long>();
+        int nodeCount = 0;
         while (true) {
             int event = parser.next();
             if (event == XMLStreamConstants.START_ELEMENT) {
                 if (parser.getLocalName().equals("nd")) {
-                    nodeIds.add(parseWayNode(w));
+                    long id = parseWayNode(w);
+                    if (streaming) {
+                        if (nodeCount == wayNodeIds.length) {
+                            long[] bigger = new long[nodeCount * 2];
+                            System.arraycopy(wayNodeIds, 0, bigger, 0, nodeCount);
+                            wayNodeIds = bigger;
+                        }
+                        wayNodeIds[nodeCount] = id;
+                    } else {
+                        nodeIds.add(id);
+                    }
+                    nodeCount++;
                 } else if (parser.getLocalName().equals("tag")) {
                     parseTag(w);
                 } else {
@@ -223,11 +257,16 @@ public class OsmReader extends AbstractReader {
                 break;
             }
         }
-        if (w.isDeleted() && nodeIds.size() > 0) {
+        if (w.isDeleted() && nodeCount > 0) {
             System.out.println(tr("Deleted way {0} contains nodes", w.getUniqueId()));
             nodeIds = new ArrayList<Long>();
+            nodeCount = 0;
+        }
+        if (streaming) {
+            linkWay(w, wd.getUniqueId(), wayNodeIds, nodeCount);
+        } else {
+            ways.put(wd.getUniqueId(), nodeIds);
         }
-        ways.put(wd.getUniqueId(), nodeIds);
         return w;
     }
 
@@ -255,7 +294,7 @@ public class OsmReader extends AbstractReader {
         r.load(rd);
         externalIdMap.put(rd.getPrimitiveId(), r);
 
-        Collection<RelationMemberData> members = new ArrayList<RelationMemberData>();
+        List<RelationMemberData> members = new ArrayList<RelationMemberData>();
         while (true) {
             int event = parser.next();
             if (event == XMLStreamConstants.START_ELEMENT) {
@@ -274,7 +313,11 @@ public class OsmReader extends AbstractReader {
             System.out.println(tr("Deleted relation {0} contains members", r.getUniqueId()));
             members = new ArrayList<RelationMemberData>();
         }
-        relations.put(rd.getUniqueId(), members);
+        if (streaming) {
+            linkRelation(r, rd.getUniqueId(), members);
+        } else {
+            relations.put(rd.getUniqueId(), members);
+        }
         return r;
     }
 
@@ -606,7 +649,8 @@ public class OsmReader extends AbstractReader {
     }
 
     /**
-     * Parse the given input source and return the dataset.
+     * Parse the given input source and return the dataset. Ways and relations are linked
+     * while parsing, see {@link #parseDataSet(InputStream, ProgressMonitor, boolean)}.
      *
      * @param source the source input stream. Must not be null.
      * @param progressMonitor  the progress monitor. If null, {@link NullProgressMonitor#INSTANCE} is assumed
@@ -616,6 +660,26 @@ public class OsmReader extends AbstractReader {
      * @throws IllegalArgumentException thrown if source is null
      */
     public static DataSet parseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
-        return new OsmReader().doParseDataSet(source, progressMonitor);
+        return parseDataSet(source, progressMonitor, true);
+    }
+
+    /**
+     * Parse the given input source and return the dataset.
+     *
+     * In streaming mode, the nodes of a way and the members of a relation are linked as soon as the
+     * way or relation is parsed, if they have already been read. For data ordered as usual (nodes, ways,
+     * relations) only references to relations and to primitives missing in the data have to be kept
+     * until the whole input is parsed. Otherwise all references are kept and linked after parsing.
+     *
+     * @param source the source input stream. Must not be null.
+     * @param progressMonitor  the progress monitor. If null, {@link NullProgressMonitor#INSTANCE} is assumed
+     * @param streaming true to link ways and relations while parsing
+     *
+     * @return the dataset with the parsed data
+     * @throws IllegalDataException thrown if the an error was found while parsing the data from the source
+     * @throws IllegalArgumentException thrown if source is null
+     */
+    public static DataSet parseDataSet(InputStream source, ProgressMonitor progressMonitor, boolean streaming) throws IllegalDataException {
+        return new OsmReader(streaming).doParseDataSet(source, progressMonitor);
     }
 }
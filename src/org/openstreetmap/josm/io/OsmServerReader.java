@@ -32,6 +32,11 @@ public abstract class OsmServerReader extends OsmConnection {
     private OsmApi api = OsmApi.getOsmApi();
     private boolean doAuthenticate = false;
     protected boolean gpxParsedProperly;
+    /**
+     * if true, the connection may be kept open for further requests. Readers which set it
+     * must read the input stream to its end and close it.
+     */
+    protected boolean keepAlive = false;
 
     /**
      * Open a connection to the given url and return a reader on the input stream
@@ -64,8 +69,10 @@ public abstract class OsmServerReader extends OsmConnection {
             }
             try {
                 activeConnection = (HttpURLConnection)url.openConnection();
-                // fix #7640, see http://www.tikalk.com/java/forums/httpurlconnection-disable-keep-alive
-                activeConnection.setRequestProperty("Connection", "close");
+                if (!keepAlive) {
+                    // fix #7640, see http://www.tikalk.com/java/forums/httpurlconnection-disable-keep-alive
+                    activeConnection.setRequestProperty("Connection", "close");
+                }
             } catch(Exception e) {
                 throw new OsmTransferException(tr("Failed to open connection to API {0}.", url.toExternalForm()), e);
             }
@@ -7,13 +7,26 @@ import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.osm.Changeset;
 import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.io.UploadStrategySpecification;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
@@ -140,6 +153,11 @@ public class OsmServerWriter {
     /**
      * Upload all changes in one diff upload
      *
+     * The upload is pipelined: the request for the next chunk is built while a chunk is
+     * uploaded, and the diff result of a chunk is processed while the next one is uploaded.
+     * A chunk referring to new primitives of the previous chunk is built only after their
+     * ids have been assigned.
+     *
      * @param primitives the collection of primitives to upload
      * @param progressMonitor  the progress monitor
      * @param chunkSize the size of the individual upload chunks. > 0 required.
@@ -149,33 +167,148 @@ public class OsmServerWriter {
     protected void uploadChangesInChunks(Collection<? extends IPrimitive> primitives, ProgressMonitor progressMonitor, int chunkSize) throws OsmTransferException, IllegalArgumentException {
         if (chunkSize <=0)
             throw new IllegalArgumentException(tr("Value >0 expected for parameter ''{0}'', got {1}", "chunkSize", chunkSize));
+        boolean pipelined = Main.pref.getBoolean("osm-server.upload-pipelined", true);
+        ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "upload-pipeline");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<Set<IPrimitive>>> results = new ArrayList<Future<Set<IPrimitive>>>();
+        OsmTransferException failure = null;
         try {
             progressMonitor.beginTask(tr("Starting to upload in chunks..."));
-            List<IPrimitive> chunk = new ArrayList<IPrimitive>(chunkSize);
+            List<List<IPrimitive>> chunks = new ArrayList<List<IPrimitive>>();
             Iterator<? extends IPrimitive> it = primitives.iterator();
-            int numChunks = (int)Math.ceil((double)primitives.size() / (double)chunkSize);
-            int i= 0;
-            while(it.hasNext()) {
-                i++;
-                if (canceled) return;
-                int j = 0;
-                chunk.clear();
-                while(it.hasNext() && j < chunkSize) {
-                    if (canceled) return;
-                    j++;
+            while (it.hasNext()) {
+                List<IPrimitive> chunk = new ArrayList<IPrimitive>(chunkSize);
+                while (it.hasNext() && chunk.size() < chunkSize) {
                     chunk.add(it.next());
                 }
+                chunks.add(chunk);
+            }
+            Future<String> nextRequest = chunks.isEmpty() ? null : worker.submit(new DiffRequestBuilder(chunks.get(0), true));
+            for (int i = 0; i < chunks.size() && !canceled; i++) {
+                List<IPrimitive> chunk = chunks.get(i);
+                String request = waitFor(nextRequest);
+                if (request == null) {
+                    // build it after the diff result of the previous chunk is processed
+                    request = waitFor(worker.submit(new DiffRequestBuilder(chunk, true)));
+                }
+                if (pipelined && i + 1 < chunks.size()) {
+                    nextRequest = worker.submit(new DiffRequestBuilder(chunks.get(i + 1), false));
+                }
                 progressMonitor.setCustomText(
                         trn("({0}/{1}) Uploading {2} object...",
                                 "({0}/{1}) Uploading {2} objects...",
-                                chunk.size(), i, numChunks, chunk.size()));
-                processed.addAll(api.uploadDiff(chunk, progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)));
+                                chunk.size(), i + 1, chunks.size(), chunk.size()));
+                String response = api.sendDiffUploadRequest(request, progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
+                results.add(worker.submit(new DiffResultApplier(chunk, response)));
+                if (!pipelined && i + 1 < chunks.size()) {
+                    waitFor(results.get(results.size() - 1));
+                    nextRequest = worker.submit(new DiffRequestBuilder(chunks.get(i + 1), true));
+                }
             }
         } catch(OsmTransferException e) {
-            throw e;
+            failure = e;
         } finally {
+            // the diff results of the uploaded chunks are applied even if a later chunk failed
+            for (Future<Set<IPrimitive>> result : results) {
+                try {
+                    processed.addAll(waitFor(result));
+                } catch (OsmTransferException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            worker.shutdown();
             progressMonitor.finishTask();
         }
+        if (failure != null)
+            throw failure;
+    }
+
+    private static <T> T waitFor(Future<T> future) throws OsmTransferException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new OsmTransferException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof OsmTransferException)
+                throw (OsmTransferException) e.getCause();
+            throw new OsmTransferException(e.getCause());
+        }
+    }
+
+    /**
+     * Replies true if a primitive of the chunk refers to a new primitive which is not in the
+     * chunk. Its id is known only after the diff result of its chunk has been processed.
+     */
+    private static boolean refersToNewPrimitives(List<IPrimitive> chunk) {
+        Set<IPrimitive> inChunk = new HashSet<IPrimitive>(chunk);
+        for (IPrimitive p : chunk) {
+            if (p instanceof Way) {
+                for (Node n : ((Way) p).getNodes()) {
+                    if (n.isNew() && !inChunk.contains(n))
+                        return true;
+                }
+            } else if (p instanceof Relation) {
+                for (RelationMember m : ((Relation) p).getMembers()) {
+                    if (m.getMember().isNew() && !inChunk.contains(m.getMember()))
+                        return true;
+                }
+            } else if (!(p instanceof Node))
+                // primitive data, the references can't be checked
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the diff upload request of a chunk
+     */
+    private class DiffRequestBuilder implements Callable<String> {
+        private final List<IPrimitive> chunk;
+        private final boolean force;
+
+        /**
+         * @param force if false, the request is not built if the chunk refers to new primitives of other chunks
+         */
+        DiffRequestBuilder(List<IPrimitive> chunk, boolean force) {
+            this.chunk = chunk;
+            this.force = force;
+        }
+
+        public String call() throws OsmTransferException {
+            if (!force && refersToNewPrimitives(chunk))
+                return null;
+            return api.createDiffUploadRequest(chunk);
+        }
+    }
+
+    /**
+     * Parses the diff result of a chunk and assigns the new ids and versions
+     */
+    private class DiffResultApplier implements Callable<Set<IPrimitive>> {
+        private final List<IPrimitive> chunk;
+        private final String response;
+
+        DiffResultApplier(List<IPrimitive> chunk, String response) {
+            this.chunk = chunk;
+            this.response = response;
+        }
+
+        public Set<IPrimitive> call() throws OsmTransferException {
+            DiffResultProcessor reader = new DiffResultProcessor(chunk);
+            try {
+                reader.parse(response, null);
+            } catch (OsmDataParsingException e) {
+                throw new OsmTransferException(e);
+            }
+            return reader.postProcess(api.getChangeset(), null);
+        }
     }
 
     /**
@@ -14,6 +14,7 @@ import java.util.Map.Entry;
 import org.openstreetmap.josm.data.coor.CoordinateFormat;
 import org.openstreetmap.josm.data.osm.Changeset;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSetSnapshot;
 import org.openstreetmap.josm.data.osm.DataSource;
 import org.openstreetmap.josm.data.osm.INode;
 import org.openstreetmap.josm.data.osm.IPrimitive;
@@ -21,6 +22,7 @@ import org.openstreetmap.josm.data.osm.IRelation;
 import org.openstreetmap.josm.data.osm.IWay;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Tagged;
 import org.openstreetmap.josm.data.osm.Way;
@@ -90,6 +92,18 @@ public class OsmWriter extends XmlWriter implements PrimitiveVisitor {
         Collections.sort(result, byIdComparator);
         return result;
     }
+
+    protected static final Comparator<PrimitiveData> dataByIdComparator = new Comparator<PrimitiveData>() {
+        @Override public int compare(PrimitiveData o1, PrimitiveData o2) {
+            return (o1.getUniqueId()<o2.getUniqueId() ? -1 : (o1.getUniqueId()==o2.getUniqueId() ? 0 : 1));
+        }
+    };
+
+    protected <T extends PrimitiveData> Collection<T> sortDataById(Collection<T> primitives) {
+        List<T> result = new ArrayList<T>(primitives);
+        Collections.sort(result, dataByIdComparator);
+        return result;
+    }
     
     public void writeLayer(OsmDataLayer layer) {
         header(!layer.isUploadDiscouraged());
@@ -98,6 +112,37 @@ public class OsmWriter extends XmlWriter implements PrimitiveVisitor {
         footer();
     }
 
+    /**
+     * Writes a snapshot of the data of a layer. Unlike {@link #writeLayer(OsmDataLayer)}, it
+     * doesn't need the read lock of the dataset.
+     *
+     * @param snapshot the snapshot of the dataset of the layer, see {@link DataSet#getSnapshot()}
+     */
+    public void writeSnapshot(DataSetSnapshot snapshot) {
+        header(!snapshot.isUploadDiscouraged());
+        writeDataSources(snapshot.getDataSources());
+        writeContent(snapshot);
+        footer();
+    }
+
+    public void writeContent(DataSetSnapshot snapshot) {
+        for (PrimitiveData n : sortDataById(snapshot.getNodes())) {
+            if (shouldWrite(n)) {
+                visit((INode)n);
+            }
+        }
+        for (PrimitiveData w : sortDataById(snapshot.getWays())) {
+            if (shouldWrite(w)) {
+                visit((IWay)w);
+            }
+        }
+        for (PrimitiveData e : sortDataById(snapshot.getRelations())) {
+            if (shouldWrite(e)) {
+                visit((IRelation)e);
+            }
+        }
+    }
+
     public void writeContent(DataSet ds) {
         for (OsmPrimitive n : sortById(ds.getNodes())) {
             if (shouldWrite(n)) {
@@ -120,8 +165,16 @@ public class OsmWriter extends XmlWriter implements PrimitiveVisitor {
         return !osm.isNewOrUndeleted() || !osm.isDeleted();
     }
 
+    protected boolean shouldWrite(PrimitiveData osm) {
+        return !osm.isNewOrUndeleted() || !osm.isDeleted();
+    }
+
     public void writeDataSources(DataSet ds) {
-        for (DataSource s : ds.dataSources) {
+        writeDataSources(ds.dataSources);
+    }
+
+    public void writeDataSources(Collection<DataSource> dataSources) {
+        for (DataSource s : dataSources) {
             out.println("  <bounds minlat='"
                     + s.bounds.getMin().lat()+"' minlon='"
                     + s.bounds.getMin().lon()+"' maxlat='"
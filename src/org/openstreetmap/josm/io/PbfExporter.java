@@ -0,0 +1,103 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import javax.swing.JOptionPane;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.gui.ConditionalOptionPaneUtil;
+import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+
+/**
+ * Exports OSM data in the PBF binary format. The format can't hold the modified and deleted
+ * state of primitives, see {@link PbfWriter}, so the layer is only exported: it is neither
+ * associated with the file nor marked as saved.
+ */
+public class PbfExporter extends FileExporter {
+
+    public PbfExporter() {
+        super(PbfImporter.FILE_FILTER);
+    }
+
+    @Override
+    public boolean acceptFile(File pathname, Layer layer) {
+        if (!(layer instanceof OsmDataLayer))
+            return false;
+        return super.acceptFile(pathname, layer);
+    }
+
+    @Override
+    public boolean isExportOnly() {
+        return true;
+    }
+
+    @Override
+    public void exportData(File file, Layer layer) throws IOException {
+        if (!(layer instanceof OsmDataLayer))
+            throw new IllegalArgumentException(MessageFormat.format("Expected instance of OsmDataLayer. Got ''{0}''.", layer
+                    .getClass().getName()));
+        OsmDataLayer osmLayer = (OsmDataLayer) layer;
+        if (!confirmLostChanges(osmLayer))
+            return;
+        try {
+            PbfWriter w = new PbfWriter(new FileOutputStream(file));
+            osmLayer.data.getReadLock().lock();
+            try {
+                w.writeData(osmLayer.data);
+            } finally {
+                osmLayer.data.getReadLock().unlock();
+                w.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(
+                    Main.parent,
+                    tr("<html>An error occurred while exporting.<br>Error is:<br>{0}</html>", e.getMessage()),
+                    tr("Error"),
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
+    }
+
+    /**
+     * Asks the user whether to export a layer with modified or deleted primitives, which can't be
+     * represented in the PBF format.
+     *
+     * @return true if there are no such primitives or the user confirmed the export
+     */
+    protected boolean confirmLostChanges(OsmDataLayer layer) {
+        int modified = 0;
+        int deleted = 0;
+        layer.data.getReadLock().lock();
+        try {
+            for (OsmPrimitive osm : layer.data.allPrimitives()) {
+                if (osm.isDeleted()) {
+                    deleted++;
+                } else if (osm.isModified() || osm.isNew()) {
+                    modified++;
+                }
+            }
+        } finally {
+            layer.data.getReadLock().unlock();
+        }
+        if (modified == 0 && deleted == 0)
+            return true;
+        String msg = tr("<html>The PBF format cannot store which objects have been changed.<br>")
+                + (modified > 0 ? trn("{0} modified object will be exported as if unchanged.<br>",
+                        "{0} modified objects will be exported as if unchanged.<br>", modified, modified) : "")
+                + (deleted > 0 ? trn("{0} deleted object will be left out.<br>",
+                        "{0} deleted objects will be left out.<br>", deleted, deleted) : "")
+                + tr("The layer is not saved by this export. Export anyway?</html>");
+        return ConditionalOptionPaneUtil.showConfirmationDialog("pbf_export_changes", Main.parent, msg, tr("Warning"),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE, JOptionPane.OK_OPTION);
+    }
+}
@@ -0,0 +1,28 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.InputStream;
+
+import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * Imports OSM data in the PBF binary format
+ */
+public class PbfImporter extends OsmImporter {
+
+    public static final ExtensionFileFilter FILE_FILTER = new ExtensionFileFilter(
+            "osm.pbf,pbf", "osm.pbf", tr("OSM Binary Files") + " (*.osm.pbf *.pbf)");
+
+    public PbfImporter() {
+        super(FILE_FILTER);
+    }
+
+    @Override
+    protected DataSet parseDataSet(InputStream in, ProgressMonitor progressMonitor) throws IllegalDataException {
+        return PbfReader.parseDataSet(in, progressMonitor);
+    }
+}
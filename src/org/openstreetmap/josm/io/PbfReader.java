@@ -0,0 +1,735 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.NodeData;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationData;
+import org.openstreetmap.josm.data.osm.RelationMemberData;
+import org.openstreetmap.josm.data.osm.User;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.WayData;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+
+/**
+ * Reader for the OSM PBF binary format, see http://wiki.openstreetmap.org/wiki/PBF_Format.
+ *
+ * The file blocks are read sequentially and decoded in parallel. The decoded blocks are added to the
+ * dataset in file order, ways and relations are linked to the primitives read so far, see
+ * {@link AbstractReader#linkWay(Way, long, long[], int)}.
+ */
+public class PbfReader extends AbstractReader {
+
+    /** maximum size of a blob header allowed by the format */
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    /** maximum size of a blob allowed by the format */
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private static final String[] SUPPORTED_FEATURES = {"OsmSchema-V0.6", "DenseNodes"};
+
+    /** version, timestamp, changeset, uid, user_sid and visible of objects without Info. Never modified. */
+    private static final long[] NO_INFO = {0, 0, 0, 0, 0, 1};
+
+    /**
+     * constructor (for private and subclasses use only)
+     *
+     * @see #parseDataSet(InputStream, ProgressMonitor)
+     */
+    protected PbfReader() {
+    }
+
+    /**
+     * A cursor over a protocol buffer message. Only the parts of the wire format used
+     * by the OSM PBF format are supported.
+     */
+    static class ProtobufMessage {
+        private final byte[] buf;
+        private int pos;
+        private final int end;
+
+        /** the field number of the current field */
+        int field;
+        /** the wire type of the current field */
+        int wireType;
+
+        public ProtobufMessage(byte[] buf) {
+            this(buf, 0, buf.length);
+        }
+
+        public ProtobufMessage(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        /**
+         * Moves to the next field of the message.
+         * @return false, if there are no more fields
+         */
+        public boolean next() throws IllegalDataException {
+            if (pos >= end)
+                return false;
+            long tag = varint();
+            field = (int) (tag >>> 3);
+            wireType = (int) (tag & 7);
+            return true;
+        }
+
+        public long varint() throws IllegalDataException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end)
+                    throw new IllegalDataException(tr("Truncated PBF message."));
+                byte b = buf[pos++];
+                result |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                    return result;
+            }
+            throw new IllegalDataException(tr("Malformed varint in PBF message."));
+        }
+
+        public int int32() throws IllegalDataException {
+            return (int) varint();
+        }
+
+        public long sint() throws IllegalDataException {
+            return zigzag(varint());
+        }
+
+        private static long zigzag(long v) {
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private int length() throws IllegalDataException {
+            long length = varint();
+            if (length < 0 || length > end - pos)
+                throw new IllegalDataException(tr("Truncated PBF message."));
+            return (int) length;
+        }
+
+        public ProtobufMessage message() throws IllegalDataException {
+            int length = length();
+            ProtobufMessage result = new ProtobufMessage(buf, pos, length);
+            pos += length;
+            return result;
+        }
+
+        public byte[] bytes() throws IllegalDataException {
+            int length = length();
+            byte[] result = new byte[length];
+            System.arraycopy(buf, pos, result, 0, length);
+            pos += length;
+            return result;
+        }
+
+        public String string() throws IllegalDataException {
+            int length = length();
+            try {
+                String result = new String(buf, pos, length, "UTF-8");
+                pos += length;
+                return result;
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Reads a repeated varint field, packed or not.
+         * @param previous the values of previous occurrences of the field, or null
+         * @param signed true, if the values are zigzag encoded
+         */
+        public long[] varints(long[] previous, boolean signed) throws IllegalDataException {
+            long[] values;
+            if (wireType == 2) {
+                int length = length();
+                int count = 0;
+                for (int i = pos; i < pos + length; i++) {
+                    if (buf[i] >= 0) {
+                        count++;
+                    }
+                }
+                values = new long[count];
+                ProtobufMessage packed = new ProtobufMessage(buf, pos, length);
+                for (int i = 0; i < count; i++) {
+                    values[i] = signed ? packed.sint() : packed.varint();
+                }
+                pos += length;
+            } else {
+                values = new long[] {signed ? sint() : varint()};
+            }
+            if (previous == null)
+                return values;
+            long[] result = new long[previous.length + values.length];
+            System.arraycopy(previous, 0, result, 0, previous.length);
+            System.arraycopy(values, 0, result, previous.length, values.length);
+            return result;
+        }
+
+        public void skip() throws IllegalDataException {
+            switch (wireType) {
+            case 0: varint(); break;
+            case 1: pos += 8; break;
+            case 2: pos += length(); break;
+            case 5: pos += 4; break;
+            default: throw new IllegalDataException(tr("Unsupported wire type {0} in PBF message.", wireType));
+            }
+        }
+    }
+
+    /**
+     * A decoded primitive, users are created when the block is added to the data set
+     */
+    private static class DecodedPrimitive {
+        private final PrimitiveData data;
+        private long uid;
+        private String userName;
+        private long[] nodeIds;
+        private List<RelationMemberData> members;
+
+        public DecodedPrimitive(PrimitiveData data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Decodes a PrimitiveBlock. Runs in a worker thread, must not touch the data set.
+     */
+    private static class BlockDecoder implements Callable<List<DecodedPrimitive>> {
+        private final byte[] blob;
+
+        private String[] strings;
+        private long granularity = 100;
+        private long latOffset;
+        private long lonOffset;
+        private long dateGranularity = 1000;
+
+        public BlockDecoder(byte[] blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public List<DecodedPrimitive> call() throws IllegalDataException {
+            ProtobufMessage block = new ProtobufMessage(uncompress(blob));
+            List<ProtobufMessage> groups = new ArrayList<ProtobufMessage>();
+            while (block.next()) {
+                switch (block.field) {
+                case 1: readStringTable(block.message()); break;
+                case 2: groups.add(block.message()); break;
+                case 17: granularity = block.varint(); break;
+                case 18: dateGranularity = block.varint(); break;
+                case 19: latOffset = block.varint(); break;
+                case 20: lonOffset = block.varint(); break;
+                default: block.skip();
+                }
+            }
+            if (strings == null)
+                throw new IllegalDataException(tr("Missing string table in PBF block."));
+            List<DecodedPrimitive> result = new ArrayList<DecodedPrimitive>();
+            for (ProtobufMessage group : groups) {
+                while (group.next()) {
+                    switch (group.field) {
+                    case 1: result.add(readNode(group.message())); break;
+                    case 2: readDenseNodes(group.message(), result); break;
+                    case 3: result.add(readWay(group.message())); break;
+                    case 4: result.add(readRelation(group.message())); break;
+                    default: group.skip();
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void readStringTable(ProtobufMessage table) throws IllegalDataException {
+            List<String> result = new ArrayList<String>();
+            while (table.next()) {
+                if (table.field == 1) {
+                    result.add(table.string().intern());
+                } else {
+                    table.skip();
+                }
+            }
+            strings = result.toArray(new String[result.size()]);
+        }
+
+        private String getString(long index) throws IllegalDataException {
+            if (index < 0 || index >= strings.length)
+                throw new IllegalDataException(tr("Illegal string table index {0} in PBF block.", index));
+            return strings[(int) index];
+        }
+
+        private LatLon getLatLon(long lat, long lon) {
+            return new LatLon(.000000001 * (latOffset + granularity * lat), .000000001 * (lonOffset + granularity * lon));
+        }
+
+        private void setCommon(DecodedPrimitive p, long id, long version, long timestamp, long changeset, long uid, long userSid,
+                boolean visible) throws IllegalDataException {
+            if (id == 0)
+                throw new IllegalDataException(tr("Illegal object with ID=0."));
+            // like OsmReader, reject objects from the server without version, e.g. from blocks without Info
+            if (id > 0 && version <= 0)
+                throw new IllegalDataException(tr("Missing attribute ''version'' on OSM primitive with ID {0}.", Long.toString(id)));
+            p.data.setId(id);
+            p.data.setVersion((int) version);
+            if (timestamp != 0) {
+                p.data.setTimestamp(new Date(timestamp * dateGranularity));
+            }
+            p.data.setChangesetId((int) changeset);
+            p.data.setVisible(visible);
+            p.uid = uid;
+            p.userName = userSid > 0 ? getString(userSid) : null;
+        }
+
+        private void setTags(DecodedPrimitive p, long[] keys, long[] values) throws IllegalDataException {
+            if (keys == null)
+                return;
+            if (values == null || keys.length != values.length)
+                throw new IllegalDataException(tr("Number of keys and values differ in PBF block."));
+            for (int i = 0; i < keys.length; i++) {
+                p.data.put(getString(keys[i]), getString(values[i]));
+            }
+        }
+
+        /**
+         * Reads an Info message
+         * @return version, timestamp, changeset, uid, user_sid, visible
+         */
+        private long[] readInfo(ProtobufMessage info) throws IllegalDataException {
+            long[] result = NO_INFO.clone();
+            while (info.next()) {
+                switch (info.field) {
+                case 1: result[0] = info.int32(); break;
+                case 2: result[1] = info.varint(); break;
+                case 3: result[2] = info.varint(); break;
+                case 4: result[3] = info.int32(); break;
+                case 5: result[4] = info.int32(); break;
+                case 6: result[5] = info.varint(); break;
+                default: info.skip();
+                }
+            }
+            return result;
+        }
+
+        private DecodedPrimitive readNode(ProtobufMessage node) throws IllegalDataException {
+            DecodedPrimitive p = new DecodedPrimitive(new NodeData());
+            long id = 0, lat = 0, lon = 0;
+            long[] keys = null, values = null, info = NO_INFO;
+            while (node.next()) {
+                switch (node.field) {
+                case 1: id = node.sint(); break;
+                case 2: keys = node.varints(keys, false); break;
+                case 3: values = node.varints(values, false); break;
+                case 4: info = readInfo(node.message()); break;
+                case 8: lat = node.sint(); break;
+                case 9: lon = node.sint(); break;
+                default: node.skip();
+                }
+            }
+            setCommon(p, id, info[0], info[1], info[2], info[3], info[4], info[5] != 0);
+            setTags(p, keys, values);
+            ((NodeData) p.data).setCoor(getLatLon(lat, lon));
+            return p;
+        }
+
+        private void readDenseNodes(ProtobufMessage dense, List<DecodedPrimitive> result) throws IllegalDataException {
+            long[] ids = null, lats = null, lons = null, keysVals = null;
+            long[] versions = null, timestamps = null, changesets = null, uids = null, userSids = null, visibles = null;
+            while (dense.next()) {
+                switch (dense.field) {
+                case 1: ids = dense.varints(ids, true); break;
+                case 5:
+                    ProtobufMessage info = dense.message();
+                    while (info.next()) {
+                        switch (info.field) {
+                        case 1: versions = info.varints(versions, false); break;
+                        case 2: timestamps = info.varints(timestamps, true); break;
+                        case 3: changesets = info.varints(changesets, true); break;
+                        case 4: uids = info.varints(uids, true); break;
+                        case 5: userSids = info.varints(userSids, true); break;
+                        case 6: visibles = info.varints(visibles, false); break;
+                        default: info.skip();
+                        }
+                    }
+                    break;
+                case 8: lats = dense.varints(lats, true); break;
+                case 9: lons = dense.varints(lons, true); break;
+                case 10: keysVals = dense.varints(keysVals, false); break;
+                default: dense.skip();
+                }
+            }
+            if (ids == null)
+                return;
+            if (lats == null || lons == null || lats.length != ids.length || lons.length != ids.length)
+                throw new IllegalDataException(tr("Number of ids and coordinates differ in PBF dense nodes."));
+            // each of the info arrays is optional
+            for (long[] values : new long[][] {versions, timestamps, changesets, uids, userSids, visibles}) {
+                if (values != null && values.length != ids.length)
+                    throw new IllegalDataException(tr("Number of ids and infos differ in PBF dense nodes."));
+            }
+            long id = 0, lat = 0, lon = 0, timestamp = 0, changeset = 0, uid = 0, userSid = 0;
+            int kv = 0;
+            for (int i = 0; i < ids.length; i++) {
+                id += ids[i];
+                lat += lats[i];
+                lon += lons[i];
+                DecodedPrimitive p = new DecodedPrimitive(new NodeData());
+                if (timestamps != null) {
+                    timestamp += timestamps[i];
+                }
+                if (changesets != null) {
+                    changeset += changesets[i];
+                }
+                if (uids != null) {
+                    uid += uids[i];
+                }
+                if (userSids != null) {
+                    userSid += userSids[i];
+                }
+                setCommon(p, id, versions != null ? versions[i] : 0, timestamp, changeset, uid, userSid,
+                        visibles == null || visibles[i] != 0);
+                ((NodeData) p.data).setCoor(getLatLon(lat, lon));
+                if (keysVals != null) {
+                    while (kv < keysVals.length && keysVals[kv] != 0) {
+                        if (kv + 1 >= keysVals.length)
+                            throw new IllegalDataException(tr("Number of keys and values differ in PBF block."));
+                        p.data.put(getString(keysVals[kv]), getString(keysVals[kv + 1]));
+                        kv += 2;
+                    }
+                    kv++;
+                }
+                result.add(p);
+            }
+        }
+
+        private DecodedPrimitive readWay(ProtobufMessage way) throws IllegalDataException {
+            DecodedPrimitive p = new DecodedPrimitive(new WayData());
+            long id = 0;
+            long[] keys = null, values = null, refs = null, info = NO_INFO;
+            while (way.next()) {
+                switch (way.field) {
+                case 1: id = way.varint(); break;
+                case 2: keys = way.varints(keys, false); break;
+                case 3: values = way.varints(values, false); break;
+                case 4: info = readInfo(way.message()); break;
+                case 8: refs = way.varints(refs, true); break;
+                default: way.skip();
+                }
+            }
+            setCommon(p, id, info[0], info[1], info[2], info[3], info[4], info[5] != 0);
+            setTags(p, keys, values);
+            p.nodeIds = refs == null ? new long[0] : refs;
+            long ref = 0;
+            for (int i = 0; i < p.nodeIds.length; i++) {
+                ref += p.nodeIds[i];
+                if (ref == 0)
+                    throw new IllegalDataException(tr("Illegal value of attribute ''ref'' of element <nd>. Got {0}.", ref));
+                p.nodeIds[i] = ref;
+            }
+            return p;
+        }
+
+        private DecodedPrimitive readRelation(ProtobufMessage relation) throws IllegalDataException {
+            DecodedPrimitive p = new DecodedPrimitive(new RelationData());
+            long id = 0;
+            long[] keys = null, values = null, roles = null, memberIds = null, types = null, info = NO_INFO;
+            while (relation.next()) {
+                switch (relation.field) {
+                case 1: id = relation.varint(); break;
+                case 2: keys = relation.varints(keys, false); break;
+                case 3: values = relation.varints(values, false); break;
+                case 4: info = readInfo(relation.message()); break;
+                case 8: roles = relation.varints(roles, false); break;
+                case 9: memberIds = relation.varints(memberIds, true); break;
+                case 10: types = relation.varints(types, false); break;
+                default: relation.skip();
+                }
+            }
+            setCommon(p, id, info[0], info[1], info[2], info[3], info[4], info[5] != 0);
+            setTags(p, keys, values);
+            p.members = new ArrayList<RelationMemberData>();
+            if (memberIds != null) {
+                if (roles == null || types == null || roles.length != memberIds.length || types.length != memberIds.length)
+                    throw new IllegalDataException(tr("Number of member ids, roles and types differ in PBF relation {0}.", id));
+                long memberId = 0;
+                for (int i = 0; i < memberIds.length; i++) {
+                    memberId += memberIds[i];
+                    if (memberId == 0)
+                        throw new IllegalDataException(tr("Incomplete <member> specification with ref=0"));
+                    OsmPrimitiveType type;
+                    switch ((int) types[i]) {
+                    case 0: type = OsmPrimitiveType.NODE; break;
+                    case 1: type = OsmPrimitiveType.WAY; break;
+                    case 2: type = OsmPrimitiveType.RELATION; break;
+                    default: throw new IllegalDataException(tr("Illegal member type {0} in PBF relation {1}.", types[i], id));
+                    }
+                    p.members.add(new RelationMemberData(getString(roles[i]), type, memberId));
+                }
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Replies the content of a Blob message
+     */
+    private static byte[] uncompress(byte[] blob) throws IllegalDataException {
+        ProtobufMessage m = new ProtobufMessage(blob);
+        byte[] raw = null;
+        byte[] zlib = null;
+        int rawSize = -1;
+        while (m.next()) {
+            switch (m.field) {
+            case 1: raw = m.bytes(); break;
+            case 2: rawSize = m.int32(); break;
+            case 3: zlib = m.bytes(); break;
+            case 4:
+            case 5:
+            case 6:
+            case 7:
+                throw new IllegalDataException(tr("Unsupported compression in PBF file."));
+            default: m.skip();
+            }
+        }
+        if (raw != null)
+            return raw;
+        if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE)
+            throw new IllegalDataException(tr("Invalid blob in PBF file."));
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlib);
+            byte[] result = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(result, length, rawSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += n;
+            }
+            if (length != rawSize)
+                throw new IllegalDataException(tr("Invalid blob in PBF file."));
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalDataException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readHeader(byte[] blob) throws IllegalDataException {
+        ProtobufMessage header = new ProtobufMessage(uncompress(blob));
+        Bounds bounds = null;
+        String origin = null;
+        while (header.next()) {
+            switch (header.field) {
+            case 1:
+                ProtobufMessage bbox = header.message();
+                long left = 0, right = 0, top = 0, bottom = 0;
+                while (bbox.next()) {
+                    switch (bbox.field) {
+                    case 1: left = bbox.sint(); break;
+                    case 2: right = bbox.sint(); break;
+                    case 3: top = bbox.sint(); break;
+                    case 4: bottom = bbox.sint(); break;
+                    default: bbox.skip();
+                    }
+                }
+                bounds = new Bounds(bottom * .000000001, left * .000000001, top * .000000001, right * .000000001);
+                break;
+            case 4:
+                String feature = header.string();
+                boolean supported = false;
+                for (String f : SUPPORTED_FEATURES) {
+                    supported |= f.equals(feature);
+                }
+                if (!supported)
+                    throw new IllegalDataException(tr("PBF file requires unsupported feature ''{0}''.", feature));
+                break;
+            case 16:
+                if (origin == null) {
+                    origin = header.string();
+                } else {
+                    header.skip();
+                }
+                break;
+            case 17: origin = header.string(); break;
+            default: header.skip();
+            }
+        }
+        if (bounds != null) {
+            ds.dataSources.add(new DataSource(bounds, origin));
+        }
+    }
+
+    /**
+     * Adds a decoded block to the data set, in file order
+     */
+    private void addBlock(List<DecodedPrimitive> block) {
+        for (DecodedPrimitive p : block) {
+            PrimitiveData data = p.data;
+            if (p.uid > 0) {
+                data.setUser(User.createOsmUser(p.uid, p.userName));
+            } else if (p.userName != null) {
+                data.setUser(User.createLocalUser(p.userName));
+            }
+            if (data instanceof NodeData) {
+                Node n = new Node(data.getId(), data.getVersion());
+                n.load(data);
+                n.setVisible(data.isVisible());
+                externalIdMap.put(data.getPrimitiveId(), n);
+            } else if (data instanceof WayData) {
+                Way w = new Way(data.getId(), data.getVersion());
+                w.load(data);
+                w.setVisible(data.isVisible());
+                externalIdMap.put(data.getPrimitiveId(), w);
+                linkWay(w, data.getUniqueId(), p.nodeIds, p.nodeIds.length);
+            } else {
+                Relation r = new Relation(data.getId(), data.getVersion());
+                r.load(data);
+                r.setVisible(data.isVisible());
+                externalIdMap.put(data.getPrimitiveId(), r);
+                linkRelation(r, data.getUniqueId(), p.members);
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length, int maxLength) throws IOException, IllegalDataException {
+        if (length < 0 || length > maxLength)
+            throw new IllegalDataException(tr("Invalid block size {0} in PBF file.", length));
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+
+    private static ExecutorService createDecoderPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "pbf-decoder-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static List<DecodedPrimitive> getDecodedBlock(Future<List<DecodedPrimitive>> future) throws IllegalDataException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalDataException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalDataException)
+                throw (IllegalDataException) e.getCause();
+            throw new IllegalDataException(e.getCause());
+        }
+    }
+
+    private void parse(InputStream source) throws IOException, IllegalDataException {
+        ds.setVersion("0.6");
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = createDecoderPool(threads);
+        try {
+            // blocks are decoded in parallel, but not more than a few ahead of the block added to the data set
+            LinkedList<Future<List<DecodedPrimitive>>> pending = new LinkedList<Future<List<DecodedPrimitive>>>();
+            DataInputStream in = new DataInputStream(source);
+            while (true) {
+                int headerLength;
+                try {
+                    headerLength = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                ProtobufMessage blobHeader = new ProtobufMessage(readBytes(in, headerLength, MAX_BLOB_HEADER_SIZE));
+                String type = null;
+                int dataSize = -1;
+                while (blobHeader.next()) {
+                    switch (blobHeader.field) {
+                    case 1: type = blobHeader.string(); break;
+                    case 3: dataSize = blobHeader.int32(); break;
+                    default: blobHeader.skip();
+                    }
+                }
+                byte[] blob = readBytes(in, dataSize, MAX_BLOB_SIZE);
+                if ("OSMHeader".equals(type)) {
+                    readHeader(blob);
+                } else if ("OSMData".equals(type)) {
+                    pending.add(pool.submit(new BlockDecoder(blob)));
+                    if (pending.size() > 2 * threads) {
+                        addBlock(getDecodedBlock(pending.removeFirst()));
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                addBlock(getDecodedBlock(pending.removeFirst()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    protected DataSet doParseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+        if (progressMonitor == null) {
+            progressMonitor = NullProgressMonitor.INSTANCE;
+        }
+        CheckParameterUtil.ensureParameterNotNull(source, "source");
+        try {
+            progressMonitor.beginTask(tr("Prepare OSM data..."), 2);
+            progressMonitor.indeterminateSubTask(tr("Parsing OSM data..."));
+            parse(source);
+            progressMonitor.worked(1);
+
+            progressMonitor.indeterminateSubTask(tr("Preparing data set..."));
+            prepareDataSet();
+            progressMonitor.worked(1);
+            return getDataSet();
+        } catch (IllegalDataException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalDataException(e);
+        } finally {
+            progressMonitor.finishTask();
+        }
+    }
+
+    /**
+     * Parse the given PBF input source and return the dataset.
+     *
+     * @param source the source input stream. Must not be null.
+     * @param progressMonitor  the progress monitor. If null, {@link NullProgressMonitor#INSTANCE} is assumed
+     *
+     * @return the dataset with the parsed data
+     * @throws IllegalDataException thrown if the an error was found while parsing the data from the source
+     * @throws IllegalArgumentException thrown if source is null
+     */
+    public static DataSet parseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+        return new PbfReader().doParseDataSet(source, progressMonitor);
+    }
+}
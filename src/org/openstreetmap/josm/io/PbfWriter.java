@@ -0,0 +1,391 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Writes a data set in the OSM PBF binary format, see http://wiki.openstreetmap.org/wiki/PBF_Format.
+ *
+ * The format has no notion of modified or deleted primitives. Deleted, invisible and incomplete
+ * primitives are not written, all other primitives are written as they are.
+ */
+public class PbfWriter {
+
+    /** number of primitives per block, as recommended by the format */
+    private static final int BLOCK_SIZE = 8000;
+    /** coordinates are written with a precision of 100 nanodegrees */
+    private static final long GRANULARITY = 100;
+
+    private final DataOutputStream out;
+
+    public PbfWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * A buffer for a protocol buffer message. Only the parts of the wire format used by the
+     * OSM PBF format are supported.
+     */
+    static class ProtobufOutput extends ByteArrayOutputStream {
+
+        public void varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        private void tag(int field, int wireType) {
+            varint((field << 3) | wireType);
+        }
+
+        public void varintField(int field, long value) {
+            tag(field, 0);
+            varint(value);
+        }
+
+        public void sintField(int field, long value) {
+            tag(field, 0);
+            varint(zigzag(value));
+        }
+
+        public void bytesField(int field, byte[] bytes) {
+            tag(field, 2);
+            varint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        public void stringField(int field, String s) {
+            bytesField(field, utf8(s));
+        }
+
+        public void messageField(int field, ProtobufOutput message) {
+            tag(field, 2);
+            varint(message.size());
+            write(message.buf, 0, message.count);
+        }
+
+        /**
+         * Writes a packed repeated varint field
+         * @param delta true, if the differences between the values are written (zigzag encoded)
+         */
+        public void packedField(int field, long[] values, int count, boolean delta) {
+            if (count == 0)
+                return;
+            ProtobufOutput packed = new ProtobufOutput();
+            long last = 0;
+            for (int i = 0; i < count; i++) {
+                if (delta) {
+                    packed.varint(zigzag(values[i] - last));
+                    last = values[i];
+                } else {
+                    packed.varint(values[i]);
+                }
+            }
+            messageField(field, packed);
+        }
+
+        private static byte[] utf8(String s) {
+            try {
+                return s.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * The string table of a block. Index 0 is the empty string, it is used as delimiter.
+     */
+    static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+
+        public StringTable() {
+            get("");
+        }
+
+        public int get(String s) {
+            Integer index = indexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(s, index);
+                strings.add(s);
+            }
+            return index;
+        }
+
+        public ProtobufOutput write() {
+            ProtobufOutput table = new ProtobufOutput();
+            for (String s : strings) {
+                table.stringField(1, s);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Collects the values of a packed field
+     */
+    private static class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        public void add(long value) {
+            if (size == values.length) {
+                long[] bigger = new long[size * 2];
+                System.arraycopy(values, 0, bigger, 0, size);
+                values = bigger;
+            }
+            values[size++] = value;
+        }
+    }
+
+    protected boolean shouldWrite(OsmPrimitive osm) {
+        return !osm.isDeleted() && osm.isVisible() && !osm.isIncomplete();
+    }
+
+    private void writeBlob(String type, ProtobufOutput content) throws IOException {
+        byte[] raw = content.toByteArray();
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 16);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buf = new byte[65536];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                compressed.write(buf, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        ProtobufOutput blob = new ProtobufOutput();
+        blob.varintField(2, raw.length);
+        blob.bytesField(3, compressed.toByteArray());
+
+        ProtobufOutput header = new ProtobufOutput();
+        header.stringField(1, type);
+        header.varintField(3, blob.size());
+
+        out.writeInt(header.size());
+        header.writeTo(out);
+        blob.writeTo(out);
+    }
+
+    private static long nanoDegrees(double degrees) {
+        return Math.round(degrees * 1000000000.0);
+    }
+
+    public void writeHeader(DataSet ds) throws IOException {
+        ProtobufOutput header = new ProtobufOutput();
+        Bounds bounds = null;
+        for (DataSource s : ds.dataSources) {
+            if (bounds == null) {
+                bounds = new Bounds(s.bounds);
+            } else {
+                bounds.extend(s.bounds);
+            }
+        }
+        if (bounds != null) {
+            ProtobufOutput bbox = new ProtobufOutput();
+            bbox.sintField(1, nanoDegrees(bounds.getMin().lon()));
+            bbox.sintField(2, nanoDegrees(bounds.getMax().lon()));
+            bbox.sintField(3, nanoDegrees(bounds.getMax().lat()));
+            bbox.sintField(4, nanoDegrees(bounds.getMin().lat()));
+            header.messageField(1, bbox);
+        }
+        header.stringField(4, "OsmSchema-V0.6");
+        header.stringField(4, "DenseNodes");
+        header.stringField(16, "JOSM");
+        writeBlob("OSMHeader", header);
+    }
+
+    private static long getUid(OsmPrimitive osm) {
+        return osm.getUser() == null ? 0 : osm.getUser().getId();
+    }
+
+    private static int getUserSid(OsmPrimitive osm, StringTable strings) {
+        return osm.getUser() == null ? 0 : strings.get(osm.getUser().getName());
+    }
+
+    private static long getTimestamp(OsmPrimitive osm) {
+        return osm.isTimestampEmpty() ? 0 : osm.getTimestamp().getTime() / 1000;
+    }
+
+    private static ProtobufOutput createInfo(OsmPrimitive osm, StringTable strings) {
+        ProtobufOutput info = new ProtobufOutput();
+        info.varintField(1, osm.getVersion());
+        info.varintField(2, getTimestamp(osm));
+        info.varintField(3, osm.getChangesetId());
+        info.varintField(4, getUid(osm));
+        info.varintField(5, getUserSid(osm, strings));
+        return info;
+    }
+
+    void writeBlock(StringTable strings, ProtobufOutput group) throws IOException {
+        ProtobufOutput block = new ProtobufOutput();
+        block.messageField(1, strings.write());
+        block.messageField(2, group);
+        block.varintField(17, GRANULARITY);
+        writeBlob("OSMData", block);
+    }
+
+    private void writeNodes(List<Node> nodes) throws IOException {
+        StringTable strings = new StringTable();
+        LongList ids = new LongList(), lats = new LongList(), lons = new LongList(), keysVals = new LongList();
+        LongList versions = new LongList(), timestamps = new LongList(), changesets = new LongList();
+        LongList uids = new LongList(), userSids = new LongList();
+        boolean tagged = false;
+        for (Node n : nodes) {
+            ids.add(n.getUniqueId());
+            LatLon coor = n.getCoor();
+            lats.add(Math.round(coor.lat() * 1000000000.0 / GRANULARITY));
+            lons.add(Math.round(coor.lon() * 1000000000.0 / GRANULARITY));
+            versions.add(n.getVersion());
+            timestamps.add(getTimestamp(n));
+            changesets.add(n.getChangesetId());
+            uids.add(getUid(n));
+            userSids.add(getUserSid(n, strings));
+            for (Map.Entry<String, String> e : n.getKeys().entrySet()) {
+                keysVals.add(strings.get(e.getKey()));
+                keysVals.add(strings.get(e.getValue()));
+                tagged = true;
+            }
+            keysVals.add(0);
+        }
+        ProtobufOutput info = new ProtobufOutput();
+        info.packedField(1, versions.values, versions.size, false);
+        info.packedField(2, timestamps.values, timestamps.size, true);
+        info.packedField(3, changesets.values, changesets.size, true);
+        info.packedField(4, uids.values, uids.size, true);
+        info.packedField(5, userSids.values, userSids.size, true);
+
+        ProtobufOutput dense = new ProtobufOutput();
+        dense.packedField(1, ids.values, ids.size, true);
+        dense.messageField(5, info);
+        dense.packedField(8, lats.values, lats.size, true);
+        dense.packedField(9, lons.values, lons.size, true);
+        if (tagged) {
+            dense.packedField(10, keysVals.values, keysVals.size, false);
+        }
+        ProtobufOutput group = new ProtobufOutput();
+        group.messageField(2, dense);
+        writeBlock(strings, group);
+    }
+
+    private static void writeTags(OsmPrimitive osm, ProtobufOutput m, StringTable strings) {
+        LongList keys = new LongList(), values = new LongList();
+        for (Map.Entry<String, String> e : osm.getKeys().entrySet()) {
+            keys.add(strings.get(e.getKey()));
+            values.add(strings.get(e.getValue()));
+        }
+        m.packedField(2, keys.values, keys.size, false);
+        m.packedField(3, values.values, values.size, false);
+    }
+
+    private void writeWays(List<Way> ways) throws IOException {
+        StringTable strings = new StringTable();
+        ProtobufOutput group = new ProtobufOutput();
+        for (Way w : ways) {
+            ProtobufOutput way = new ProtobufOutput();
+            way.varintField(1, w.getUniqueId());
+            writeTags(w, way, strings);
+            way.messageField(4, createInfo(w, strings));
+            LongList refs = new LongList();
+            for (Node n : w.getNodes()) {
+                refs.add(n.getUniqueId());
+            }
+            way.packedField(8, refs.values, refs.size, true);
+            group.messageField(3, way);
+        }
+        writeBlock(strings, group);
+    }
+
+    private void writeRelations(List<Relation> relations) throws IOException {
+        StringTable strings = new StringTable();
+        ProtobufOutput group = new ProtobufOutput();
+        for (Relation r : relations) {
+            ProtobufOutput relation = new ProtobufOutput();
+            relation.varintField(1, r.getUniqueId());
+            writeTags(r, relation, strings);
+            relation.messageField(4, createInfo(r, strings));
+            LongList roles = new LongList(), memberIds = new LongList(), types = new LongList();
+            for (RelationMember m : r.getMembers()) {
+                roles.add(strings.get(m.getRole()));
+                memberIds.add(m.getUniqueId());
+                types.add(m.isNode() ? 0 : m.isWay() ? 1 : 2);
+            }
+            relation.packedField(8, roles.values, roles.size, false);
+            relation.packedField(9, memberIds.values, memberIds.size, true);
+            relation.packedField(10, types.values, types.size, false);
+            group.messageField(4, relation);
+        }
+        writeBlock(strings, group);
+    }
+
+    private <T extends OsmPrimitive> List<T> sortById(Collection<T> primitives) {
+        List<T> result = new ArrayList<T>(primitives.size());
+        for (T osm : primitives) {
+            if (shouldWrite(osm)) {
+                result.add(osm);
+            }
+        }
+        Collections.sort(result, OsmWriter.byIdComparator);
+        return result;
+    }
+
+    public void writeContent(DataSet ds) throws IOException {
+        List<Node> nodes = sortById(ds.getNodes());
+        for (int i = 0; i < nodes.size(); i += BLOCK_SIZE) {
+            writeNodes(nodes.subList(i, Math.min(nodes.size(), i + BLOCK_SIZE)));
+        }
+        List<Way> ways = sortById(ds.getWays());
+        for (int i = 0; i < ways.size(); i += BLOCK_SIZE) {
+            writeWays(ways.subList(i, Math.min(ways.size(), i + BLOCK_SIZE)));
+        }
+        List<Relation> relations = sortById(ds.getRelations());
+        for (int i = 0; i < relations.size(); i += BLOCK_SIZE) {
+            writeRelations(relations.subList(i, Math.min(relations.size(), i + BLOCK_SIZE)));
+        }
+    }
+
+    /**
+     * Writes the header and the content of a data set
+     */
+    public void writeData(DataSet ds) throws IOException {
+        writeHeader(ds);
+        writeContent(ds);
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
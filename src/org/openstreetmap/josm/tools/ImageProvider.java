@@ -29,8 +29,8 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
@@ -105,7 +105,7 @@ public class ImageProvider {
     /**
      * The icon cache
      */
-    private static Map<String, ImageResource> cache = new HashMap<String, ImageResource>();
+    private static Map<String, ImageResource> cache = new ConcurrentHashMap<String, ImageResource>();
 
     private final static ExecutorService imageFetcher = Executors.newSingleThreadExecutor();
 
@@ -353,8 +353,10 @@ public class ImageProvider {
                             ? Base64.decodeBase64(data)
                             : URLDecoder.decode(data, "utf-8").getBytes();
                     if (mediatype != null && mediatype.contains("image/svg+xml")) {
-                        URI uri = getSvgUniverse().loadSVG(new StringReader(new String(bytes)), name);
-                        return new ImageResource(getSvgUniverse().getDiagram(uri));
+                        synchronized (getSvgUniverse()) {
+                            URI uri = getSvgUniverse().loadSVG(new StringReader(new String(bytes)), name);
+                            return new ImageResource(getSvgUniverse().getDiagram(uri));
+                        }
                     } else {
                         try {
                             return new ImageResource(ImageIO.read(new ByteArrayInputStream(bytes)));
@@ -461,8 +463,11 @@ public class ImageProvider {
                     new File(Main.pref.getCacheDirectory(), "images").getPath());
             switch (type) {
                 case SVG:
-                    URI uri = getSvgUniverse().loadSVG(is, is.getFile().toURI().toURL().toString());
-                    SVGDiagram svg = getSvgUniverse().getDiagram(uri);
+                    SVGDiagram svg;
+                    synchronized (getSvgUniverse()) {
+                        URI uri = getSvgUniverse().loadSVG(is, is.getFile().toURI().toURL().toString());
+                        svg = getSvgUniverse().getDiagram(uri);
+                    }
                     return svg == null ? null : new ImageResource(svg);
                 case OTHER:
                     BufferedImage img = null;
@@ -524,8 +529,11 @@ public class ImageProvider {
                     is = zipFile.getInputStream(entry);
                     switch (type) {
                         case SVG:
-                            URI uri = getSvgUniverse().loadSVG(is, full_name);
-                            SVGDiagram svg = getSvgUniverse().getDiagram(uri);
+                            SVGDiagram svg;
+                            synchronized (getSvgUniverse()) {
+                                URI uri = getSvgUniverse().loadSVG(is, full_name);
+                                svg = getSvgUniverse().getDiagram(uri);
+                            }
                             return svg == null ? null : new ImageResource(svg);
                         case OTHER:
                             while(size > 0)
@@ -564,8 +572,11 @@ public class ImageProvider {
     private static ImageResource getIfAvailableLocalURL(URL path, ImageType type) {
         switch (type) {
             case SVG:
-                URI uri = getSvgUniverse().loadSVG(path);
-                SVGDiagram svg = getSvgUniverse().getDiagram(uri);
+                SVGDiagram svg;
+                synchronized (getSvgUniverse()) {
+                    URI uri = getSvgUniverse().loadSVG(path);
+                    svg = getSvgUniverse().getDiagram(uri);
+                }
                 return svg == null ? null : new ImageResource(svg);
             case OTHER:
                 BufferedImage img = null;
@@ -867,14 +878,16 @@ public class ImageProvider {
         }
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         try {
-            svg.render(g);
+            synchronized (getSvgUniverse()) {
+                svg.render(g);
+            }
         } catch (SVGException ex) {
             return null;
         }
         return img;
     }
 
-    private static SVGUniverse getSvgUniverse() {
+    private static synchronized SVGUniverse getSvgUniverse() {
         if (svgUniverse == null) {
             svgUniverse = new SVGUniverse();
         }
@@ -19,7 +19,8 @@ import javax.swing.ImageIcon;
 class ImageResource {
     
     /**
-     * Caches the image data for resized versions of the same image.
+     * Caches the image data for resized versions of the same image. Guarded by this resource,
+     * as resources are shared between the threads computing styles.
      */
     private HashMap<Dimension, BufferedImage> imgCache = new HashMap<Dimension, BufferedImage>();
     private SVGDiagram svg;
@@ -45,7 +46,7 @@ class ImageResource {
      *          and (width, -1) to set the width, but otherwise scale the image
      *          proportionally.
      */
-    public ImageIcon getImageIcon(Dimension dim) {
+    public synchronized ImageIcon getImageIcon(Dimension dim) {
         if (dim.width < -1 || dim.width == 0 || dim.height < -1 || dim.height == 0)
             throw new IllegalArgumentException();
         BufferedImage img = imgCache.get(dim);
@@ -83,7 +84,7 @@ class ImageResource {
      * @param maxSize The maximum size. One of the dimensions (widht or height) can be -1,
      * which means it is not bounded.
      */
-    public ImageIcon getImageIconBounded(Dimension maxSize) {
+    public synchronized ImageIcon getImageIconBounded(Dimension maxSize) {
         if (maxSize.width < -1 || maxSize.width == 0 || maxSize.height < -1 || maxSize.height == 0)
             throw new IllegalArgumentException();
         float realWidth;
@@ -34,6 +34,7 @@ public class MapPaintVisitorPerformanceTest {
         Main.setProjection(new Mercator());
         img = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
         g = (Graphics2D)img.getGraphics();
+        g.setClip(0, 0, IMG_WIDTH, IMG_HEIGHT);
         nc = new NavigatableComponent();
         nc.setBounds(0, 0, IMG_WIDTH, IMG_HEIGHT);
 
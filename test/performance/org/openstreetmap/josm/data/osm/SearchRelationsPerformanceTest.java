@@ -0,0 +1,91 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Mercator;
+
+/**
+ * Measures {@link DataSet#searchRelations(BBox)} against the number of relations in the dataset
+ * and compares it with a linear scan over all relations.
+ */
+public class SearchRelationsPerformanceTest {
+
+    private static final int SEARCH_ITERATIONS = 500;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    private static DataSet createDataSet(int relationCount) {
+        Random random = new Random(42);
+        DataSet ds = new DataSet();
+        for (int i=0; i<relationCount; i++) {
+            double lat = random.nextDouble() * 10 + 45;
+            double lon = random.nextDouble() * 10 + 5;
+            Node n1 = new Node(new LatLon(lat, lon));
+            Node n2 = new Node(new LatLon(lat + 0.01, lon + 0.01));
+            ds.addPrimitive(n1);
+            ds.addPrimitive(n2);
+            Way w = new Way();
+            w.setNodes(Arrays.asList(n1, n2));
+            ds.addPrimitive(w);
+            Relation r = new Relation();
+            r.addMember(new RelationMember("", w));
+            ds.addPrimitive(r);
+        }
+        return ds;
+    }
+
+    private static List<Relation> linearSearch(DataSet ds, BBox bbox) {
+        List<Relation> result = new ArrayList<Relation>();
+        for (Relation r: ds.getRelations()) {
+            if (r.getBBox().intersects(bbox)) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private static void test(int relationCount) {
+        DataSet ds = createDataSet(relationCount);
+        BBox bbox = new BBox(10, 50, 10.1, 50.1);
+
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i=0; i<SEARCH_ITERATIONS; i++) {
+            found = linearSearch(ds, bbox).size();
+        }
+        long linearTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i=0; i<SEARCH_ITERATIONS; i++) {
+            found = ds.searchRelations(bbox).size();
+        }
+        long indexedTime = System.nanoTime() - start;
+
+        System.out.println(relationCount + " relations (" + found + " found): linear scan "
+                + linearTime / SEARCH_ITERATIONS / 1000.0 + " us, searchRelations "
+                + indexedTime / SEARCH_ITERATIONS / 1000.0 + " us");
+    }
+
+    @Test
+    public void testSearchRelations() {
+        // Warm up
+        test(1000);
+
+        test(1000);
+        test(10000);
+        test(100000);
+    }
+}
@@ -0,0 +1,121 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.mappaint.MapPaintStyles;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Pans over a city, rendering the whole view for every step once directly and once
+ * through the {@link RenderTileCache}, and compares the times.
+ */
+public class RenderTileCachePerformanceTest {
+
+    private static final int IMG_WIDTH = 1400;
+    private static final int IMG_HEIGHT = 1050;
+    private static final int STEPS = 40;
+    private static final int STEP_PIXELS = 50;
+
+    private static Graphics2D g;
+    private static NavigatableComponent nc;
+    private static DataSet ds;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.setProjection(new Mercator());
+        BufferedImage img = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        g = (Graphics2D)img.getGraphics();
+        g.setClip(0, 0, IMG_WIDTH, IMG_HEIGHT);
+        nc = new NavigatableComponent();
+        nc.setBounds(0, 0, IMG_WIDTH, IMG_HEIGHT);
+
+        Main.pref.load();
+        MapPaintStyles.readFromPreferences();
+
+        ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+    }
+
+    private static void pan(int step) {
+        EastNorth center = nc.getCenter();
+        nc.zoomTo(new EastNorth(center.east() + STEP_PIXELS * nc.getScale(), center.north()));
+    }
+
+    private static long renderDirectly() {
+        nc.zoomTo(new Bounds(53.55, 13.25, 53.57, 13.29));
+        long start = System.nanoTime();
+        for (int i=0; i<STEPS; i++) {
+            pan(i);
+            new StyledMapRenderer(g, nc, false).render(ds, false, nc.getLatLonBounds(g.getClipBounds()));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long renderTiled(RenderTileCache cache) throws InterruptedException {
+        return renderTiled(cache, ds, new Bounds(53.55, 13.25, 53.57, 13.29));
+    }
+
+    private static long renderTiled(RenderTileCache cache, DataSet ds, Bounds bounds) throws InterruptedException {
+        nc.zoomTo(bounds);
+        long start = System.nanoTime();
+        for (int i=0; i<STEPS; i++) {
+            pan(i);
+            cache.paint(g, nc, false, false);
+            while (cache.hasPendingTiles()) {
+                Thread.sleep(1);
+            }
+            cache.paint(g, nc, false, false);
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testPan() throws Exception {
+        RenderTileCache cache = new RenderTileCache(ds);
+        // Warm up
+        renderDirectly();
+        renderTiled(new RenderTileCache(ds));
+
+        long directTime = renderDirectly();
+        long tiledTime = renderTiled(cache);
+        long cachedTime = renderTiled(cache);
+
+        System.out.println(STEPS + " steps of " + STEP_PIXELS + " pixels: direct " + directTime / STEPS / 1000000.0
+                + " ms, tiled " + tiledTime / STEPS / 1000000.0 + " ms, tiled again " + cachedTime / STEPS / 1000000.0 + " ms per step");
+    }
+
+    private static void compareSimplifiedWays(String name, DataSet ds, Bounds bounds) throws Exception {
+        Main.pref.put("mappaint.simplify-ways", false);
+        renderTiled(new RenderTileCache(ds), ds, bounds);
+        long plain = renderTiled(new RenderTileCache(ds), ds, bounds);
+        Main.pref.put("mappaint.simplify-ways", true);
+        renderTiled(new RenderTileCache(ds), ds, bounds);
+        long simplified = renderTiled(new RenderTileCache(ds), ds, bounds);
+        System.out.println(name + ": all nodes " + plain / STEPS / 1000000.0 + " ms, simplified ways "
+                + simplified / STEPS / 1000000.0 + " ms per step");
+    }
+
+    /**
+     * Pans over datasets at low zoom levels, where many nodes of a way fall onto the same pixel,
+     * once with all nodes and once with simplified ways
+     */
+    @Test
+    public void testSimplifiedWays() throws Exception {
+        DataSet dsMultipolygon = OsmReader.parseDataSet(new FileInputStream("data_nodist/multipolygon.osm"), NullProgressMonitor.INSTANCE);
+        compareSimplifiedWays("multipolygon world", dsMultipolygon, new Bounds(-90, -180, 90, 180));
+        compareSimplifiedWays("multipolygon north", dsMultipolygon, new Bounds(60, -180, 85, -122));
+        compareSimplifiedWays("city region", ds, new Bounds(52, 11, 55, 14));
+        compareSimplifiedWays("city", ds, new Bounds(53.51, 13.20, 53.59, 13.34));
+    }
+}
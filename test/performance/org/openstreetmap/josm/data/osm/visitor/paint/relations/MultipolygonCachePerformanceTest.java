@@ -0,0 +1,102 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint.relations;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.visitor.paint.StyledMapRenderer;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.mappaint.MapPaintStyles;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Renders a city with an empty {@link MultipolygonCache}, once assembling all multipolygons
+ * before the first paint and once drawing their outlines while they are assembled in the
+ * background, and compares the times until the first paint is done.
+ */
+public class MultipolygonCachePerformanceTest {
+
+    private static final int IMG_WIDTH = 1400;
+    private static final int IMG_HEIGHT = 1050;
+
+    private static Graphics2D g;
+    private static NavigatableComponent nc;
+    private static DataSet ds;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.setProjection(new Mercator());
+        BufferedImage img = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        g = (Graphics2D)img.getGraphics();
+        g.setClip(0, 0, IMG_WIDTH, IMG_HEIGHT);
+        nc = new NavigatableComponent();
+        nc.setBounds(0, 0, IMG_WIDTH, IMG_HEIGHT);
+
+        Main.pref.load();
+        MapPaintStyles.readFromPreferences();
+
+        ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        nc.zoomTo(new Bounds(53.5, 13.1, 53.62, 13.4));
+    }
+
+    private static void render() {
+        new StyledMapRenderer(g, nc, false).render(ds, false, nc.getLatLonBounds(g.getClipBounds()));
+    }
+
+    private static long renderBuilt() {
+        MultipolygonCache.getInstance().clear();
+        long start = System.nanoTime();
+        for (Relation r : ds.getRelations()) {
+            if (r.isUsable() && r.isMultipolygon()) {
+                MultipolygonCache.getInstance().get(r).getCombinedPolygons();
+            }
+        }
+        render();
+        return System.nanoTime() - start;
+    }
+
+    private static long renderFallback() {
+        MultipolygonCache.getInstance().clear();
+        long start = System.nanoTime();
+        render();
+        return System.nanoTime() - start;
+    }
+
+    private static boolean allBuilt() {
+        for (Relation r : ds.getRelations()) {
+            if (r.isUsable() && r.isMultipolygon() && !MultipolygonCache.getInstance().get(r).isBuilt())
+                return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void testFirstPaint() throws Exception {
+        // Warm up
+        renderBuilt();
+        renderFallback();
+
+        long builtTime = renderBuilt();
+        long fallbackTime = renderFallback();
+        long start = System.nanoTime();
+        while (!allBuilt()) {
+            Thread.sleep(1);
+        }
+        long backgroundTime = System.nanoTime() - start;
+        Assert.assertTrue(allBuilt());
+
+        System.out.println("first paint: multipolygons assembled before " + builtTime / 1000000.0
+                + " ms, outlines " + fallbackTime / 1000000.0 + " ms, assembled in the background after further "
+                + backgroundTime / 1000000.0 + " ms");
+    }
+}
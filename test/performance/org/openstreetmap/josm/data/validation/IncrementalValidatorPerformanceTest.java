@@ -0,0 +1,83 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Edits a large dataset and revalidates it, once completely and once with the
+ * {@link IncrementalValidator}, and compares times and results.
+ */
+public class IncrementalValidatorPerformanceTest {
+
+    private static final int EDITS = 20;
+
+    /** the tests which need a map view are disabled */
+    private static final String TESTS = "Coastlines=false,MultipolygonTest=false,PowerLines=false,"
+            + "UnconnectedWays=false,UntaggedWay=false,WayConnectedToArea=false,TagChecker=false";
+
+    private static DataSet ds;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        Main.pref.put(ValidatorPreference.PREF_TESTS, TESTS);
+        OsmValidator.griddetail = 0.01;
+        ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+    }
+
+    private static List<TestError> validateAll() {
+        return new ParallelValidator(OsmValidator.getEnabledTests(false), ds.allNonDeletedPrimitives()).validate(null);
+    }
+
+    @Test
+    public void testIncrementalValidation() {
+        IncrementalValidator validator = new IncrementalValidator(ds, false);
+        validator.register();
+        validator.getErrors(null);
+
+        List<Way> ways = new ArrayList<Way>();
+        for (Way w : ds.getWays()) {
+            if (w.isUsable() && !w.hasIncompleteNodes()) {
+                ways.add(w);
+            }
+        }
+        long fullTime = 0;
+        long incrementalTime = 0;
+        for (int i=0; i<EDITS; i++) {
+            // move the first node of a way a few meters, tag a way
+            Node n = ways.get(i * 97).firstNode();
+            n.setCoor(new LatLon(n.getCoor().lat() + 0.0001, n.getCoor().lon() - 0.0001));
+            ways.get(i * 61).put("highway", i % 2 == 0 ? "residential" : null);
+
+            long start = System.nanoTime();
+            int expected = validateAll().size();
+            fullTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int actual = validator.getErrors(null).size();
+            incrementalTime += System.nanoTime() - start;
+            Assert.assertEquals(expected, actual);
+        }
+        validator.unregister();
+
+        System.out.println(ds.allPrimitives().size() + " primitives, " + EDITS + " edits: full "
+                + fullTime / EDITS / 1000000.0 + " ms, incremental " + incrementalTime / EDITS / 1000000.0 + " ms");
+    }
+}
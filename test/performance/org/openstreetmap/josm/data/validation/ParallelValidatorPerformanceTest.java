@@ -0,0 +1,97 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.data.validation.tests.CrossingWays;
+import org.openstreetmap.josm.data.validation.tests.DuplicateNode;
+import org.openstreetmap.josm.data.validation.tests.DuplicateWay;
+import org.openstreetmap.josm.data.validation.tests.DuplicatedWayNodes;
+import org.openstreetmap.josm.data.validation.tests.NameMismatch;
+import org.openstreetmap.josm.data.validation.tests.NodesDuplicatingWayTags;
+import org.openstreetmap.josm.data.validation.tests.OverlappingWays;
+import org.openstreetmap.josm.data.validation.tests.SelfIntersectingWay;
+import org.openstreetmap.josm.data.validation.tests.SimilarNamedWays;
+import org.openstreetmap.josm.data.validation.tests.TurnrestrictionTest;
+import org.openstreetmap.josm.data.validation.tests.WronglyOrderedWays;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Validates a large dataset with the {@link ParallelValidator}, once sequentially and once
+ * in parallel, and compares times and results.
+ */
+public class ParallelValidatorPerformanceTest {
+
+    private static final int ITERATIONS = 5;
+
+    private static Collection<OsmPrimitive> primitives;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        OsmValidator.griddetail = 0.01;
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        primitives = ds.allPrimitives();
+    }
+
+    /**
+     * Replies the tests which don't need a map view
+     */
+    private static List<org.openstreetmap.josm.data.validation.Test> createTests() {
+        List<org.openstreetmap.josm.data.validation.Test> tests = new ArrayList<org.openstreetmap.josm.data.validation.Test>();
+        tests.add(new DuplicateNode());
+        tests.add(new CrossingWays());
+        tests.add(new DuplicateWay());
+        tests.add(new DuplicatedWayNodes());
+        tests.add(new NameMismatch());
+        tests.add(new NodesDuplicatingWayTags());
+        tests.add(new OverlappingWays());
+        tests.add(new SelfIntersectingWay());
+        tests.add(new SimilarNamedWays());
+        tests.add(new TurnrestrictionTest());
+        tests.add(new WronglyOrderedWays());
+        return tests;
+    }
+
+    private static int validate(boolean parallel) {
+        Main.pref.put("validator.parallel", parallel);
+        return new ParallelValidator(createTests(), primitives).validate(null).size();
+    }
+
+    @Test
+    public void testValidate() {
+        // Warm up
+        int expected = validate(false);
+        Assert.assertEquals(expected, validate(true));
+
+        long start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            validate(false);
+        }
+        long sequentialTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            validate(true);
+        }
+        long parallelTime = System.nanoTime() - start;
+
+        System.out.println(primitives.size() + " primitives, " + expected + " errors: sequential "
+                + sequentialTime / ITERATIONS / 1000000.0 + " ms, parallel "
+                + parallelTime / ITERATIONS / 1000000.0 + " ms, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+    }
+}
@@ -0,0 +1,130 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.mappaint.mapcss;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.mappaint.Cascade;
+import org.openstreetmap.josm.gui.mappaint.Environment;
+import org.openstreetmap.josm.gui.mappaint.MultiCascade;
+import org.openstreetmap.josm.gui.mappaint.Range;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Styles every primitive of a large dataset with the bundled MapCSS style, once with
+ * {@link MapCSSStyleSource#apply} (which uses the {@link MapCSSRuleIndex}) and once by testing
+ * every selector of every rule, and compares times and results.
+ */
+public class MapCSSStyleSourcePerformanceTest {
+
+    private static final int ITERATIONS = 5;
+    private static final double SCALE = 10;
+
+    private static MapCSSStyleSource source;
+    private static List<OsmPrimitive> primitives;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        source = new MapCSSStyleSource("styles/standard/potlatch2.mapcss", "potlatch2", "potlatch2");
+        source.loadStyleSource();
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        primitives = new ArrayList<OsmPrimitive>(ds.allPrimitives());
+    }
+
+    /**
+     * Applies all rules without the index, like MapCSSStyleSource did before the index was introduced
+     */
+    private static void applyAllRules(MultiCascade mc, OsmPrimitive osm) {
+        Environment env = new Environment(osm, mc, null, source);
+        for (MapCSSRule r : source.rules) {
+            for (Selector s : r.selectors) {
+                env.clearSelectorMatchingInformation();
+                if (s.matches(env)) {
+                    if (s.getRange().contains(SCALE)) {
+                        mc.range = Range.cut(mc.range, s.getRange());
+                    } else {
+                        mc.range = mc.range.reduceAround(SCALE, s.getRange());
+                        continue;
+                    }
+                    String sub = s.getSubpart();
+                    if (sub == null) {
+                        sub = "default";
+                    }
+                    if (sub.equals("*")) {
+                        for (Entry<String, Cascade> entry : mc.getLayers()) {
+                            env.layer = entry.getKey();
+                            if (Utils.equal(env.layer, "*")) {
+                                continue;
+                            }
+                            r.execute(env);
+                        }
+                    }
+                    env.layer = sub;
+                    r.execute(env);
+                }
+            }
+        }
+    }
+
+    private static String toString(MultiCascade mc) {
+        StringBuilder sb = new StringBuilder();
+        for (Entry<String, Cascade> e : mc.getLayers()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        return sb.append(mc.range).toString();
+    }
+
+    @Test
+    public void testSameResult() {
+        for (OsmPrimitive osm : primitives) {
+            MultiCascade expected = new MultiCascade();
+            applyAllRules(expected, osm);
+            MultiCascade actual = new MultiCascade();
+            source.apply(actual, osm, SCALE, null, false);
+            Assert.assertEquals(osm.toString(), toString(expected), toString(actual));
+        }
+    }
+
+    @Test
+    public void testApply() {
+        // Warm up
+        for (OsmPrimitive osm : primitives) {
+            applyAllRules(new MultiCascade(), osm);
+            source.apply(new MultiCascade(), osm, SCALE, null, false);
+        }
+
+        long start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            for (OsmPrimitive osm : primitives) {
+                applyAllRules(new MultiCascade(), osm);
+            }
+        }
+        long allRulesTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            for (OsmPrimitive osm : primitives) {
+                source.apply(new MultiCascade(), osm, SCALE, null, false);
+            }
+        }
+        long indexedTime = System.nanoTime() - start;
+
+        System.out.println(source.rules.size() + " rules, " + primitives.size() + " primitives: all rules "
+                + allRulesTime / ITERATIONS / 1000000.0 + " ms, indexed "
+                + indexedTime / ITERATIONS / 1000000.0 + " ms");
+    }
+}
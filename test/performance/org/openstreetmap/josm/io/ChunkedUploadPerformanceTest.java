@@ -0,0 +1,183 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Changeset;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.io.UploadStrategy;
+import org.openstreetmap.josm.gui.io.UploadStrategySpecification;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares the time of a chunked upload to a local mock server with and without pipelining.
+ */
+public class ChunkedUploadPerformanceTest {
+
+    private static final int NODES = 20000;
+    private static final int NODES_PER_WAY = 10;
+    private static final int CHUNK_SIZE = 500;
+    /** simulated processing time of the server per uploaded chunk */
+    private static final int SERVER_LATENCY = 50;
+
+    private static final Pattern CREATED = Pattern.compile("<(node|way|relation) id='(-\\d+)'");
+    private static final Pattern NEW_REFERENCE = Pattern.compile("ref='-\\d+'");
+
+    private static HttpServer server;
+    private static final AtomicLong nextId = new AtomicLong(1);
+    private static final AtomicInteger unresolvedReferences = new AtomicInteger();
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String request = read(exchange.getRequestBody());
+                String response;
+                if (path.endsWith("/capabilities")) {
+                    response = "<osm version='0.6'><api><version minimum='0.6' maximum='0.6'/>"
+                        + "<changesets maximum_elements='50000'/></api></osm>";
+                } else if (path.endsWith("/changeset/create")) {
+                    response = Long.toString(nextId.getAndIncrement());
+                } else if (path.endsWith("/upload")) {
+                    response = createDiffResult(request);
+                    try {
+                        Thread.sleep(SERVER_LATENCY);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.toString());
+                    }
+                } else {
+                    response = "";
+                }
+                byte[] data = response.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(data);
+                out.close();
+            }
+        });
+        server.start();
+
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        Main.pref.put("osm-server.url", "http://localhost:" + server.getAddress().getPort() + "/api");
+        Main.pref.put("osm-server.username", "user");
+        Main.pref.put("osm-server.password", "password");
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Assigns ids to the created primitives and counts references to primitives without id
+     */
+    private static String createDiffResult(String osmChange) {
+        Matcher m = NEW_REFERENCE.matcher(osmChange);
+        while (m.find()) {
+            unresolvedReferences.incrementAndGet();
+        }
+        StringBuilder sb = new StringBuilder("<diffResult version='0.6'>");
+        m = CREATED.matcher(osmChange);
+        while (m.find()) {
+            sb.append('<').append(m.group(1)).append(" old_id='").append(m.group(2))
+                .append("' new_id='").append(nextId.getAndIncrement()).append("' new_version='1'/>");
+        }
+        return sb.append("</diffResult>").toString();
+    }
+
+    /**
+     * Creates new ways with new nodes, the nodes in front of the ways as in an upload
+     */
+    private static List<IPrimitive> createPrimitives() {
+        DataSet ds = new DataSet();
+        List<IPrimitive> nodes = new ArrayList<IPrimitive>();
+        List<IPrimitive> ways = new ArrayList<IPrimitive>();
+        Way way = null;
+        for (int i = 0; i < NODES; i++) {
+            Node n = new Node(new LatLon(50 + i / 100 * 0.001, 8 + i % 100 * 0.001));
+            ds.addPrimitive(n);
+            nodes.add(n);
+            if (i % NODES_PER_WAY == 0) {
+                way = new Way();
+                ds.addPrimitive(way);
+                ways.add(way);
+            }
+            way.addNode(n);
+        }
+        nodes.addAll(ways);
+        return nodes;
+    }
+
+    private long upload(boolean pipelined) throws Exception {
+        Main.pref.put("osm-server.upload-pipelined", pipelined);
+        List<IPrimitive> primitives = createPrimitives();
+        unresolvedReferences.set(0);
+        UploadStrategySpecification strategy = new UploadStrategySpecification()
+            .setStrategy(UploadStrategy.CHUNKED_DATASET_STRATEGY)
+            .setChunkSize(CHUNK_SIZE);
+        long start = System.nanoTime();
+        new OsmServerWriter().uploadOsm(strategy, primitives, new Changeset(), NullProgressMonitor.INSTANCE);
+        long time = System.nanoTime() - start;
+
+        assertEquals(0, unresolvedReferences.get());
+        for (IPrimitive p : primitives) {
+            assertFalse(((OsmPrimitive) p).isNew());
+        }
+        return time;
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        // Warm up
+        upload(false);
+        upload(true);
+
+        long sequentialTime = upload(false);
+        long pipelinedTime = upload(true);
+        int chunks = (NODES + NODES / NODES_PER_WAY + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        System.out.println(chunks + " chunks, sequential: " + sequentialTime / 1000000 + " ms, pipelined: "
+                + pipelinedTime / 1000000 + " ms");
+    }
+}
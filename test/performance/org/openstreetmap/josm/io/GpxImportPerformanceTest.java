@@ -0,0 +1,110 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.gpx.GpxTrack;
+import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Compares the throughput of importing many synthetic GPX files one after another and concurrently.
+ */
+public class GpxImportPerformanceTest {
+
+    private static final int FILES = 200;
+    private static final int POINTS = 5000;
+
+    private static final List<File> files = new ArrayList<File>();
+
+    @BeforeClass
+    public static void createFiles() throws IOException {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        for (int f = 0; f < FILES; f++) {
+            File file = File.createTempFile("gpximport", ".gpx");
+            file.deleteOnExit();
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                out.write("<?xml version='1.0' encoding='UTF-8'?>\n<gpx version='1.1' creator='test' "
+                        + "xmlns='http://www.topografix.com/GPX/1/1'>\n<trk><name>" + f + "</name><trkseg>\n");
+                for (int i = 0; i < POINTS; i++) {
+                    out.write("<trkpt lat='" + (50 + f * 0.01 + i * 0.00001) + "' lon='" + (8 + i * 0.00001) + "'>"
+                            + "<ele>" + (100 + i % 50) + "</ele>"
+                            + "<time>2012-06-01T" + String.format("%02d:%02d:%02d", i / 3600, i / 60 % 60, i % 60) + "Z</time>"
+                            + "<hdop>" + (1 + i % 5) + ".5</hdop></trkpt>\n");
+                }
+                out.write("</trkseg></trk>\n</gpx>\n");
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+    }
+
+    @AfterClass
+    public static void deleteFiles() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * An importer which counts the imported points instead of adding layers
+     */
+    private static class CountingImporter extends GpxImporter {
+        final AtomicInteger points = new AtomicInteger();
+
+        @Override
+        protected void addLayers(File file, GpxImporterData data) {
+            for (GpxTrack track : data.getGpxLayer().data.tracks) {
+                for (GpxTrackSegment segment : track.getSegments()) {
+                    points.addAndGet(segment.getWayPointCount());
+                }
+            }
+        }
+    }
+
+    private long importFiles(boolean concurrent) {
+        CountingImporter importer = new CountingImporter();
+        long start = System.nanoTime();
+        if (concurrent) {
+            assertEquals(FILES, importer.importFilesHandleExceptions(files, NullProgressMonitor.INSTANCE).size());
+        } else {
+            for (File file : files) {
+                importer.importDataHandleExceptions(file, NullProgressMonitor.INSTANCE);
+            }
+        }
+        long time = System.nanoTime() - start;
+        assertEquals(FILES * POINTS, importer.points.get());
+        return time;
+    }
+
+    @Test
+    public void testImport() {
+        // Warm up
+        importFiles(false);
+        importFiles(true);
+
+        long sequentialTime = importFiles(false);
+        long concurrentTime = importFiles(true);
+        System.out.println(FILES + " files, " + FILES * POINTS + " points, sequential: " + sequentialTime / 1000000
+                + " ms, concurrent: " + concurrentTime / 1000000 + " ms ("
+                + Runtime.getRuntime().availableProcessors() + " processors)");
+    }
+}
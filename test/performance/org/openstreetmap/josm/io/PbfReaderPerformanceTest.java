@@ -0,0 +1,72 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+/**
+ * Compares the time to load the same data from OSM XML and from PBF.
+ */
+public class PbfReaderPerformanceTest {
+
+    private static final int ITERATIONS = 10;
+
+    private static byte[] xml;
+    private static byte[] pbf;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OsmWriter osmWriter = OsmWriterFactory.createOsmWriter(new PrintWriter(new OutputStreamWriter(out, "UTF-8")), false, "0.6");
+        osmWriter.header();
+        osmWriter.writeContent(ds);
+        osmWriter.footer();
+        osmWriter.close();
+        xml = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        PbfWriter pbfWriter = new PbfWriter(out);
+        pbfWriter.writeData(ds);
+        pbfWriter.close();
+        pbf = out.toByteArray();
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        // Warm up
+        for (int i=0; i<3; i++) {
+            OsmReader.parseDataSet(new ByteArrayInputStream(xml), NullProgressMonitor.INSTANCE);
+            PbfReader.parseDataSet(new ByteArrayInputStream(pbf), NullProgressMonitor.INSTANCE);
+        }
+
+        long start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            OsmReader.parseDataSet(new ByteArrayInputStream(xml), NullProgressMonitor.INSTANCE);
+        }
+        long xmlTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            PbfReader.parseDataSet(new ByteArrayInputStream(pbf), NullProgressMonitor.INSTANCE);
+        }
+        long pbfTime = System.nanoTime() - start;
+
+        System.out.println("XML (" + xml.length / 1024 + " kB): " + xmlTime / ITERATIONS / 1000000.0
+                + " ms, PBF (" + pbf.length / 1024 + " kB): " + pbfTime / ITERATIONS / 1000000.0 + " ms");
+    }
+}
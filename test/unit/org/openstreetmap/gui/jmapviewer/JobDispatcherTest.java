@@ -0,0 +1,161 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.interfaces.CachedTileJob;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.OsmTileSource;
+
+public class JobDispatcherTest {
+
+    private final JobDispatcher dispatcher = JobDispatcher.getInstance();
+    private final TileSource source = new OsmTileSource.Mapnik();
+    private final List<Tile> loaded = Collections.synchronizedList(new ArrayList<Tile>());
+
+    private Blocker blocker;
+
+    /**
+     * A download job without tile which blocks its worker thread until it is released
+     */
+    private static class Blocker implements TileJob {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public Tile getTile() {
+            return null;
+        }
+
+        @Override
+        public void run() {
+            running.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class LoadJob implements TileJob {
+        final Tile tile;
+        final CountDownLatch done;
+
+        LoadJob(Tile tile, CountDownLatch done) {
+            this.tile = tile;
+            this.done = done;
+        }
+
+        @Override
+        public Tile getTile() {
+            return tile;
+        }
+
+        @Override
+        public void run() {
+            loaded.add(tile);
+            done.countDown();
+        }
+    }
+
+    private class CachedLoadJob extends LoadJob implements CachedTileJob {
+        CachedLoadJob(Tile tile, CountDownLatch done) {
+            super(tile, done);
+        }
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        JobDispatcher.setMaxWorkers(1);
+        JobDispatcher.setMaxDiskWorkers(1);
+        dispatcher.setLIFO(false);
+        // occupy the only download worker, so that the jobs added next are queued
+        blocker = new Blocker();
+        dispatcher.addJob(blocker);
+        assertTrue(blocker.running.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.cancelOutstandingJobs();
+        dispatcher.removeViewport(source);
+        blocker.released.countDown();
+        JobDispatcher.setMaxWorkers(8);
+        JobDispatcher.setMaxDiskWorkers(2);
+    }
+
+    @Test
+    public void testViewportOrder() throws InterruptedException {
+        // viewport of 5x5 tiles with its centre in the middle of tile 2/2
+        dispatcher.setViewport(source, 10, 0, 0, 4, 4);
+        Tile far = new Tile(source, 4, 4, 10);
+        Tile otherZoom = new Tile(source, 1, 1, 9);
+        Tile near = new Tile(source, 1, 1, 10);
+        Tile center = new Tile(source, 2, 2, 10);
+        CountDownLatch done = new CountDownLatch(4);
+        for (Tile tile : Arrays.asList(far, otherZoom, near, center)) {
+            dispatcher.addJob(new LoadJob(tile, done));
+        }
+        assertEquals(4, dispatcher.getNetworkQueueDepth());
+
+        blocker.released.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // closest to the centre first, other zoom levels last
+        assertEquals(Arrays.asList(center, near, far, otherZoom), loaded);
+    }
+
+    @Test
+    public void testDropOutsideViewport() throws InterruptedException {
+        dispatcher.setViewport(source, 10, 0, 0, 4, 4);
+        Tile kept = new Tile(source, 2, 2, 10);
+        Tile gone = new Tile(source, 3, 3, 10);
+        CountDownLatch done = new CountDownLatch(2);
+        kept.loading = true;
+        dispatcher.addDownloadJob(new LoadJob(kept, done));
+        gone.loading = true;
+        dispatcher.addDownloadJob(new LoadJob(gone, done));
+        long dropped = dispatcher.getDroppedJobCount();
+
+        // tile 2/2 is within the border of one tile around the new viewport, 3/3 is not
+        assertEquals(Collections.singletonList(gone), dispatcher.setViewport(source, 10, 0, 0, 1, 1));
+        assertEquals(dropped + 1, dispatcher.getDroppedJobCount());
+        assertEquals(1, dispatcher.getNetworkQueueDepth());
+        // the download job owned the loading mark of its tile
+        assertFalse(gone.loading);
+        assertTrue(kept.loading);
+    }
+
+    @Test
+    public void testDiskStageNotBlockedByDownloads() throws InterruptedException {
+        Tile download = new Tile(source, 0, 0, 10);
+        Tile cached = new Tile(source, 1, 0, 10);
+        CountDownLatch downloaded = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+        dispatcher.addJob(new LoadJob(download, downloaded));
+        dispatcher.addJob(new CachedLoadJob(cached, read));
+
+        // the cache read runs while the only download worker is busy
+        assertTrue(read.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(cached), loaded);
+        assertEquals(1, dispatcher.getNetworkQueueDepth());
+        assertEquals(0, dispatcher.getDiskQueueDepth());
+
+        blocker.released.countDown();
+        assertTrue(downloaded.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(cached, download), loaded);
+    }
+}
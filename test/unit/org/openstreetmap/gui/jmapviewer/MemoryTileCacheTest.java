@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.OsmTileSource;
+
+public class MemoryTileCacheTest {
+
+    /** size of the raster of a 256x256 RGB tile */
+    private static final long TILE_BYTES = 256 * 256 * 4;
+
+    private final TileSource mapnik = new OsmTileSource.Mapnik();
+    private final TileSource cycle = new OsmTileSource.CycleMap();
+
+    private static Tile createTile(TileSource source, int x) {
+        return new Tile(source, x, 0, 10, new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        MemoryTileCache cache = new MemoryTileCache();
+        cache.setCacheSize(1000);
+        cache.setMaxMemory(10 * TILE_BYTES);
+        for (int x = 0; x < 15; x++) {
+            cache.addTile(createTile(mapnik, x));
+        }
+        assertEquals(10, cache.getTileCount());
+        assertEquals(10 * TILE_BYTES, cache.getMemoryUsage());
+        assertEquals(5, cache.getEvictionCount());
+        assertNull(cache.getTile(mapnik, 4, 0, 10));
+        assertNotNull(cache.getTile(mapnik, 5, 0, 10));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // the recently used tile is kept
+        cache.addTile(createTile(mapnik, 20));
+        assertNotNull(cache.getTile(mapnik, 5, 0, 10));
+        assertNull(cache.getTile(mapnik, 6, 0, 10));
+    }
+
+    @Test
+    public void testLoadedImageAccounted() {
+        MemoryTileCache cache = new MemoryTileCache();
+        Tile tile = new Tile(mapnik, 1, 2, 3);
+        cache.addTile(tile);
+        assertEquals(0, cache.getMemoryUsage());
+        tile.setImage(new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB));
+        // added again by the loader when the image has been loaded
+        cache.addTile(tile);
+        assertEquals(1, cache.getTileCount());
+        assertEquals(4 * TILE_BYTES, cache.getMemoryUsage());
+        assertEquals(4 * TILE_BYTES, cache.getMemoryUsage(mapnik));
+        assertEquals(0, cache.getEvictionCount());
+        cache.clear(mapnik);
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getMemoryUsage());
+    }
+
+    @Test
+    public void testSourceQuota() {
+        MemoryTileCache cache = new MemoryTileCache();
+        cache.setCacheSize(1000);
+        cache.setMaxMemory(10 * TILE_BYTES);
+        cache.setSourceQuota(mapnik, 6 * TILE_BYTES);
+        for (int x = 0; x < 4; x++) {
+            cache.addTile(createTile(cycle, x));
+        }
+        for (int x = 0; x < 10; x++) {
+            cache.addTile(createTile(mapnik, x));
+        }
+        assertEquals(6 * TILE_BYTES, cache.getMemoryUsage(mapnik));
+        assertEquals(4 * TILE_BYTES, cache.getMemoryUsage(cycle));
+        for (int x = 0; x < 4; x++) {
+            assertNotNull(cache.getTile(cycle, x, 0, 10));
+        }
+        assertTrue(cache.getMemoryUsage() <= 10 * TILE_BYTES);
+    }
+}
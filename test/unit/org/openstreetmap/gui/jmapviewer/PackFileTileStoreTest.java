@@ -0,0 +1,159 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileStore.StoredTile;
+import org.openstreetmap.gui.jmapviewer.tilesources.OsmTileSource;
+
+public class PackFileTileStoreTest {
+
+    private final TileSource source = new OsmTileSource.Mapnik();
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = File.createTempFile("tile-packs", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File dir = new File(cacheDir, OsmFileCacheTileLoader.getSourceDirName(source));
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        cacheDir.delete();
+    }
+
+    private static byte[] data(int value, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private File[] getPackFiles() {
+        return new File(cacheDir, OsmFileCacheTileLoader.getSourceDirName(source)).listFiles();
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        PackFileTileStore store = new PackFileTileStore(cacheDir);
+        Tile tile = new Tile(source, 3, 5, 7);
+        assertNull(store.get(tile));
+
+        tile.putValue("etag", "abc");
+        store.put(tile, data(1, 100), 0, 0);
+        StoredTile stored = store.get(new Tile(source, 3, 5, 7));
+        assertNotNull(stored);
+        assertArrayEquals(data(1, 100), stored.getData());
+        assertEquals("abc", stored.getMetadata().get("etag"));
+        assertNull(store.get(new Tile(source, 5, 3, 7)));
+
+        store.put(tile, data(2, 50), 0, 0);
+        assertArrayEquals(data(2, 50), store.get(tile).getData());
+
+        store.touch(tile, 1234, 5678);
+        assertEquals(1234, store.get(tile).getLastModified());
+        assertEquals(5678, store.get(tile).getExpires());
+
+        store.remove(tile);
+        assertNull(store.get(tile));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        PackFileTileStore store = new PackFileTileStore(cacheDir);
+        for (int i = 0; i < 10; i++) {
+            store.put(new Tile(source, i, i, 10), data(i, 10 + i), 0, 0);
+        }
+        store.remove(new Tile(source, 3, 3, 10));
+        store.put(new Tile(source, 4, 4, 10), data(44, 5), 0, 0);
+        store.clear(source);
+
+        PackFileTileStore reopened = new PackFileTileStore(cacheDir);
+        assertNull(reopened.get(new Tile(source, 3, 3, 10)));
+        assertArrayEquals(data(44, 5), reopened.get(new Tile(source, 4, 4, 10)).getData());
+        assertArrayEquals(data(9, 19), reopened.get(new Tile(source, 9, 9, 10)).getData());
+    }
+
+    @Test
+    public void testDamagedPack() throws Exception {
+        PackFileTileStore store = new PackFileTileStore(cacheDir);
+        store.put(new Tile(source, 1, 1, 5), data(1, 100), 0, 0);
+        store.put(new Tile(source, 2, 2, 5), data(2, 100), 0, 0);
+        store.clear(source);
+
+        // cut the last record, as if the process ended while writing it
+        File pack = getPackFiles()[0];
+        RandomAccessFile f = new RandomAccessFile(pack, "rw");
+        f.setLength(f.length() - 10);
+        f.close();
+
+        PackFileTileStore reopened = new PackFileTileStore(cacheDir);
+        assertNotNull(reopened.get(new Tile(source, 1, 1, 5)));
+        assertNull(reopened.get(new Tile(source, 2, 2, 5)));
+        reopened.put(new Tile(source, 3, 3, 5), data(3, 100), 0, 0);
+        assertArrayEquals(data(3, 100), reopened.get(new Tile(source, 3, 3, 5)).getData());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        PackFileTileStore store = new PackFileTileStore(cacheDir);
+        store.setMaxPackSize(1000);
+        for (int i = 0; i < 40; i++) {
+            store.put(new Tile(source, i, 0, 8), data(i, 100), i, i + 1);
+        }
+        int packs = getPackFiles().length;
+        assertTrue(packs >= 4);
+        for (int i = 0; i < 40; i++) {
+            if (i % 4 != 0) {
+                store.remove(new Tile(source, i, 0, 8));
+            }
+        }
+        assertTrue(getPackFiles().length < packs);
+        for (int i = 0; i < 40; i += 4) {
+            StoredTile stored = store.get(new Tile(source, i, 0, 8));
+            assertArrayEquals(data(i, 100), stored.getData());
+            assertEquals(i, stored.getLastModified());
+            assertEquals(i + 1, stored.getExpires());
+        }
+    }
+
+    @Test
+    public void testExpiredKept() throws Exception {
+        PackFileTileStore store = new PackFileTileStore(cacheDir);
+        Tile old = new Tile(source, 1, 2, 3);
+        Tile recent = new Tile(source, 2, 2, 3);
+        store.put(old, data(1, 10), 1000, 2000);
+        store.put(recent, data(2, 10), 3000, Long.MAX_VALUE);
+        store.touch(old, 1500, 2500);
+        store.clear(source);
+
+        // expired tiles are left to the loader to check them again
+        PackFileTileStore reopened = new PackFileTileStore(cacheDir);
+        StoredTile stored = reopened.get(old);
+        assertArrayEquals(data(1, 10), stored.getData());
+        assertEquals(1500, stored.getLastModified());
+        assertEquals(2500, stored.getExpires());
+        assertEquals(3000, reopened.get(recent).getLastModified());
+        assertEquals(Long.MAX_VALUE, reopened.get(recent).getExpires());
+    }
+}
@@ -0,0 +1,144 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.actions.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
+import org.openstreetmap.josm.actions.search.SearchCompiler.ParseError;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.TagIndex;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+
+public class SearchPlannerTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Main.setProjection(new Mercator());
+        Main.pref = new Preferences();
+    }
+
+    @Test
+    public void testTagIndexUpdated() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(0, 0));
+        n1.put("highway", "crossing");
+        ds.addPrimitive(n1);
+        TagIndex index = ds.getTagIndex();
+        assertEquals(Collections.singletonList(n1), index.get("highway", "crossing"));
+
+        Node n2 = new Node(new LatLon(1, 1));
+        n2.put("highway", "crossing");
+        ds.addPrimitive(n2);
+        assertEquals(new HashSet<OsmPrimitive>(Arrays.asList(n1, n2)), new HashSet<OsmPrimitive>(index.get("highway")));
+
+        n1.put("highway", "traffic_signals");
+        assertEquals(Collections.singletonList(n2), index.get("highway", "crossing"));
+        assertEquals(Collections.singletonList(n1), index.get("highway", "traffic_signals"));
+
+        n1.remove("highway");
+        ds.removePrimitive(n2);
+        assertTrue(index.get("highway").isEmpty());
+    }
+
+    @Test
+    public void testTagIndexCleanupDeleted() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(0, 0));
+        n1.put("highway", "crossing");
+        ds.addPrimitive(n1);
+        Node n2 = new Node(new LatLon(1, 1));
+        n2.put("highway", "crossing");
+        ds.addPrimitive(n2);
+        TagIndex index = ds.getTagIndex();
+
+        n1.setDeleted(true);
+        ds.cleanupDeletedPrimitives();
+        assertEquals(Collections.singletonList(n2), index.get("highway", "crossing"));
+    }
+
+    @Test
+    public void testTagIndexClear() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(0, 0));
+        n1.put("highway", "crossing");
+        ds.addPrimitive(n1);
+        TagIndex index = ds.getTagIndex();
+
+        ds.clear();
+        assertTrue(index.get("highway").isEmpty());
+        Node n2 = new Node(new LatLon(1, 1));
+        n2.put("highway", "crossing");
+        ds.addPrimitive(n2);
+        assertEquals(Collections.singletonList(n2), index.get("highway", "crossing"));
+    }
+
+    private static Set<OsmPrimitive> search(DataSet ds, String query) throws ParseError {
+        final Set<OsmPrimitive> result = new HashSet<OsmPrimitive>();
+        SearchPlanner.search(ds, SearchCompiler.compile(query, false, false), false, null, new SearchPlanner.MatchListener() {
+            public void matchesFound(List<OsmPrimitive> matches) {
+                result.addAll(matches);
+            }
+        });
+        return result;
+    }
+
+    private static Set<OsmPrimitive> scan(DataSet ds, String query) throws ParseError {
+        Match matcher = SearchCompiler.compile(query, false, false);
+        Set<OsmPrimitive> result = new HashSet<OsmPrimitive>();
+        for (OsmPrimitive osm : ds.allNonDeletedCompletePrimitives()) {
+            if (matcher.match(osm)) {
+                result.add(osm);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testSameResultsAsScan() throws ParseError {
+        DataSet ds = new DataSet();
+        String[] highways = {"residential", "service", "footway", null};
+        Node last = null;
+        for (int i = 0; i < 30000; i++) {
+            Node n = new Node(new LatLon(i * 0.0001, 0));
+            if (highways[i % 4] != null) {
+                n.put("highway", highways[i % 4]);
+            }
+            if (i % 3 == 0) {
+                n.put("name", "Street " + i);
+            }
+            ds.addPrimitive(n);
+            if (last != null && i % 100 == 0) {
+                Way w = new Way();
+                w.setNodes(Arrays.asList(last, n));
+                w.put("highway", "service");
+                ds.addPrimitive(w);
+            }
+            last = n;
+        }
+        for (Node n : ds.getNodes()) {
+            if (n.getReferrers().isEmpty() && n.getUniqueId() % 7 == 0) {
+                n.setDeleted(true);
+            }
+        }
+        for (String query : new String[] {"highway=*", "highway=* -name=*", "highway=service | name:\"Street 3\"",
+                "Highway:Service", "type:way highway=service", "-highway=footway", "highway=motorway", "street"}) {
+            Set<OsmPrimitive> expected = scan(ds, query);
+            assertEquals(query, expected, search(ds, query));
+        }
+    }
+}
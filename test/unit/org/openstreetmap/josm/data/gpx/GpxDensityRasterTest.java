@@ -0,0 +1,73 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Mercator;
+
+public class GpxDensityRasterTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    private static GpxDensityRaster createRaster() {
+        List<WayPoint> points = new ArrayList<WayPoint>();
+        for (int i = 0; i < 5; i++) {
+            points.add(new WayPoint(new LatLon(0.0005, 0.0005)));
+        }
+        points.add(new WayPoint(new LatLon(0.0005, 0.0095)));
+        points.add(new WayPoint(new LatLon(0.5, 0.5))); // outside
+        GpxTrackSegmentIndex index = new GpxTrackSegmentIndex(new ImmutableGpxTrackSegment(points));
+
+        // 10 x 10 pixels from 0,0 to 0.01,0.01
+        EastNorth min = Main.getProjection().latlon2eastNorth(new LatLon(0, 0));
+        EastNorth max = Main.getProjection().latlon2eastNorth(new LatLon(0.01, 0.01));
+        GpxDensityRaster raster = new GpxDensityRaster(min.east(), max.north(), (max.east() - min.east()) / 10, 10, 10);
+        raster.add(index, new Bounds(0, 0, 0.01, 0.01));
+        return raster;
+    }
+
+    @Test
+    public void testAdd() {
+        GpxDensityRaster raster = createRaster();
+        assertEquals(5, raster.getCount(0, 9));
+        assertEquals(1, raster.getCount(9, 9));
+        assertEquals(0, raster.getCount(5, 5));
+        assertEquals(5, raster.getMaxCount());
+    }
+
+    @Test
+    public void testBlur() {
+        GpxDensityRaster raster = createRaster();
+        raster.blur(1);
+        assertEquals(5, raster.getCount(0, 9));
+        assertEquals(5, raster.getCount(1, 8));
+        assertEquals(0, raster.getCount(2, 9));
+        assertEquals(1, raster.getCount(8, 8));
+    }
+
+    @Test
+    public void testCreateImage() {
+        GpxDensityRaster raster = createRaster();
+        int[] palette = {0xff000000, 0xff000001, 0xff000002, 0xff000003};
+        BufferedImage image = raster.createImage(palette);
+        assertEquals(10, image.getWidth());
+        assertEquals(palette[3], image.getRGB(0, 9));
+        assertEquals(palette[1], image.getRGB(9, 9)); // log(2) / log(6) * 3
+        assertEquals(0, image.getRGB(5, 5));
+    }
+}
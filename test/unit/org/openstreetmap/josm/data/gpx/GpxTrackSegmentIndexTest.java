@@ -0,0 +1,94 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Mercator;
+
+public class GpxTrackSegmentIndexTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    /**
+     * A track going east along the equator, one point every 0.001°
+     */
+    private static GpxTrackSegment createSegment(int size) {
+        List<WayPoint> points = new ArrayList<WayPoint>();
+        for (int i = 0; i < size; i++) {
+            points.add(new WayPoint(new LatLon(0, i * 0.001)));
+        }
+        return new ImmutableGpxTrackSegment(points);
+    }
+
+    @Test
+    public void testGetChunks() {
+        GpxTrackSegmentIndex index = new GpxTrackSegmentIndex(createSegment(10000));
+        assertEquals(157, index.getChunkCount());
+        assertEquals(10000, index.getChunkEnd(156));
+
+        // points 1000 to 1100
+        int[] chunks = index.getChunks(new Bounds(-1, 1.0, 1, 1.1));
+        assertArrayEquals(new int[] {15, 16, 17}, chunks);
+        assertEquals(0, index.getChunks(new Bounds(1, 1, 2, 2)).length);
+
+        // the line from the last point of chunk 0 to the first point of chunk 1
+        assertArrayEquals(new int[] {1}, index.getChunks(new Bounds(-1, 0.0631, 1, 0.0635)));
+    }
+
+    @Test
+    public void testGetDecimatedPoints() {
+        GpxTrackSegment segment = createSegment(1000);
+        GpxTrackSegmentIndex index = new GpxTrackSegmentIndex(segment);
+        double distance = segment.getEast(1) - segment.getEast(0);
+
+        assertNull(index.getDecimatedPoints(distance / 2));
+
+        int[] points = index.getDecimatedPoints(distance * 10);
+        assertSame(points, index.getDecimatedPoints(distance * 10));
+        assertEquals(0, points[0]);
+        assertEquals(999, points[points.length - 1]);
+        assertTrue(points.length < 200);
+        for (int i = 1; i < points.length; i++) {
+            assertTrue(points[i] > points[i - 1]);
+        }
+    }
+
+    @Test
+    public void testGetNearestDecimatedPoints() {
+        GpxTrackSegment segment = createSegment(1000);
+        GpxTrackSegmentIndex index = new GpxTrackSegmentIndex(segment);
+        double distance = segment.getEast(1) - segment.getEast(0);
+
+        // nothing computed yet, all points are painted
+        assertFalse(index.isDecimated(distance * 40));
+        assertNull(index.getNearestDecimatedPoints(distance * 40));
+
+        int[] finer = index.getDecimatedPoints(distance * 10);
+        assertTrue(index.isDecimated(distance * 10));
+        assertFalse(index.isDecimated(distance * 40));
+        assertSame(finer, index.getNearestDecimatedPoints(distance * 40));
+        // coarser levels are never used for a finer scale
+        int[] coarser = index.getDecimatedPoints(distance * 40);
+        assertSame(coarser, index.getNearestDecimatedPoints(distance * 40));
+        assertSame(finer, index.getNearestDecimatedPoints(distance * 20));
+        assertNull(index.getNearestDecimatedPoints(distance * 5));
+    }
+}
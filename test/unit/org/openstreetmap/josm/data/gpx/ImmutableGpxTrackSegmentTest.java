@@ -0,0 +1,115 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.io.GpxReader;
+
+public class ImmutableGpxTrackSegmentTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    private static WayPoint wayPoint(double lat, double lon, String time) {
+        WayPoint wp = new WayPoint(new LatLon(lat, lon));
+        if (time != null) {
+            wp.attr.put("time", time);
+            wp.setTime();
+        }
+        return wp;
+    }
+
+    @Test
+    public void testAttributes() {
+        WayPoint wp1 = wayPoint(50, 8, "2012-03-04T05:06:07Z");
+        wp1.attr.put("ele", "123.4");
+        wp1.attr.put("hdop", 1.5f);
+        wp1.attr.put("name", "start");
+        WayPoint wp2 = wayPoint(50.001, 8.001, "2012-03-04T05:06:08.250Z");
+        wp2.attr.put("ele", "124.50");
+        wp2.attr.put("speed", "3");
+        WayPoint wp3 = wayPoint(50.002, 8.002, null);
+
+        ImmutableGpxTrackSegment seg = new ImmutableGpxTrackSegment(Arrays.asList(wp1, wp2, wp3));
+        assertEquals(3, seg.getWayPointCount());
+        assertEquals(50.001, seg.getLat(1), 0);
+        assertEquals(8.002, seg.getLon(2), 0);
+        assertEquals(wp2.time, seg.getTime(1), 0);
+        assertEquals(0, seg.getTime(2), 0);
+        assertEquals(1.5f, seg.getHdop(0), 0);
+        assertTrue(Float.isNaN(seg.getHdop(1)));
+        assertEquals(123.4, seg.getElevation(0), 0);
+        assertTrue(Double.isNaN(seg.getElevation(1))); // not stored as number, it would lose the trailing zero
+        assertEquals(3, seg.getSpeed(1), 0);
+
+        assertEquals(wp1.attr, seg.getWayPoint(0).attr);
+        assertEquals(wp2.attr, seg.getWayPoint(1).attr);
+        assertEquals(wp3.attr, seg.getWayPoint(2).attr);
+        assertEquals(wp2.time, seg.getWayPoints().get(1).time, 0);
+        assertEquals(3, seg.getWayPoints().size());
+
+        // the way points are created on demand
+        seg.getWayPoint(0).attr.put("name", "changed");
+        assertEquals("start", seg.getWayPoint(0).attr.get("name"));
+    }
+
+    @Test
+    public void testEastNorth() {
+        WayPoint wp = wayPoint(50, 8, null);
+        ImmutableGpxTrackSegment seg = new ImmutableGpxTrackSegment(Arrays.asList(wp));
+        EastNorth en = wp.getEastNorth();
+        assertEquals(en.east(), seg.getEast(0), 1e-9);
+        assertEquals(en.north(), seg.getNorth(0), 1e-9);
+        assertEquals(en, seg.getWayPoint(0).getEastNorth());
+        seg.invalidateEastNorthCache();
+        assertEquals(en.north(), seg.getNorth(0), 1e-9);
+    }
+
+    @Test
+    public void testBoundsAndLength() {
+        ImmutableGpxTrackSegment seg = new ImmutableGpxTrackSegment(Arrays.asList(
+                wayPoint(50, 8, null), wayPoint(51, 7, null), wayPoint(49, 9, null)));
+        assertEquals(49, seg.getBounds().getMin().lat(), 0);
+        assertEquals(9, seg.getBounds().getMax().lon(), 0);
+        double length = new LatLon(50, 8).greatCircleDistance(new LatLon(51, 7))
+                + new LatLon(51, 7).greatCircleDistance(new LatLon(49, 9));
+        assertEquals(length, seg.length(), 1e-6);
+    }
+
+    @Test
+    public void testGpxReader() throws Exception {
+        String gpx = "<?xml version='1.0' encoding='UTF-8'?><gpx version='1.1' creator='test' xmlns='http://www.topografix.com/GPX/1/1'>"
+            + "<trk><name>t</name><trkseg>"
+            + "<trkpt lat='50.1' lon='8.1'><ele>100</ele><time>2012-01-01T10:00:00Z</time><hdop>2.5</hdop></trkpt>"
+            + "<trkpt lat='50.2' lon='8.2'><ele>101</ele><time>2012-01-01T10:00:01Z</time><sym>flag</sym></trkpt>"
+            + "</trkseg><trkseg/></trk></gpx>";
+        GpxReader reader = new GpxReader(new ByteArrayInputStream(gpx.getBytes("UTF-8")));
+        assertTrue(reader.parse(false));
+        GpxTrack track = reader.data.tracks.iterator().next();
+        assertEquals(1, track.getSegments().size());
+        GpxTrackSegment seg = track.getSegments().iterator().next();
+        assertEquals(2, seg.getWayPointCount());
+        assertEquals(2.5f, seg.getHdop(0), 0);
+        assertEquals(1, seg.getTime(1) - seg.getTime(0), 1e-9);
+        WayPoint wp = seg.getWayPoint(1);
+        assertEquals("101", wp.attr.get("ele"));
+        assertEquals("2012-01-01T10:00:01Z", wp.attr.get("time"));
+        assertEquals("flag", wp.attr.get("sym"));
+        assertFalse(seg.getWayPoint(0).attr.containsKey("sym"));
+    }
+}
@@ -0,0 +1,225 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.tools.Utils;
+
+public class WmsCacheTest {
+
+    private static final int TILE_SIZE = 100;
+    private static final double PPD = 0.1;
+
+    private static Projection projection;
+    private static File cachePath;
+    private static int urlCounter;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        Main.pref = new Preferences();
+        projection = new Mercator();
+        Main.setProjection(projection);
+        cachePath = File.createTempFile("wms-cache", "");
+        cachePath.delete();
+        Main.pref.put("imagery.wms-cache.path", cachePath.getAbsolutePath());
+    }
+
+    @Before
+    public void clean() {
+        Utils.deleteDirectory(cachePath);
+        Main.pref.put(WmsCache.PROP_MAX_DISK_SIZE.getKey(), null);
+    }
+
+    /**
+     * Creates a PNG image of random pixels, which can't be compressed
+     */
+    private static byte[] createTile(Random random) throws Exception {
+        BufferedImage img = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < TILE_SIZE; x++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private static double east(int i) {
+        return i * TILE_SIZE / PPD;
+    }
+
+    private static void save(WmsCache cache, Random random, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            cache.saveToCache(null, new ByteArrayInputStream(createTile(random)), projection, PPD, east(i), 0);
+        }
+    }
+
+    private static long getDirectorySize(File dir) {
+        long size = 0;
+        for (File file : dir.listFiles()) {
+            size += file.isDirectory() ? getDirectorySize(file) : file.length();
+        }
+        return size;
+    }
+
+    private static File findJournal() {
+        for (File dir : cachePath.listFiles()) {
+            File journal = new File(dir, "index.journal");
+            if (journal.exists())
+                return journal;
+        }
+        return null;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        String url = "http://example.com/wms" + (++urlCounter);
+        WmsCache cache = new WmsCache(url, TILE_SIZE);
+        cache.loadIndex();
+        save(cache, new Random(1), 10);
+
+        assertTrue(cache.hasExactMatch(projection, PPD, east(3), 0));
+        assertFalse(cache.hasExactMatch(projection, PPD, east(3), 1));
+        BufferedImage img = cache.getExactMatch(projection, PPD, east(3), 0);
+        assertNotNull(img);
+        assertEquals(TILE_SIZE, img.getWidth());
+        assertNull(cache.getExactMatch(projection, PPD, east(20), 0));
+        assertNotNull(cache.getPartialMatch(projection, PPD * 2, east(3), 0));
+
+        cache.saveIndex();
+        save(cache, new Random(2), 15);
+        cache.saveIndex();
+
+        WmsCache reloaded = new WmsCache(url, TILE_SIZE);
+        reloaded.loadIndex();
+        for (int i = 0; i < 15; i++) {
+            assertNotNull(reloaded.getExactMatch(projection, PPD, east(i), 0));
+        }
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        String url = "http://example.com/wms" + (++urlCounter);
+        WmsCache cache = new WmsCache(url, TILE_SIZE);
+        cache.loadIndex();
+        save(cache, new Random(3), 5);
+        cache.saveIndex();
+        // added after the index was saved, only recorded in the journal
+        save(cache, new Random(4), 8);
+        cache.cleanSmallFiles(0);
+
+        // wait until the journal is written in the background
+        File journal = findJournal();
+        for (int i = 0; i < 100 && (journal == null || journal.length() == 0); i++) {
+            Thread.sleep(100);
+            journal = findJournal();
+        }
+        assertNotNull(journal);
+        long length = -1;
+        while (length != journal.length()) {
+            length = journal.length();
+            Thread.sleep(100);
+        }
+
+        WmsCache reloaded = new WmsCache(url, TILE_SIZE);
+        reloaded.loadIndex();
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(reloaded.getExactMatch(projection, PPD, east(i), 0));
+        }
+    }
+
+    /**
+     * Tile data which stops after the first chunk until it is released
+     */
+    private static class SlowTileData extends ByteArrayInputStream {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        SlowTileData(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            // the content type is guessed from the first 16 bytes
+            if (pos > 16) {
+                reading.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.read(b, off, len);
+        }
+    }
+
+    @Test
+    public void testNotVisibleWhileSaving() throws Exception {
+        String url = "http://example.com/wms" + (++urlCounter);
+        final WmsCache cache = new WmsCache(url, TILE_SIZE);
+        cache.loadIndex();
+        final SlowTileData data = new SlowTileData(createTile(new Random(6)));
+        final Exception[] failure = new Exception[1];
+        Thread saver = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    cache.saveToCache(null, data, projection, PPD, east(0), 0);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        saver.start();
+        assertTrue(data.reading.await(10, TimeUnit.SECONDS));
+
+        // the half written tile is neither found nor removed by readers
+        assertFalse(cache.hasExactMatch(projection, PPD, east(0), 0));
+        assertNull(cache.getExactMatch(projection, PPD, east(0), 0));
+        assertNull(cache.getPartialMatch(projection, PPD * 2, east(0), 0));
+
+        data.released.countDown();
+        saver.join(10000);
+        assertNull(failure[0]);
+        assertNotNull(cache.getExactMatch(projection, PPD, east(0), 0));
+    }
+
+    @Test
+    public void testMaxDiskSize() throws Exception {
+        Main.pref.putInteger(WmsCache.PROP_MAX_DISK_SIZE.getKey(), 1);
+        String url = "http://example.com/wms" + (++urlCounter);
+        WmsCache cache = new WmsCache(url, TILE_SIZE);
+        cache.loadIndex();
+        // about 30 kB each
+        save(cache, new Random(5), 100);
+        cache.saveIndex();
+
+        assertTrue(getDirectorySize(cachePath) < 1024 * 1024 + 100 * 1024);
+        // the most recently saved tiles are kept
+        assertTrue(cache.hasExactMatch(projection, PPD, east(99), 0));
+        assertFalse(cache.hasExactMatch(projection, PPD, east(0), 0));
+    }
+}
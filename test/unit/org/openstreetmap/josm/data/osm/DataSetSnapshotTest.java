@@ -0,0 +1,187 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
+
+public class DataSetSnapshotTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Main.setProjection(new Mercator());
+        Main.pref = new Preferences();
+    }
+
+    @Test
+    public void testSnapshotUnchangedByEdits() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(10, 10));
+        Node n2 = new Node(new LatLon(20, 20));
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2));
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+        ds.addPrimitive(w);
+        n1.put("name", "a");
+
+        DataSetSnapshot first = ds.getSnapshot();
+        assertEquals(3, first.size());
+        assertEquals("a", first.get(n1).get("name"));
+
+        n1.put("name", "b");
+        n2.setCoor(new LatLon(30, 30));
+        Node n3 = new Node(new LatLon(40, 40));
+        ds.addPrimitive(n3);
+        w.addNode(n3);
+
+        assertEquals("a", first.get(n1).get("name"));
+        assertEquals(new LatLon(20, 20), ((NodeData) first.get(n2)).getCoor());
+        assertEquals(2, ((WayData) first.get(w)).getNodes().size());
+        assertNull(first.get(n3));
+
+        DataSetSnapshot second = ds.getSnapshot();
+        assertEquals(4, second.size());
+        assertEquals("b", second.get(n1).get("name"));
+        assertEquals(new LatLon(30, 30), ((NodeData) second.get(n2)).getCoor());
+        assertEquals(3, ((WayData) second.get(w)).getNodes().size());
+        assertSame(second.get(n3), second.getPrimitiveById(n3));
+    }
+
+    @Test
+    public void testUnchangedDataShared() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(10, 10));
+        Node n2 = new Node(new LatLon(20, 20));
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+
+        DataSetSnapshot first = ds.getSnapshot();
+        n1.put("highway", "crossing");
+        ds.removePrimitive(n2);
+        DataSetSnapshot second = ds.getSnapshot();
+        assertNotSame(first.get(n1), second.get(n1));
+        assertNull(second.get(n2));
+        assertEquals(2, first.size());
+
+        DataSetSnapshot third = ds.getSnapshot();
+        assertSame(second.get(n1), third.get(n1));
+    }
+
+    @Test
+    public void testChangesMerged() {
+        DataSet ds = new DataSet();
+        Node[] nodes = new Node[16];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(new LatLon(i, i));
+            ds.addPrimitive(nodes[i]);
+        }
+        DataSetSnapshot first = ds.getSnapshot();
+        nodes[0].put("name", "0");
+        ds.removePrimitive(nodes[1]);
+        DataSetSnapshot second = ds.getSnapshot();
+        // enough changes to be merged into a new base
+        for (int i = 2; i < 8; i++) {
+            nodes[i].put("name", Integer.toString(i));
+        }
+        DataSetSnapshot third = ds.getSnapshot();
+
+        assertEquals(16, first.size());
+        assertEquals(15, second.size());
+        assertEquals(15, third.size());
+        assertNull(first.get(nodes[0]).get("name"));
+        assertEquals("0", second.get(nodes[0]).get("name"));
+        assertSame(second.get(nodes[0]), third.get(nodes[0]));
+        assertNull(second.get(nodes[1]));
+        assertNull(third.get(nodes[1]));
+        assertNull(second.get(nodes[7]).get("name"));
+        assertEquals("7", third.get(nodes[7]).get("name"));
+        assertSame(first.get(nodes[15]), third.get(nodes[15]));
+        assertEquals(15, third.getNodes().size());
+    }
+
+    @Test
+    public void testReleasedSnapshot() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(10, 10));
+        ds.addPrimitive(n1);
+        WeakReference<DataSetSnapshot> first = new WeakReference<DataSetSnapshot>(ds.getSnapshot());
+        for (int i = 0; i < 100 && first.get() != null; i++) {
+            System.gc();
+        }
+        // not kept alive by the dataset
+        assertNull(first.get());
+
+        n1.put("name", "a");
+        Node n2 = new Node(new LatLon(20, 20));
+        ds.addPrimitive(n2);
+        DataSetSnapshot second = ds.getSnapshot();
+        assertEquals(2, second.size());
+        assertEquals("a", second.get(n1).get("name"));
+    }
+
+    @Test
+    public void testIdChangeUpdatesReferrers() {
+        DataSet ds = new DataSet();
+        Node n1 = new Node(new LatLon(10, 10));
+        Node n2 = new Node(new LatLon(20, 20));
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2));
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+        ds.addPrimitive(w);
+        ds.getSnapshot();
+
+        n1.setOsmId(1234, 1);
+        DataSetSnapshot snapshot = ds.getSnapshot();
+        assertEquals(1234, ((WayData) snapshot.get(w)).getNodes().get(0).longValue());
+        assertEquals(3, snapshot.size());
+    }
+
+    @Test
+    public void testWriteSnapshot() {
+        DataSet ds = new DataSet();
+        for (int i = 0; i < 10; i++) {
+            Node n = new Node(new LatLon(i, i));
+            n.put("ref", Integer.toString(i));
+            ds.addPrimitive(n);
+        }
+        Way w = new Way();
+        w.setNodes(Arrays.asList(ds.getNodes().toArray(new Node[0])));
+        ds.addPrimitive(w);
+        Relation r = new Relation();
+        r.addMember(new RelationMember("outer", w));
+        ds.addPrimitive(r);
+        ds.dataSources.add(new DataSource(new Bounds(0, 0, 10, 10), "test"));
+
+        StringWriter expected = new StringWriter();
+        OsmWriter writer = OsmWriterFactory.createOsmWriter(new PrintWriter(expected), false, "0.6");
+        writer.header(true);
+        writer.writeDataSources(ds);
+        writer.writeContent(ds);
+        writer.footer();
+        writer.close();
+
+        StringWriter actual = new StringWriter();
+        writer = OsmWriterFactory.createOsmWriter(new PrintWriter(actual), false, "0.6");
+        writer.writeSnapshot(ds.getSnapshot());
+        writer.close();
+        assertEquals(expected.toString(), actual.toString());
+    }
+}
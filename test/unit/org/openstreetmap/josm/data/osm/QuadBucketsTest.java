@@ -3,6 +3,7 @@ package org.openstreetmap.josm.data.osm;
 
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -33,7 +34,7 @@ public class QuadBucketsTest {
 
         QuadBuckets<Node> nodes = Reflection.field("nodes").ofType(new TypeRef<QuadBuckets<Node>>() {}).in(ds).get();
         QuadBuckets<Way> ways = Reflection.field("ways").ofType(new TypeRef<QuadBuckets<Way>>() {}).in(ds).get();
-        Collection<Relation> relations = Reflection.field("relations").ofType(new TypeRef<Collection<Relation>>() {}).in(ds).get();
+        QuadBuckets<Relation> relations = Reflection.field("relations").ofType(new TypeRef<QuadBuckets<Relation>>() {}).in(ds).get();
 
         int expectedCount = allNodes.size();
         for (OsmPrimitive o: allNodes) {
@@ -45,8 +46,10 @@ public class QuadBucketsTest {
             ds.removePrimitive(o);
             checkIterator(ways, --expectedCount);
         }
+        expectedCount = allRelations.size();
         for (OsmPrimitive o: allRelations) {
             ds.removePrimitive(o);
+            checkIterator(relations, --expectedCount);
         }
         Assert.assertTrue(nodes.isEmpty());
         Assert.assertTrue(ways.isEmpty());
@@ -82,4 +85,75 @@ public class QuadBucketsTest {
         removeAllTest(ds);
     }
 
+    @Test
+    public void testSearchRelations() throws Exception {
+        Main.setProjection(new Mercator());
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/restriction.osm"), NullProgressMonitor.INSTANCE);
+
+        for (Node n: ds.getNodes()) {
+            n.setCoor(new LatLon(n.getCoor().lat() + 1, n.getCoor().lon() + 1));
+        }
+
+        BBox bbox = new BBox(13, 50, 16, 53);
+        List<Relation> expected = new ArrayList<Relation>();
+        for (Relation r: ds.getRelations()) {
+            if (r.getBBox().intersects(bbox)) {
+                expected.add(r);
+            }
+        }
+        List<Relation> found = ds.searchRelations(bbox);
+        Assert.assertEquals(expected.size(), found.size());
+        Assert.assertTrue(found.containsAll(expected));
+
+        removeAllTest(ds);
+    }
+
+    @Test
+    public void testBulkAdd() throws Exception {
+        Main.setProjection(new Mercator());
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/restriction.osm"), NullProgressMonitor.INSTANCE);
+
+        QuadBuckets<Node> incremental = new QuadBuckets<Node>();
+        for (Node n: ds.getNodes()) {
+            incremental.add(n);
+        }
+        QuadBuckets<Node> bulk = new QuadBuckets<Node>();
+        bulk.addAll(ds.getNodes());
+
+        Assert.assertEquals(incremental.size(), bulk.size());
+        checkIterator(bulk, incremental.size());
+        BBox bbox = new BBox(14.15, 51.12, 14.16, 51.128);
+        List<Node> expected = incremental.search(bbox);
+        List<Node> found = bulk.search(bbox);
+        Assert.assertEquals(expected.size(), found.size());
+        Assert.assertTrue(found.containsAll(expected));
+
+        for (Node n: ds.getNodes()) {
+            Assert.assertTrue(bulk.contains(n));
+            Assert.assertTrue(bulk.remove(n));
+        }
+        Assert.assertTrue(bulk.isEmpty());
+    }
+
+    @Test
+    public void testBulkAddDuplicate() {
+        Main.setProjection(new Mercator());
+        DataSet ds = new DataSet();
+        Node existing = new Node(new LatLon(0, 0));
+        ds.addPrimitive(existing);
+        Node n1 = new Node(new LatLon(1, 1));
+        Node n2 = new Node(new LatLon(2, 2));
+        try {
+            ds.addPrimitives(Arrays.asList(n1, n2, n1));
+            Assert.fail("duplicate not detected");
+        } catch (DataIntegrityProblemException e) {
+            // expected
+        }
+        Assert.assertEquals(1, ds.allPrimitives().size());
+        Assert.assertNull(n1.getDataSet());
+        Assert.assertEquals(1, ds.searchNodes(new BBox(-10, -10, 10, 10)).size());
+
+        ds.addPrimitives(Arrays.asList(n1, n2));
+        Assert.assertEquals(3, ds.allPrimitives().size());
+    }
 }
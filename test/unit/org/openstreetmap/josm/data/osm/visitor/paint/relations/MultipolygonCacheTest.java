@@ -0,0 +1,90 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint.relations;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+
+/**
+ * Tests the eviction of the {@link MultipolygonCache}. The relations are not part of a dataset,
+ * so that they are not assembled in the background and stay unbuilt.
+ */
+public class MultipolygonCacheTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    @After
+    public void tearDown() {
+        MultipolygonCache.getInstance().clear();
+    }
+
+    /**
+     * Creates a multipolygon with a closed outer way of 5 nodes
+     */
+    private static Relation createMultipolygon(double lat) {
+        Node n1 = new Node(new LatLon(lat, 0));
+        Node n2 = new Node(new LatLon(lat, 1));
+        Node n3 = new Node(new LatLon(lat + 1, 1));
+        Node n4 = new Node(new LatLon(lat + 1, 0));
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2, n3, n4, n1));
+        Relation r = new Relation();
+        r.put("type", "multipolygon");
+        r.addMember(new RelationMember("outer", w));
+        return r;
+    }
+
+    @Test
+    public void testUnbuiltCounted() {
+        Main.pref.putInteger(MultipolygonCache.PREF_KEY_MAX_NODES, 12);
+        MultipolygonCache cache = MultipolygonCache.getInstance();
+        Relation r1 = createMultipolygon(0);
+        Relation r2 = createMultipolygon(2);
+        Relation r3 = createMultipolygon(4);
+        Multipolygon m1 = cache.get(r1);
+        Multipolygon m2 = cache.get(r2);
+        cache.get(r3);
+        // the least recently used one was evicted, although none of them is built
+        assertNotSame(m1, cache.get(r1));
+        assertNotSame(m2, cache.get(r2));
+    }
+
+    @Test
+    public void testPinnedKept() {
+        Main.pref.putInteger(MultipolygonCache.PREF_KEY_MAX_NODES, 12);
+        MultipolygonCache cache = MultipolygonCache.getInstance();
+        Relation r1 = createMultipolygon(0);
+        Relation r2 = createMultipolygon(2);
+        Relation r3 = createMultipolygon(4);
+        Multipolygon m1 = cache.get(r1);
+        Multipolygon m2 = cache.get(r2);
+        cache.pin(null, Arrays.asList(r1, r2));
+        Multipolygon m3 = cache.get(r3);
+        // pinned ones are kept even if the cache exceeds its maximum
+        assertSame(m1, cache.get(r1));
+        assertSame(m2, cache.get(r2));
+        assertSame(m3, cache.get(r3));
+
+        cache.pin(null, Collections.singletonList(r3));
+        cache.get(createMultipolygon(6));
+        assertNotSame(m1, cache.get(r1));
+    }
+}
@@ -0,0 +1,161 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the package sizing of {@link MultiFetchServerObjectReader} against a local mock server.
+ */
+public class MultiFetchServerObjectReaderMockTest {
+
+    /** the ids the mock server doesn't know */
+    private static final Set<Long> MISSING = new LinkedHashSet<Long>();
+    /** the max. number of ids the mock server accepts in one request */
+    private static final int MAX_IDS = 40;
+
+    private static HttpServer server;
+    private static final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeClass
+    public static void init() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                int code = HttpURLConnection.HTTP_OK;
+                StringBuilder sb = new StringBuilder("<osm version='0.6'>");
+                if (path.endsWith("/capabilities")) {
+                    sb.append("<api><version minimum='0.6' maximum='0.6'/></api>");
+                } else {
+                    String[] ids = exchange.getRequestURI().getQuery().replaceFirst("nodes=", "").split(",");
+                    if (ids.length > MAX_IDS) {
+                        code = HttpURLConnection.HTTP_REQ_TOO_LONG;
+                    }
+                    for (String id : ids) {
+                        if (MISSING.contains(Long.valueOf(id))) {
+                            code = HttpURLConnection.HTTP_NOT_FOUND;
+                        }
+                        sb.append("<node id='").append(id).append("' version='1' lat='1' lon='2'/>");
+                    }
+                }
+                byte[] data = sb.append("</osm>").toString().getBytes("UTF-8");
+                if (code != HttpURLConnection.HTTP_OK) {
+                    exchange.sendResponseHeaders(code, -1);
+                } else {
+                    exchange.sendResponseHeaders(code, data.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(data);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        File cacheDir = File.createTempFile("multifetch", "");
+        cacheDir.delete();
+        cacheDir.deleteOnExit();
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        Main.pref.put("cache.folder", cacheDir.getPath());
+        Main.pref.put("osm-server.url", "http://localhost:" + server.getAddress().getPort() + "/api");
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static Set<Long> ids(long from, long to) {
+        Set<Long> ids = new LinkedHashSet<Long>();
+        for (long id = from; id <= to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testExtractIdPackage() {
+        String prefix = OsmApi.getOsmApi().getBaseUrl() + "relations?relations=";
+        Main.pref.putInteger("osm.multifetch.max-url-length", prefix.length() + 10 * 8);
+        try {
+            MultiFetchServerObjectReader reader = new MultiFetchServerObjectReader();
+            Set<Long> ids = ids(1000000, 1000099);
+            Set<Long> pkg = reader.extractIdPackage(ids);
+            assertEquals(10, pkg.size());
+            assertEquals(90, ids.size());
+            assertTrue(Collections.disjoint(pkg, ids));
+        } finally {
+            Main.pref.put("osm.multifetch.max-url-length", null);
+        }
+    }
+
+    @Test
+    public void testAdaptPackageSize() {
+        MultiFetchServerObjectReader reader = new MultiFetchServerObjectReader();
+        MultiFetchServerObjectReader.FetchResult result = new MultiFetchServerObjectReader.FetchResult(new DataSet(), null);
+        result.requestedIds = 200;
+        result.requestTime = 100;
+        reader.adaptPackageSize(result);
+        assertEquals(400, reader.extractIdPackage(ids(1, 1000)).size());
+
+        result.requestedIds = 400;
+        result.requestTime = 10000;
+        reader.adaptPackageSize(result);
+        assertEquals(200, reader.extractIdPackage(ids(1, 1000)).size());
+
+        // a rejected URL limits the packages
+        result.rejectedUrlLength = OsmApi.getOsmApi().getBaseUrl().length() + "relations?relations=".length() + 5 * 5;
+        reader.adaptPackageSize(result);
+        assertEquals(4, reader.extractIdPackage(ids(1000, 2000)).size());
+    }
+
+    @Test
+    public void testMissingPrimitives() throws Exception {
+        MISSING.clear();
+        MISSING.add(37L);
+        MISSING.add(150L);
+        MultiFetchServerObjectReader reader = new MultiFetchServerObjectReader();
+        for (long id = 1; id <= 200; id++) {
+            reader.append(new Node(id));
+        }
+        requests.set(0);
+        DataSet ds = reader.parseOsm(NullProgressMonitor.INSTANCE);
+        assertEquals(198, ds.getNodes().size());
+        Set<PrimitiveId> missing = new LinkedHashSet<PrimitiveId>();
+        missing.add(new SimplePrimitiveId(37, OsmPrimitiveType.NODE));
+        missing.add(new SimplePrimitiveId(150, OsmPrimitiveType.NODE));
+        assertEquals(missing, reader.getMissingPrimitives());
+        // the packages are split instead of requesting each node
+        assertTrue(requests.get() < 50);
+    }
+}
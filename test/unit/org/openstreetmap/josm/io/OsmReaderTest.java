@@ -0,0 +1,156 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+public class OsmReaderTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    private static DataSet parse(String doc, boolean streaming) throws Exception {
+        return OsmReader.parseDataSet(new ByteArrayInputStream(doc.getBytes("UTF-8")), null, streaming);
+    }
+
+    private static List<String> describe(DataSet ds) {
+        List<String> result = new ArrayList<String>();
+        for (OsmPrimitive p : ds.allPrimitives()) {
+            if (p.getUniqueId() <= 0) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(p.getType()).append(' ').append(p.getUniqueId()).append(' ').append(p.getKeys());
+            sb.append(p.isIncomplete() ? " incomplete" : "").append(p.isDeleted() ? " deleted" : "");
+            if (p instanceof Way) {
+                for (Node n : ((Way) p).getNodes()) {
+                    sb.append(' ').append(n.getUniqueId());
+                }
+            } else if (p instanceof Relation) {
+                for (RelationMember m : ((Relation) p).getMembers()) {
+                    sb.append(' ').append(m.getRole()).append(':').append(m.getType()).append(':').append(m.getUniqueId());
+                }
+            }
+            result.add(sb.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void assertSameData(DataSet expected, DataSet actual) {
+        assertEquals(expected.allPrimitives().size(), actual.allPrimitives().size());
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    private static long[] nodeIds(Way w) {
+        long[] result = new long[w.getNodesCount()];
+        for (int i=0; i<result.length; i++) {
+            result[i] = w.getNode(i).getUniqueId();
+        }
+        return result;
+    }
+
+    /**
+     * Ordered data with references to relations and forward references
+     */
+    @Test
+    public void testStreamingForwardReferences() throws Exception {
+        String doc = "<osm version='0.6'>\n"
+            + "<node id='1' version='1' lat='0.0' lon='0.0'/>\n"
+            + "<node id='2' version='1' lat='1.0' lon='1.0'/>\n"
+            + "<way id='10' version='1'><nd ref='1'/><nd ref='2'/></way>\n"
+            + "<way id='11' version='1'><nd ref='2'/><nd ref='3'/><nd ref='4'/></way>\n"
+            + "<node id='3' version='1' lat='2.0' lon='2.0'/>\n"
+            + "<relation id='20' version='1'>"
+            + "<member type='way' ref='10' role='outer'/><member type='node' ref='1' role=''/></relation>\n"
+            + "<relation id='21' version='1'>"
+            + "<member type='relation' ref='20' role='sub'/><member type='relation' ref='22' role='next'/>"
+            + "<member type='way' ref='12' role=''/></relation>\n"
+            + "<relation id='22' version='1'><member type='way' ref='11' role=''/></relation>\n"
+            + "</osm>";
+
+        DataSet ds = parse(doc, true);
+        assertSameData(parse(doc, false), ds);
+
+        Way w = (Way) ds.getPrimitiveById(11, OsmPrimitiveType.WAY);
+        assertTrue(Arrays.equals(new long[] {2, 3, 4}, nodeIds(w)));
+        assertFalse(w.getNode(1).isIncomplete());
+        assertTrue(w.getNode(2).isIncomplete());
+
+        Relation r20 = (Relation) ds.getPrimitiveById(20, OsmPrimitiveType.RELATION);
+        Relation r21 = (Relation) ds.getPrimitiveById(21, OsmPrimitiveType.RELATION);
+        assertEquals(3, r21.getMembersCount());
+        assertSame(r20, r21.getMember(0).getMember());
+        assertSame(ds.getPrimitiveById(22, OsmPrimitiveType.RELATION), r21.getMember(1).getMember());
+        assertTrue(r21.getMember(2).getMember().isIncomplete());
+        assertTrue(ds.getPrimitiveById(10, OsmPrimitiveType.WAY).getReferrers().contains(r20));
+    }
+
+    /**
+     * Deleted nodes are dropped from ways, whether the way is linked while or after parsing
+     */
+    @Test
+    public void testStreamingDeletedNodes() throws Exception {
+        String doc = "<osm version='0.6'>\n"
+            + "<node id='1' version='1' lat='0.0' lon='0.0'/>\n"
+            + "<node id='2' version='1' lat='1.0' lon='1.0' action='delete'/>\n"
+            + "<node id='3' version='1' lat='2.0' lon='2.0'/>\n"
+            + "<way id='10' version='1'><nd ref='1'/><nd ref='2'/><nd ref='3'/></way>\n"
+            + "<way id='11' version='1'><nd ref='3'/><nd ref='2'/><nd ref='4'/></way>\n"
+            + "<node id='4' version='1' lat='3.0' lon='3.0'/>\n"
+            + "</osm>";
+
+        DataSet ds = parse(doc, true);
+        assertSameData(parse(doc, false), ds);
+        assertTrue(Arrays.equals(new long[] {1, 3}, nodeIds((Way) ds.getPrimitiveById(10, OsmPrimitiveType.WAY))));
+        assertTrue(Arrays.equals(new long[] {3, 4}, nodeIds((Way) ds.getPrimitiveById(11, OsmPrimitiveType.WAY))));
+    }
+
+    @Test
+    public void testStreamingMissingNewNode() throws Exception {
+        String doc = "<osm version='0.6'>\n"
+            + "<node id='1' version='1' lat='0.0' lon='0.0'/>\n"
+            + "<way id='10' version='1'><nd ref='1'/><nd ref='-5'/></way>\n"
+            + "</osm>";
+        try {
+            parse(doc, true);
+            fail("expected IllegalDataException");
+        } catch (IllegalDataException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testStreamingLargeFile() throws Exception {
+        DataSet expected = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE, false);
+        DataSet actual = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE, true);
+        assertSameData(expected, actual);
+    }
+}
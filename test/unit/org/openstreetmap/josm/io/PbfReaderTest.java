@@ -0,0 +1,229 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+public class PbfReaderTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    private static DataSet writeAndRead(DataSet ds) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PbfWriter writer = new PbfWriter(out);
+        writer.writeData(ds);
+        writer.close();
+        return PbfReader.parseDataSet(new ByteArrayInputStream(out.toByteArray()), NullProgressMonitor.INSTANCE);
+    }
+
+    private static void assertSamePrimitive(OsmPrimitive expected, OsmPrimitive actual) {
+        assertNotNull(expected.toString(), actual);
+        assertEquals(expected.toString(), expected.getKeys(), actual.getKeys());
+        assertEquals(expected.toString(), expected.getVersion(), actual.getVersion());
+        assertEquals(expected.toString(), expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.toString(), expected.getChangesetId(), actual.getChangesetId());
+        assertEquals(expected.toString(), expected.getUser(), actual.getUser());
+        assertEquals(expected.toString(), expected.isIncomplete(), actual.isIncomplete());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        DataSet expected = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        DataSet actual = writeAndRead(expected);
+
+        assertEquals(expected.getNodes().size(), actual.getNodes().size());
+        assertEquals(expected.getWays().size(), actual.getWays().size());
+        assertEquals(expected.getRelations().size(), actual.getRelations().size());
+        assertEquals(1, actual.dataSources.size());
+
+        for (Node n : expected.getNodes()) {
+            Node copy = (Node) actual.getPrimitiveById(n);
+            assertSamePrimitive(n, copy);
+            if (!n.isIncomplete()) {
+                assertTrue(n.getCoor().equalsEpsilon(copy.getCoor()));
+            }
+        }
+        for (Way w : expected.getWays()) {
+            Way copy = (Way) actual.getPrimitiveById(w);
+            assertSamePrimitive(w, copy);
+            assertEquals(w.getNodesCount(), copy.getNodesCount());
+            for (int i=0; i<w.getNodesCount(); i++) {
+                assertEquals(w.getNode(i).getUniqueId(), copy.getNode(i).getUniqueId());
+            }
+        }
+        for (Relation r : expected.getRelations()) {
+            Relation copy = (Relation) actual.getPrimitiveById(r);
+            assertSamePrimitive(r, copy);
+            assertEquals(r.getMembersCount(), copy.getMembersCount());
+            for (int i=0; i<r.getMembersCount(); i++) {
+                RelationMember m = r.getMember(i);
+                assertEquals(m.getRole(), copy.getMember(i).getRole());
+                assertEquals(m.getType(), copy.getMember(i).getType());
+                assertEquals(m.getUniqueId(), copy.getMember(i).getUniqueId());
+            }
+        }
+    }
+
+    @Test
+    public void testNewAndDeletedPrimitives() throws Exception {
+        DataSet ds = new DataSet();
+        ds.dataSources.add(new DataSource(new Bounds(53.5, 13.2, 53.6, 13.3), "test"));
+        Node n1 = new Node(new LatLon(53.55, 13.25));
+        Node n2 = new Node(new LatLon(-33.5, -70.7));
+        Node deleted = new Node(new LatLon(1, 1));
+        n1.put("name", "über");
+        ds.addPrimitive(n1);
+        ds.addPrimitive(n2);
+        ds.addPrimitive(deleted);
+        deleted.setDeleted(true);
+        Way w = new Way();
+        w.setNodes(Arrays.asList(n1, n2, n1));
+        w.put("highway", "residential");
+        ds.addPrimitive(w);
+
+        DataSet copy = writeAndRead(ds);
+        assertEquals(2, copy.getNodes().size());
+        assertEquals(1, copy.getWays().size());
+        Way w2 = copy.getWays().iterator().next();
+        assertEquals("residential", w2.get("highway"));
+        assertEquals(3, w2.getNodesCount());
+        assertEquals(w2.getNode(0), w2.getNode(2));
+        assertEquals("über", w2.getNode(0).get("name"));
+        assertTrue(w2.getNode(1).getCoor().equalsEpsilon(new LatLon(-33.5, -70.7)));
+        assertTrue(w2.getNode(0).isNew());
+        DataSource source = copy.dataSources.iterator().next();
+        assertEquals(53.5, source.bounds.getMin().lat(), 1e-7);
+        assertEquals(13.3, source.bounds.getMax().lon(), 1e-7);
+        assertEquals("JOSM", source.origin);
+    }
+
+    private static byte[] writeGroup(PbfWriter.ProtobufOutput group) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PbfWriter writer = new PbfWriter(out);
+        writer.writeHeader(new DataSet());
+        writer.writeBlock(new PbfWriter.StringTable(), group);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] writeDenseNodes(PbfWriter.ProtobufOutput denseInfo, long... ids) throws Exception {
+        long[] coors = new long[ids.length];
+        Arrays.fill(coors, 10000000);
+        PbfWriter.ProtobufOutput dense = new PbfWriter.ProtobufOutput();
+        dense.packedField(1, ids, ids.length, true);
+        if (denseInfo != null) {
+            dense.messageField(5, denseInfo);
+        }
+        dense.packedField(8, coors, coors.length, true);
+        dense.packedField(9, coors, coors.length, true);
+        PbfWriter.ProtobufOutput group = new PbfWriter.ProtobufOutput();
+        group.messageField(2, dense);
+        return writeGroup(group);
+    }
+
+    private static byte[] writeDenseNodesWithoutInfo(long... ids) throws Exception {
+        return writeDenseNodes(null, ids);
+    }
+
+    @Test
+    public void testMissingInfo() throws Exception {
+        DataSet ds = PbfReader.parseDataSet(new ByteArrayInputStream(writeDenseNodesWithoutInfo(-1, -2)),
+                NullProgressMonitor.INSTANCE);
+        assertEquals(2, ds.getNodes().size());
+        try {
+            PbfReader.parseDataSet(new ByteArrayInputStream(writeDenseNodesWithoutInfo(1, 2)), NullProgressMonitor.INSTANCE);
+            fail("expected IllegalDataException");
+        } catch (IllegalDataException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testPartialDenseInfo() throws Exception {
+        // only versions and visible flags, no timestamps, changesets or users
+        PbfWriter.ProtobufOutput info = new PbfWriter.ProtobufOutput();
+        info.packedField(1, new long[] {3, 5}, 2, false);
+        info.packedField(6, new long[] {1, 0}, 2, false);
+        DataSet ds = PbfReader.parseDataSet(new ByteArrayInputStream(writeDenseNodes(info, 1, 2)),
+                NullProgressMonitor.INSTANCE);
+        Node n1 = (Node) ds.getPrimitiveById(1, OsmPrimitiveType.NODE);
+        Node n2 = (Node) ds.getPrimitiveById(2, OsmPrimitiveType.NODE);
+        assertEquals(3, n1.getVersion());
+        assertEquals(5, n2.getVersion());
+        assertTrue(n1.isVisible());
+        assertFalse(n2.isVisible());
+        assertEquals(0, n1.getChangesetId());
+
+        PbfWriter.ProtobufOutput wrongLength = new PbfWriter.ProtobufOutput();
+        wrongLength.packedField(1, new long[] {3}, 1, false);
+        try {
+            PbfReader.parseDataSet(new ByteArrayInputStream(writeDenseNodes(wrongLength, 1, 2)), NullProgressMonitor.INSTANCE);
+            fail("expected IllegalDataException");
+        } catch (IllegalDataException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testInvisibleNode() throws Exception {
+        PbfWriter.ProtobufOutput info = new PbfWriter.ProtobufOutput();
+        info.varintField(1, 2);
+        info.varintField(6, 0);
+        PbfWriter.ProtobufOutput node = new PbfWriter.ProtobufOutput();
+        node.sintField(1, 42);
+        node.messageField(4, info);
+        node.sintField(8, 10000000);
+        node.sintField(9, 10000000);
+        PbfWriter.ProtobufOutput group = new PbfWriter.ProtobufOutput();
+        group.messageField(1, node);
+        DataSet ds = PbfReader.parseDataSet(new ByteArrayInputStream(writeGroup(group)), NullProgressMonitor.INSTANCE);
+        Node n = (Node) ds.getPrimitiveById(42, OsmPrimitiveType.NODE);
+        assertEquals(2, n.getVersion());
+        assertFalse(n.isVisible());
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        DataSet ds = OsmReader.parseDataSet(new FileInputStream("data_nodist/restriction.osm"), NullProgressMonitor.INSTANCE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PbfWriter writer = new PbfWriter(out);
+        writer.writeData(ds);
+        writer.close();
+        byte[] data = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+        try {
+            PbfReader.parseDataSet(new ByteArrayInputStream(data), NullProgressMonitor.INSTANCE);
+            fail("expected IllegalDataException");
+        } catch (IllegalDataException e) {
+            // OK
+        }
+    }
+}